@@ -9,17 +9,24 @@ import com.jogamp.opengl.GL4;
 /**
  * Manages an OpenGL bindless texture object. This requires at least GL 4.4 to work.
  * The texture will be kept resident throughout the existence of this object,
- * until the dispose method is called.
+ * until the dispose method is called. Textures have a full mipmap chain and
+ * are sampled trilinearly, with anisotropic filtering where the device supports
+ * it, so they can be minified without aliasing instead of being redrawn.
  */
-public class ZZBindlessTexture 
+public class ZZBindlessTexture implements ZZTexture
 {
 	private static Object m_sync = new Object();
 	
+	// Upper limit for anisotropic filtering, 0 until queried, 1 if unsupported
+	private static float maxAnisotropy = 0.0f;
+	private static final float ANISOTROPY_LIMIT = 4.0f;
+	
 	private final GL4 gl;						// Current GL context
 	private long id = -1;						// 64 bit texture ID used in shaders
 	private final int[] glTexture = new int[1];	// Texture handle
 	
 	private final short width, height;
+	private final int levels;
 	
 	public ZZBindlessTexture(GL4 gl, byte[] data, short width, short height, int storageFormat, int pixelFormat, int componentFormat)
 	{
@@ -28,16 +35,20 @@ public class ZZBindlessTexture
 			this.gl = gl;
 			this.width = width;
 			this.height = height;
+			this.levels = mipLevels(width, height);
 			
 			gl.glGenTextures(1, glTexture, 0);
 			gl.glBindTexture(GL4.GL_TEXTURE_2D, glTexture[0]);
 			{
-				gl.glTexStorage2D(GL4.GL_TEXTURE_2D, 1, storageFormat, width, height);
+				gl.glTexStorage2D(GL4.GL_TEXTURE_2D, levels, storageFormat, width, height);
+				setSampling();
 				
 				gl.glTexSubImage2D(GL4.GL_TEXTURE_2D, 0, 
 								   0, 0, width, height, 
 								   pixelFormat, componentFormat, 
 								   ByteBuffer.wrap(data));
+				if (levels > 1)
+					gl.glGenerateMipmap(GL4.GL_TEXTURE_2D);
 				
 				this.id = gl.glGetTextureHandleARB(glTexture[0]);
 				gl.glMakeTextureHandleResidentARB(this.id);
@@ -49,6 +60,126 @@ public class ZZBindlessTexture
 		}
 	}
 	
+	/**
+	 * Allocates storage for a texture whose contents are uploaded later,
+	 * e. g. by ZZTextureUploader. Only the base level is uploaded, the
+	 * texture gets its mipmaps and its ID once makeResident has been called.
+	 * 
+	 * @param gl Context the texture will be used in
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @param storageFormat Internal format, e. g. GL_RGBA8
+	 */
+	public ZZBindlessTexture(GL4 gl, short width, short height, int storageFormat)
+	{
+		synchronized (m_sync)
+		{
+			this.gl = gl;
+			this.width = width;
+			this.height = height;
+			this.levels = mipLevels(width, height);
+			
+			gl.glGenTextures(1, glTexture, 0);
+			gl.glBindTexture(GL4.GL_TEXTURE_2D, glTexture[0]);
+			gl.glTexStorage2D(GL4.GL_TEXTURE_2D, levels, storageFormat, width, height);
+			setSampling();
+			gl.glBindTexture(GL4.GL_TEXTURE_2D, 0);
+		}
+	}
+	
+	/**
+	 * Generates mipmaps from the base level, then gets the bindless handle 
+	 * for the texture and makes it resident in the context the texture was 
+	 * created for. Must only be called on that context's thread, once the 
+	 * base level is complete, as the contents can't change afterwards.
+	 */
+	public void makeResident()
+	{
+		synchronized (m_sync)
+		{
+			if (this.id != -1 || glTexture[0] == 0)
+				return;
+			
+			if (levels > 1)
+			{
+				gl.glBindTexture(GL4.GL_TEXTURE_2D, glTexture[0]);
+				gl.glGenerateMipmap(GL4.GL_TEXTURE_2D);
+				gl.glBindTexture(GL4.GL_TEXTURE_2D, 0);
+			}
+			
+			this.id = gl.glGetTextureHandleARB(glTexture[0]);
+			gl.glMakeTextureHandleResidentARB(this.id);
+		}
+	}
+	
+	/**
+	 * Gets the number of levels in a full mipmap chain for the given size.
+	 * 
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return Number of mipmap levels, including the base level
+	 */
+	private static int mipLevels(int width, int height)
+	{
+		return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+	}
+	
+	/**
+	 * Gets the device memory a texture of the given size takes up with its
+	 * mipmaps, i. e. about 4/3 of the base level. GLMemoryLimit charges and 
+	 * frees bindless texture memory by this amount, see 
+	 * ZZTextureAtlas.getMemorySize for atlas regions.
+	 * 
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return Size in bytes for RGBA8 texels
+	 */
+	public static long getMemorySize(int width, int height)
+	{
+		long size = 0;
+		int levels = mipLevels(width, height);
+		for (int level = 0; level < levels; level++)
+			size += (long)Math.max(1, width >> level) * (long)Math.max(1, height >> level) * 4L;
+		
+		return size;
+	}
+	
+	/**
+	 * Sets up trilinear and anisotropic filtering for the texture bound to
+	 * GL_TEXTURE_2D. Has to happen before the handle is created, which 
+	 * freezes the sampling state.
+	 */
+	private void setSampling()
+	{
+		gl.glTexParameteri(GL4.GL_TEXTURE_2D, GL4.GL_TEXTURE_MIN_FILTER, levels > 1 ? GL4.GL_LINEAR_MIPMAP_LINEAR : GL4.GL_LINEAR);
+		gl.glTexParameteri(GL4.GL_TEXTURE_2D, GL4.GL_TEXTURE_MAG_FILTER, GL4.GL_LINEAR);
+		gl.glTexParameteri(GL4.GL_TEXTURE_2D, GL4.GL_TEXTURE_WRAP_S, GL4.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL4.GL_TEXTURE_2D, GL4.GL_TEXTURE_WRAP_T, GL4.GL_CLAMP_TO_EDGE);
+		
+		if (maxAnisotropy == 0.0f)
+		{
+			maxAnisotropy = 1.0f;
+			if (gl.isExtensionAvailable("GL_EXT_texture_filter_anisotropic"))
+			{
+				float[] limit = new float[1];
+				gl.glGetFloatv(GL4.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, limit, 0);
+				maxAnisotropy = Math.max(1.0f, Math.min(limit[0], ANISOTROPY_LIMIT));
+			}
+		}
+		if (maxAnisotropy > 1.0f && levels > 1)
+			gl.glTexParameterf(GL4.GL_TEXTURE_2D, GL4.GL_TEXTURE_MAX_ANISOTROPY_EXT, maxAnisotropy);
+	}
+	
+	/**
+	 * Gets the name of the underlying GL texture object.
+	 * 
+	 * @return Texture object name
+	 */
+	public int getName()
+	{
+		return glTexture[0];
+	}
+	
 	/**
 	 * Gets the texture ID used to refer to it in shaders.
 	 * 
@@ -86,11 +217,13 @@ public class ZZBindlessTexture
 	{
 		synchronized (m_sync)
 		{
-			if (this.id == -1)
+			if (glTexture[0] == 0)
 				return;
 			
-			gl.glMakeTextureHandleNonResidentARB(this.id);
+			if (this.id != -1)
+				gl.glMakeTextureHandleNonResidentARB(this.id);
 			gl.glDeleteTextures(1, glTexture, 0);
+			glTexture[0] = 0;
 			this.id = -1;
 			//GLMemoryLimit.freeMemory((long)width * (long)height * (long)4);
 			
@@ -0,0 +1,679 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.zugzwang.internal.algebra.*;
+
+/**
+ * Dynamic bounding volume hierarchy over axis-aligned boxes. Leaves store
+ * enlarged ("fat") boxes, so items that move a little don't need to be
+ * reinserted. Items that do move out of their box are removed and inserted
+ * again, and the tree is kept balanced by rotations on the way up. Queries
+ * against a view frustum only descend into subtrees that intersect it, and
+ * collect subtrees entirely inside it without testing them any further.
+ * Not thread-safe; callers synchronize access.
+ *
+ * @param <T> Type of the items stored in leaves
+ */
+public class ZZBoundsTree<T>
+{
+	private static final int NULL = -1;
+
+	// Leaf boxes are enlarged by a fraction of their extent plus a constant margin
+	private static final float FAT_FACTOR = 0.1f;
+	private static final float FAT_MARGIN = 1.0f;
+
+	// Per node: box as min XYZ and max XYZ, tree links, subtree height, and item for leaves.
+	// Free nodes are chained through parent and have height -1.
+	private float[] boxes;
+	private int[] parent, child1, child2, height;
+	private Object[] items;
+
+	private int root = NULL;
+	private int freeList = NULL;
+	private int leaves = 0;
+
+	public ZZBoundsTree()
+	{
+		boxes = new float[0];
+		parent = new int[0];
+		child1 = new int[0];
+		child2 = new int[0];
+		height = new int[0];
+		items = new Object[0];
+
+		grow(16);
+	}
+
+	/**
+	 * Gets the number of items in the tree.
+	 *
+	 * @return Number of items
+	 */
+	public int size()
+	{
+		return leaves;
+	}
+
+	/**
+	 * Inserts an item with spherical bounds.
+	 *
+	 * @param item Item to insert
+	 * @param center Center of the bounds
+	 * @param radius Radius of the bounds
+	 * @return Proxy ID used to move or remove the item later
+	 */
+	public int insert(T item, Vector3 center, float radius)
+	{
+		int leaf = allocateNode();
+		setFatBox(leaf, center, radius);
+		items[leaf] = item;
+		height[leaf] = 0;
+
+		insertLeaf(leaf);
+		leaves++;
+
+		return leaf;
+	}
+
+	/**
+	 * Removes an item.
+	 *
+	 * @param proxy Proxy ID returned by insert
+	 */
+	public void remove(int proxy)
+	{
+		removeLeaf(proxy);
+		freeNode(proxy);
+		leaves--;
+	}
+
+	/**
+	 * Updates an item's bounds. The tree only changes if the new bounds
+	 * don't fit into the item's fat box anymore, or if the box has become
+	 * much larger than needed.
+	 *
+	 * @param proxy Proxy ID returned by insert
+	 * @param center New center of the bounds
+	 * @param radius New radius of the bounds
+	 * @return True if the item had to be reinserted
+	 */
+	public boolean move(int proxy, Vector3 center, float radius)
+	{
+		int b = proxy * 6;
+		float fatRadius = radius * (1.0f + FAT_FACTOR) + FAT_MARGIN;
+		if (center.x - radius >= boxes[b] && center.y - radius >= boxes[b + 1] && center.z - radius >= boxes[b + 2] &&
+			center.x + radius <= boxes[b + 3] && center.y + radius <= boxes[b + 4] && center.z + radius <= boxes[b + 5] &&
+			boxes[b + 3] - boxes[b] <= 4.0f * fatRadius)
+			return false;
+
+		removeLeaf(proxy);
+		setFatBox(proxy, center, radius);
+		insertLeaf(proxy);
+
+		return true;
+	}
+
+	/**
+	 * Gets the item stored for a proxy.
+	 *
+	 * @param proxy Proxy ID returned by insert
+	 * @return Stored item
+	 */
+	@SuppressWarnings("unchecked")
+	public T getItem(int proxy)
+	{
+		return (T)items[proxy];
+	}
+
+	/**
+	 * Gets a box that contains all items, which is slightly larger
+	 * than necessary because leaves store fat boxes.
+	 *
+	 * @return Min and max corners, or null if the tree is empty
+	 */
+	public Vector3[] getBounds()
+	{
+		if (root == NULL)
+			return null;
+
+		int b = root * 6;
+		return new Vector3[] { new Vector3(boxes[b], boxes[b + 1], boxes[b + 2]),
+							   new Vector3(boxes[b + 3], boxes[b + 4], boxes[b + 5]) };
+	}
+
+	/**
+	 * Collects all items whose boxes intersect the frustum described by the given planes.
+	 * The result is conservative, i. e. it can contain items slightly outside the frustum.
+	 * Passing only the first 4 planes leaves the near and far planes out of the test.
+	 *
+	 * @param planes Frustum planes as returned by frustumPlanes
+	 * @param result List the items are added to
+	 */
+	@SuppressWarnings("unchecked")
+	public void query(float[] planes, List<? super T> result)
+	{
+		if (root == NULL)
+			return;
+
+		int[] stack = new int[64];
+		boolean[] inside = new boolean[64];		// Whether the subtree is known to be entirely inside
+		int top = 0;
+		stack[top] = root;
+		inside[top++] = false;
+
+		while (top > 0)
+		{
+			int node = stack[--top];
+			boolean nodeInside = inside[top];
+
+			if (!nodeInside)
+			{
+				int test = testFrustum(node, planes);
+				if (test < 0)
+					continue;
+				nodeInside = test > 0;
+			}
+
+			if (child1[node] == NULL)
+			{
+				result.add((T)items[node]);
+				continue;
+			}
+
+			if (top + 2 > stack.length)
+			{
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				inside = Arrays.copyOf(inside, inside.length * 2);
+			}
+			stack[top] = child1[node];
+			inside[top++] = nodeInside;
+			stack[top] = child2[node];
+			inside[top++] = nodeInside;
+		}
+	}
+
+	/**
+	 * Collects all items whose boxes are hit by a ray. Boxes are fat, so the
+	 * result is conservative and items need to be tested individually.
+	 *
+	 * @param ray Ray to test with, the direction doesn't need to be normalized
+	 * @param result List the items are added to
+	 */
+	@SuppressWarnings("unchecked")
+	public void queryRay(Ray3 ray, List<? super T> result)
+	{
+		if (root == NULL)
+			return;
+
+		float[] origin = new float[] { ray.origin.x, ray.origin.y, ray.origin.z };
+		float[] inverse = new float[] { 1.0f / ray.direction.x, 1.0f / ray.direction.y, 1.0f / ray.direction.z };
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = root;
+
+		while (top > 0)
+		{
+			int node = stack[--top];
+
+			// Slab test, infinite inverses take care of axis-parallel rays
+			int b = node * 6;
+			float near = 0.0f, far = Float.MAX_VALUE;
+			for (int k = 0; k < 3 && near <= far; k++)
+			{
+				float t1 = (boxes[b + k] - origin[k]) * inverse[k];
+				float t2 = (boxes[b + 3 + k] - origin[k]) * inverse[k];
+				if (Float.isNaN(t1) || Float.isNaN(t2))	// Parallel and on a slab boundary
+					continue;
+				near = Math.max(near, Math.min(t1, t2));
+				far = Math.min(far, Math.max(t1, t2));
+			}
+			if (near > far)
+				continue;
+
+			if (child1[node] == NULL)
+			{
+				result.add((T)items[node]);
+				continue;
+			}
+
+			if (top + 2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[top++] = child1[node];
+			stack[top++] = child2[node];
+		}
+	}
+
+	/**
+	 * Finds the range of depths along a direction covered by items within
+	 * the given planes. This is a branch and bound search: subtrees whose
+	 * depth range lies within what has been found so far can't widen it
+	 * and are skipped, so only few paths down the tree are followed.
+	 * Boxes are fat, so the range is slightly wider than necessary.
+	 *
+	 * @param planes Frustum planes as returned by frustumPlanes, usually only the side planes
+	 * @param origin Point depth is measured from, e. g. the camera position
+	 * @param direction Normalized direction depth is measured along
+	 * @param minDepth Items entirely closer than this are ignored, and the range is clamped to it
+	 * @return Minimum and maximum depth, or null if no item is within the planes and beyond minDepth
+	 */
+	public float[] depthRange(float[] planes, Vector3 origin, Vector3 direction, float minDepth)
+	{
+		if (root == NULL)
+			return null;
+
+		float near = Float.MAX_VALUE, far = -Float.MAX_VALUE;
+
+		int[] stack = new int[64];
+		boolean[] inside = new boolean[64];
+		int top = 0;
+		stack[top] = root;
+		inside[top++] = false;
+
+		while (top > 0)
+		{
+			int node = stack[--top];
+			boolean nodeInside = inside[top];
+
+			// Depth of the box center, plus or minus the box's half extent along the direction
+			int b = node * 6;
+			float centerDepth = ((boxes[b] + boxes[b + 3]) * 0.5f - origin.x) * direction.x +
+								((boxes[b + 1] + boxes[b + 4]) * 0.5f - origin.y) * direction.y +
+								((boxes[b + 2] + boxes[b + 5]) * 0.5f - origin.z) * direction.z;
+			float halfDepth = (boxes[b + 3] - boxes[b]) * 0.5f * Math.abs(direction.x) +
+							  (boxes[b + 4] - boxes[b + 1]) * 0.5f * Math.abs(direction.y) +
+							  (boxes[b + 5] - boxes[b + 2]) * 0.5f * Math.abs(direction.z);
+			float low = Math.max(centerDepth - halfDepth, minDepth), high = centerDepth + halfDepth;
+
+			if (high <= minDepth || (low >= near && high <= far))
+				continue;
+
+			if (!nodeInside)
+			{
+				int test = testFrustum(node, planes);
+				if (test < 0)
+					continue;
+				nodeInside = test > 0;
+			}
+
+			if (child1[node] == NULL)
+			{
+				near = Math.min(near, low);
+				far = Math.max(far, high);
+				continue;
+			}
+
+			if (top + 2 > stack.length)
+			{
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				inside = Arrays.copyOf(inside, inside.length * 2);
+			}
+			stack[top] = child1[node];
+			inside[top++] = nodeInside;
+			stack[top] = child2[node];
+			inside[top++] = nodeInside;
+		}
+
+		return near <= far ? new float[] { near, far } : null;
+	}
+
+	/**
+	 * Extracts the 6 planes of the view frustum from a view projection matrix.
+	 * Plane normals point inside, so points inside the frustum have
+	 * non-negative distance to all of them. The side planes come first,
+	 * they don't depend on the clipping range.
+	 *
+	 * @param m Combined view and projection matrix
+	 * @return 6 planes, as 4 coefficients each
+	 */
+	public static float[] frustumPlanes(Matrix4 m)
+	{
+		float[] planes = new float[]
+		{
+			m.e41 + m.e11, m.e42 + m.e12, m.e43 + m.e13, m.e44 + m.e14,		// Left
+			m.e41 - m.e11, m.e42 - m.e12, m.e43 - m.e13, m.e44 - m.e14,		// Right
+			m.e41 + m.e21, m.e42 + m.e22, m.e43 + m.e23, m.e44 + m.e24,		// Bottom
+			m.e41 - m.e21, m.e42 - m.e22, m.e43 - m.e23, m.e44 - m.e24,		// Top
+			m.e41 + m.e31, m.e42 + m.e32, m.e43 + m.e33, m.e44 + m.e34,		// Near
+			m.e41 - m.e31, m.e42 - m.e32, m.e43 - m.e33, m.e44 - m.e34		// Far
+		};
+
+		return planes;
+	}
+
+	/**
+	 * Tests a node's box against frustum planes.
+	 *
+	 * @param node Node to test
+	 * @param planes Frustum planes
+	 * @return -1 if outside, 1 if entirely inside, 0 if intersecting
+	 */
+	private int testFrustum(int node, float[] planes)
+	{
+		int b = node * 6;
+		boolean allInside = true;
+
+		for (int p = 0; p + 3 < planes.length; p += 4)
+		{
+			float a = planes[p], bb = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+
+			// Corner furthest along the normal, and the one furthest against it
+			float farthest = a * (a >= 0 ? boxes[b + 3] : boxes[b]) +
+							 bb * (bb >= 0 ? boxes[b + 4] : boxes[b + 1]) +
+							 c * (c >= 0 ? boxes[b + 5] : boxes[b + 2]) + d;
+			if (farthest < 0)
+				return -1;
+
+			float nearest = a * (a >= 0 ? boxes[b] : boxes[b + 3]) +
+							bb * (bb >= 0 ? boxes[b + 1] : boxes[b + 4]) +
+							c * (c >= 0 ? boxes[b + 2] : boxes[b + 5]) + d;
+			if (nearest < 0)
+				allInside = false;
+		}
+
+		return allInside ? 1 : 0;
+	}
+
+	private void setFatBox(int node, Vector3 center, float radius)
+	{
+		float fatRadius = radius * (1.0f + FAT_FACTOR) + FAT_MARGIN;
+		int b = node * 6;
+		boxes[b] = center.x - fatRadius;
+		boxes[b + 1] = center.y - fatRadius;
+		boxes[b + 2] = center.z - fatRadius;
+		boxes[b + 3] = center.x + fatRadius;
+		boxes[b + 4] = center.y + fatRadius;
+		boxes[b + 5] = center.z + fatRadius;
+	}
+
+	/**
+	 * Sets a node's box to the union of two others.
+	 */
+	private void setUnion(int node, int a, int b)
+	{
+		int n = node * 6, i = a * 6, j = b * 6;
+		for (int k = 0; k < 3; k++)
+		{
+			boxes[n + k] = Math.min(boxes[i + k], boxes[j + k]);
+			boxes[n + 3 + k] = Math.max(boxes[i + 3 + k], boxes[j + 3 + k]);
+		}
+	}
+
+	/**
+	 * Gets half the surface area of a node's box.
+	 */
+	private float area(int node)
+	{
+		int b = node * 6;
+		float dx = boxes[b + 3] - boxes[b], dy = boxes[b + 4] - boxes[b + 1], dz = boxes[b + 5] - boxes[b + 2];
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	/**
+	 * Gets half the surface area of the union of two nodes' boxes.
+	 */
+	private float unionArea(int a, int b)
+	{
+		int i = a * 6, j = b * 6;
+		float dx = Math.max(boxes[i + 3], boxes[j + 3]) - Math.min(boxes[i], boxes[j]);
+		float dy = Math.max(boxes[i + 4], boxes[j + 4]) - Math.min(boxes[i + 1], boxes[j + 1]);
+		float dz = Math.max(boxes[i + 5], boxes[j + 5]) - Math.min(boxes[i + 2], boxes[j + 2]);
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	private void insertLeaf(int leaf)
+	{
+		if (root == NULL)
+		{
+			root = leaf;
+			parent[root] = NULL;
+			return;
+		}
+
+		// Find the best sibling by the surface area heuristic
+		int index = root;
+		while (child1[index] != NULL)
+		{
+			int c1 = child1[index], c2 = child2[index];
+
+			float area = area(index);
+			float combinedArea = unionArea(index, leaf);
+
+			// Cost of creating a new parent for this node and the new leaf,
+			// and minimum cost of pushing the leaf further down the tree
+			float cost = 2.0f * combinedArea;
+			float inheritanceCost = 2.0f * (combinedArea - area);
+
+			float cost1 = unionArea(leaf, c1) + inheritanceCost;
+			if (child1[c1] != NULL)
+				cost1 -= area(c1);
+			float cost2 = unionArea(leaf, c2) + inheritanceCost;
+			if (child1[c2] != NULL)
+				cost2 -= area(c2);
+
+			if (cost < cost1 && cost < cost2)
+				break;
+
+			index = cost1 < cost2 ? c1 : c2;
+		}
+		int sibling = index;
+
+		// Create a new parent for the leaf and its sibling
+		int oldParent = parent[sibling];
+		int newParent = allocateNode();
+		parent[newParent] = oldParent;
+		items[newParent] = null;
+		setUnion(newParent, leaf, sibling);
+		height[newParent] = height[sibling] + 1;
+
+		if (oldParent != NULL)
+		{
+			if (child1[oldParent] == sibling)
+				child1[oldParent] = newParent;
+			else
+				child2[oldParent] = newParent;
+		}
+		else
+		{
+			root = newParent;
+		}
+		child1[newParent] = sibling;
+		child2[newParent] = leaf;
+		parent[sibling] = newParent;
+		parent[leaf] = newParent;
+
+		refitUpwards(parent[leaf]);
+	}
+
+	private void removeLeaf(int leaf)
+	{
+		if (leaf == root)
+		{
+			root = NULL;
+			return;
+		}
+
+		int oldParent = parent[leaf];
+		int grandParent = parent[oldParent];
+		int sibling = child1[oldParent] == leaf ? child2[oldParent] : child1[oldParent];
+
+		if (grandParent != NULL)
+		{
+			// Replace the parent with the sibling
+			if (child1[grandParent] == oldParent)
+				child1[grandParent] = sibling;
+			else
+				child2[grandParent] = sibling;
+			parent[sibling] = grandParent;
+			freeNode(oldParent);
+
+			refitUpwards(grandParent);
+		}
+		else
+		{
+			root = sibling;
+			parent[sibling] = NULL;
+			freeNode(oldParent);
+		}
+	}
+
+	/**
+	 * Rebalances and refits boxes and heights from a node up to the root.
+	 */
+	private void refitUpwards(int index)
+	{
+		while (index != NULL)
+		{
+			index = balance(index);
+
+			int c1 = child1[index], c2 = child2[index];
+			height[index] = 1 + Math.max(height[c1], height[c2]);
+			setUnion(index, c1, c2);
+
+			index = parent[index];
+		}
+	}
+
+	/**
+	 * Performs a left or right rotation if node A is imbalanced.
+	 *
+	 * @return Index of the node now at A's position
+	 */
+	private int balance(int iA)
+	{
+		if (child1[iA] == NULL || height[iA] < 2)
+			return iA;
+
+		int iB = child1[iA], iC = child2[iA];
+		int balance = height[iC] - height[iB];
+
+		if (balance > 1)		// Rotate C up
+		{
+			int iF = child1[iC], iG = child2[iC];
+
+			child1[iC] = iA;
+			parent[iC] = parent[iA];
+			parent[iA] = iC;
+			replaceChild(parent[iC], iA, iC);
+
+			if (height[iF] > height[iG])
+			{
+				child2[iC] = iF;
+				child2[iA] = iG;
+				parent[iG] = iA;
+				setUnion(iA, iB, iG);
+				setUnion(iC, iA, iF);
+				height[iA] = 1 + Math.max(height[iB], height[iG]);
+				height[iC] = 1 + Math.max(height[iA], height[iF]);
+			}
+			else
+			{
+				child2[iC] = iG;
+				child2[iA] = iF;
+				parent[iF] = iA;
+				setUnion(iA, iB, iF);
+				setUnion(iC, iA, iG);
+				height[iA] = 1 + Math.max(height[iB], height[iF]);
+				height[iC] = 1 + Math.max(height[iA], height[iG]);
+			}
+
+			return iC;
+		}
+
+		if (balance < -1)		// Rotate B up
+		{
+			int iD = child1[iB], iE = child2[iB];
+
+			child1[iB] = iA;
+			parent[iB] = parent[iA];
+			parent[iA] = iB;
+			replaceChild(parent[iB], iA, iB);
+
+			if (height[iD] > height[iE])
+			{
+				child2[iB] = iD;
+				child1[iA] = iE;
+				parent[iE] = iA;
+				setUnion(iA, iC, iE);
+				setUnion(iB, iA, iD);
+				height[iA] = 1 + Math.max(height[iC], height[iE]);
+				height[iB] = 1 + Math.max(height[iA], height[iD]);
+			}
+			else
+			{
+				child2[iB] = iE;
+				child1[iA] = iD;
+				parent[iD] = iA;
+				setUnion(iA, iC, iD);
+				setUnion(iB, iA, iE);
+				height[iA] = 1 + Math.max(height[iC], height[iD]);
+				height[iB] = 1 + Math.max(height[iA], height[iE]);
+			}
+
+			return iB;
+		}
+
+		return iA;
+	}
+
+	/**
+	 * Points a parent, or the root if there is none, to a new child.
+	 */
+	private void replaceChild(int parentNode, int oldChild, int newChild)
+	{
+		if (parentNode == NULL)
+			root = newChild;
+		else if (child1[parentNode] == oldChild)
+			child1[parentNode] = newChild;
+		else
+			child2[parentNode] = newChild;
+	}
+
+	private int allocateNode()
+	{
+		if (freeList == NULL)
+			grow(parent.length * 2);
+
+		int node = freeList;
+		freeList = parent[node];
+
+		parent[node] = NULL;
+		child1[node] = NULL;
+		child2[node] = NULL;
+		height[node] = 0;
+
+		return node;
+	}
+
+	private void freeNode(int node)
+	{
+		items[node] = null;
+		height[node] = -1;
+		parent[node] = freeList;
+		freeList = node;
+	}
+
+	/**
+	 * Enlarges node storage and chains the new nodes into the free list.
+	 */
+	private void grow(int newCapacity)
+	{
+		int oldCapacity = parent.length;
+
+		boxes = Arrays.copyOf(boxes, newCapacity * 6);
+		parent = Arrays.copyOf(parent, newCapacity);
+		child1 = Arrays.copyOf(child1, newCapacity);
+		child2 = Arrays.copyOf(child2, newCapacity);
+		height = Arrays.copyOf(height, newCapacity);
+		items = Arrays.copyOf(items, newCapacity);
+
+		for (int i = newCapacity - 1; i >= oldCapacity; i--)
+		{
+			height[i] = -1;
+			parent[i] = freeList;
+			freeList = i;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Order primitive managers restore in their buffers when compacting.
+ * Deleting a primitive moves the last one into the gap, so over time
+ * buffer order stops reflecting anything useful. Compaction re-sorts
+ * the buffers so that primitives close in space, or primitives sharing
+ * a texture, end up next to each other again.
+ */
+public enum ZZBufferOrder
+{
+	/** Buffers are never re-sorted */
+	NONE,
+	/** Primitives are sorted along a Morton curve through their positions */
+	SPATIAL,
+	/** Primitives using the same texture are grouped together */
+	TEXTURE;
+
+	// Bits per axis of quantized positions, 3 of them fit into a 32 bit key
+	private static final int MORTON_BITS = 10;
+
+	/**
+	 * Gets the order of elements along a Morton curve through their
+	 * positions, quantized within their common bounding box.
+	 *
+	 * @param positions Element positions, 3 floats per element
+	 * @param count Number of elements
+	 * @return Old positions in the buffer, in their new order
+	 */
+	public static int[] spatialOrder(float[] positions, int count)
+	{
+		float[] min = new float[] { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = new float[] { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0; i < count; i++)
+			for (int axis = 0; axis < 3; axis++)
+			{
+				min[axis] = Math.min(min[axis], positions[i * 3 + axis]);
+				max[axis] = Math.max(max[axis], positions[i * 3 + axis]);
+			}
+
+		float[] scale = new float[3];
+		for (int axis = 0; axis < 3; axis++)
+			scale[axis] = max[axis] > min[axis] ? ((1 << MORTON_BITS) - 1) / (max[axis] - min[axis]) : 0.0f;
+
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			long code = 0;
+			for (int axis = 0; axis < 3; axis++)
+			{
+				int quantized = (int)((positions[i * 3 + axis] - min[axis]) * scale[axis]);
+				code |= spreadBits(quantized) << axis;
+			}
+			keys[i] = code;
+		}
+
+		return sortedOrder(keys);
+	}
+
+	/**
+	 * Gets an order of elements in which equal textures are adjacent.
+	 *
+	 * @param textures Bindless texture handle of each element
+	 * @param count Number of elements
+	 * @return Old positions in the buffer, in their new order
+	 */
+	public static int[] textureOrder(long[] textures, int count)
+	{
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++)
+			keys[i] = (textures[i] ^ (textures[i] >>> 32)) & 0xFFFFFFFFL;	// Equal handles get equal keys
+
+		return sortedOrder(keys);
+	}
+
+	/**
+	 * Sorts element indices by 32 bit keys. Key and index are packed
+	 * into a single long, so sorting doesn't box anything and is stable.
+	 *
+	 * @param keys Sort key for each element
+	 * @return Element indices sorted by key
+	 */
+	private static int[] sortedOrder(long[] keys)
+	{
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = (keys[i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			order[i] = (int)keys[i];
+
+		return order;
+	}
+
+	/**
+	 * Inserts two zero bits after each of the lower 10 bits of a value.
+	 *
+	 * @param value Value to spread
+	 * @return Value with bits 3 positions apart
+	 */
+	private static long spreadBits(int value)
+	{
+		long x = value & ((1 << MORTON_BITS) - 1);
+		x = (x | (x << 16)) & 0x030000FFL;
+		x = (x | (x << 8)) & 0x0300F00FL;
+		x = (x | (x << 4)) & 0x030C30C3L;
+		x = (x | (x << 2)) & 0x09249249L;
+		return x;
+	}
+}
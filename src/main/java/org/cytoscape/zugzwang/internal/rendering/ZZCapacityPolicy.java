@@ -0,0 +1,77 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+/**
+ * Decides when primitive managers grow or shrink their buffers.
+ * Growing happens immediately by a constant factor. Shrinking only
+ * happens once occupancy has stayed well below capacity for a number
+ * of frames without any creation or deletion, so that repeatedly hiding
+ * and showing primitives doesn't make buffers oscillate in size.
+ */
+public class ZZCapacityPolicy
+{
+	private final float growFactor;		// Capacity is multiplied by this when full
+	private final float shrinkBelow;	// Occupancy ratio below which shrinking is considered
+	private final int idleFrames;		// Frames without creation/deletion before shrinking
+	private final int minCapacity;		// Capacity never goes below this
+
+	/**
+	 * Creates a policy with default parameters: grow by 50 %, shrink once
+	 * occupancy has been below 25 % for 60 idle frames, keep at least 10 slots.
+	 */
+	public ZZCapacityPolicy()
+	{
+		this(1.5f, 0.25f, 60, 10);
+	}
+
+	/**
+	 * Creates a policy with custom parameters.
+	 *
+	 * @param growFactor Factor by which full buffers are enlarged, must be > 1
+	 * @param shrinkBelow Occupancy ratio below which buffers may shrink, must be < 1 / growFactor
+	 * @param idleFrames Number of frames without creation or deletion before shrinking
+	 * @param minCapacity Minimum buffer capacity
+	 */
+	public ZZCapacityPolicy(float growFactor, float shrinkBelow, int idleFrames, int minCapacity)
+	{
+		this.growFactor = Math.max(1.1f, growFactor);
+		this.shrinkBelow = Math.min(shrinkBelow, 0.9f / this.growFactor);
+		this.idleFrames = Math.max(0, idleFrames);
+		this.minCapacity = Math.max(1, minCapacity);
+	}
+
+	/**
+	 * Gets the capacity buffers should grow to in order to fit the required number of elements.
+	 *
+	 * @param capacity Current capacity
+	 * @param required Number of elements that need to fit
+	 * @return New capacity, or the current one if it's sufficient
+	 */
+	public int grow(int capacity, int required)
+	{
+		if (required <= capacity)
+			return capacity;
+
+		return Math.max(Math.max(required, minCapacity), (int)Math.ceil(capacity * growFactor));
+	}
+
+	/**
+	 * Gets the capacity buffers should shrink to, if at all. The returned
+	 * capacity leaves room for one growth step's worth of new elements,
+	 * so the next creation won't immediately trigger another resize.
+	 *
+	 * @param capacity Current capacity
+	 * @param elements Number of elements currently stored
+	 * @param framesIdle Number of consecutive frames without creation or deletion
+	 * @return New capacity, or the current one if no shrinking should happen
+	 */
+	public int shrink(int capacity, int elements, int framesIdle)
+	{
+		if (framesIdle < idleFrames || capacity <= minCapacity)
+			return capacity;
+
+		if (elements >= capacity * shrinkBelow)
+			return capacity;
+
+		return Math.max(minCapacity, (int)Math.ceil(elements * growFactor));
+	}
+}
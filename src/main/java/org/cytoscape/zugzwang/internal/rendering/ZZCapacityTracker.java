@@ -0,0 +1,115 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+/**
+ * Keeps track of how many elements a primitive manager stores, how much
+ * buffer capacity it has, and how many frames have passed since the last
+ * creation or deletion, and applies the capacity policy to these numbers.
+ * Managers resize their buffers to whatever capacity this returns.
+ * Only accessed on the render thread, except for setPolicy.
+ */
+public class ZZCapacityTracker
+{
+	private volatile ZZCapacityPolicy policy = new ZZCapacityPolicy();
+
+	private int elements = 0, capacity;
+	private int framesIdle = 0;
+
+	/**
+	 * @param initialCapacity Capacity of the initially allocated buffers
+	 */
+	public ZZCapacityTracker(int initialCapacity)
+	{
+		this.capacity = initialCapacity;
+	}
+
+	/**
+	 * Makes room for a number of elements about to be added,
+	 * so adding them doesn't grow the buffers step by step.
+	 *
+	 * @param additional Number of elements about to be added
+	 * @return Capacity buffers need from now on
+	 */
+	public int reserve(int additional)
+	{
+		capacity = policy.grow(capacity, elements + additional);
+		return capacity;
+	}
+
+	/**
+	 * Records a new element, growing the capacity if it doesn't fit.
+	 * The new element takes position size() - 1.
+	 *
+	 * @return Capacity buffers need from now on
+	 */
+	public int add()
+	{
+		if (elements >= capacity)
+			capacity = policy.grow(capacity, elements + 1);
+
+		elements++;
+		framesIdle = 0;
+		return capacity;
+	}
+
+	/**
+	 * Records the removal of an element. Shrinking is deferred to idle frames, see endFrame.
+	 */
+	public void remove()
+	{
+		elements--;
+		framesIdle = 0;
+	}
+
+	/**
+	 * Counts a frame, and shrinks the capacity if the policy
+	 * decides it has been low for long enough.
+	 *
+	 * @return Capacity buffers need from now on
+	 */
+	public int endFrame()
+	{
+		capacity = policy.shrink(capacity, elements, framesIdle);
+		framesIdle++;
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of stored elements.
+	 *
+	 * @return Number of elements
+	 */
+	public int size()
+	{
+		return elements;
+	}
+
+	/**
+	 * Gets the capacity buffers should have.
+	 *
+	 * @return Buffer capacity
+	 */
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of consecutive frames without creation or deletion.
+	 *
+	 * @return Number of idle frames
+	 */
+	public int getFramesIdle()
+	{
+		return framesIdle;
+	}
+
+	/**
+	 * Sets the policy that decides when buffers are grown or shrunk.
+	 *
+	 * @param policy New capacity policy
+	 */
+	public void setPolicy(ZZCapacityPolicy policy)
+	{
+		this.policy = policy;
+	}
+}
@@ -0,0 +1,218 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free queue of primitive update commands, written by any number
+ * of model threads and read by the render thread only. Commands are stored
+ * in chunks of primitive arrays. Each producer claims a slot with a single
+ * atomic increment, fills it, and publishes it; the consumer reads published
+ * slots in claim order. Every slot is thus handed from exactly one producer
+ * to the single consumer, and producers never wait for each other or for
+ * the consumer. Commands from one thread are executed in the order they
+ * were pushed, and commands from different threads in the order their
+ * slots were claimed.
+ */
+public class ZZCommandQueue
+{
+	// Number of commands per chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// Number of ints per command: opcode, primitive ID, three arguments
+	private static final int STRIDE = 5;
+
+	// Chunk producers currently claim slots in
+	private final AtomicReference<Chunk> tail;
+
+	// Chunk and slot the consumer reads next, only accessed by the consumer
+	private Chunk head;
+	private int readPosition = 0;
+
+	public ZZCommandQueue()
+	{
+		head = new Chunk();
+		tail = new AtomicReference<>(head);
+	}
+
+	/**
+	 * Appends a command. May be called from any thread.
+	 *
+	 * @param op Opcode, interpreted by the consumer
+	 * @param id Primitive ID
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 */
+	public void push(int op, int id, int a, int b, int c)
+	{
+		while (true)
+		{
+			Chunk chunk = tail.get();
+			int slot = chunk.claimed.getAndIncrement();
+
+			if (slot < CHUNK_SIZE)
+			{
+				int word = slot * STRIDE;
+				chunk.words[word] = op;
+				chunk.words[word + 1] = id;
+				chunk.words[word + 2] = a;
+				chunk.words[word + 3] = b;
+				chunk.words[word + 4] = c;
+
+				// Ordered write makes the words above visible before the flag
+				chunk.published.lazySet(slot, 1);
+				return;
+			}
+
+			// Chunk is full, make sure it has a successor and move on
+			Chunk next = chunk.next.get();
+			if (next == null)
+			{
+				chunk.next.compareAndSet(null, new Chunk());
+				next = chunk.next.get();
+			}
+			tail.compareAndSet(chunk, next);
+		}
+	}
+
+	/**
+	 * Appends a command that carries an object instead of int arguments,
+	 * e. g. a whole batch of updates handed over in a single slot.
+	 * The payload must not be modified by the producer afterwards.
+	 * May be called from any thread.
+	 *
+	 * @param op Opcode, interpreted by the consumer
+	 * @param payload Command data
+	 */
+	public void pushPayload(int op, Object payload)
+	{
+		while (true)
+		{
+			Chunk chunk = tail.get();
+			int slot = chunk.claimed.getAndIncrement();
+
+			if (slot < CHUNK_SIZE)
+			{
+				chunk.words[slot * STRIDE] = op;
+				chunk.payloads[slot] = payload;
+
+				// Ordered write makes the payload visible before the flag
+				chunk.published.lazySet(slot, 1);
+				return;
+			}
+
+			// Chunk is full, make sure it has a successor and move on
+			Chunk next = chunk.next.get();
+			if (next == null)
+			{
+				chunk.next.compareAndSet(null, new Chunk());
+				next = chunk.next.get();
+			}
+			tail.compareAndSet(chunk, next);
+		}
+	}
+
+	/**
+	 * Convenience method for commands with float arguments.
+	 *
+	 * @param op Opcode, interpreted by the consumer
+	 * @param id Primitive ID
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 */
+	public void pushFloats(int op, int id, float a, float b, float c)
+	{
+		push(op, id, Float.floatToRawIntBits(a), Float.floatToRawIntBits(b), Float.floatToRawIntBits(c));
+	}
+
+	/**
+	 * Executes all commands pushed so far, in order. If a producer has
+	 * claimed a slot but is still filling it, the consumer yields until
+	 * the slot is published, which takes a few instructions unless the
+	 * producer has been descheduled. This way, everything pushed before
+	 * the call is guaranteed to be executed by it.
+	 * Must only be called from the consumer thread.
+	 *
+	 * @param handler Executes a single command
+	 * @return Number of executed commands
+	 */
+	public int drain(CommandHandler handler)
+	{
+		int executed = 0;
+		while (true)
+		{
+			if (readPosition == CHUNK_SIZE)
+			{
+				Chunk next = head.next.get();
+				if (next == null)
+					return executed;
+
+				head = next;	// Consumed chunk becomes garbage
+				readPosition = 0;
+			}
+
+			if (head.published.get(readPosition) == 0)
+			{
+				if (readPosition >= head.claimed.get())
+					return executed;
+
+				while (head.published.get(readPosition) == 0)
+					Thread.yield();
+			}
+
+			int word = readPosition * STRIDE;
+			int[] words = head.words;
+			Object payload = head.payloads[readPosition];
+			if (payload != null)
+			{
+				head.payloads[readPosition] = null;
+				handler.execute(words[word], payload);
+			}
+			else
+			{
+				handler.execute(words[word], words[word + 1], words[word + 2], words[word + 3], words[word + 4]);
+			}
+
+			readPosition++;
+			executed++;
+		}
+	}
+
+	/**
+	 * Fixed-size block of command slots.
+	 */
+	private static class Chunk
+	{
+		private final int[] words = new int[CHUNK_SIZE * STRIDE];
+		private final Object[] payloads = new Object[CHUNK_SIZE];
+		private final AtomicIntegerArray published = new AtomicIntegerArray(CHUNK_SIZE);
+		private final AtomicInteger claimed = new AtomicInteger(0);
+		private final AtomicReference<Chunk> next = new AtomicReference<>();
+	}
+
+	/**
+	 * Executes commands on the consumer thread.
+	 */
+	public interface CommandHandler
+	{
+		/**
+		 * @param op Opcode
+		 * @param id Primitive ID
+		 * @param a First argument
+		 * @param b Second argument
+		 * @param c Third argument
+		 */
+		void execute(int op, int id, int a, int b, int c);
+
+		/**
+		 * Executes a command pushed through pushPayload.
+		 *
+		 * @param op Opcode
+		 * @param payload Command data
+		 */
+		void execute(int op, Object payload);
+	}
+}
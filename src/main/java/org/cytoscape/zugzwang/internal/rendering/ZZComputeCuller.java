@@ -0,0 +1,246 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.cytoscape.zugzwang.internal.algebra.*;
+
+import com.jogamp.opengl.GL4;
+
+/**
+ * Culls a rectangle manager's primitives on the device. A compute shader
+ * tests every rectangle against the view frustum and a minimum on-screen
+ * size, and compacts survivors into an index buffer. Each work group
+ * compacts its own range and writes one indirect draw command for it,
+ * so survivors are drawn in buffer order with a single multi-draw call
+ * and the CPU never touches per-rectangle visibility. Which rectangles
+ * survived is copied into a persistently mapped buffer, and read back
+ * once the frame sync guarantees the copy has landed, i. e. RING_SIZE
+ * frames later.
+ */
+public class ZZComputeCuller
+{
+	// Must match local_size_x in Cull.comp
+	public static final int GROUP_SIZE = 256;
+
+	// DrawElementsIndirectCommand: count, instanceCount, firstIndex, baseVertex, baseInstance
+	private static final int COMMAND_SIZE = 5 * 4;
+
+	private final GL4 gl;
+	private final int program;
+
+	// Rectangles smaller than this in both dimensions are culled, in pixels
+	private volatile float minPixelSize = 1.0f;
+
+	// Index buffer, indirect commands, visibility bits, mapped copy of visibility bits
+	private final int[] buffers = new int[4];
+	private IntBuffer readback;
+	private int capacity = 0;
+	private int words = 0;
+
+	// Work groups dispatched by the last cull, i. e. draw commands to issue
+	private int groups = 0;
+
+	// What each ring slot's copy of visibility bits refers to
+	private final boolean[] slotUsed = new boolean[ZZFrameSync.RING_SIZE];
+	private final int[] slotElements = new int[ZZFrameSync.RING_SIZE];
+	private final int[] slotGeneration = new int[ZZFrameSync.RING_SIZE];
+
+	// Most recent visibility bits that made it back to the host
+	private volatile Feedback feedback;
+
+	/**
+	 * Creates a culler. The program is shared between all cullers and not owned by them.
+	 *
+	 * @param gl Current GL context
+	 * @param program Compiled Cull.comp program
+	 */
+	public ZZComputeCuller(GL4 gl, int program)
+	{
+		this.gl = gl;
+		this.program = program;
+	}
+
+	/**
+	 * Sets the on-screen size below which rectangles are culled.
+	 *
+	 * @param pixels Minimum size in pixels along the larger dimension
+	 */
+	public void setMinPixelSize(float pixels)
+	{
+		minPixelSize = pixels;
+	}
+
+	/**
+	 * Culls the rectangles in the given ring slot, and reads back
+	 * the results of the last cull that used the same slot.
+	 * Must be called on the GL thread after the slot has been flushed.
+	 *
+	 * @param slot Ring slot the current frame uses
+	 * @param elements Number of rectangles in the buffers
+	 * @param generation Manager's address generation, see wasCulled
+	 * @param position Device buffer with rectangle positions
+	 * @param size Device buffer with rectangle sizes
+	 * @param offset Device buffer with rectangle offsets
+	 * @param viewMatrix Current view matrix
+	 * @param projMatrix Current projection matrix
+	 * @param halfScreen Screen dimensions, scaled like in ZZRectangle.isInFrustum
+	 */
+	public void cull(int slot, int elements, int generation,
+					 ZZRingBuffer position, ZZRingBuffer size, ZZRingBuffer offset,
+					 Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen)
+	{
+		// The frame sync waited for the frame that last used this slot, so its copy is complete
+		if (slotUsed[slot] && slotElements[slot] <= capacity)
+		{
+			int[] bits = new int[(slotElements[slot] + 31) / 32];
+			IntBuffer region = readback.duplicate();
+			region.position(slot * words);
+			region.get(bits);
+			feedback = new Feedback(bits, slotElements[slot], slotGeneration[slot]);
+		}
+
+		reserve(elements);
+		groups = (elements + GROUP_SIZE - 1) / GROUP_SIZE;
+		int usedWords = (elements + 31) / 32;
+
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, buffers[2]);
+		gl.glClearBufferSubData(GL4.GL_SHADER_STORAGE_BUFFER, GL4.GL_R32UI, 0, usedWords * 4, GL4.GL_RED_INTEGER, GL4.GL_UNSIGNED_INT, null);
+
+		gl.glBindBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 1, position.getBuffer(), position.getRegionOffset(slot), position.getRegionSize());
+		gl.glBindBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 2, size.getBuffer(), size.getRegionOffset(slot), size.getRegionSize());
+		gl.glBindBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 3, offset.getBuffer(), offset.getRegionOffset(slot), offset.getRegionSize());
+		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 4, buffers[1]);
+		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 5, buffers[0]);
+		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 6, buffers[2]);
+
+		gl.glUseProgram(program);
+		{
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(program, "viewMatrix"), 1, false, viewMatrix.asArrayCM(), 0);
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(program, "projMatrix"), 1, false, projMatrix.asArrayCM(), 0);
+			gl.glUniform2f(gl.glGetUniformLocation(program, "halfScreen"), halfScreen.x, halfScreen.y);
+			gl.glUniform1f(gl.glGetUniformLocation(program, "minPixelSize"), minPixelSize);
+			gl.glUniform1ui(gl.glGetUniformLocation(program, "elements"), elements);
+
+			gl.glDispatchCompute(groups, 1, 1);
+		}
+		gl.glUseProgram(0);
+
+		// Draw commands and indices are consumed by the next draw, visibility bits by the copy
+		gl.glMemoryBarrier(GL4.GL_COMMAND_BARRIER_BIT | GL4.GL_ELEMENT_ARRAY_BARRIER_BIT | GL4.GL_BUFFER_UPDATE_BARRIER_BIT);
+
+		gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, buffers[2]);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, buffers[3]);
+		gl.glCopyBufferSubData(GL4.GL_COPY_READ_BUFFER, GL4.GL_COPY_WRITE_BUFFER, 0, (long)slot * words * 4, usedWords * 4);
+		gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, 0);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, 0);
+
+		slotUsed[slot] = true;
+		slotElements[slot] = elements;
+		slotGeneration[slot] = generation;
+	}
+
+	/**
+	 * Draws the survivors of the last cull. The manager's
+	 * vertex array must be bound, as indices refer to it.
+	 */
+	public void draw()
+	{
+		if (groups == 0)
+			return;
+
+		gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, buffers[0]);
+		gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, buffers[1]);
+		gl.glMultiDrawElementsIndirect(GL4.GL_POINTS, GL4.GL_UNSIGNED_INT, 0L, groups, COMMAND_SIZE);
+		gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, 0);
+	}
+
+	/**
+	 * Checks if a rectangle was culled according to the latest results that made
+	 * it back to the host. Results refer to buffer addresses, which are only
+	 * meaningful as long as the manager hasn't moved rectangles around since.
+	 * Rectangles without a meaningful result are reported as not culled.
+	 *
+	 * @param address Rectangle's position in the buffers
+	 * @param generation Manager's current address generation
+	 * @return True if the rectangle was culled
+	 */
+	public boolean wasCulled(int address, int generation)
+	{
+		Feedback latest = feedback;
+		if (latest == null || latest.generation != generation || address < 0 || address >= latest.elements)
+			return false;
+
+		return (latest.bits[address >>> 5] & (1 << (address & 31))) == 0;
+	}
+
+	/**
+	 * Frees all associated device resources.
+	 */
+	public void dispose()
+	{
+		if (capacity > 0)
+			gl.glDeleteBuffers(4, buffers, 0);
+		capacity = 0;
+		groups = 0;
+		feedback = null;
+	}
+
+	/**
+	 * Makes sure device buffers can hold the given number of rectangles.
+	 * Buffers are reallocated in whole work groups, and results still
+	 * in flight are dropped when that happens.
+	 */
+	private void reserve(int elements)
+	{
+		if (elements <= capacity)
+			return;
+
+		dispose();
+		capacity = Math.max(GROUP_SIZE, (elements + elements / 2 + GROUP_SIZE - 1) / GROUP_SIZE * GROUP_SIZE);
+		words = capacity / 32;
+
+		gl.glGenBuffers(4, buffers, 0);
+
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, buffers[0]);
+		gl.glBufferStorage(GL4.GL_SHADER_STORAGE_BUFFER, (long)capacity * 4, null, 0);
+
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, buffers[1]);
+		gl.glBufferStorage(GL4.GL_SHADER_STORAGE_BUFFER, (long)(capacity / GROUP_SIZE) * COMMAND_SIZE, null, 0);
+
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, buffers[2]);
+		gl.glBufferStorage(GL4.GL_SHADER_STORAGE_BUFFER, (long)words * 4, null, GL4.GL_DYNAMIC_STORAGE_BIT);
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, 0);
+
+		// One region per ring slot, coherent so the fence is all it takes to read it
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, buffers[3]);
+		{
+			long readbackSize = (long)words * 4 * ZZFrameSync.RING_SIZE;
+			gl.glBufferStorage(GL4.GL_COPY_WRITE_BUFFER, readbackSize, null, GL4.GL_MAP_READ_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT);
+			ByteBuffer mapped = gl.glMapBufferRange(GL4.GL_COPY_WRITE_BUFFER, 0, readbackSize, GL4.GL_MAP_READ_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT);
+			readback = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, 0);
+
+		for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+			slotUsed[i] = false;
+	}
+
+	/**
+	 * Visibility bits of one cull, along with what they refer to.
+	 */
+	private static class Feedback
+	{
+		private final int[] bits;
+		private final int elements;
+		private final int generation;
+
+		public Feedback(int[] bits, int elements, int generation)
+		{
+			this.bits = bits;
+			this.elements = elements;
+			this.generation = generation;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of which pages of a mapped device buffer have been altered
+ * since the last flush. Only contiguous runs of altered pages are flushed,
+ * instead of the entire range occupied by primitives.
+ */
+public class ZZDirtyPages
+{
+	// Granularity of the tracking in bytes
+	public static final int PAGE_SIZE = 4096;
+
+	private final BitSet pages = new BitSet();
+
+	/**
+	 * Marks a byte range within the buffer as altered.
+	 *
+	 * @param offset Offset of the first altered byte
+	 * @param length Number of altered bytes
+	 */
+	public void mark(long offset, long length)
+	{
+		if (length <= 0)
+			return;
+
+		int first = (int)(offset / PAGE_SIZE);
+		int last = (int)((offset + length - 1) / PAGE_SIZE);
+
+		if (first == last)
+			pages.set(first);
+		else
+			pages.set(first, last + 1);
+	}
+
+	/**
+	 * Checks if any part of the buffer has been altered.
+	 *
+	 * @return True if nothing needs to be flushed, false otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return pages.isEmpty();
+	}
+
+	/**
+	 * Marks all ranges altered in another tracker as altered in this one.
+	 *
+	 * @param other Tracker to merge into this one
+	 */
+	public void or(ZZDirtyPages other)
+	{
+		pages.or(other.pages);
+	}
+
+	/**
+	 * Forgets all altered ranges without flushing them.
+	 */
+	public void clear()
+	{
+		pages.clear();
+	}
+
+	/**
+	 * Passes all contiguous altered ranges to the consumer, and forgets
+	 * about them afterwards.
+	 *
+	 * @param limit Size of the tracked range in bytes, nothing beyond it will be passed
+	 * @param consumer Receives the altered ranges in ascending order
+	 * @return Number of bytes in all ranges
+	 */
+	public long consume(long limit, RangeConsumer consumer)
+	{
+		long consumed = 0;
+
+		int start = pages.nextSetBit(0);
+		while (start >= 0)
+		{
+			int end = pages.nextClearBit(start);
+
+			long offset = (long)start * PAGE_SIZE;
+			long length = Math.min((long)end * PAGE_SIZE, limit) - offset;
+			if (length <= 0)
+				break;
+
+			consumer.accept(offset, length);
+			consumed += length;
+
+			start = pages.nextSetBit(end);
+		}
+
+		pages.clear();
+
+		return consumed;
+	}
+
+	/**
+	 * Receives contiguous altered ranges of a buffer.
+	 */
+	public interface RangeConsumer
+	{
+		/**
+		 * @param offset Offset of the first altered byte
+		 * @param length Number of altered bytes
+		 */
+		void accept(long offset, long length);
+	}
+}
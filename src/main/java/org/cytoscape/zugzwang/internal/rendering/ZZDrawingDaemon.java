@@ -1,241 +1,317 @@
 package org.cytoscape.zugzwang.internal.rendering;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RecursiveAction;
 
 import org.cytoscape.zugzwang.internal.algebra.*;
 
 import com.jogamp.opengl.GL4;
 
 /**
- * 
+ * Runs the 3 stages of a drawing iteration on ZZDrawingDaemonPrimitives.
+ * The first two stages are distributed across a work-stealing pool with
+ * one thread per core, and each returns only once all of its work is done,
+ * so the stages are separated by proper barriers. The last stage touches
+ * OpenGL and runs on the caller's thread, which must be the GL thread.
+ * Texture redraws are prioritized and limited by a time budget, so frames
+ * keep coming while textures are refined over several of them.
  */
-public class ZZDrawingDaemon 
+public class ZZDrawingDaemon
 {
-	private volatile boolean doShutdown = false;
-	
-	private Semaphore stateUpdateSemaphore;
-	
-	private final Thread[] poolState;
-	private final Thread[] poolDraw;
-	
-	private volatile List<ZZDrawingDaemonPrimitive> forStateUpdate;
-	private volatile Queue<ZZDrawingDaemonPrimitive> forDrawUpdate = new LinkedBlockingQueue<>();
-	private volatile Queue<ZZDrawingDaemonPrimitive> forResourceUpdate = new LinkedBlockingQueue<>();
-	
-	private volatile Matrix4 viewMatrix, projMatrix;
-	private volatile Vector2 halfScreen;
-	private volatile GL4 gl;
-	private volatile boolean updateVisualProperties;
-	
-	public ZZDrawingDaemon()
-	{		
-		poolState = new Thread[Runtime.getRuntime().availableProcessors()];
-		poolDraw = new Thread[Runtime.getRuntime().availableProcessors()];
-		
-		for (int i = 0; i < poolState.length; i++)
+	// Number of primitives below which a state update task isn't split any further
+	private static final int STATE_CHUNK_SIZE = 256;
+
+	private final ForkJoinPool pool;
+
+	private final Queue<QueuedPrimitive> forDrawUpdate = new PriorityBlockingQueue<>(64, new Comparator<QueuedPrimitive>()
+	{
+		@Override
+		public int compare(QueuedPrimitive o1, QueuedPrimitive o2)
 		{
-			StateRunner runner = new StateRunner(i, poolState.length);
-			poolState[i] = new Thread(runner);
-			runner.run();
-		}		
+			return Float.compare(o2.priority, o1.priority);	// Most urgent first
+		}
+	});
+	private final Queue<ZZDrawingDaemonPrimitive> forResourceUpdate = new ConcurrentLinkedQueue<>();
 
-		for (int i = 0; i < poolDraw.length; i++)
+	public ZZDrawingDaemon()
+	{
+		// Daemon threads, so an undisposed pool never keeps the JVM alive
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory()
 		{
-			DrawRunner runner = new DrawRunner(i, poolState.length);
-			poolDraw[i] = new Thread(runner);
-			runner.run();
-		}		
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+			{
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("ZZDrawingDaemon-" + thread.getPoolIndex());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, null, false);
 	}
-	
-	/** 
-	 * Multiple threads go through the forStateUpdate queue in a non-deterministic order,
+
+	/**
+	 * Multiple threads go through the forStateUpdate list in a non-deterministic order,
 	 * calling updateState on each primitive. If it returns true, the primitive is queued
-	 * for a redraw of its textures. This is the first stage of a redrawing iteration. The
-	 * method returns only after each primitive has been processed.
-	 * 
+	 * for a redraw of its textures, with a priority based on the focus point. This is the
+	 * first stage of a redrawing iteration. Redraws left over from the last iteration are
+	 * discarded, as every primitive that still needs one queues it again with an updated
+	 * priority. The method returns only after each primitive has been processed.
+	 *
 	 * @param forStateUpdate List of primitives that should be updated
+	 * @param updateVisualProperties Indicates that VP values changed and internal copies should be updated
 	 * @param gl Current OpenGL context
 	 * @param viewMatrix Current view matrix
 	 * @param projMatrix Current projection matrix
-	 * @param halfScreen 2D vector containing half the screen's width and height 
+	 * @param halfScreen 2D vector containing half the screen's width and height
+	 * @param focus Point redraws are prioritized around, in normalized device coordinates
+	 * @return Number of primitives queued for a texture redraw
 	 */
-	public void updateState(List<ZZDrawingDaemonPrimitive> forStateUpdate, boolean updateVisualProperties, GL4 gl, Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen)
+	public int updateState(List<? extends ZZDrawingDaemonPrimitive> forStateUpdate, boolean updateVisualProperties, GL4 gl, Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen, Vector2 focus)
 	{
-		this.forStateUpdate = forStateUpdate;
-		this.updateVisualProperties = updateVisualProperties;
-		this.gl = gl;
-		this.viewMatrix = viewMatrix;
-		this.projMatrix = projMatrix;
-		
-		stateUpdateSemaphore = new Semaphore(-poolState.length + 1);
-		
-		for (int i = 0; i < poolState.length; i++)
-			poolState[i].notify();
-		
-		try 
-		{
-			stateUpdateSemaphore.acquire();
-		} 
-		catch (InterruptedException e) { }
+		forDrawUpdate.clear();
+
+		StateTask task = new StateTask(forStateUpdate, 0, forStateUpdate.size(), updateVisualProperties, gl, viewMatrix, projMatrix, halfScreen, focus);
+
+		if (forStateUpdate.size() <= STATE_CHUNK_SIZE)
+			task.compute();		// Not worth waking up the pool
+		else
+			pool.invoke(task);
+
+		return forDrawUpdate.size();
 	}
-	
+
 	/**
-	 * Multiple threads go through the forDrawUpdate queue sequentially, 
+	 * Multiple threads take primitives from the forDrawUpdate queue, most urgent first,
 	 * calling redrawTextures on each primitive. If it returns true, the primitive
 	 * is queued for an update of its GPU resources (e. g. texture upload). This
-	 * is the second stage of a drawing iteration. The method returns immediately,
-	 * i. e. relying on the caller to stop the redrawing after a certain time span.
-	 * 
+	 * is the second stage of a drawing iteration. Rasterization cost varies a lot
+	 * between primitives, so threads take one primitive at a time rather than a
+	 * fixed share. The method returns once the queue is empty or the time budget
+	 * is spent, and clearDraw can force it to return from another thread. Each
+	 * thread redraws at least one primitive, so progress is made on every call.
+	 *
 	 * @param viewMatrix Current view matrix
 	 * @param projMatrix Current projection matrix
+	 * @param budget Time in nanoseconds after which no new redraws are started, 0 for no limit
+	 * @return Number of primitives queued for a resource update
+	 */
+	public int updateDraw(Matrix4 viewMatrix, Matrix4 projMatrix, long budget)
+	{
+		long deadline = budget > 0 ? System.nanoTime() + budget : Long.MAX_VALUE;
+
+		int numTasks = Math.min(pool.getParallelism(), forDrawUpdate.size());
+		if (numTasks == 1)
+		{
+			new DrawTask(viewMatrix, projMatrix, deadline).compute();
+		}
+		else if (numTasks > 1)
+		{
+			Collection<DrawTask> tasks = new ArrayList<>(numTasks);
+			for (int i = 0; i < numTasks; i++)
+				tasks.add(new DrawTask(viewMatrix, projMatrix, deadline));
+
+			pool.invoke(new RecursiveAction()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute()
+				{
+					invokeAll(tasks);
+				}
+			});
+		}
+
+		return forResourceUpdate.size();
+	}
+
+	/**
+	 * Checks if redraws were left over because the last updateDraw
+	 * ran out of time. If so, another frame should be scheduled.
+	 *
+	 * @return True if there are redraws waiting
 	 */
-	public void updateDraw(Matrix4 viewMatrix, Matrix4 projMatrix)
+	public boolean hasPendingDraws()
 	{
-		// Each thread has been paused since the queue was emptied the last time.
-		// Notify all threads to resume them.
-		for (int i = 0; i < poolDraw.length; i++)
-			poolDraw[i].notify();
+		return !forDrawUpdate.isEmpty();
 	}
-	
+
 	/**
-	 * Clears the forDrawUpdate queue. If updateDraw has been called before, this
-	 * will effectively stop the redrawing operation.
+	 * Gets the primitives whose redraws were left over by the last updateDraw.
+	 * Callers that only pass changed primitives to updateState should include
+	 * these, as updateState discards all leftover redraws.
+	 *
+	 * @return Primitives still waiting for a redraw
+	 */
+	public List<ZZDrawingDaemonPrimitive> getPendingDraws()
+	{
+		List<ZZDrawingDaemonPrimitive> pending = new ArrayList<>(forDrawUpdate.size());
+		for (QueuedPrimitive queued : forDrawUpdate)
+			pending.add(queued.primitive);
+
+		return pending;
+	}
+
+	/**
+	 * Clears the forDrawUpdate queue. If updateDraw is running, this
+	 * will make it return once the primitives already taken are done.
 	 */
 	public void clearDraw()
 	{
-		synchronized (forDrawUpdate)
-		{
-			forDrawUpdate.clear();
-		}
+		forDrawUpdate.clear();
 	}
-	
+
 	/**
 	 * A single thread goes through the forResourceUpdate queue (because OpenGL),
 	 * calling updateResources on each primitive. This is the last stage of a
-	 * drawing iteration.
+	 * drawing iteration. Must be called from the GL thread.
+	 *
 	 * @param gl OpenGL context
 	 */
 	public void updateResources(GL4 gl)
 	{
-		synchronized (forResourceUpdate)
-		{
-			while (forResourceUpdate.size() > 0)
-				forResourceUpdate.poll().updateResources(gl);
-		}
+		ZZDrawingDaemonPrimitive primitive;
+		while ((primitive = forResourceUpdate.poll()) != null)
+			primitive.updateResources(gl);
+	}
+
+	/**
+	 * Runs a task on the worker threads and waits for it to finish, so bulk
+	 * work outside the drawing stages, like constructing many views at once,
+	 * doesn't need threads of its own.
+	 *
+	 * @param task Task to run
+	 */
+	public void invoke(ForkJoinTask<?> task)
+	{
+		pool.invoke(task);
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 *
+	 * @return Number of worker threads
+	 */
+	public int getParallelism()
+	{
+		return pool.getParallelism();
 	}
-	
+
 	/**
-	 * Forces all running operations to finish and the threads to return.
+	 * Stops all worker threads. Running stages are allowed to finish.
 	 */
 	public void dispose()
 	{
-		doShutdown = true;
+		pool.shutdown();
+		forDrawUpdate.clear();
+		forResourceUpdate.clear();
 	}
-	
+
 	/**
-	 * Internal class used to call the updateState method
-	 * on queued primitives using multiple threads.
+	 * Calls updateState on a range of primitives, splitting it
+	 * in halves until it is small enough to be processed directly.
 	 */
-	private class StateRunner implements Runnable
+	private class StateTask extends RecursiveAction
 	{
-		private int threadID;
-		private int numThreads;
-		
-		public StateRunner(int threadID, int numThreads)
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends ZZDrawingDaemonPrimitive> primitives;
+		private final int from, to;
+
+		private final boolean updateVisualProperties;
+		private final GL4 gl;
+		private final Matrix4 viewMatrix, projMatrix;
+		private final Vector2 halfScreen, focus;
+
+		public StateTask(List<? extends ZZDrawingDaemonPrimitive> primitives, int from, int to,
+						 boolean updateVisualProperties, GL4 gl, Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen, Vector2 focus)
 		{
-			this.threadID = threadID;
-			this.numThreads = numThreads;
+			this.primitives = primitives;
+			this.from = from;
+			this.to = to;
+			this.updateVisualProperties = updateVisualProperties;
+			this.gl = gl;
+			this.viewMatrix = viewMatrix;
+			this.projMatrix = projMatrix;
+			this.halfScreen = halfScreen;
+			this.focus = focus;
 		}
-		
-		/**
-		 * Multiple threads go through the forStateUpdate queue in a non-deterministic order,
-		 * calling updateState on each primitive. If it returns true, the primitive is queued
-		 * for a redraw of its textures.
-		 */
+
 		@Override
-		public void run()
+		protected void compute()
 		{
-			while (!doShutdown)
+			if (to - from > STATE_CHUNK_SIZE)
 			{
-				if (forStateUpdate != null)
-					for (int i = threadID; i < forStateUpdate.size(); i += numThreads)
-						if (forStateUpdate.get(i).updateState(updateVisualProperties, gl, viewMatrix, projMatrix, halfScreen))	// Update state and enqueue for redraw if updateState returns true
-							synchronized (forDrawUpdate)
-							{
-								forDrawUpdate.add(forStateUpdate.get(i));
-							}
-				
-				if (stateUpdateSemaphore != null)
-					stateUpdateSemaphore.release();
-				
-				try
-				{
-					wait();
-				} 
-				catch (InterruptedException e) 
-				{
-					return;
-				}
+				int middle = (from + to) >>> 1;
+				invokeAll(new StateTask(primitives, from, middle, updateVisualProperties, gl, viewMatrix, projMatrix, halfScreen, focus),
+						  new StateTask(primitives, middle, to, updateVisualProperties, gl, viewMatrix, projMatrix, halfScreen, focus));
+				return;
 			}
-		}		
+
+			for (int i = from; i < to; i++)
+			{
+				ZZDrawingDaemonPrimitive primitive = primitives.get(i);
+				if (primitive.updateState(updateVisualProperties, gl, viewMatrix, projMatrix, halfScreen))	// Update state and enqueue for redraw if updateState returns true
+					forDrawUpdate.add(new QueuedPrimitive(primitive, primitive.getRedrawPriority(focus)));
+			}
+		}
 	}
-	
+
 	/**
-	 * Internal class used to call the redrawTexture method 
-	 * on queued primitives using multiple threads.
+	 * Calls redrawTextures on queued primitives until the
+	 * forDrawUpdate queue is empty or the deadline has passed.
 	 */
-	private class DrawRunner implements Runnable
+	private class DrawTask extends RecursiveAction
 	{
-		private int threadID;
-		private int numThreads;
-		
-		public DrawRunner(int threadID, int numThreads)
+		private static final long serialVersionUID = 1L;
+
+		private final Matrix4 viewMatrix, projMatrix;
+		private final long deadline;
+
+		public DrawTask(Matrix4 viewMatrix, Matrix4 projMatrix, long deadline)
 		{
-			this.threadID = threadID;
-			this.numThreads = numThreads;
+			this.viewMatrix = viewMatrix;
+			this.projMatrix = projMatrix;
+			this.deadline = deadline;
 		}
-		
-		/**
-		 * Multiple threads go through the forDrawUpdate queue sequentially, 
-		 * calling redrawTextures on each primitive. If it returns true, the primitive
-		 * is queued for an update of its GPU resources (e. g. texture upload).
-		 */
+
 		@Override
-		public void run() 
+		protected void compute()
 		{
-			while (!doShutdown)
+			QueuedPrimitive queued;
+			while ((queued = forDrawUpdate.poll()) != null)
 			{
-				while (true)
-				{
-					ZZDrawingDaemonPrimitive primitive;
-					synchronized (forDrawUpdate) 
-					{
-						primitive = forDrawUpdate.poll();
-					}
-					if (primitive == null)
-						break;
-					
-					if (primitive.redrawTextures(viewMatrix, projMatrix))	// If device resource update is needed after drawing
-						synchronized (forResourceUpdate)
-						{
-							forResourceUpdate.add(primitive);
-						}
-				}
-				
-				try 
-				{
-					wait();
-				} 
-				catch (InterruptedException e) 
-				{
-					return;
-				}
+				if (queued.primitive.redrawTextures(viewMatrix, projMatrix))	// If device resource update is needed after drawing
+					forResourceUpdate.add(queued.primitive);
+
+				if (System.nanoTime() >= deadline)
+					break;
 			}
-		}		
+		}
+	}
+
+	/**
+	 * Primitive waiting for a redraw, along with its priority
+	 * at the time it was queued.
+	 */
+	private static class QueuedPrimitive
+	{
+		private final ZZDrawingDaemonPrimitive primitive;
+		private final float priority;
+
+		public QueuedPrimitive(ZZDrawingDaemonPrimitive primitive, float priority)
+		{
+			this.primitive = primitive;
+			this.priority = priority;
+		}
 	}
-}
\ No newline at end of file
+}
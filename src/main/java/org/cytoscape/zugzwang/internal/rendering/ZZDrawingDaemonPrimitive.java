@@ -25,6 +25,16 @@ public interface ZZDrawingDaemonPrimitive
 	 */
 	public boolean updateState(boolean updateVisualProperties, GL4 gl, Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen);
 	
+	/**
+	 * Gets the urgency of the redraw requested in the previous stage. 
+	 * Primitives with higher values are redrawn first, and those left 
+	 * over when the frame's time budget runs out carry over to the next.
+	 * 
+	 * @param focus Point the user is looking at in normalized device coordinates, e. g. the cursor
+	 * @return Redraw priority, higher values are more urgent
+	 */
+	public float getRedrawPriority(Vector2 focus);
+	
 	/**
 	 * Redraws textures that have been determined to need a redraw
 	 * in the previous stage.
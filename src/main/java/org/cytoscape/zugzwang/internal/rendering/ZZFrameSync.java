@@ -0,0 +1,185 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jogamp.opengl.GL4;
+
+/**
+ * Keeps the CPU a bounded number of frames ahead of the GPU.
+ * Mapped device buffers are split into RING_SIZE regions, one per frame
+ * in flight. Before the CPU writes into a region, it waits for the fence
+ * inserted after the last frame that read from it. Textures that might
+ * still be referenced by frames in flight are retired here and only
+ * deleted once those frames have completed.
+ */
+public class ZZFrameSync
+{
+	// Number of frames that can be in flight at the same time
+	public static final int RING_SIZE = 3;
+
+	// How long to wait for a fence in a single call, in nanoseconds
+	private static final long WAIT_TIMEOUT = 1000000L;
+
+	private final Object m_sync = new Object();
+
+	private final long[] fences = new long[RING_SIZE];
+	private final List<List<ZZTexture>> retiredTextures = new ArrayList<>(RING_SIZE);
+	
+	// Textures retired since the last endFrame, from any thread. They go under the 
+	// fence endFrame inserts next, as every frame submitted so far might use them.
+	private final List<ZZTexture> retiredSinceFence = new ArrayList<>();
+
+	// Region of the ring the current frame writes to
+	private int slot = 0;
+
+	public ZZFrameSync()
+	{
+		for (int i = 0; i < RING_SIZE; i++)
+			retiredTextures.add(new ArrayList<ZZTexture>());
+	}
+
+	/**
+	 * Waits until the GPU has finished the last frame that used the
+	 * current ring slot, and releases textures retired during that frame.
+	 *
+	 * @param gl Current GL context
+	 * @return Ring slot the new frame can safely write to
+	 */
+	public int beginFrame(GL4 gl)
+	{
+		waitForSlot(gl, slot);
+
+		return slot;
+	}
+
+	/**
+	 * Inserts a fence after all commands of the current frame, files
+	 * textures retired since the last fence under it, and advances to 
+	 * the next ring slot.
+	 *
+	 * @param gl Current GL context
+	 */
+	public void endFrame(GL4 gl)
+	{
+		synchronized (m_sync)
+		{
+			fences[slot] = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+			retiredTextures.get(slot).addAll(retiredSinceFence);
+			retiredSinceFence.clear();
+			slot = (slot + 1) % RING_SIZE;
+		}
+	}
+
+	/**
+	 * Blocks until the GPU has executed all commands issued so far.
+	 * Only meant for rare events like moving buffers on the device,
+	 * where the CPU mustn't write to memory the GPU is about to overwrite.
+	 *
+	 * @param gl Current GL context
+	 */
+	public void waitForDevice(GL4 gl)
+	{
+		long fence = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		clientWait(gl, fence);
+	}
+
+	/**
+	 * Gets the ring slot the current frame writes to.
+	 *
+	 * @return Current ring slot
+	 */
+	public int getSlot()
+	{
+		return slot;
+	}
+
+	/**
+	 * Schedules a texture for deletion once all frames that could have 
+	 * referenced it have completed, i. e. once the fence after the next 
+	 * endFrame has been signaled. Can be called from any thread.
+	 *
+	 * @param texture Texture that is no longer used
+	 */
+	public void retire(ZZTexture texture)
+	{
+		if (texture == null)
+			return;
+
+		synchronized (m_sync)
+		{
+			retiredSinceFence.add(texture);
+		}
+	}
+
+	/**
+	 * Waits for all frames in flight and releases all retired textures.
+	 *
+	 * @param gl Current GL context
+	 */
+	public void dispose(GL4 gl)
+	{
+		for (int i = 0; i < RING_SIZE; i++)
+			waitForSlot(gl, i);
+		
+		// Retired after the last fence, so wait for everything submitted since
+		List<ZZTexture> toRelease;
+		synchronized (m_sync)
+		{
+			toRelease = new ArrayList<>(retiredSinceFence);
+			retiredSinceFence.clear();
+		}
+		if (toRelease.isEmpty())
+			return;
+		
+		waitForDevice(gl);
+		for (ZZTexture texture : toRelease)
+			texture.dispose();
+	}
+
+	/**
+	 * Blocks until the fence for the given slot has been signaled,
+	 * then deletes it along with the textures retired in that slot.
+	 *
+	 * @param gl Current GL context
+	 * @param waitSlot Ring slot to wait for
+	 */
+	private void waitForSlot(GL4 gl, int waitSlot)
+	{
+		long fence;
+		List<ZZTexture> toRelease;
+		synchronized (m_sync)
+		{
+			fence = fences[waitSlot];
+			fences[waitSlot] = 0;
+
+			toRelease = new ArrayList<>(retiredTextures.get(waitSlot));
+			retiredTextures.get(waitSlot).clear();
+		}
+
+		if (fence != 0)
+			clientWait(gl, fence);
+
+		for (ZZTexture texture : toRelease)
+			texture.dispose();
+	}
+
+	/**
+	 * Blocks until a fence has been signaled, then deletes it.
+	 *
+	 * @param gl Current GL context
+	 * @param fence Fence to wait for
+	 */
+	private static void clientWait(GL4 gl, long fence)
+	{
+		int waitFlags = GL4.GL_SYNC_FLUSH_COMMANDS_BIT;
+		while (true)
+		{
+			int result = gl.glClientWaitSync(fence, waitFlags, WAIT_TIMEOUT);
+			if (result != GL4.GL_TIMEOUT_EXPIRED)
+				break;
+			waitFlags = 0;	// Commands only need to be flushed once
+		}
+		gl.glDeleteSync(fence);
+	}
+}
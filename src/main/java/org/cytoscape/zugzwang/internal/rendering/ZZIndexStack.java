@@ -0,0 +1,83 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Stack of vacant primitive indices backed by a plain int array,
+ * so that freeing and reusing an index neither boxes nor allocates.
+ */
+public class ZZIndexStack
+{
+	private int[] indices;
+	private int size = 0;
+
+	public ZZIndexStack(int initialCapacity)
+	{
+		indices = new int[Math.max(1, initialCapacity)];
+	}
+
+	/**
+	 * Makes an index available for reuse.
+	 *
+	 * @param index Vacant index
+	 */
+	public void push(int index)
+	{
+		if (size == indices.length)
+			indices = Arrays.copyOf(indices, indices.length * 2);
+
+		indices[size++] = index;
+	}
+
+	/**
+	 * Makes a continuous range of indices available, so that
+	 * the lowest one will be handed out first.
+	 *
+	 * @param from First index of the range
+	 * @param to Index after the last one of the range
+	 */
+	public void pushRange(int from, int to)
+	{
+		if (to <= from)
+			return;
+
+		if (size + (to - from) > indices.length)
+			indices = Arrays.copyOf(indices, Math.max(indices.length * 2, size + (to - from)));
+
+		for (int i = to - 1; i >= from; i--)
+			indices[size++] = i;
+	}
+
+	/**
+	 * Takes the most recently freed index.
+	 *
+	 * @return Vacant index
+	 */
+	public int pop()
+	{
+		if (size == 0)
+			throw new IllegalStateException("No vacant indices left.");
+
+		return indices[--size];
+	}
+
+	/**
+	 * Checks if no vacant indices are left.
+	 *
+	 * @return True if empty, false otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of vacant indices.
+	 *
+	 * @return Number of indices
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
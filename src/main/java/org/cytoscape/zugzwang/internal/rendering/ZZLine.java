@@ -30,7 +30,7 @@ public class ZZLine
 	// Texture description
 	private short textureWidth = 1, textureHeight = 1;
 	private byte[] textureHost = new byte[4];
-	private ZZBindlessTexture texture;
+	private ZZTexture texture;
 	
 	public ZZLine(ZZLineManager manager, int index, Vector3 source, Vector3 target, short width)
 	{
@@ -58,6 +58,19 @@ public class ZZLine
 		}
 	}
 	
+	/**
+	 * Sets whether the line is drawn in the highlight color.
+	 * 
+	 * @param highlighted True to highlight the line
+	 */
+	public void setHighlighted(boolean highlighted)
+	{
+		synchronized (m_sync)
+		{
+			manager.setFlags(index, highlighted ? ZZLineManager.FLAG_HIGHLIGHT : 0);
+		}
+	}
+	
 	/**
 	 * Sets the line's source position
 	 * 
@@ -69,9 +82,7 @@ public class ZZLine
 		{
 			this.source = source;
 
-			manager.setSourceX(index, source.x);
-			manager.setSourceY(index, source.y);
-			manager.setSourceZ(index, source.z);
+			manager.setSource(index, source.x, source.y, source.z);
 		}
 	}
 
@@ -86,9 +97,49 @@ public class ZZLine
 		{
 			this.target = target;
 
-			manager.setTargetX(index, target.x);
-			manager.setTargetY(index, target.y);
-			manager.setTargetZ(index, target.z);
+			manager.setTarget(index, target.x, target.y, target.z);
+		}
+	}
+	
+	/**
+	 * Updates the locally stored width only, the manager
+	 * is updated by the batch that calls this.
+	 * 
+	 * @param width New width
+	 */
+	void storeWidth(short width)
+	{
+		synchronized (m_sync)
+		{
+			this.width = width;
+		}
+	}
+	
+	/**
+	 * Updates the locally stored source position only, the
+	 * manager is updated by the batch that calls this.
+	 * 
+	 * @param source New source position
+	 */
+	void storeSource(Vector3 source)
+	{
+		synchronized (m_sync)
+		{
+			this.source = source;
+		}
+	}
+	
+	/**
+	 * Updates the locally stored target position only, the
+	 * manager is updated by the batch that calls this.
+	 * 
+	 * @param target New target position
+	 */
+	void storeTarget(Vector3 target)
+	{
+		synchronized (m_sync)
+		{
+			this.target = target;
 		}
 	}
 	
@@ -106,8 +157,7 @@ public class ZZLine
 			this.textureHeight = height;
 			textureHost = new byte[width * height * 4];
 			
-			manager.setTextureSizeU(index, width);
-			manager.setTextureSizeV(index, height);
+			manager.setTextureSize(index, width, height);
 		}
 	}
 
@@ -168,8 +218,7 @@ public class ZZLine
 			this.textureHeight = height;
 			this.textureHost = data;
 			
-			manager.setTextureSizeU(index, width);
-			manager.setTextureSizeV(index, height);
+			manager.setTextureSize(index, width, height);
 		}
 	}
 
@@ -185,7 +234,7 @@ public class ZZLine
 
 	/**
 	 * Uploads the current texture to the device, and updates
-	 * the line manager with the new bindless texture ID.
+	 * the line manager with the new texture ID.
 	 * 
 	 * @param gl Current GL context
 	 */
@@ -194,9 +243,9 @@ public class ZZLine
 		synchronized (m_sync)
 		{
 			if (isOnDevice())
-				texture.dispose();
+				manager.retireTexture(texture);
 			
-			texture = new ZZBindlessTexture(gl, textureHost, textureWidth, textureHeight, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
+			texture = manager.createTexture(gl, textureHost, textureWidth, textureHeight);
 			
 			manager.setTexture(index, texture.getID());
 		}
@@ -214,7 +263,7 @@ public class ZZLine
 			if (!isOnDevice())
 				return;
 			
-			texture.dispose();
+			manager.retireTexture(texture);
 			texture = null;
 			
 			manager.setTextureToDefault(index);
@@ -275,7 +324,7 @@ public class ZZLine
 		if (!isOnDevice())
 			return;
 		
-		texture.dispose();
+		manager.retireTexture(texture);
 		texture = null;
 	}
 }
\ No newline at end of file
@@ -1,8 +1,8 @@
 package org.cytoscape.zugzwang.internal.rendering;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import org.cytoscape.zugzwang.internal.algebra.*;
 
@@ -16,9 +16,35 @@ import com.jogamp.opengl.util.GLBuffers;
  */
 public class ZZLineManager
 {
-	// For thread synchronization
+	// Guards ID allocation, which is the only state shared with model threads.
+	// Everything else is owned by the render thread and only changed there
+	// by executing queued commands.
 	private final Object m_sync = new Object();
 	
+	// Opcodes of queued commands
+	private static final int OP_CREATE = 0;
+	private static final int OP_DELETE = 1;
+	private static final int OP_ENDPOINT = 2;
+	private static final int OP_POSITION_COMPONENT = 3;
+	private static final int OP_WIDTH = 4;
+	private static final int OP_TEXTURE_SIZE = 5;
+	private static final int OP_TEXTURE_SIZE_COMPONENT = 6;
+	private static final int OP_TEXTURE = 7;
+	private static final int OP_TEXTURE_DEFAULT = 8;
+	private static final int OP_SWITCH_DEFAULT = 9;
+	private static final int OP_RESERVE = 10;
+	private static final int OP_FLAGS = 11;
+	private static final int OP_BATCH = 12;
+	
+	// Bits in a line's flags, which take the place of the padding after its sizes
+	public static final int FLAG_HIGHLIGHT = 1;	// Drawn in the highlight color, e. g. because it is selected
+	
+	// Updates from any thread, executed by the render thread at the start of each flush
+	private final ZZCommandQueue commands = new ZZCommandQueue();
+	
+	// Holds line textures instead of bindless textures if set
+	private volatile ZZTextureAtlas textureAtlas;
+	
 	private final GL4 gl;
 
 	// Parameters for the default texture that is used when
@@ -27,178 +53,261 @@ public class ZZLineManager
 	private long defaultTexture;
 	private short defaultTextureWidth, defaultTextureHeight;
 
-	// Number of currently managed lines, and currently available buffer capacity
-	private int elements = 0, capacity = 0;
-
+	// Number of currently managed lines and buffer capacity, with the capacity policy applied to them
+	private final ZZCapacityTracker slots;
+	
+	// Capacity of the device buffers, lags behind until the next flush after a resize
+	private int deviceCapacity = 0;
+	
 	// Information in device buffers can't have gaps. Those would
 	// occur if any line but the last was removed. Line manager
 	// keeps track of the available positions in the allocated buffers, and
-	// distributes them so no gaps occur.
+	// distributes them so no gaps occur. IDs are handed out right away,
+	// buffer positions only once the creation command is executed.
 	private int[] indicesMap, reverseMap;
-	private final Queue<Integer> availableIndices = new LinkedList<>();
+	private final ZZIndexStack availableIndices;
+	private int nextIndex;
 
 	// Host buffers
 	private float[] hostPosition;
 	private short[] hostSize;
 	private long[] hostTexture;
 
-	// Mapped device buffers
-	private ByteBuffer devicePosition;
-	private ByteBuffer deviceSize;
-	private ByteBuffer deviceTexture;
+	// Device buffers, with one region per frame in flight
+	private ZZRingBuffer devicePosition;
+	private ZZRingBuffer deviceSize;
+	private ZZRingBuffer deviceTexture;
 
-	// Device buffer handles
-	private final int[] attributeBuffers = new int[3];
-	private final int[] vertexArray = new int[1];
+	// One vertex array per ring slot, pointing to that slot's regions
+	private final int[] vertexArray = new int[ZZFrameSync.RING_SIZE];
+	
+	// Ring slot written by the last flush, used for drawing
+	private int currentSlot = 0;
 
-	// Update flags, prevent unnecessary updates of buffers
-	// that haven't been altered.
-	private boolean needsUpdatePosition = false;
-	private boolean needsUpdateSize = false;
-	private boolean needsUpdateTexture = false;
+	// Copy altered ranges from host buffers to mapped device buffers
+	private final ZZRingBuffer.RegionWriter writerPosition = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_FLOAT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_FLOAT, hostPosition.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_FLOAT);
+			target.asFloatBuffer().put(hostPosition, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerSize = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_SHORT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_SHORT, hostSize.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_SHORT);
+			target.asShortBuffer().put(hostSize, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerTexture = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			// Each ID occupies 2 longs because of std140 layout in shader
+			int end = Math.min((offset + length) / (2 * GLBuffers.SIZEOF_LONG), hostTexture.length);
+			for (int i = offset / (2 * GLBuffers.SIZEOF_LONG); i < end; i++)
+			{
+				region.putLong(i * 2 * GLBuffers.SIZEOF_LONG, hostTexture[i]);
+				region.putLong((i * 2 + 1) * GLBuffers.SIZEOF_LONG, 0);
+			}
+		}
+	};
+	
+	// Keeps track of frames in flight, and of textures they might still use
+	private final ZZFrameSync frameSync;
 	
-	public ZZLineManager(GL4 gl, int initialCapacity, long defaultTexture, short defaultTextureWidth, short defaultTextureHeight)
+	// Number of bytes pushed to the device during the last flush
+	private long flushedBytes = 0;
+	
+	// Order restored by compaction, fraction of shuffled elements that triggers it,
+	// and number of frames without creation or deletion it waits for
+	private volatile ZZBufferOrder bufferOrder = ZZBufferOrder.NONE;
+	private static final float COMPACTION_THRESHOLD = 0.1f;
+	private static final int COMPACTION_IDLE_FRAMES = 30;
+	
+	// Creations and deletions since the last compaction, and explicit requests for one
+	private int shuffledElements = 0;
+	private volatile boolean compactionRequested = false;
+	
+	// Counts how often lines were moved to other positions in the buffers
+	private int addressGeneration = 0;
+	
+	// Objects the lines belong to, by ID, to resolve picks
+	private Object[] owners = new Object[16];
+	
+	public ZZLineManager(GL4 gl, ZZFrameSync frameSync, int initialCapacity, long defaultTexture, short defaultTextureWidth, short defaultTextureHeight)
 	{
 		this.gl = gl;
+		this.frameSync = frameSync;
 		this.defaultTexture = defaultTexture;
 		this.defaultTextureWidth = defaultTextureWidth;
 		this.defaultTextureHeight = defaultTextureHeight;
-		this.capacity = initialCapacity;
+		this.slots = new ZZCapacityTracker(initialCapacity);
 		
 		hostPosition = new float[initialCapacity * 3 * 2];	// Source & target vec3
-		hostSize = new short[initialCapacity * 3 * 2];			// Width & textureUV
+		hostSize = new short[initialCapacity * 4];				// Width, textureUV & flags
 		hostTexture = new long[initialCapacity];
 		indicesMap = new int[initialCapacity];
 		reverseMap = new int[initialCapacity];
 		
-		for (int i = 0; i < initialCapacity; i++)
-			availableIndices.add(i);
+		availableIndices = new ZZIndexStack(initialCapacity);
+		availableIndices.pushRange(0, initialCapacity);
+		nextIndex = initialCapacity;
 		
 		createBuffers();
 	}
 
 	/**
-	 * Deletes old device buffers, allocates new ones, and copies
-	 * data from host buffers to them.
+	 * Resizes host buffers right away, and schedules device buffers
+	 * to be moved to the new capacity during the next flush. Any number
+	 * of resizes within one frame thus costs a single device-side copy.
+	 * Only called on the render thread, which owns the host buffers.
 	 * 
 	 * @param newCapacity Desired new buffer capacity
 	 */
-	public void resize(int newCapacity)
+	private void resize(int newCapacity)
 	{
-		int oldCapacity = capacity;
-		if (oldCapacity == newCapacity)
+		if (reverseMap.length == newCapacity)
 			return;
 		
-		deleteBuffers();
-		
-		float[] newHostPosition = new float[newCapacity * 3 * 2];
-		short[] newHostSize = new short[newCapacity * 3 * 2];
-		long[] newHostTexture = new long[newCapacity];
-		int[] newReverseMap = new int[newCapacity];
-		
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity) * 3 * 2; i++)
-			newHostPosition[i] = hostPosition[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity) * 3 * 2; i++)
-			newHostSize[i] = hostSize[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity); i++)
-			newHostTexture[i] = hostTexture[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity); i++)
-			newReverseMap[i] = reverseMap[i];
-				
-		hostPosition = newHostPosition;
-		hostSize = newHostSize;
-		hostTexture = newHostTexture;
-		reverseMap = newReverseMap;
+		hostPosition = Arrays.copyOf(hostPosition, newCapacity * 3 * 2);
+		hostSize = Arrays.copyOf(hostSize, newCapacity * 4);
+		hostTexture = Arrays.copyOf(hostTexture, newCapacity);
+		reverseMap = Arrays.copyOf(reverseMap, newCapacity);
+	}
+
+	/**
+	 * Allocates device buffers of the currently set capacity.
+	 */
+	private void createBuffers()
+	{
+		devicePosition = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * 2 * GLBuffers.SIZEOF_FLOAT);
+		devicePosition.fill(slots.size() * 3 * 2 * GLBuffers.SIZEOF_FLOAT, writerPosition);
 		
-		capacity = newCapacity;
+		// One set of sizes per line as 16 bit integers, followed by flags to fill 8 bytes for alignment
+		deviceSize = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceSize.fill(slots.size() * 4 * GLBuffers.SIZEOF_SHORT, writerSize);
 		
-		// Can't safely decrease map size without reindexing everything, so only increase
-		if (newCapacity > indicesMap.length)
-		{
-			// Add indices for the newly available range
-			for (int i = indicesMap.length; i < newCapacity; i++)
-				availableIndices.add(i);
-			
-			// Copy map into a bigger one
-			int[] newIndicesMap = new int[newCapacity];
-			for (int i = 0; i < indicesMap.length; i++)
-				newIndicesMap[i] = indicesMap[i];
-			indicesMap = newIndicesMap;
-		}
+		deviceTexture = new ZZRingBuffer(gl, GL4.GL_SHADER_STORAGE_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_LONG);	// Capacity * 2 because of std140 alignment in shader
+		deviceTexture.fill(slots.size() * 2 * GLBuffers.SIZEOF_LONG, writerTexture);
 		
-		createBuffers();
+		createVertexArrays();
+		deviceCapacity = slots.capacity();
 	}
 
 	/**
-	 * Allocates device buffers of the currently set capacity.
+	 * Moves device buffers to the currently set capacity. Their contents
+	 * are copied on the device instead of being uploaded from the host again.
 	 */
-	private void createBuffers()
+	private void reallocateBuffers()
 	{
-		gl.glGenBuffers(3, attributeBuffers, 0);
-		gl.glGenVertexArrays(1, vertexArray, 0);
-		gl.glBindVertexArray(vertexArray[0]);
+		ZZRingBuffer oldPosition = devicePosition;
+		ZZRingBuffer oldSize = deviceSize;
+		ZZRingBuffer oldTexture = deviceTexture;
 		
-		gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[0]);
-		{
-			gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, capacity * 3 * 2 * GLBuffers.SIZEOF_FLOAT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-			devicePosition = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, capacity * 3 * 2 * GLBuffers.SIZEOF_FLOAT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
-			
-			for (int i = 0; i < elements * 3 * 2; i++)
-				devicePosition.putFloat(hostPosition[i]);
-			devicePosition.rewind();
-			gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * 2 * GLBuffers.SIZEOF_FLOAT);
-			
-			gl.glVertexAttribPointer(0, 3, GL4.GL_FLOAT, false, 3 * GLBuffers.SIZEOF_FLOAT, 0);
-			gl.glEnableVertexAttribArray(0);
-		}
+		// Lines created after the last flush have been marked as altered anyway
+		int kept = Math.min(slots.size(), deviceCapacity);
+		
+		devicePosition = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * 2 * GLBuffers.SIZEOF_FLOAT);
+		devicePosition.copyFrom(oldPosition, kept * 3 * 2 * GLBuffers.SIZEOF_FLOAT);
+		
+		deviceSize = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceSize.copyFrom(oldSize, kept * 4 * GLBuffers.SIZEOF_SHORT);
+		
+		deviceTexture = new ZZRingBuffer(gl, GL4.GL_SHADER_STORAGE_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_LONG);	// Capacity * 2 because of std140 alignment in shader
+		deviceTexture.copyFrom(oldTexture, kept * 2 * GLBuffers.SIZEOF_LONG);
+		
+		oldPosition.dispose();
+		oldSize.dispose();
+		oldTexture.dispose();
+		gl.glDeleteVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
 		
-		gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[1]);
+		createVertexArrays();
+		deviceCapacity = slots.capacity();
+		
+		// Copies must have landed before the CPU writes into the new regions
+		frameSync.waitForDevice(gl);
+	}
+
+	/**
+	 * Creates one vertex array per ring slot, each pointing
+	 * to that slot's regions of the device buffers. Every line
+	 * is a single vertex carrying both endpoints, which the
+	 * geometry shader expands into a quad.
+	 */
+	private void createVertexArrays()
+	{
+		gl.glGenVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
+		for (int slot = 0; slot < ZZFrameSync.RING_SIZE; slot++)
 		{
-			gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, capacity * 3 * 2 * GLBuffers.SIZEOF_INT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-			deviceSize = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, capacity * 3 * 2 * GLBuffers.SIZEOF_INT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
+			gl.glBindVertexArray(vertexArray[slot]);
 			
-			for (int i = 0; i < elements * 3 * 2; i++)
-				deviceSize.putInt((int)hostSize[i]);
-			deviceSize.rewind();
-			gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * 2 * GLBuffers.SIZEOF_INT);
-			
-			gl.glVertexAttribIPointer(1, 3, GL4.GL_UNSIGNED_INT, 3 * GLBuffers.SIZEOF_INT, 0);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, devicePosition.getBuffer());
+			gl.glVertexAttribPointer(0, 3, GL4.GL_FLOAT, false, 6 * GLBuffers.SIZEOF_FLOAT, devicePosition.getRegionOffset(slot));
+			gl.glEnableVertexAttribArray(0);
+			gl.glVertexAttribPointer(1, 3, GL4.GL_FLOAT, false, 6 * GLBuffers.SIZEOF_FLOAT, devicePosition.getRegionOffset(slot) + 3 * GLBuffers.SIZEOF_FLOAT);
 			gl.glEnableVertexAttribArray(1);
-		}
-		
-		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[2]);
-		{
-			gl.glBufferStorage(GL4.GL_SHADER_STORAGE_BUFFER, capacity * 2 * GLBuffers.SIZEOF_LONG, null, GL4.GL_MAP_WRITE_BIT);		// Capacity * 2 because of std140 alignment in shader
-			deviceTexture = gl.glMapBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, capacity * 2 * GLBuffers.SIZEOF_LONG, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_INVALIDATE_BUFFER_BIT);
 			
-			for (int i = 0; i < elements; i++)
-			{
-				deviceTexture.putLong(hostTexture[i]);
-				deviceTexture.putLong(0);
-			}
-			deviceTexture.rewind();
-			gl.glUnmapBuffer(GL4.GL_SHADER_STORAGE_BUFFER);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, deviceSize.getBuffer());
+			gl.glVertexAttribIPointer(2, 4, GL4.GL_UNSIGNED_SHORT, 4 * GLBuffers.SIZEOF_SHORT, deviceSize.getRegionOffset(slot));
+			gl.glEnableVertexAttribArray(2);
 		}
+		gl.glBindVertexArray(0);
 	}
 
 	/**
-	 * Deletes device buffers.
+	 * Deletes device buffers. Frames still in flight keep
+	 * using them until they complete.
 	 */
 	private void deleteBuffers()
 	{
-		gl.glDeleteBuffers(3, attributeBuffers, 0);
-		gl.glDeleteVertexArrays(1, vertexArray, 0);
+		devicePosition.dispose();
+		deviceSize.dispose();
+		deviceTexture.dispose();
+		gl.glDeleteVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
 		
 		devicePosition = null;
 		deviceSize = null;
 		deviceTexture = null;
 	}
-
+	
+	/**
+	 * Makes sure the buffers can hold the given number of additional
+	 * lines without being resized again. Meant to be called before
+	 * creating many lines at once, e. g. when a network is loaded.
+	 * 
+	 * @param additional Number of lines about to be created
+	 */
+	public void reserve(int additional)
+	{
+		if (additional > 0)
+			commands.push(OP_RESERVE, -1, additional, 0, 0);
+	}
+	
 	/**
-	 * Creates a new line and assigns it the next vacant
-	 * position in the buffers. The line will use the 
+	 * Creates a new line. Its ID is assigned right away, while the
+	 * next vacant position in the buffers is assigned once the render
+	 * thread executes the creation. The line will use the 
 	 * default texture. If current buffer capacity is
-	 * insufficient, the capacity will be increased by 50 %.
+	 * insufficient, it will be increased according to the
+	 * capacity policy.
 	 * 
 	 * @param source Source position
 	 * @param target Target position
@@ -212,15 +321,9 @@ public class ZZLineManager
 		
 		synchronized (m_sync) 
 		{
-			if (elements >= capacity)
-				resize(capacity * 3 / 2);
-			
-			index = availableIndices.poll();
-			indicesMap[index] = elements;
-			reverseMap[elements] = index;
-						
-			elements++;
+			index = availableIndices.isEmpty() ? nextIndex++ : availableIndices.pop();
 		}
+		commands.push(OP_CREATE, index, 0, 0, 0);
 		
 		newLine = new ZZLine(this, index, source, target, width);	// This also sets the texture to default for this rect
 		
@@ -228,54 +331,65 @@ public class ZZLineManager
 	}
 
 	/**
-	 * Deletes a line and moves the last line in the 
-	 * buffer up to its position to fill the gap, making 
-	 * the last position vacant.
+	 * Deletes a line. Once the render thread executes the deletion,
+	 * the last line in the buffer is moved up to its position to
+	 * fill the gap, making the last position vacant.
 	 * 
 	 * @param line Line to be deleted
 	 */
 	public void deleteLine(ZZLine line)
 	{
+		// Queue deletion before the ID can be handed out again
+		commands.push(OP_DELETE, line.index, 0, 0, 0);
+		
 		synchronized (m_sync) 
 		{
-			int oldIndex = line.index;
-			availableIndices.add(oldIndex);
-			
-			int denseToFill = indicesMap[oldIndex];		// Position in buffer that has become vacant
-			int lastIndex = reverseMap[elements - 1];	// Mapping index of last element in buffer
-			reverseMap[elements - 1] = -1;				// Last element doesn't exist anymore
-			reverseMap[denseToFill] = lastIndex;		// Move it to newly vacant position
-			indicesMap[lastIndex] = denseToFill;			
-			elements--;
-
-			// Move data from last to vacant position
-			
-			hostPosition[denseToFill * 6] = hostPosition[elements * 6];
-			hostPosition[denseToFill * 6 + 1] = hostPosition[elements * 6 + 1];
-			hostPosition[denseToFill * 6 + 2] = hostPosition[elements * 6 + 2];
-			hostPosition[denseToFill * 6 + 3] = hostPosition[elements * 6 + 3];
-			hostPosition[denseToFill * 6 + 4] = hostPosition[elements * 6 + 4];
-			hostPosition[denseToFill * 6 + 5] = hostPosition[elements * 6 + 5];
-			needsUpdatePosition = true;
-
-			hostSize[denseToFill * 6] = hostSize[elements * 6];
-			hostSize[denseToFill * 6 + 1] = hostSize[elements * 6 + 1];
-			hostSize[denseToFill * 6 + 2] = hostSize[elements * 6 + 2];
-			hostSize[denseToFill * 6 + 3] = hostSize[elements * 6 + 3];
-			hostSize[denseToFill * 6 + 4] = hostSize[elements * 6 + 4];
-			hostSize[denseToFill * 6 + 5] = hostSize[elements * 6 + 5];
-			needsUpdateSize = true;
-			
-			hostTexture[denseToFill] = hostTexture[elements];
-			needsUpdateTexture = true;
-			
-			if (elements < capacity / 2)
-				resize(Math.max(10, capacity * 2 / 3));
+			if (line.index < owners.length)
+				owners[line.index] = null;
+			availableIndices.push(line.index);
 		}
 			
 		line.dispose(gl);
 	}
 	
+	/**
+	 * Sets the source's position
+	 * 
+	 * @param id Line ID
+	 * @param x New X coordinate
+	 * @param y New Y coordinate
+	 * @param z New Z coordinate
+	 */
+	public void setSource(int id, float x, float y, float z)
+	{
+		commands.pushFloats(OP_ENDPOINT, id << 1, x, y, z);
+	}
+
+	/**
+	 * Sets the target's position
+	 * 
+	 * @param id Line ID
+	 * @param x New X coordinate
+	 * @param y New Y coordinate
+	 * @param z New Z coordinate
+	 */
+	public void setTarget(int id, float x, float y, float z)
+	{
+		commands.pushFloats(OP_ENDPOINT, (id << 1) | 1, x, y, z);
+	}
+
+	/**
+	 * Sets the line's texture width and height
+	 * 
+	 * @param id Line ID
+	 * @param width New texture width
+	 * @param height New texture height
+	 */
+	public void setTextureSize(int id, short width, short height)
+	{
+		commands.push(OP_TEXTURE_SIZE, id, width, height, 0);
+	}
+	
 	/**
 	 * Sets the source's X coordinate
 	 * 
@@ -284,13 +398,7 @@ public class ZZLineManager
 	 */
 	public void setSourceX(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 0, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -301,13 +409,7 @@ public class ZZLineManager
 	 */
 	public void setSourceY(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 1;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 1, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -318,13 +420,7 @@ public class ZZLineManager
 	 */
 	public void setSourceZ(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 2;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 2, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -335,13 +431,7 @@ public class ZZLineManager
 	 */
 	public void setTargetX(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 3;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 3, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -352,13 +442,7 @@ public class ZZLineManager
 	 */
 	public void setTargetY(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 4;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 4, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -369,13 +453,7 @@ public class ZZLineManager
 	 */
 	public void setTargetZ(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 5;
-			hostPosition[address] = value;
-			devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-			needsUpdatePosition = true;
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 5, Float.floatToRawIntBits(value), 0);
 	}
 
 	/**
@@ -386,15 +464,7 @@ public class ZZLineManager
 	 */
 	public void setWidth(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6;
-			hostSize[address] = value;
-			deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-			hostSize[address + 3] = value;
-			deviceSize.putInt((address + 3) * GLBuffers.SIZEOF_INT, value);
-			needsUpdateSize = true;
-		}
+		commands.push(OP_WIDTH, id, value, 0, 0);
 	}
 
 	/**
@@ -405,15 +475,7 @@ public class ZZLineManager
 	 */
 	public void setTextureSizeU(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 1;
-			hostSize[address] = value;
-			deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-			hostSize[address + 3] = value;
-			deviceSize.putInt((address + 3) * GLBuffers.SIZEOF_INT, value);
-			needsUpdateSize = true;
-		}
+		commands.push(OP_TEXTURE_SIZE_COMPONENT, id, 1, value, 0);
 	}
 
 	/**
@@ -424,15 +486,7 @@ public class ZZLineManager
 	 */
 	public void setTextureSizeV(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 6 + 2;
-			hostSize[address] = value;
-			deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-			hostSize[address + 3] = value;
-			deviceSize.putInt((address + 3) * GLBuffers.SIZEOF_INT, value);
-			needsUpdateSize = true;
-		}
+		commands.push(OP_TEXTURE_SIZE_COMPONENT, id, 2, value, 0);
 	}
 
 	/**
@@ -443,12 +497,18 @@ public class ZZLineManager
 	 */
 	public void setTexture(int id, long value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id];
-			hostTexture[address] = value;
-			needsUpdateTexture = true;
-		}
+		commands.push(OP_TEXTURE, id, (int)value, (int)(value >>> 32), 0);
+	}
+
+	/**
+	 * Sets the line's flags, see FLAG_HIGHLIGHT.
+	 * 
+	 * @param id Line ID
+	 * @param flags New combination of flags
+	 */
+	public void setFlags(int id, int flags)
+	{
+		commands.push(OP_FLAGS, id, flags, 0, 0);
 	}
 
 	/**
@@ -458,23 +518,7 @@ public class ZZLineManager
 	 */
 	public void setTextureToDefault(int id)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id];
-			
-			hostTexture[address] = defaultTexture;
-			needsUpdateTexture = true;
-			
-			hostSize[address * 6 + 1] = defaultTextureWidth;
-			hostSize[address * 6 + 2] = defaultTextureHeight;
-			hostSize[address * 6 + 4] = defaultTextureWidth;
-			hostSize[address * 6 + 5] = defaultTextureHeight;
-			deviceSize.putInt((address * 6 + 1) * GLBuffers.SIZEOF_INT, defaultTextureWidth);
-			deviceSize.putInt((address * 6 + 2) * GLBuffers.SIZEOF_INT, defaultTextureHeight);
-			deviceSize.putInt((address * 6 + 4) * GLBuffers.SIZEOF_INT, defaultTextureWidth);
-			deviceSize.putInt((address * 6 + 5) * GLBuffers.SIZEOF_INT, defaultTextureHeight);
-			needsUpdateSize = true;
-		}
+		commands.push(OP_TEXTURE_DEFAULT, id, 0, 0, 0);
 	}
 
 	/**
@@ -488,72 +532,334 @@ public class ZZLineManager
 	 */
 	public void switchDefaultTexture(long newDefault, short newWidth, short newHeight)
 	{
-		synchronized (m_sync)
-		{
-			for (int i = 0; i < elements; i++)
-				if (hostTexture[i] == defaultTexture)
-				{
-					hostTexture[i] = newDefault;
-					
-					hostSize[i * 6 + 1] = newWidth;
-					hostSize[i * 6 + 2] = newHeight;
-					hostSize[i * 6 + 4] = newWidth;
-					hostSize[i * 6 + 5] = newHeight;
-					deviceSize.putInt((i * 6 + 1) * GLBuffers.SIZEOF_INT, newWidth);
-					deviceSize.putInt((i * 6 + 2) * GLBuffers.SIZEOF_INT, newHeight);
-					deviceSize.putInt((i * 6 + 4) * GLBuffers.SIZEOF_INT, newWidth);
-					deviceSize.putInt((i * 6 + 5) * GLBuffers.SIZEOF_INT, newHeight);
-				}
-			needsUpdateTexture = true;
-			needsUpdateSize = true;
-			
-			defaultTexture = newDefault;
-			defaultTextureWidth = newWidth;
-			defaultTextureHeight = newHeight;
-		}
+		commands.push(OP_SWITCH_DEFAULT, -1, (int)newDefault, (int)(newDefault >>> 32), (newWidth & 0xFFFF) | (newHeight << 16));
 	}
-
+	
 	/**
-	 * Pushes all changes in host buffers to device buffers.
+	 * Executes queued commands on the render thread.
 	 */
-	public void flush()
+	private final ZZCommandQueue.CommandHandler executor = new ZZCommandQueue.CommandHandler()
 	{
-		synchronized (m_sync) 
-		{		
-			if (elements == 0)
+		@Override
+		public void execute(int op, int id, int a, int b, int c)
+		{
+			if (op == OP_CREATE)
+			{
+				executeCreate(id);
 				return;
-			
-			if (needsUpdatePosition)
+			}
+			if (op == OP_RESERVE)
 			{
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[0]);
-				gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * 2 * GLBuffers.SIZEOF_FLOAT);
-				needsUpdatePosition = false;
+				resize(slots.reserve(a));
+				return;
 			}
-			
-			if (needsUpdateSize)
+			if (op == OP_SWITCH_DEFAULT)
 			{
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[1]);
-				gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * 2 * GLBuffers.SIZEOF_INT);
-				needsUpdateSize = false;
+				executeSwitchDefault(((long)b << 32) | (a & 0xFFFFFFFFL), (short)c, (short)(c >> 16));
+				return;
 			}
-	
-			if (needsUpdateTexture)
-			{				
-				gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[2]);
-				{
-					deviceTexture = gl.glMapBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, elements * 2 * GLBuffers.SIZEOF_LONG, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_INVALIDATE_RANGE_BIT);	// * 2 because of std140 layout in shader
+			
+			// Endpoint commands carry the line ID shifted left by one, lowest bit set for target
+			int address = getAddress(op == OP_ENDPOINT ? id >>> 1 : id);
+			
+			// Commands for lines that have been deleted in the meantime are dropped
+			if (address < 0)
+				return;
+			
+			switch (op)
+			{
+				case OP_DELETE:
+					executeDelete(address);
+					break;
+				case OP_ENDPOINT:
+					int endpoint = address * 6 + (id & 1) * 3;
+					hostPosition[endpoint] = Float.intBitsToFloat(a);
+					hostPosition[endpoint + 1] = Float.intBitsToFloat(b);
+					hostPosition[endpoint + 2] = Float.intBitsToFloat(c);
+					devicePosition.mark(endpoint * GLBuffers.SIZEOF_FLOAT, 3 * GLBuffers.SIZEOF_FLOAT);
+					break;
+				case OP_POSITION_COMPONENT:
+					hostPosition[address * 6 + a] = Float.intBitsToFloat(b);
+					devicePosition.mark((address * 6 + a) * GLBuffers.SIZEOF_FLOAT, GLBuffers.SIZEOF_FLOAT);
+					break;
+				case OP_WIDTH:
+					hostSize[address * 4] = (short)a;
+					deviceSize.mark(address * 4 * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_TEXTURE_SIZE:
+					hostSize[address * 4 + 1] = (short)a;
+					hostSize[address * 4 + 2] = (short)b;
+					deviceSize.mark((address * 4 + 1) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_TEXTURE_SIZE_COMPONENT:
+					hostSize[address * 4 + a] = (short)b;
+					deviceSize.mark((address * 4 + a) * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_TEXTURE:
+					hostTexture[address] = ((long)b << 32) | (a & 0xFFFFFFFFL);
+					markTexture(address);
+					break;
+				case OP_TEXTURE_DEFAULT:
+					hostTexture[address] = defaultTexture;
+					markTexture(address);
 					
-					for (int i = 0; i < elements; i++)
+					hostSize[address * 4 + 1] = defaultTextureWidth;
+					hostSize[address * 4 + 2] = defaultTextureHeight;
+					deviceSize.mark((address * 4 + 1) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_FLAGS:
+					if (hostSize[address * 4 + 3] != (short)a)
 					{
-						deviceTexture.putLong(hostTexture[i]);
-						deviceTexture.putLong(0);
+						hostSize[address * 4 + 3] = (short)a;
+						deviceSize.mark((address * 4 + 3) * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
 					}
-					gl.glUnmapBuffer(GL4.GL_SHADER_STORAGE_BUFFER);
-				}
-				
-				needsUpdateTexture = false;
+					break;
 			}
 		}
+		
+		@Override
+		public void execute(int op, Object payload)
+		{
+			if (op == OP_BATCH)
+				executeBatch((Batch)payload);
+		}
+	};
+	
+	/**
+	 * Copies all updates of a committed batch into the host buffers.
+	 * 
+	 * @param batch Batch detached on commit
+	 */
+	private void executeBatch(Batch batch)
+	{
+		for (int i = 0; i < batch.numEndpoints; i++)
+		{
+			int id = batch.endpointIDs[i];
+			int address = getAddress(id >>> 1);
+			if (address < 0)
+				continue;
+			
+			int endpoint = address * 6 + (id & 1) * 3;
+			System.arraycopy(batch.endpoints, i * 3, hostPosition, endpoint, 3);
+			devicePosition.mark(endpoint * GLBuffers.SIZEOF_FLOAT, 3 * GLBuffers.SIZEOF_FLOAT);
+		}
+		
+		for (int i = 0; i < batch.numWidths; i++)
+		{
+			int address = getAddress(batch.widthIDs[i]);
+			if (address < 0)
+				continue;
+			
+			hostSize[address * 4] = batch.widths[i];
+			deviceSize.mark(address * 4 * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
+		}
+	}
+	
+	/**
+	 * Gets a line's current position in the buffers.
+	 * 
+	 * @param id Line ID
+	 * @return Position in the buffers, or -1 if the line doesn't exist
+	 */
+	private int getAddress(int id)
+	{
+		if (id < 0 || id >= indicesMap.length)
+			return -1;
+		
+		int address = indicesMap[id];
+		if (address >= slots.size() || reverseMap[address] != id)
+			return -1;
+		
+		return address;
+	}
+	
+	/**
+	 * Assigns a newly created line the next vacant position in the buffers.
+	 * 
+	 * @param id Line ID
+	 */
+	private void executeCreate(int id)
+	{
+		int address = slots.size();
+		resize(slots.add());
+		
+		if (id >= indicesMap.length)
+			indicesMap = Arrays.copyOf(indicesMap, Math.max(id + 1, indicesMap.length * 2));
+		
+		indicesMap[id] = address;
+		reverseMap[address] = id;
+		
+		// Slot may hold stale device data from a previous line, and flags aren't set on creation
+		hostSize[address * 4 + 3] = 0;
+		markElement(address);
+		
+		shuffledElements++;
+	}
+	
+	/**
+	 * Moves the last line in the buffers to the position
+	 * of a deleted one to fill the gap.
+	 * 
+	 * @param denseToFill Position in buffer that has become vacant
+	 */
+	private void executeDelete(int denseToFill)
+	{
+		slots.remove();	// Shrinking is deferred to idle frames, see flush
+		int last = slots.size();
+		
+		int lastIndex = reverseMap[last];	// Mapping index of last element in buffer
+		reverseMap[last] = -1;				// Last element doesn't exist anymore
+		reverseMap[denseToFill] = lastIndex;		// Move it to newly vacant position
+		indicesMap[lastIndex] = denseToFill;			
+
+		// Move data from last to vacant position
+		
+		System.arraycopy(hostPosition, last * 6, hostPosition, denseToFill * 6, 6);
+		System.arraycopy(hostSize, last * 4, hostSize, denseToFill * 4, 4);
+		hostTexture[denseToFill] = hostTexture[last];
+		markElement(denseToFill);
+		
+		shuffledElements++;
+		addressGeneration++;
+	}
+	
+	/**
+	 * Replaces the default texture in all lines using it.
+	 * 
+	 * @param newDefault New default bindless texture ID
+	 * @param newWidth New texture width
+	 * @param newHeight New texture height
+	 */
+	private void executeSwitchDefault(long newDefault, short newWidth, short newHeight)
+	{
+		for (int i = 0; i < slots.size(); i++)
+			if (hostTexture[i] == defaultTexture)
+			{
+				hostTexture[i] = newDefault;
+				markTexture(i);
+				
+				hostSize[i * 4 + 1] = newWidth;
+				hostSize[i * 4 + 2] = newHeight;
+				deviceSize.mark((i * 4 + 1) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+			}
+		
+		defaultTexture = newDefault;
+		defaultTextureWidth = newWidth;
+		defaultTextureHeight = newHeight;
+	}
+
+	/**
+	 * Marks all data of a single line as altered.
+	 * Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 */
+	private void markElement(int address)
+	{
+		devicePosition.mark(address * 6 * GLBuffers.SIZEOF_FLOAT, 6 * GLBuffers.SIZEOF_FLOAT);
+		deviceSize.mark(address * 4 * GLBuffers.SIZEOF_SHORT, 4 * GLBuffers.SIZEOF_SHORT);
+		markTexture(address);
+	}
+	
+	/**
+	 * Marks a single bindless texture ID slot as altered.
+	 * Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 */
+	private void markTexture(int address)
+	{
+		deviceTexture.mark(address * 2 * GLBuffers.SIZEOF_LONG, 2 * GLBuffers.SIZEOF_LONG);	// * 2 because of std140 layout in shader
+	}
+	
+	/**
+	 * Sets the atlas line textures are allocated in. The texture
+	 * buffer then holds region indices instead of bindless texture IDs.
+	 * 
+	 * @param atlas Texture atlas, null to create bindless textures
+	 */
+	public void setTextureAtlas(ZZTextureAtlas atlas)
+	{
+		textureAtlas = atlas;
+	}
+	
+	/**
+	 * Creates a device texture for a line, as a region in the
+	 * texture atlas if there is one, and as a bindless texture otherwise.
+	 * Must be called on the render thread.
+	 * 
+	 * @param gl Current GL context
+	 * @param data Pixels in ABGR order
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return New texture
+	 */
+	public ZZTexture createTexture(GL4 gl, byte[] data, short width, short height)
+	{
+		ZZTextureAtlas atlas = textureAtlas;
+		if (atlas != null)
+			return atlas.allocate(data, width, height);
+		
+		return new ZZBindlessTexture(gl, data, width, height, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
+	}
+	
+	/**
+	 * Schedules a texture previously used by a line for deletion
+	 * once no frame in flight can reference it anymore.
+	 * 
+	 * @param texture Texture that is no longer used
+	 */
+	public void retireTexture(ZZTexture texture)
+	{
+		frameSync.retire(texture);
+	}
+	
+	/**
+	 * Executes all queued commands, then pushes all changes in host 
+	 * buffers to the device buffer regions of the given ring slot. 
+	 * Only the altered ranges are written and flushed. Subsequent 
+	 * draw calls will use this slot's regions. Must be called on
+	 * the render thread.
+	 * 
+	 * @param slot Ring slot the current frame writes to
+	 * @return Number of bytes pushed to the device
+	 */
+	public long flush(int slot)
+	{
+		commands.drain(executor);
+		
+		// Restore buffer order once enough has been shuffled and things have calmed down
+		if (bufferOrder != ZZBufferOrder.NONE && slots.size() > 1 &&
+			(compactionRequested || (slots.getFramesIdle() >= COMPACTION_IDLE_FRAMES && shuffledElements > slots.size() * COMPACTION_THRESHOLD)))
+			compact();
+		
+		currentSlot = slot;
+		flushedBytes = 0;
+		
+		// Shrink only after a while without creation or deletion
+		resize(slots.endFrame());
+		
+		if (deviceCapacity != slots.capacity())
+			reallocateBuffers();
+		
+		if (slots.size() == 0)
+			return flushedBytes;
+		
+		flushedBytes += devicePosition.flush(slot, writerPosition);
+		flushedBytes += deviceSize.flush(slot, writerSize);
+		flushedBytes += deviceTexture.flush(slot, writerTexture);
+		
+		return flushedBytes;
+	}
+	
+	/**
+	 * Gets the number of bytes pushed to the device during the last flush.
+	 * 
+	 * @return Number of flushed bytes
+	 */
+	public long getFlushedBytes()
+	{
+		return flushedBytes;
 	}
 
 	/**
@@ -563,17 +869,17 @@ public class ZZLineManager
 	 */
 	public int getVertexArray()
 	{
-		return vertexArray[0];
+		return vertexArray[currentSlot];
 	}
 
 	/**
-	 * Gets the number of lines currently managed.
+	 * Gets the number of lines in the buffers as of the last flush.
 	 * 
 	 * @return Number of lines
 	 */
 	public int size()
 	{
-		return elements;
+		return slots.size();
 	}
 
 	/**
@@ -583,9 +889,141 @@ public class ZZLineManager
 	 */
 	public int capacity()
 	{
-		return capacity;
+		return slots.capacity();
+	}
+	
+	/**
+	 * Re-sorts all lines in the buffers according to the buffer order,
+	 * and rewrites the index maps accordingly. All data is marked as altered,
+	 * so this is only done on idle frames after a significant amount of
+	 * creations and deletions, or when explicitly requested.
+	 */
+	private void compact()
+	{
+		int[] order;
+		if (bufferOrder == ZZBufferOrder.SPATIAL)
+		{
+			// Lines are sorted by their midpoints
+			float[] midpoints = new float[slots.size() * 3];
+			for (int i = 0; i < slots.size() * 3; i++)
+				midpoints[i] = (hostPosition[(i / 3) * 6 + i % 3] + hostPosition[(i / 3) * 6 + 3 + i % 3]) * 0.5f;
+			order = ZZBufferOrder.spatialOrder(midpoints, slots.size());
+		}
+		else
+		{
+			order = ZZBufferOrder.textureOrder(hostTexture, slots.size());
+		}
+		
+		float[] sortedPosition = new float[hostPosition.length];
+		short[] sortedSize = new short[hostSize.length];
+		long[] sortedTexture = new long[hostTexture.length];
+		int[] sortedReverse = new int[reverseMap.length];
+		Arrays.fill(sortedReverse, -1);
+		
+		for (int i = 0; i < slots.size(); i++)
+		{
+			int old = order[i];
+			System.arraycopy(hostPosition, old * 6, sortedPosition, i * 6, 6);
+			System.arraycopy(hostSize, old * 4, sortedSize, i * 4, 4);
+			sortedTexture[i] = hostTexture[old];
+			
+			sortedReverse[i] = reverseMap[old];
+			indicesMap[sortedReverse[i]] = i;
+		}
+		
+		hostPosition = sortedPosition;
+		hostSize = sortedSize;
+		hostTexture = sortedTexture;
+		reverseMap = sortedReverse;
+		
+		devicePosition.mark(0, slots.size() * 6 * GLBuffers.SIZEOF_FLOAT);
+		deviceSize.mark(0, slots.size() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceTexture.mark(0, slots.size() * 2 * GLBuffers.SIZEOF_LONG);
+		
+		shuffledElements = 0;
+		compactionRequested = false;
+		addressGeneration++;
+	}
+	
+	/**
+	 * Sets the order that compaction restores in the buffers.
+	 * With ZZBufferOrder.NONE, which is the default, buffers are never compacted.
+	 * 
+	 * @param order New buffer order
+	 */
+	public void setBufferOrder(ZZBufferOrder order)
+	{
+		bufferOrder = order;
+	}
+	
+	/**
+	 * Makes the next flush compact the buffers regardless of how many
+	 * lines have been shuffled, e. g. after a layout moved all of them.
+	 * Has no effect if the buffer order is ZZBufferOrder.NONE.
+	 */
+	public void requestCompaction()
+	{
+		compactionRequested = true;
+	}
+	
+	/**
+	 * Sets the policy that decides when buffers are grown or shrunk.
+	 * 
+	 * @param policy New capacity policy
+	 */
+	public void setCapacityPolicy(ZZCapacityPolicy policy)
+	{
+		slots.setPolicy(policy);
 	}
 
+	/**
+	 * Records the object a line belongs to, so picks on the
+	 * device can be traced back to it.
+	 * 
+	 * @param id Line ID
+	 * @param owner Object the line belongs to, null to forget it
+	 */
+	public void setOwner(int id, Object owner)
+	{
+		synchronized (m_sync)
+		{
+			if (id >= owners.length)
+				owners = Arrays.copyOf(owners, Math.max(id + 1, owners.length * 2));
+			owners[id] = owner;
+		}
+	}
+	
+	/**
+	 * Gets the owner of the line at a position in the buffers,
+	 * as of the last flush. Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 * @return Owner, or null if there is none
+	 */
+	public Object getOwnerAt(int address)
+	{
+		if (address < 0 || address >= slots.size())
+			return null;
+		
+		int id = reverseMap[address];
+		synchronized (m_sync)
+		{
+			return id >= 0 && id < owners.length ? owners[id] : null;
+		}
+	}
+	
+	/**
+	 * Gets a counter that changes whenever lines are moved to other
+	 * positions in the buffers, which invalidates anything that refers
+	 * to them by position, like pick results.
+	 * 
+	 * @return Address generation
+	 */
+	public int getAddressGeneration()
+	{
+		return addressGeneration;
+	}
+	
 	/**
 	 * Binds vertex array and texture ID storage buffer to the current GL context.
 	 */
@@ -593,8 +1031,8 @@ public class ZZLineManager
 	{
 		gl.glBindVertexArray(getVertexArray());
 		
-		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[2]);
-		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 0, attributeBuffers[2]);
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, deviceTexture.getBuffer());
+		gl.glBindBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, deviceTexture.getBuffer(), deviceTexture.getRegionOffset(currentSlot), deviceTexture.getRegionSize());
 		//gl.glShaderStorageBlockBinding(program, 0, 0);
 	}
 	
@@ -605,4 +1043,147 @@ public class ZZLineManager
 	{
 		deleteBuffers();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Creates a new batch for updating many lines of this manager at once.
+	 * 
+	 * @return Empty batch
+	 */
+	public Batch createBatch()
+	{
+		return new Batch();
+	}
+	
+	/**
+	 * Hands all updates collected in a batch to the render thread
+	 * as a single command, which copies them into the host buffers.
+	 * 
+	 * @param batch Batch to apply
+	 */
+	private void apply(Batch batch)
+	{
+		if (batch.numEndpoints + batch.numWidths > 0)
+			commands.pushPayload(OP_BATCH, batch.detach());
+	}
+	
+	/**
+	 * Collects geometry updates for many lines in primitive arrays,
+	 * and hands them to the render thread in one command on commit. Meant
+	 * for layouts and other operations that move every line at once.
+	 * A batch is not thread-safe, each thread should use its own.
+	 */
+	public class Batch
+	{
+		// Line ID shifted left by one, lowest bit is 0 for source, 1 for target
+		private int[] endpointIDs = new int[16];
+		private float[] endpoints = new float[16 * 3];
+		private int numEndpoints = 0;
+		
+		private int[] widthIDs = new int[16];
+		private short[] widths = new short[16];
+		private int numWidths = 0;
+		
+		private Batch() { }
+		
+		/**
+		 * Queues a new source position for a line.
+		 * 
+		 * @param line Line of this manager
+		 * @param source New source position
+		 */
+		public void setSource(ZZLine line, Vector3 source)
+		{
+			line.storeSource(source);
+			addEndpoint(line.index << 1, source);
+		}
+		
+		/**
+		 * Queues a new target position for a line.
+		 * 
+		 * @param line Line of this manager
+		 * @param target New target position
+		 */
+		public void setTarget(ZZLine line, Vector3 target)
+		{
+			line.storeTarget(target);
+			addEndpoint((line.index << 1) | 1, target);
+		}
+		
+		/**
+		 * Queues a new width for a line.
+		 * 
+		 * @param line Line of this manager
+		 * @param width New width
+		 */
+		public void setWidth(ZZLine line, short width)
+		{
+			line.storeWidth(width);
+			
+			if (numWidths == widthIDs.length)
+			{
+				widthIDs = Arrays.copyOf(widthIDs, numWidths * 2);
+				widths = Arrays.copyOf(widths, numWidths * 2);
+			}
+			
+			widthIDs[numWidths] = line.index;
+			widths[numWidths] = width;
+			numWidths++;
+		}
+		
+		/**
+		 * Queues a new position for either end of a line.
+		 * 
+		 * @param endpointID Line ID shifted left by one, lowest bit set for target
+		 * @param position New position
+		 */
+		private void addEndpoint(int endpointID, Vector3 position)
+		{
+			if (numEndpoints == endpointIDs.length)
+			{
+				endpointIDs = Arrays.copyOf(endpointIDs, numEndpoints * 2);
+				endpoints = Arrays.copyOf(endpoints, numEndpoints * 2 * 3);
+			}
+			
+			endpointIDs[numEndpoints] = endpointID;
+			endpoints[numEndpoints * 3] = position.x;
+			endpoints[numEndpoints * 3 + 1] = position.y;
+			endpoints[numEndpoints * 3 + 2] = position.z;
+			numEndpoints++;
+		}
+		
+		/**
+		 * Applies all queued updates and empties the batch, so it can be reused.
+		 */
+		public void commit()
+		{
+			apply(this);
+		}
+		
+		/**
+		 * Moves the queued updates to a new batch, which then belongs to the
+		 * render thread. This batch continues with empty arrays of the same size.
+		 * 
+		 * @return Batch holding the queued updates
+		 */
+		private Batch detach()
+		{
+			Batch detached = new Batch();
+			
+			detached.endpointIDs = endpointIDs;
+			detached.endpoints = endpoints;
+			detached.numEndpoints = numEndpoints;
+			endpointIDs = new int[endpointIDs.length];
+			endpoints = new float[endpoints.length];
+			numEndpoints = 0;
+			
+			detached.widthIDs = widthIDs;
+			detached.widths = widths;
+			detached.numWidths = numWidths;
+			widthIDs = new int[widthIDs.length];
+			widths = new short[widths.length];
+			numWidths = 0;
+			
+			return detached;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.nio.IntBuffer;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.util.GLBuffers;
+
+/**
+ * Off-screen target that primitives are drawn into with their IDs instead
+ * of colors, to find out what is under a single pixel. Drawing is limited
+ * to that pixel by a scissor rectangle, so a pass costs little more than
+ * the vertex work. The pixel is read into a pixel buffer object, and only
+ * fetched once a fence says it has arrived, so picking never stalls the
+ * render loop. Only one pick can be in flight at a time.
+ */
+public class ZZPickBuffer
+{
+	private final GL4 gl;
+
+	// Framebuffer with an RG32UI color attachment for kind and address, and a depth attachment
+	private final int[] framebuffer = new int[1];
+	private final int[] renderbuffers = new int[2];
+	private final int[] pixelBuffer = new int[1];
+	private int width = 0, height = 0;
+
+	// Framebuffer that was bound before the pick pass, e. g. the panel's own
+	private final int[] previousFramebuffer = new int[1];
+
+	private int pixelX, pixelY;
+	private long fence = 0;
+
+	public ZZPickBuffer(GL4 gl)
+	{
+		this.gl = gl;
+
+		gl.glGenBuffers(1, pixelBuffer, 0);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, pixelBuffer[0]);
+		gl.glBufferStorage(GL4.GL_PIXEL_PACK_BUFFER, 2 * GLBuffers.SIZEOF_INT, null, 0);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	/**
+	 * Checks if a pick has been issued whose result hasn't been fetched yet.
+	 *
+	 * @return True if a pick is in flight
+	 */
+	public boolean isPending()
+	{
+		return fence != 0;
+	}
+
+	/**
+	 * Binds the pick target and restricts drawing to a single pixel, which is
+	 * cleared to 0. Primitives drawn until end write their kind and address.
+	 *
+	 * @param x Pixel X coordinate, from the left
+	 * @param y Pixel Y coordinate, from the bottom
+	 * @param surfaceWidth Width of the drawing surface in pixels
+	 * @param surfaceHeight Height of the drawing surface in pixels
+	 */
+	public void begin(int x, int y, int surfaceWidth, int surfaceHeight)
+	{
+		if (surfaceWidth != width || surfaceHeight != height)
+			allocate(surfaceWidth, surfaceHeight);
+
+		pixelX = x;
+		pixelY = y;
+
+		gl.glGetIntegerv(GL4.GL_DRAW_FRAMEBUFFER_BINDING, previousFramebuffer, 0);
+		gl.glBindFramebuffer(GL4.GL_FRAMEBUFFER, framebuffer[0]);
+
+		gl.glEnable(GL4.GL_SCISSOR_TEST);
+		gl.glScissor(x, y, 1, 1);
+		gl.glClearBufferuiv(GL4.GL_COLOR, 0, new int[] { 0, 0, 0, 0 }, 0);
+		gl.glClearBufferfv(GL4.GL_DEPTH, 0, new float[] { 1.0f }, 0);
+	}
+
+	/**
+	 * Queues the read of the picked pixel, and restores the previous framebuffer.
+	 */
+	public void end()
+	{
+		gl.glReadBuffer(GL4.GL_COLOR_ATTACHMENT0);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, pixelBuffer[0]);
+		gl.glReadPixels(pixelX, pixelY, 1, 1, GL4.GL_RG_INTEGER, GL4.GL_UNSIGNED_INT, 0L);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+
+		fence = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+		gl.glDisable(GL4.GL_SCISSOR_TEST);
+		gl.glBindFramebuffer(GL4.GL_FRAMEBUFFER, previousFramebuffer[0]);
+	}
+
+	/**
+	 * Fetches the result of the pick in flight, if it has arrived.
+	 *
+	 * @return Kind and address of the picked primitive, kind 0 if nothing was hit; null if not there yet
+	 */
+	public int[] poll()
+	{
+		if (fence == 0)
+			return null;
+
+		int status = gl.glClientWaitSync(fence, GL4.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+		if (status == GL4.GL_TIMEOUT_EXPIRED)
+			return null;
+
+		gl.glDeleteSync(fence);
+		fence = 0;
+
+		IntBuffer result = GLBuffers.newDirectIntBuffer(2);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, pixelBuffer[0]);
+		gl.glGetBufferSubData(GL4.GL_PIXEL_PACK_BUFFER, 0, 2 * GLBuffers.SIZEOF_INT, result);
+		gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+
+		return new int[] { result.get(0), result.get(1) };
+	}
+
+	/**
+	 * Frees all associated device resources.
+	 */
+	public void dispose()
+	{
+		if (fence != 0)
+			gl.glDeleteSync(fence);
+		fence = 0;
+
+		release();
+		gl.glDeleteBuffers(1, pixelBuffer, 0);
+	}
+
+	/**
+	 * Creates attachments of the given size.
+	 */
+	private void allocate(int newWidth, int newHeight)
+	{
+		release();
+
+		width = Math.max(1, newWidth);
+		height = Math.max(1, newHeight);
+
+		gl.glGenRenderbuffers(2, renderbuffers, 0);
+		gl.glBindRenderbuffer(GL4.GL_RENDERBUFFER, renderbuffers[0]);
+		gl.glRenderbufferStorage(GL4.GL_RENDERBUFFER, GL4.GL_RG32UI, width, height);
+		gl.glBindRenderbuffer(GL4.GL_RENDERBUFFER, renderbuffers[1]);
+		gl.glRenderbufferStorage(GL4.GL_RENDERBUFFER, GL4.GL_DEPTH_COMPONENT24, width, height);
+		gl.glBindRenderbuffer(GL4.GL_RENDERBUFFER, 0);
+
+		gl.glGetIntegerv(GL4.GL_DRAW_FRAMEBUFFER_BINDING, previousFramebuffer, 0);
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glBindFramebuffer(GL4.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glFramebufferRenderbuffer(GL4.GL_FRAMEBUFFER, GL4.GL_COLOR_ATTACHMENT0, GL4.GL_RENDERBUFFER, renderbuffers[0]);
+		gl.glFramebufferRenderbuffer(GL4.GL_FRAMEBUFFER, GL4.GL_DEPTH_ATTACHMENT, GL4.GL_RENDERBUFFER, renderbuffers[1]);
+		gl.glDrawBuffer(GL4.GL_COLOR_ATTACHMENT0);
+		gl.glBindFramebuffer(GL4.GL_FRAMEBUFFER, previousFramebuffer[0]);
+	}
+
+	/**
+	 * Deletes the attachments and the framebuffer, if they exist.
+	 */
+	private void release()
+	{
+		if (width == 0)
+			return;
+
+		gl.glDeleteFramebuffers(1, framebuffer, 0);
+		gl.glDeleteRenderbuffers(2, renderbuffers, 0);
+		width = 0;
+		height = 0;
+	}
+}
@@ -1,5 +1,6 @@
 package org.cytoscape.zugzwang.internal.rendering;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
@@ -35,7 +36,21 @@ public class ZZRectangle
 	// Texture description
 	private short textureWidth = 1, textureHeight = 1;
 	private byte[] textureHost = new byte[4];
-	private ZZBindlessTexture texture;
+	private ZZTexture texture;
+	
+	// Last flags and shape attributes sent to the manager, see ZZRectangleManager.FLAG_HIGHLIGHT
+	private int flags = 0;
+	private int shapeType = -1, shapeBorderWidth, shapeFillColor, shapeBorderColor;	// Type -1 until the first setShape
+	
+	// Texture shared through a ZZTextureCache instead of a private one, and
+	// the shared texture the manager currently uses, which differ until
+	// the former is resident.
+	private ZZTextureCache.Entry shared, sharedVisible;
+	
+	// Streamed uploads are counted, so textures arriving after being
+	// superseded or discarded can be recognized and dropped.
+	private int uploadGeneration = 0;
+	private boolean uploading = false;
 	
 	public ZZRectangle(ZZRectangleManager manager, int index, 
 					   Vector3 center, 
@@ -47,6 +62,7 @@ public class ZZRectangle
 		
 		setSize(width, height);
 		setCenter(center);
+		setOffset(offsetX, offsetY);
 		manager.setTextureToDefault(index);
 	}
 	
@@ -63,8 +79,7 @@ public class ZZRectangle
 			this.width = width;
 			this.height = height;
 			
-			manager.setSizeX(index, width);
-			manager.setSizeY(index, height);
+			manager.setSize(index, width, height);
 		}
 	}
 	
@@ -79,9 +94,7 @@ public class ZZRectangle
 		{
 			this.center = center;
 
-			manager.setPositionX(index, center.x);
-			manager.setPositionY(index, center.y);
-			manager.setPositionZ(index, center.z);
+			manager.setPosition(index, center.x, center.y, center.z);
 		}
 	}
 	
@@ -98,8 +111,163 @@ public class ZZRectangle
 			this.offsetX = offsetX;
 			this.offsetY = offsetY;
 
-			manager.setOffsetX(index, offsetX);
-			manager.setOffsetY(index, offsetY);
+			manager.setOffset(index, offsetX, offsetY);
+		}
+	}
+	
+	/**
+	 * Sets whether the rectangle is tinted with the highlight color.
+	 * Unlike anything drawn into the texture, this takes effect
+	 * in the next frame without redrawing the texture.
+	 * 
+	 * @param highlighted True to highlight the rectangle
+	 */
+	public void setHighlighted(boolean highlighted)
+	{
+		synchronized (m_sync)
+		{
+			setFlags(highlighted ? flags | ZZRectangleManager.FLAG_HIGHLIGHT : flags & ~ZZRectangleManager.FLAG_HIGHLIGHT);
+		}
+	}
+	
+	/**
+	 * Makes the rectangle a flat-colored sprite that ignores its texture,
+	 * or lets it sample the texture again. The texture itself is left 
+	 * alone, so callers can discard it to free device memory.
+	 * 
+	 * @param color Fill color, or null to sample the texture
+	 */
+	public void setFlatColor(Color color)
+	{
+		synchronized (m_sync)
+		{
+			int keep = flags & (ZZRectangleManager.FLAG_HIGHLIGHT | ZZRectangleManager.FLAG_SHAPE);
+			if (color == null)
+				setFlags(keep);
+			else
+				setFlags(keep | ZZRectangleManager.FLAG_FLAT | ((color.getRGB() & 0xFFFFFF) << ZZRectangleManager.FLAT_COLOR_SHIFT));
+		}
+	}
+	
+	/**
+	 * Checks if the rectangle is drawn as a flat-colored sprite.
+	 * 
+	 * @return True if the texture is ignored
+	 */
+	public boolean isFlat()
+	{
+		synchronized (m_sync)
+		{
+			return (flags & ZZRectangleManager.FLAG_FLAT) != 0;
+		}
+	}
+	
+	/**
+	 * Makes the rectangle evaluate the given shape in the fragment shader
+	 * instead of sampling its texture. The result stays sharp at any zoom.
+	 * 
+	 * @param shapeType Shape type, one of the RendererNodeShape constants
+	 * @param fillColor Fill color
+	 * @param borderColor Border color
+	 * @param borderWidth Border width, 0 for none
+	 */
+	public void setShape(byte shapeType, Color fillColor, Color borderColor, short borderWidth)
+	{
+		synchronized (m_sync)
+		{
+			int fill = fillColor.getRGB(), border = borderColor.getRGB();
+			if (shapeType != this.shapeType || borderWidth != shapeBorderWidth || fill != shapeFillColor || border != shapeBorderColor)
+			{
+				this.shapeType = shapeType;
+				shapeBorderWidth = borderWidth;
+				shapeFillColor = fill;
+				shapeBorderColor = border;
+				manager.setShape(index, shapeType, borderWidth, fill, border);
+			}
+			
+			setFlags(flags | ZZRectangleManager.FLAG_SHAPE);
+		}
+	}
+	
+	/**
+	 * Makes the rectangle sample its texture again after setShape.
+	 */
+	public void clearShape()
+	{
+		synchronized (m_sync)
+		{
+			setFlags(flags & ~ZZRectangleManager.FLAG_SHAPE);
+		}
+	}
+	
+	/**
+	 * Checks if the rectangle's shape is evaluated in the fragment shader.
+	 * 
+	 * @return True if the shape attributes are used instead of the texture
+	 */
+	public boolean isShape()
+	{
+		synchronized (m_sync)
+		{
+			return (flags & ZZRectangleManager.FLAG_SHAPE) != 0;
+		}
+	}
+	
+	/**
+	 * Queues new flags with the manager, unless they are already set.
+	 */
+	private void setFlags(int newFlags)
+	{
+		if (newFlags == flags)
+			return;
+		
+		flags = newFlags;
+		manager.setFlags(index, newFlags);
+	}
+	
+	/**
+	 * Updates the locally stored position only, the manager
+	 * is updated by the batch that calls this.
+	 * 
+	 * @param center New center
+	 */
+	void storeCenter(Vector3 center)
+	{
+		synchronized (m_sync)
+		{
+			this.center = center;
+		}
+	}
+	
+	/**
+	 * Updates the locally stored size only, the manager
+	 * is updated by the batch that calls this.
+	 * 
+	 * @param width New width
+	 * @param height New height
+	 */
+	void storeSize(short width, short height)
+	{
+		synchronized (m_sync)
+		{
+			this.width = width;
+			this.height = height;
+		}
+	}
+	
+	/**
+	 * Updates the locally stored offset only, the manager
+	 * is updated by the batch that calls this.
+	 * 
+	 * @param offsetX Offset along the X axis
+	 * @param offsetY Offset along the Y axis
+	 */
+	void storeOffset(short offsetX, short offsetY)
+	{
+		synchronized (m_sync)
+		{
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
 		}
 	}
 	
@@ -117,8 +285,7 @@ public class ZZRectangle
 			this.textureHeight = height;
 			textureHost = new byte[width * height * 4];
 			
-			manager.setTextureSizeU(index, width);
-			manager.setTextureSizeV(index, height);
+			manager.setTextureSize(index, width, height);
 		}
 	}
 	
@@ -179,8 +346,7 @@ public class ZZRectangle
 			this.textureHeight = height;
 			this.textureHost = data;
 			
-			manager.setTextureSizeU(index, width);
-			manager.setTextureSizeV(index, height);
+			manager.setTextureSize(index, width, height);
 		}
 	}
 	
@@ -198,18 +364,24 @@ public class ZZRectangle
 	}
 	
 	/**
-	 * Checks if the current texture has been uploaded to the device.
+	 * Checks if the current texture has been uploaded to the device,
+	 * or is on its way there.
 	 * 
-	 * @return True if a device handle exists for the texture, false otherwise
+	 * @return True if a device handle exists or an upload is pending, false otherwise
 	 */
 	public boolean isOnDevice()
 	{
-		return texture != null;
+		synchronized (m_sync)
+		{
+			return texture != null || uploading || shared != null;
+		}
 	}
 	
 	/**
 	 * Uploads the current texture to the device, and updates
-	 * the rectangle manager with the new bindless texture ID.
+	 * the rectangle manager with the new texture ID.
+	 * If the manager has a texture uploader, the upload is streamed
+	 * and the previous texture stays in use until it is complete.
 	 * 
 	 * @param gl Current GL context
 	 */
@@ -217,31 +389,165 @@ public class ZZRectangle
 	{
 		synchronized (m_sync)
 		{
-			if (isOnDevice())
-				texture.dispose();
+			// A shared texture that isn't showing yet is superseded, one that is showing stays until the swap
+			if (shared != null && shared != sharedVisible)
+				shared.detach(this);
+			shared = sharedVisible;
 			
-			texture = new ZZBindlessTexture(gl, textureHost, textureWidth, textureHeight, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
+			ZZTextureUploader uploader = manager.getTextureUploader();
+			if (uploader == null)
+			{
+				uploadGeneration++;	// Drops streamed uploads still in flight
+				uploading = false;
+				swapTexture(manager.createTexture(gl, textureHost, textureWidth, textureHeight));
+				return;
+			}
 			
-			manager.setTexture(index, texture.getID());
+			final int generation = ++uploadGeneration;
+			uploading = true;
+			uploader.upload(textureHost, textureWidth, textureHeight, new ZZTextureUploader.UploadCallback()
+			{
+				@Override
+				public void onResident(ZZBindlessTexture uploaded)
+				{
+					synchronized (m_sync)
+					{
+						if (generation != uploadGeneration)	// Superseded or discarded in the meantime
+						{
+							manager.retireTexture(uploaded);
+							return;
+						}
+						
+						uploading = false;
+						swapTexture(uploaded);
+					}
+				}
+			});
 		}
 	}
 	
 	/**
-	 * Discards the current texture on the device if it exists.
+	 * Replaces the current device texture and retires the old one.
 	 * 
+	 * @param uploaded New texture, already resident
+	 */
+	private void swapTexture(ZZTexture uploaded)
+	{
+		if (texture != null)
+			manager.retireTexture(texture);
+		
+		texture = uploaded;
+		manager.setTexture(index, texture.getID());
+		manager.setTextureSize(index, texture.getWidth(), texture.getHeight());
+		releaseShared();
+	}
+	
+	/**
+	 * Makes the rectangle show a texture from a cache instead of a private one.
+	 * The rectangle takes over the caller's claim on the entry, and releases it
+	 * once it shows something else or is disposed. Whatever the rectangle shows 
+	 * now stays until the shared texture is resident. Must be called on the
+	 * render thread.
+	 * 
+	 * @param entry Cached texture
 	 * @param gl Current GL context
 	 */
-	public void discardOnDevice(GL4 gl)
+	public void setSharedTexture(ZZTextureCache.Entry entry, GL4 gl)
 	{
 		synchronized (m_sync)
 		{
-			if (!isOnDevice())
+			if (entry == shared)	// Already on it, drop the extra claim
+			{
+				entry.release();
 				return;
+			}
+			
+			uploadGeneration++;	// Drops private uploads still in flight
+			uploading = false;
 			
-			texture.dispose();
+			if (shared != null && shared != sharedVisible)
+				shared.detach(this);
+			shared = entry;
+			
+			this.textureWidth = entry.getWidth();
+			this.textureHeight = entry.getHeight();
+			this.textureHost = new byte[4];
+			
+			if (entry == sharedVisible)	// Back to the one still showing, which already has this rectangle's claim
+			{
+				entry.release();
+				return;
+			}
+			
+			long id = entry.attach(this, manager, gl);
+			if (id != -1)
+				applySharedTexture(entry, id);
+		}
+	}
+	
+	/**
+	 * Switches the manager to a shared texture once it is resident, 
+	 * and lets go of whatever was shown before.
+	 * 
+	 * @param entry Cached texture that became resident
+	 * @param id Its texture ID
+	 */
+	void applySharedTexture(ZZTextureCache.Entry entry, long id)
+	{
+		synchronized (m_sync)
+		{
+			if (entry != shared)	// Superseded in the meantime
+				return;
+			
+			manager.setTexture(index, id);
+			manager.setTextureSize(index, entry.getWidth(), entry.getHeight());
+			
+			if (texture != null)
+				manager.retireTexture(texture);
 			texture = null;
 			
+			if (sharedVisible != null && sharedVisible != entry)
+				sharedVisible.detach(this);
+			sharedVisible = entry;
+		}
+	}
+	
+	/**
+	 * Lets go of all shared textures, the caller makes sure the manager doesn't use them anymore.
+	 */
+	private void releaseShared()
+	{
+		if (shared != null && shared != sharedVisible)
+			shared.detach(this);
+		if (sharedVisible != null)
+			sharedVisible.detach(this);
+		
+		shared = null;
+		sharedVisible = null;
+	}
+	
+	/**
+	 * Discards the current texture on the device if it exists,
+	 * and drops any upload still in flight.
+	 * 
+	 * @param gl Current GL context
+	 */
+	public void discardOnDevice(GL4 gl)
+	{
+		synchronized (m_sync)
+		{
+			uploadGeneration++;
+			uploading = false;
+			
+			if (texture == null && shared == null)
+				return;
+			
 			manager.setTextureToDefault(index);
+			
+			if (texture != null)
+				manager.retireTexture(texture);
+			texture = null;
+			releaseShared();
 		}
 	}
 	
@@ -291,6 +597,55 @@ public class ZZRectangle
 						    (float)((height + 1) / 2));
 	}
 	
+	/**
+	 * Gets the radius of a sphere around the rectangle's center that contains
+	 * the rectangle in any orientation, including its offset.
+	 *
+	 * @return Bounding radius
+	 */
+	public float getBoundingRadius()
+	{
+		synchronized (m_sync)
+		{
+			float x = Math.abs((float)offsetX) + (float)((width + 1) / 2);
+			float y = Math.abs((float)offsetY) + (float)((height + 1) / 2);
+
+			return (float)Math.sqrt(x * x + y * y);
+		}
+	}
+
+	/**
+	 * Intersects a ray with the rectangle as it is drawn, i. e. facing
+	 * the camera, with the same corners as in the geometry shader.
+	 * 
+	 * @param viewMatrix Camera view matrix
+	 * @param viewRay Ray in view space
+	 * @return Distance along the ray in units of its direction, or -1 if it misses
+	 */
+	public float intersect(Matrix4 viewMatrix, Ray3 viewRay)
+	{
+		synchronized (m_sync)
+		{
+			Vector4 center4 = Vector4.matrixMult(viewMatrix, new Vector4(center, 1.0f));
+			if (viewRay.direction.z == 0.0f)
+				return -1.0f;
+			
+			float t = (center4.z - viewRay.origin.z) / viewRay.direction.z;
+			if (t < 0.0f)
+				return -1.0f;
+			
+			float x = viewRay.origin.x + t * viewRay.direction.x - center4.x;
+			float y = viewRay.origin.y + t * viewRay.direction.y - center4.y;
+			
+			// Vertical offset is inverted, see Rectangle.geom
+			if (x < (float)(-(width / 2) + offsetX) || x > (float)((width + 1) / 2 + offsetX) ||
+				y < (float)(-((height + 1) / 2) - offsetY) || y > (float)(height / 2 - offsetY))
+				return -1.0f;
+			
+			return t;
+		}
+	}
+	
 	/**
 	 * Checks if the rectangle intersects with the camera frustum.
 	 * 
@@ -349,7 +704,8 @@ public class ZZRectangle
 	}
 	
 	/**
-	 * Gets the amount of device memory in bytes occupied by the current texture.
+	 * Gets the amount of device memory in bytes occupied by the current texture, including mipmaps if it has any.
+	 * Shared textures are charged by their cache, and not counted here.
 	 * @return Device texture size in bytes, 0 if no texture has been uploaded
 	 */
 	public long getOccupiedTextureMemory()
@@ -357,7 +713,7 @@ public class ZZRectangle
 		synchronized (m_sync)
 		{
 			if (texture != null)
-				return texture.getWidth() * texture.getHeight() * (long)4;
+				return manager.getTextureMemorySize(texture.getWidth(), texture.getHeight());
 			else
 				return 0;
 		}
@@ -370,10 +726,17 @@ public class ZZRectangle
 	 */
 	public void dispose(GL4 gl)
 	{
-		if (!isOnDevice())
-			return;
-		
-		texture.dispose();
-		texture = null;
+		synchronized (m_sync)
+		{
+			uploadGeneration++;
+			uploading = false;
+			releaseShared();
+			
+			if (texture == null)
+				return;
+			
+			manager.retireTexture(texture);
+			texture = null;
+		}
 	}
 }
\ No newline at end of file
@@ -1,8 +1,8 @@
 package org.cytoscape.zugzwang.internal.rendering;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import org.cytoscape.zugzwang.internal.algebra.*;
 
@@ -17,9 +17,43 @@ import com.jogamp.opengl.util.GLBuffers;
  */
 public class ZZRectangleManager
 {
-	// For thread synchronization
+	// Guards ID allocation, which is the only state shared with model threads.
+	// Everything else is owned by the render thread and only changed there
+	// by executing queued commands.
 	private final Object m_sync = new Object();
 	
+	// Opcodes of queued commands
+	private static final int OP_CREATE = 0;
+	private static final int OP_DELETE = 1;
+	private static final int OP_POSITION = 2;
+	private static final int OP_POSITION_COMPONENT = 3;
+	private static final int OP_SIZE = 4;
+	private static final int OP_SIZE_COMPONENT = 5;
+	private static final int OP_OFFSET = 6;
+	private static final int OP_OFFSET_COMPONENT = 7;
+	private static final int OP_TEXTURE = 8;
+	private static final int OP_TEXTURE_DEFAULT = 9;
+	private static final int OP_SWITCH_DEFAULT = 10;
+	private static final int OP_RESERVE = 11;
+	private static final int OP_FLAGS = 12;
+	private static final int OP_SHAPE = 13;
+	private static final int OP_BATCH = 14;
+	
+	// Bits in a rectangle's flags
+	public static final int FLAG_HIGHLIGHT = 1;	// Tinted with the highlight color, e. g. because it is selected
+	public static final int FLAG_FLAT = 2;		// Filled with the RGB color in the upper 24 bits instead of sampling the texture
+	public static final int FLAT_COLOR_SHIFT = 8;
+	public static final int FLAG_SHAPE = 4;		// Shape evaluated in the fragment shader from the shape attributes, see setShape
+	
+	// Updates from any thread, executed by the render thread at the start of each flush
+	private final ZZCommandQueue commands = new ZZCommandQueue();
+	
+	// Streams rectangle textures to the device, rectangles upload synchronously if null
+	private volatile ZZTextureUploader textureUploader;
+	
+	// Holds rectangle textures instead of bindless textures if set
+	private volatile ZZTextureAtlas textureAtlas;
+	
 	private final GL4 gl;
 	
 	// Parameters for the default texture that is used when
@@ -28,205 +62,363 @@ public class ZZRectangleManager
 	private long defaultTexture;
 	private short defaultTextureWidth, defaultTextureHeight;
 	
-	// Number of currently managed rectangles, and currently available buffer capacity
-	private int elements = 0, capacity = 0;
+	// Number of currently managed rectangles and buffer capacity, with the capacity policy applied to them
+	private final ZZCapacityTracker slots;
+	
+	// Capacity of the device buffers, lags behind until the next flush after a resize
+	private int deviceCapacity = 0;
 	
 	// Information in device buffers can't have gaps. Those would
 	// occur if any rectangle but the last was removed. Rectangle manager
 	// keeps track of the available positions in the allocated buffers, and
-	// distributes them so no gaps occur.
+	// distributes them so no gaps occur. IDs are handed out right away,
+	// buffer positions only once the creation command is executed.
 	private int[] indicesMap, reverseMap;
-	private final Queue<Integer> availableIndices = new LinkedList<>();
+	private final ZZIndexStack availableIndices;
+	private int nextIndex;
 	
 	// Host buffers
 	private float[] hostPosition;
 	private short[] hostSize;
 	private short[] hostOffset;
 	private long[] hostTexture;
+	private int[] hostFlags;
+	private int[] hostShape;
 	
-	// Mapped device buffers
-	private ByteBuffer devicePosition;
-	private ByteBuffer deviceSize;
-	private ByteBuffer deviceOffset;
-	private ByteBuffer deviceTexture;
+	// Device buffers, with one region per frame in flight
+	private ZZRingBuffer devicePosition;
+	private ZZRingBuffer deviceSize;
+	private ZZRingBuffer deviceOffset;
+	private ZZRingBuffer deviceTexture;
+	private ZZRingBuffer deviceFlags;
+	private ZZRingBuffer deviceShape;
 	
-	// Device buffer handles
-	private final int[] attributeBuffers = new int[4];
-	private final int[] vertexArray = new int[1];
+	// One vertex array per ring slot, pointing to that slot's regions
+	private final int[] vertexArray = new int[ZZFrameSync.RING_SIZE];
 	
-	// Update flags, prevent unnecessary updates of buffers
-	// that haven't been altered.
-	private boolean needsUpdatePosition = false;
-	private boolean needsUpdateSize = false;
-	private boolean needsUpdateOffset = false;
-	private boolean needsUpdateTexture = false;
+	// Ring slot written by the last flush, used for drawing
+	private int currentSlot = 0;
 	
-	public ZZRectangleManager(GL4 gl, int initialCapacity, long defaultTexture, short defaultTextureWidth, short defaultTextureHeight)
+	// Copy altered ranges from host buffers to mapped device buffers
+	private final ZZRingBuffer.RegionWriter writerPosition = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_FLOAT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_FLOAT, hostPosition.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_FLOAT);
+			target.asFloatBuffer().put(hostPosition, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerSize = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_SHORT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_SHORT, hostSize.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_SHORT);
+			target.asShortBuffer().put(hostSize, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerOffset = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_SHORT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_SHORT, hostOffset.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_SHORT);
+			target.asShortBuffer().put(hostOffset, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerTexture = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			// Each ID occupies 2 longs because of std140 layout in shader
+			int end = Math.min((offset + length) / (2 * GLBuffers.SIZEOF_LONG), hostTexture.length);
+			for (int i = offset / (2 * GLBuffers.SIZEOF_LONG); i < end; i++)
+			{
+				region.putLong(i * 2 * GLBuffers.SIZEOF_LONG, hostTexture[i]);
+				region.putLong((i * 2 + 1) * GLBuffers.SIZEOF_LONG, 0);
+			}
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerFlags = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_INT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_INT, hostFlags.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_INT);
+			target.asIntBuffer().put(hostFlags, start, end - start);
+		}
+	};
+	private final ZZRingBuffer.RegionWriter writerShape = new ZZRingBuffer.RegionWriter()
+	{
+		@Override
+		public void write(ByteBuffer region, int offset, int length)
+		{
+			int start = offset / GLBuffers.SIZEOF_INT;
+			int end = Math.min((offset + length) / GLBuffers.SIZEOF_INT, hostShape.length);
+			if (end <= start)
+				return;
+			
+			ByteBuffer target = region.duplicate().order(ByteOrder.nativeOrder());
+			target.position(start * GLBuffers.SIZEOF_INT);
+			target.asIntBuffer().put(hostShape, start, end - start);
+		}
+	};
+	
+	// Keeps track of frames in flight, and of textures they might still use
+	private final ZZFrameSync frameSync;
+	
+	// Number of bytes pushed to the device during the last flush
+	private long flushedBytes = 0;
+	
+	// Order restored by compaction, fraction of shuffled elements that triggers it,
+	// and number of frames without creation or deletion it waits for
+	private volatile ZZBufferOrder bufferOrder = ZZBufferOrder.NONE;
+	private static final float COMPACTION_THRESHOLD = 0.1f;
+	private static final int COMPACTION_IDLE_FRAMES = 30;
+	
+	// Creations and deletions since the last compaction, and explicit requests for one
+	private int shuffledElements = 0;
+	private volatile boolean compactionRequested = false;
+	
+	// Optional culling on the device, and a counter of how often rectangles
+	// were moved to other addresses, which invalidates its results.
+	private volatile ZZComputeCuller computeCuller;
+	private int addressGeneration = 0;
+	
+	// Objects the rectangles belong to, by ID, to resolve picks
+	private Object[] owners = new Object[16];
+	
+	public ZZRectangleManager(GL4 gl, ZZFrameSync frameSync, int initialCapacity, long defaultTexture, short defaultTextureWidth, short defaultTextureHeight)
 	{
 		this.gl = gl;
+		this.frameSync = frameSync;
 		this.defaultTexture = defaultTexture;
 		this.defaultTextureWidth = defaultTextureWidth;
 		this.defaultTextureHeight = defaultTextureHeight;
-		this.capacity = initialCapacity;
+		this.slots = new ZZCapacityTracker(initialCapacity);
 		
 		hostPosition = new float[initialCapacity * 3];
 		hostSize = new short[initialCapacity * 4];
 		hostOffset = new short[initialCapacity * 2];
 		hostTexture = new long[initialCapacity];
+		hostFlags = new int[initialCapacity];
+		hostShape = new int[initialCapacity * 3];
 		indicesMap = new int[initialCapacity];
 		reverseMap = new int[initialCapacity];
 		
-		for (int i = 0; i < initialCapacity; i++)
-			availableIndices.add(i);
+		availableIndices = new ZZIndexStack(initialCapacity);
+		availableIndices.pushRange(0, initialCapacity);
+		nextIndex = initialCapacity;
 		
 		createBuffers();
 	}
 	
 	/**
-	 * Deletes old device buffers, allocates new ones, and copies
-	 * data from host buffers to them.
+	 * Resizes host buffers right away, and schedules device buffers
+	 * to be moved to the new capacity during the next flush. Any number
+	 * of resizes within one frame thus costs a single device-side copy.
+	 * Only called on the render thread, which owns the host buffers.
 	 * 
 	 * @param newCapacity Desired new buffer capacity
 	 */
-	public void resize(int newCapacity)
+	private void resize(int newCapacity)
 	{
-		int oldCapacity = capacity;
-		if (oldCapacity == newCapacity)
+		if (reverseMap.length == newCapacity)
 			return;
 		
-		deleteBuffers();
+		hostPosition = Arrays.copyOf(hostPosition, newCapacity * 3);
+		hostSize = Arrays.copyOf(hostSize, newCapacity * 4);
+		hostOffset = Arrays.copyOf(hostOffset, newCapacity * 2);
+		hostTexture = Arrays.copyOf(hostTexture, newCapacity);
+		hostFlags = Arrays.copyOf(hostFlags, newCapacity);
+		hostShape = Arrays.copyOf(hostShape, newCapacity * 3);
+		reverseMap = Arrays.copyOf(reverseMap, newCapacity);
+	}
+	
+	/**
+	 * Allocates device buffers of the currently set capacity.
+	 */
+	private void createBuffers()
+	{
+		// Rectangle center position
+		devicePosition = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * GLBuffers.SIZEOF_FLOAT);
+		devicePosition.fill(slots.size() * 3 * GLBuffers.SIZEOF_FLOAT, writerPosition);
 		
-		float[] newHostPosition = new float[newCapacity * 3];
-		short[] newHostSize = new short[newCapacity * 4];
-		short[] newHostOffset = new short[newCapacity * 2];
-		long[] newHostTexture = new long[newCapacity];
-		int[] newReverseMap = new int[newCapacity];
-		
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity) * 3; i++)
-			newHostPosition[i] = hostPosition[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity) * 4; i++)
-			newHostSize[i] = hostSize[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity) * 2; i++)
-			newHostOffset[i] = hostOffset[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity); i++)
-			newHostTexture[i] = hostTexture[i];
-		for (int i = 0; i < Math.min(newCapacity, oldCapacity); i++)
-			newReverseMap[i] = reverseMap[i];
-				
-		hostPosition = newHostPosition;
-		hostSize = newHostSize;
-		hostOffset = newHostOffset;
-		hostTexture = newHostTexture;
-		reverseMap = newReverseMap;
+		// Rectangle size, texture size, as 16 bit integers
+		deviceSize = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceSize.fill(slots.size() * 4 * GLBuffers.SIZEOF_SHORT, writerSize);
 		
-		capacity = newCapacity;
+		// Rectangle offset within the focal plane, as 16 bit integers
+		deviceOffset = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_SHORT);
+		deviceOffset.fill(slots.size() * 2 * GLBuffers.SIZEOF_SHORT, writerOffset);
 		
-		// Can't safely decrease map size without reindexing everything, so only increase
-		if (newCapacity > indicesMap.length)
-		{
-			// Add indices for the newly available range
-			for (int i = indicesMap.length; i < newCapacity; i++)
-				availableIndices.add(i);
-			
-			// Copy map into a bigger one
-			int[] newIndicesMap = new int[newCapacity];
-			for (int i = 0; i < indicesMap.length; i++)
-				newIndicesMap[i] = indicesMap[i];
-			indicesMap = newIndicesMap;
-		}
+		// Bindless texture ID, or region index if an atlas is used
+		deviceTexture = new ZZRingBuffer(gl, GL4.GL_SHADER_STORAGE_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_LONG);	// Capacity * 2 because of std140 alignment in shader
+		deviceTexture.fill(slots.size() * 2 * GLBuffers.SIZEOF_LONG, writerTexture);
 		
-		createBuffers();
+		// Flags, see FLAG_HIGHLIGHT
+		deviceFlags = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * GLBuffers.SIZEOF_INT);
+		deviceFlags.fill(slots.size() * GLBuffers.SIZEOF_INT, writerFlags);
+		
+		// Shape type and border width, fill color, border color, see FLAG_SHAPE
+		deviceShape = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * GLBuffers.SIZEOF_INT);
+		deviceShape.fill(slots.size() * 3 * GLBuffers.SIZEOF_INT, writerShape);
+		
+		createVertexArrays();
+		deviceCapacity = slots.capacity();
 	}
 	
 	/**
-	 * Allocates device buffers of the currently set capacity.
+	 * Moves device buffers to the currently set capacity. Their contents
+	 * are copied on the device instead of being uploaded from the host again.
 	 */
-	private void createBuffers()
+	private void reallocateBuffers()
 	{
-		gl.glGenBuffers(4, attributeBuffers, 0);
-		gl.glGenVertexArrays(1, vertexArray, 0);
-		gl.glBindVertexArray(vertexArray[0]);
+		ZZRingBuffer oldPosition = devicePosition;
+		ZZRingBuffer oldSize = deviceSize;
+		ZZRingBuffer oldOffset = deviceOffset;
+		ZZRingBuffer oldTexture = deviceTexture;
+		ZZRingBuffer oldFlags = deviceFlags;
+		ZZRingBuffer oldShape = deviceShape;
 		
-		// Rectangle center position
-		gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[0]);
-		{
-			gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, capacity * 3 * GLBuffers.SIZEOF_FLOAT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-			devicePosition = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, capacity * 3 * GLBuffers.SIZEOF_FLOAT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
-			
-			for (int i = 0; i < elements * 3; i++)
-				devicePosition.putFloat(hostPosition[i]);
-			devicePosition.rewind();
-			gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * GLBuffers.SIZEOF_FLOAT);
-			
-			gl.glVertexAttribPointer(0, 3, GL4.GL_FLOAT, false, 3 * GLBuffers.SIZEOF_FLOAT, 0);
-			gl.glEnableVertexAttribArray(0);
-		}
+		// Rectangles created after the last flush have been marked as altered anyway
+		int kept = Math.min(slots.size(), deviceCapacity);
+		
+		devicePosition = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * GLBuffers.SIZEOF_FLOAT);
+		devicePosition.copyFrom(oldPosition, kept * 3 * GLBuffers.SIZEOF_FLOAT);
+		
+		deviceSize = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceSize.copyFrom(oldSize, kept * 4 * GLBuffers.SIZEOF_SHORT);
+		
+		deviceOffset = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_SHORT);
+		deviceOffset.copyFrom(oldOffset, kept * 2 * GLBuffers.SIZEOF_SHORT);
+		
+		deviceTexture = new ZZRingBuffer(gl, GL4.GL_SHADER_STORAGE_BUFFER, slots.capacity() * 2 * GLBuffers.SIZEOF_LONG);	// Capacity * 2 because of std140 alignment in shader
+		deviceTexture.copyFrom(oldTexture, kept * 2 * GLBuffers.SIZEOF_LONG);
 		
-		// Rectangle size, texture size
-		gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[1]);
+		deviceFlags = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * GLBuffers.SIZEOF_INT);
+		deviceFlags.copyFrom(oldFlags, kept * GLBuffers.SIZEOF_INT);
+		
+		deviceShape = new ZZRingBuffer(gl, GL4.GL_ARRAY_BUFFER, slots.capacity() * 3 * GLBuffers.SIZEOF_INT);
+		deviceShape.copyFrom(oldShape, kept * 3 * GLBuffers.SIZEOF_INT);
+		
+		oldPosition.dispose();
+		oldSize.dispose();
+		oldOffset.dispose();
+		oldTexture.dispose();
+		oldFlags.dispose();
+		oldShape.dispose();
+		gl.glDeleteVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
+		
+		createVertexArrays();
+		deviceCapacity = slots.capacity();
+		
+		// Copies must have landed before the CPU writes into the new regions
+		frameSync.waitForDevice(gl);
+	}
+	
+	/**
+	 * Creates one vertex array per ring slot, each pointing
+	 * to that slot's regions of the device buffers.
+	 */
+	private void createVertexArrays()
+	{
+		gl.glGenVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
+		for (int slot = 0; slot < ZZFrameSync.RING_SIZE; slot++)
 		{
-			gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, capacity * 4 * GLBuffers.SIZEOF_INT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-			deviceSize = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, capacity * 4 * GLBuffers.SIZEOF_INT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
+			gl.glBindVertexArray(vertexArray[slot]);
 			
-			for (int i = 0; i < elements * 4; i++)
-				deviceSize.putInt((int)hostSize[i]);
-			deviceSize.rewind();
-			gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 4 * GLBuffers.SIZEOF_INT);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, devicePosition.getBuffer());
+			gl.glVertexAttribPointer(0, 3, GL4.GL_FLOAT, false, 3 * GLBuffers.SIZEOF_FLOAT, devicePosition.getRegionOffset(slot));
+			gl.glEnableVertexAttribArray(0);
 			
-			gl.glVertexAttribIPointer(1, 4, GL4.GL_UNSIGNED_INT, 4 * GLBuffers.SIZEOF_INT, 0);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, deviceSize.getBuffer());
+			gl.glVertexAttribIPointer(1, 4, GL4.GL_SHORT, 4 * GLBuffers.SIZEOF_SHORT, deviceSize.getRegionOffset(slot));
 			gl.glEnableVertexAttribArray(1);
-		}
-		
-		// Rectangle offset within the focal plane
-		gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[2]);
-		{
-			gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, capacity * 2 * GLBuffers.SIZEOF_INT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-			deviceOffset = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, capacity * 2 * GLBuffers.SIZEOF_INT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
-			
-			for (int i = 0; i < elements * 2; i++)
-				deviceOffset.putInt((int)hostOffset[i]);
-			deviceOffset.rewind();
-			gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 2 * GLBuffers.SIZEOF_INT);
 			
-			gl.glVertexAttribIPointer(2, 2, GL4.GL_UNSIGNED_INT, 2 * GLBuffers.SIZEOF_INT, 0);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, deviceOffset.getBuffer());
+			gl.glVertexAttribIPointer(2, 2, GL4.GL_SHORT, 2 * GLBuffers.SIZEOF_SHORT, deviceOffset.getRegionOffset(slot));
 			gl.glEnableVertexAttribArray(2);
-		}
-		
-		// Bindless texture ID
-		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[3]);
-		{
-			gl.glBufferStorage(GL4.GL_SHADER_STORAGE_BUFFER, capacity * 2 * GLBuffers.SIZEOF_LONG, null, GL4.GL_MAP_WRITE_BIT);		// Capacity * 2 because of std140 alignment in shader
-			deviceTexture = gl.glMapBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, capacity * 2 * GLBuffers.SIZEOF_LONG, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_INVALIDATE_BUFFER_BIT);
 			
-			for (int i = 0; i < elements; i++)
-			{
-				deviceTexture.putLong(hostTexture[i]);
-				deviceTexture.putLong(0);
-			}
-			deviceTexture.rewind();
-			gl.glUnmapBuffer(GL4.GL_SHADER_STORAGE_BUFFER);
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, deviceFlags.getBuffer());
+			gl.glVertexAttribIPointer(3, 1, GL4.GL_INT, GLBuffers.SIZEOF_INT, deviceFlags.getRegionOffset(slot));
+			gl.glEnableVertexAttribArray(3);
+			
+			gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, deviceShape.getBuffer());
+			gl.glVertexAttribIPointer(4, 3, GL4.GL_INT, 3 * GLBuffers.SIZEOF_INT, deviceShape.getRegionOffset(slot));
+			gl.glEnableVertexAttribArray(4);
 		}
+		gl.glBindVertexArray(0);
 	}
 	
 	/**
-	 * Deletes device buffers.
+	 * Deletes device buffers. Frames still in flight keep
+	 * using them until they complete.
 	 */
 	private void deleteBuffers()
 	{
-		gl.glDeleteBuffers(4, attributeBuffers, 0);
-		gl.glDeleteVertexArrays(1, vertexArray, 0);
+		devicePosition.dispose();
+		deviceSize.dispose();
+		deviceOffset.dispose();
+		deviceTexture.dispose();
+		deviceFlags.dispose();
+		deviceShape.dispose();
+		gl.glDeleteVertexArrays(ZZFrameSync.RING_SIZE, vertexArray, 0);
 		
 		devicePosition = null;
 		deviceSize = null;
 		deviceOffset = null;
 		deviceTexture = null;
+		deviceFlags = null;
+		deviceShape = null;
 	}
 	
 	/**
-	 * Creates a new rectangle and assigns it the next vacant
-	 * position in the buffers. The rectangle will use the 
+	 * Makes sure the buffers can hold the given number of additional
+	 * rectangles without being resized again. Meant to be called before
+	 * creating many rectangles at once, e. g. when a network is loaded.
+	 * 
+	 * @param additional Number of rectangles about to be created
+	 */
+	public void reserve(int additional)
+	{
+		if (additional > 0)
+			commands.push(OP_RESERVE, -1, additional, 0, 0);
+	}
+	
+	/**
+	 * Creates a new rectangle. Its ID is assigned right away, while the
+	 * next vacant position in the buffers is assigned once the render
+	 * thread executes the creation. The rectangle will use the 
 	 * default texture. If current buffer capacity is
-	 * insufficient, the capacity will be increased by 50 %.
+	 * insufficient, it will be increased according to the
+	 * capacity policy.
 	 * 
 	 * @param center Rectangle center position
 	 * @param width Rectangle width
@@ -240,15 +432,9 @@ public class ZZRectangleManager
 		
 		synchronized (m_sync) 
 		{
-			if (elements >= capacity)
-				resize(capacity * 3 / 2);
-			
-			index = availableIndices.poll();
-			indicesMap[index] = elements;
-			reverseMap[elements] = index;
-						
-			elements++;
+			index = availableIndices.isEmpty() ? nextIndex++ : availableIndices.pop();
 		}
+		commands.push(OP_CREATE, index, 0, 0, 0);
 		
 		newRectangle = new ZZRectangle(this, index, center, width, height, offsetX, offsetY);	// This also sets the texture to default for this rect
 		
@@ -256,60 +442,74 @@ public class ZZRectangleManager
 	}
 	
 	/**
-	 * Deletes a rectangle and moves the last rectangle in 
-	 * the buffer up to its position to fill the gap, making 
-	 * the last position vacant.
+	 * Deletes a rectangle. Once the render thread executes the deletion,
+	 * the last rectangle in the buffer is moved up to its position to
+	 * fill the gap, making the last position vacant.
 	 * 
 	 * @param rect Rectangle to be deleted
 	 */
 	public void deleteRectangle(ZZRectangle rect)
 	{
+		// Queue deletion before the ID can be handed out again
+		commands.push(OP_DELETE, rect.index, 0, 0, 0);
+		
 		synchronized (m_sync) 
 		{
-			int oldIndex = rect.index;
-			availableIndices.add(oldIndex);
-			
-			int denseToFill = indicesMap[oldIndex];		// Position in buffer that has become vacant
-			int lastIndex = reverseMap[elements - 1];	// Mapping index of last element in buffer
-			reverseMap[elements - 1] = -1;				// Last element doesn't exist anymore
-			reverseMap[denseToFill] = lastIndex;		// Move it to newly vacant position
-			indicesMap[lastIndex] = denseToFill;			
-			elements--;
-
-			// Move data from last to vacant position
-			
-			hostPosition[denseToFill * 3] = hostPosition[elements * 3];
-			devicePosition.putFloat((denseToFill * 3) * GLBuffers.SIZEOF_FLOAT, hostPosition[elements * 3]);
-			hostPosition[denseToFill * 3 + 1] = hostPosition[elements * 3 + 1];
-			devicePosition.putFloat((denseToFill * 3 + 1) * GLBuffers.SIZEOF_FLOAT, hostPosition[elements * 3 + 1]);
-			hostPosition[denseToFill * 3 + 2] = hostPosition[elements * 3 + 2];
-			devicePosition.putFloat((denseToFill * 3 + 2) * GLBuffers.SIZEOF_FLOAT, hostPosition[elements * 3 + 2]);
-			needsUpdatePosition = true;
-
-			hostSize[denseToFill * 4] = hostSize[elements * 4];
-			deviceSize.putInt((denseToFill * 4) * GLBuffers.SIZEOF_INT, hostSize[elements * 4]);
-			hostSize[denseToFill * 4 + 1] = hostSize[elements * 4 + 1];
-			deviceSize.putInt((denseToFill * 4 + 1) * GLBuffers.SIZEOF_INT, hostSize[elements * 4 + 1]);
-			hostSize[denseToFill * 4 + 2] = hostSize[elements * 4 + 2];
-			deviceSize.putInt((denseToFill * 4 + 2) * GLBuffers.SIZEOF_INT, hostSize[elements * 4 + 2]);
-			hostSize[denseToFill * 4 + 3] = hostSize[elements * 4 + 3];
-			deviceSize.putInt((denseToFill * 4 + 3) * GLBuffers.SIZEOF_INT, hostSize[elements * 4 + 3]);
-			needsUpdateSize = true;
-
-			hostOffset[denseToFill * 2] = hostOffset[elements * 2];
-			deviceOffset.putInt((denseToFill * 2) * GLBuffers.SIZEOF_INT, hostOffset[elements * 2]);
-			hostOffset[denseToFill * 2 + 1] = hostOffset[elements * 2 + 1];
-			deviceOffset.putInt((denseToFill * 2 + 1) * GLBuffers.SIZEOF_INT, hostOffset[elements * 2 + 1]);
-			needsUpdateOffset = true;
-			
-			hostTexture[denseToFill] = hostTexture[elements];
-			needsUpdateTexture = true;
-			
-			if (elements < capacity / 2)
-				resize(Math.max(10, capacity * 2 / 3));
-			
-			rect.dispose(gl);	// This deletes the texture if it exists.
+			if (rect.index < owners.length)
+				owners[rect.index] = null;
+			availableIndices.push(rect.index);
 		}
+		
+		rect.dispose(gl);	// This retires the texture if it exists.
+	}
+	
+	/**
+	 * Sets a rectangle's center position.
+	 * 
+	 * @param id Rectangle ID
+	 * @param x New X coordinate
+	 * @param y New Y coordinate
+	 * @param z New Z coordinate
+	 */
+	public void setPosition(int id, float x, float y, float z)
+	{
+		commands.pushFloats(OP_POSITION, id, x, y, z);
+	}
+	
+	/**
+	 * Sets a rectangle's width and height.
+	 * 
+	 * @param id Rectangle ID
+	 * @param width New width
+	 * @param height New height
+	 */
+	public void setSize(int id, short width, short height)
+	{
+		commands.push(OP_SIZE, id, 0, width, height);
+	}
+	
+	/**
+	 * Sets a rectangle's texture width and height.
+	 * 
+	 * @param id Rectangle ID
+	 * @param width New texture width
+	 * @param height New texture height
+	 */
+	public void setTextureSize(int id, short width, short height)
+	{
+		commands.push(OP_SIZE, id, 2, width, height);
+	}
+	
+	/**
+	 * Sets a rectangle's offset within the focal plane.
+	 * 
+	 * @param id Rectangle ID
+	 * @param x New offset along X
+	 * @param y New offset along Y
+	 */
+	public void setOffset(int id, short x, short y)
+	{
+		commands.push(OP_OFFSET, id, x, y, 0);
 	}
 	
 	/**
@@ -320,16 +520,7 @@ public class ZZRectangleManager
 	 */
 	public void setPositionX(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 3;
-			if (hostPosition[address] != value)
-			{
-				hostPosition[address] = value;
-				devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-				needsUpdatePosition = true;
-			}
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 0, Float.floatToRawIntBits(value), 0);
 	}
 	
 	/**
@@ -340,16 +531,7 @@ public class ZZRectangleManager
 	 */
 	public void setPositionY(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 3 + 1;
-			if (hostPosition[address] != value)
-			{
-				hostPosition[address] = value;
-				devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-				needsUpdatePosition = true;
-			}
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 1, Float.floatToRawIntBits(value), 0);
 	}
 	
 	/**
@@ -360,16 +542,7 @@ public class ZZRectangleManager
 	 */
 	public void setPositionZ(int id, float value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 3 + 2;
-			if (hostPosition[address] != value)
-			{
-				hostPosition[address] = value;
-				devicePosition.putFloat(address * GLBuffers.SIZEOF_FLOAT, value);
-				needsUpdatePosition = true;
-			}
-		}
+		commands.push(OP_POSITION_COMPONENT, id, 2, Float.floatToRawIntBits(value), 0);
 	}
 	
 	/**
@@ -380,16 +553,7 @@ public class ZZRectangleManager
 	 */
 	public void setSizeX(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 4;
-			if (hostSize[address] != value)
-			{
-				hostSize[address] = value;
-				deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateSize = true;
-			}
-		}
+		commands.push(OP_SIZE_COMPONENT, id, 0, value, 0);
 	}
 
 	/**
@@ -400,16 +564,7 @@ public class ZZRectangleManager
 	 */
 	public void setSizeY(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 4 + 1;
-			if (hostSize[address] != value)
-			{
-				hostSize[address] = value;
-				deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateSize = true;
-			}
-		}
+		commands.push(OP_SIZE_COMPONENT, id, 1, value, 0);
 	}
 
 	/**
@@ -420,16 +575,7 @@ public class ZZRectangleManager
 	 */
 	public void setTextureSizeU(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 4 + 2;
-			if (hostSize[address] != value)
-			{
-				hostSize[address] = value;
-				deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateSize = true;
-			}
-		}
+		commands.push(OP_SIZE_COMPONENT, id, 2, value, 0);
 	}
 
 	/**
@@ -440,16 +586,7 @@ public class ZZRectangleManager
 	 */
 	public void setTextureSizeV(int id, short value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id] * 4 + 3;
-			if (hostSize[address] != value)
-			{
-				hostSize[address] = value;
-				deviceSize.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateSize = true;
-			}
-		}
+		commands.push(OP_SIZE_COMPONENT, id, 3, value, 0);
 	}
 	
 	/**
@@ -460,16 +597,7 @@ public class ZZRectangleManager
 	 */
 	public void setOffsetX(int id, short value)
 	{
-		synchronized (m_sync)
-		{
-			int address = indicesMap[id] * 2;
-			if (hostOffset[address] != value)
-			{
-				hostOffset[address] = value;
-				deviceOffset.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateOffset = true;
-			}
-		}
+		commands.push(OP_OFFSET_COMPONENT, id, 0, value, 0);
 	}
 	
 	/**
@@ -480,16 +608,7 @@ public class ZZRectangleManager
 	 */
 	public void setOffsetY(int id, short value)
 	{
-		synchronized (m_sync)
-		{
-			int address = indicesMap[id] * 2 + 1;
-			if (hostOffset[address] != value)
-			{
-				hostOffset[address] = value;
-				deviceOffset.putInt(address * GLBuffers.SIZEOF_INT, value);
-				needsUpdateOffset = true;
-			}
-		}
+		commands.push(OP_OFFSET_COMPONENT, id, 1, value, 0);
 	}
 
 	/**
@@ -500,15 +619,33 @@ public class ZZRectangleManager
 	 */
 	public void setTexture(int id, long value)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id];
-			if (hostTexture[address] != value)
-			{
-				hostTexture[address] = value;
-				needsUpdateTexture = true;
-			}
-		}
+		commands.push(OP_TEXTURE, id, (int)value, (int)(value >>> 32), 0);
+	}
+
+	/**
+	 * Sets the rectangle's flags, see FLAG_HIGHLIGHT, FLAG_FLAT and FLAG_SHAPE.
+	 * 
+	 * @param id Rectangle ID
+	 * @param flags New combination of flags
+	 */
+	public void setFlags(int id, int flags)
+	{
+		commands.push(OP_FLAGS, id, flags, 0, 0);
+	}
+
+	/**
+	 * Sets the attributes a rectangle flagged with FLAG_SHAPE is drawn 
+	 * from. They are ignored while the flag isn't set.
+	 * 
+	 * @param id Rectangle ID
+	 * @param shape Shape type, one of the RendererNodeShape constants
+	 * @param borderWidth Border width in the same units as the rectangle's size
+	 * @param fillColor Fill color as ARGB
+	 * @param borderColor Border color as ARGB
+	 */
+	public void setShape(int id, byte shape, short borderWidth, int fillColor, int borderColor)
+	{
+		commands.push(OP_SHAPE, id, (shape & 0xFF) | (borderWidth << 16), fillColor, borderColor);
 	}
 
 	/**
@@ -518,19 +655,7 @@ public class ZZRectangleManager
 	 */
 	public void setTextureToDefault(int id)
 	{
-		synchronized (m_sync) 
-		{
-			int address = indicesMap[id];
-			
-			hostTexture[address] = defaultTexture;
-			needsUpdateTexture = true;
-			
-			hostSize[address * 4 + 2] = defaultTextureWidth;
-			hostSize[address * 4 + 3] = defaultTextureHeight;
-			deviceSize.putInt((address * 4 + 2) * GLBuffers.SIZEOF_INT, defaultTextureWidth);
-			deviceSize.putInt((address * 4 + 3) * GLBuffers.SIZEOF_INT, defaultTextureHeight);
-			needsUpdateSize = true;
-		}
+		commands.push(OP_TEXTURE_DEFAULT, id, 0, 0, 0);
 	}
 	
 	/**
@@ -544,75 +669,409 @@ public class ZZRectangleManager
 	 */
 	public void switchDefaultTexture(long newDefault, short newWidth, short newHeight)
 	{
-		synchronized (m_sync)
-		{
-			for (int i = 0; i < elements; i++)
-				if (hostTexture[i] == defaultTexture)
-				{
-					hostTexture[i] = newDefault;
-					
-					hostSize[i * 4 + 2] = newWidth;
-					hostSize[i * 4 + 3] = newHeight;
-					deviceSize.putInt((i * 4 + 2) * GLBuffers.SIZEOF_INT, newWidth);
-					deviceSize.putInt((i * 4 + 3) * GLBuffers.SIZEOF_INT, newHeight);
-				}
-			needsUpdateTexture = true;
-			needsUpdateSize = true;
-			
-			defaultTexture = newDefault;
-			defaultTextureWidth = newWidth;
-			defaultTextureHeight = newHeight;
-		}
+		commands.push(OP_SWITCH_DEFAULT, -1, (int)newDefault, (int)(newDefault >>> 32), (newWidth & 0xFFFF) | (newHeight << 16));
 	}
 	
 	/**
-	 * Pushes all changes in host buffers to device buffers.
+	 * Executes queued commands on the render thread.
 	 */
-	public void flush()
+	private final ZZCommandQueue.CommandHandler executor = new ZZCommandQueue.CommandHandler()
 	{
-		synchronized (m_sync) 
-		{		
-			if (elements == 0)
+		@Override
+		public void execute(int op, int id, int a, int b, int c)
+		{
+			if (op == OP_CREATE)
+			{
+				executeCreate(id);
 				return;
-			
-			if (needsUpdatePosition)
+			}
+			if (op == OP_RESERVE)
 			{
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[0]);
-				gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 3 * GLBuffers.SIZEOF_FLOAT);
-				needsUpdatePosition = false;
+				resize(slots.reserve(a));
+				return;
 			}
-			
-			if (needsUpdateSize)
+			if (op == OP_SWITCH_DEFAULT)
 			{
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[1]);
-				gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 4 * GLBuffers.SIZEOF_INT);
-				needsUpdateSize = false;
+				executeSwitchDefault(((long)b << 32) | (a & 0xFFFFFFFFL), (short)c, (short)(c >> 16));
+				return;
 			}
 			
-			if (needsUpdateOffset)
+			// Commands for rectangles that have been deleted in the meantime are dropped
+			int address = getAddress(id);
+			if (address < 0)
+				return;
+			
+			switch (op)
 			{
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, attributeBuffers[2]);
-				gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, elements * 2 * GLBuffers.SIZEOF_INT);
-				needsUpdateOffset = false;
-			}
-	
-			if (needsUpdateTexture)
-			{				
-				gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[3]);
-				{
-					deviceTexture = gl.glMapBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, elements * 2 * GLBuffers.SIZEOF_LONG, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_INVALIDATE_RANGE_BIT);
-					
-					for (int i = 0; i < elements; i++)
+				case OP_DELETE:
+					executeDelete(address);
+					break;
+				case OP_POSITION:
+					hostPosition[address * 3] = Float.intBitsToFloat(a);
+					hostPosition[address * 3 + 1] = Float.intBitsToFloat(b);
+					hostPosition[address * 3 + 2] = Float.intBitsToFloat(c);
+					devicePosition.mark(address * 3 * GLBuffers.SIZEOF_FLOAT, 3 * GLBuffers.SIZEOF_FLOAT);
+					break;
+				case OP_POSITION_COMPONENT:
+					if (hostPosition[address * 3 + a] != Float.intBitsToFloat(b))
 					{
-						deviceTexture.putLong(hostTexture[i]);
-						deviceTexture.putLong(0);
+						hostPosition[address * 3 + a] = Float.intBitsToFloat(b);
+						devicePosition.mark((address * 3 + a) * GLBuffers.SIZEOF_FLOAT, GLBuffers.SIZEOF_FLOAT);
 					}
-					gl.glUnmapBuffer(GL4.GL_SHADER_STORAGE_BUFFER);
-				}
+					break;
+				case OP_SIZE:
+					hostSize[address * 4 + a] = (short)b;
+					hostSize[address * 4 + a + 1] = (short)c;
+					deviceSize.mark((address * 4 + a) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_SIZE_COMPONENT:
+					if (hostSize[address * 4 + a] != (short)b)
+					{
+						hostSize[address * 4 + a] = (short)b;
+						deviceSize.mark((address * 4 + a) * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
+					}
+					break;
+				case OP_OFFSET:
+					hostOffset[address * 2] = (short)a;
+					hostOffset[address * 2 + 1] = (short)b;
+					deviceOffset.mark(address * 2 * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_OFFSET_COMPONENT:
+					if (hostOffset[address * 2 + a] != (short)b)
+					{
+						hostOffset[address * 2 + a] = (short)b;
+						deviceOffset.mark((address * 2 + a) * GLBuffers.SIZEOF_SHORT, GLBuffers.SIZEOF_SHORT);
+					}
+					break;
+				case OP_TEXTURE:
+					long texture = ((long)b << 32) | (a & 0xFFFFFFFFL);
+					if (hostTexture[address] != texture)
+					{
+						hostTexture[address] = texture;
+						markTexture(address);
+					}
+					break;
+				case OP_TEXTURE_DEFAULT:
+					hostTexture[address] = defaultTexture;
+					markTexture(address);
 				
-				needsUpdateTexture = false;
+					hostSize[address * 4 + 2] = defaultTextureWidth;
+					hostSize[address * 4 + 3] = defaultTextureHeight;
+					deviceSize.mark((address * 4 + 2) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+					break;
+				case OP_FLAGS:
+					if (hostFlags[address] != a)
+					{
+						hostFlags[address] = a;
+						deviceFlags.mark(address * GLBuffers.SIZEOF_INT, GLBuffers.SIZEOF_INT);
+					}
+					break;
+				case OP_SHAPE:
+					hostShape[address * 3] = a;
+					hostShape[address * 3 + 1] = b;
+					hostShape[address * 3 + 2] = c;
+					deviceShape.mark(address * 3 * GLBuffers.SIZEOF_INT, 3 * GLBuffers.SIZEOF_INT);
+					break;
 			}
 		}
+		
+		@Override
+		public void execute(int op, Object payload)
+		{
+			if (op == OP_BATCH)
+				executeBatch((Batch)payload);
+		}
+	};
+	
+	/**
+	 * Gets a rectangle's current position in the buffers.
+	 * 
+	 * @param id Rectangle ID
+	 * @return Position in the buffers, or -1 if the rectangle doesn't exist
+	 */
+	private int getAddress(int id)
+	{
+		if (id < 0 || id >= indicesMap.length)
+			return -1;
+		
+		int address = indicesMap[id];
+		if (address >= slots.size() || reverseMap[address] != id)
+			return -1;
+		
+		return address;
+	}
+	
+	/**
+	 * Copies all updates of a committed batch into the host buffers.
+	 * 
+	 * @param batch Batch detached on commit
+	 */
+	private void executeBatch(Batch batch)
+	{
+		for (int i = 0; i < batch.numPositions; i++)
+		{
+			int address = getAddress(batch.positionIDs[i]);
+			if (address < 0)
+				continue;
+			
+			System.arraycopy(batch.positions, i * 3, hostPosition, address * 3, 3);
+			devicePosition.mark(address * 3 * GLBuffers.SIZEOF_FLOAT, 3 * GLBuffers.SIZEOF_FLOAT);
+		}
+		
+		for (int i = 0; i < batch.numSizes; i++)
+		{
+			int address = getAddress(batch.sizeIDs[i]);
+			if (address < 0)
+				continue;
+			
+			System.arraycopy(batch.sizes, i * 2, hostSize, address * 4, 2);
+			deviceSize.mark(address * 4 * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+		}
+		
+		for (int i = 0; i < batch.numOffsets; i++)
+		{
+			int address = getAddress(batch.offsetIDs[i]);
+			if (address < 0)
+				continue;
+			
+			System.arraycopy(batch.offsets, i * 2, hostOffset, address * 2, 2);
+			deviceOffset.mark(address * 2 * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+		}
+	}
+	
+	/**
+	 * Assigns a newly created rectangle the next vacant position in the buffers.
+	 * 
+	 * @param id Rectangle ID
+	 */
+	private void executeCreate(int id)
+	{
+		int address = slots.size();
+		resize(slots.add());
+		
+		if (id >= indicesMap.length)
+			indicesMap = Arrays.copyOf(indicesMap, Math.max(id + 1, indicesMap.length * 2));
+		
+		indicesMap[id] = address;
+		reverseMap[address] = id;
+		
+		// Slot may hold stale data the setters won't overwrite if values are equal,
+		// and flags aren't set on creation at all
+		hostFlags[address] = 0;
+		markElement(address);
+		
+		shuffledElements++;
+	}
+	
+	/**
+	 * Moves the last rectangle in the buffers to the position
+	 * of a deleted one to fill the gap.
+	 * 
+	 * @param denseToFill Position in buffer that has become vacant
+	 */
+	private void executeDelete(int denseToFill)
+	{
+		slots.remove();	// Shrinking is deferred to idle frames, see flush
+		int last = slots.size();
+		
+		int lastIndex = reverseMap[last];	// Mapping index of last element in buffer
+		reverseMap[last] = -1;				// Last element doesn't exist anymore
+		reverseMap[denseToFill] = lastIndex;		// Move it to newly vacant position
+		indicesMap[lastIndex] = denseToFill;			
+
+		// Move data from last to vacant position
+		
+		System.arraycopy(hostPosition, last * 3, hostPosition, denseToFill * 3, 3);
+		System.arraycopy(hostSize, last * 4, hostSize, denseToFill * 4, 4);
+		System.arraycopy(hostOffset, last * 2, hostOffset, denseToFill * 2, 2);
+		hostTexture[denseToFill] = hostTexture[last];
+		hostFlags[denseToFill] = hostFlags[last];
+		System.arraycopy(hostShape, last * 3, hostShape, denseToFill * 3, 3);
+		markElement(denseToFill);
+		
+		shuffledElements++;
+		addressGeneration++;
+	}
+	
+	/**
+	 * Replaces the default texture in all rectangles using it.
+	 * 
+	 * @param newDefault New default bindless texture ID
+	 * @param newWidth New texture width
+	 * @param newHeight New texture height
+	 */
+	private void executeSwitchDefault(long newDefault, short newWidth, short newHeight)
+	{
+		for (int i = 0; i < slots.size(); i++)
+			if (hostTexture[i] == defaultTexture)
+			{
+				hostTexture[i] = newDefault;
+				markTexture(i);
+				
+				hostSize[i * 4 + 2] = newWidth;
+				hostSize[i * 4 + 3] = newHeight;
+				deviceSize.mark((i * 4 + 2) * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+			}
+		
+		defaultTexture = newDefault;
+		defaultTextureWidth = newWidth;
+		defaultTextureHeight = newHeight;
+	}
+	
+	/**
+	 * Marks all data of a single rectangle as altered.
+	 * Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 */
+	private void markElement(int address)
+	{
+		devicePosition.mark(address * 3 * GLBuffers.SIZEOF_FLOAT, 3 * GLBuffers.SIZEOF_FLOAT);
+		deviceSize.mark(address * 4 * GLBuffers.SIZEOF_SHORT, 4 * GLBuffers.SIZEOF_SHORT);
+		deviceOffset.mark(address * 2 * GLBuffers.SIZEOF_SHORT, 2 * GLBuffers.SIZEOF_SHORT);
+		deviceFlags.mark(address * GLBuffers.SIZEOF_INT, GLBuffers.SIZEOF_INT);
+		deviceShape.mark(address * 3 * GLBuffers.SIZEOF_INT, 3 * GLBuffers.SIZEOF_INT);
+		markTexture(address);
+	}
+	
+	/**
+	 * Marks a single bindless texture ID slot as altered.
+	 * Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 */
+	private void markTexture(int address)
+	{
+		deviceTexture.mark(address * 2 * GLBuffers.SIZEOF_LONG, 2 * GLBuffers.SIZEOF_LONG);	// * 2 because of std140 layout in shader
+	}
+	
+	/**
+	 * Sets the uploader rectangles stream their textures through.
+	 * 
+	 * @param uploader Texture uploader, null to upload synchronously
+	 */
+	public void setTextureUploader(ZZTextureUploader uploader)
+	{
+		textureUploader = uploader;
+	}
+	
+	/**
+	 * Gets the uploader rectangles stream their textures through.
+	 * 
+	 * @return Texture uploader, null if textures are uploaded synchronously
+	 */
+	public ZZTextureUploader getTextureUploader()
+	{
+		return textureUploader;
+	}
+	
+	/**
+	 * Sets the atlas rectangle textures are allocated in. The texture
+	 * buffer then holds region indices instead of bindless texture IDs.
+	 * 
+	 * @param atlas Texture atlas, null to create bindless textures
+	 */
+	public void setTextureAtlas(ZZTextureAtlas atlas)
+	{
+		textureAtlas = atlas;
+	}
+	
+	/**
+	 * Gets the device memory a texture of the given size takes up
+	 * with the current backend, as charged to GLMemoryLimit.
+	 * 
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return Size in bytes
+	 */
+	public long getTextureMemorySize(int width, int height)
+	{
+		if (textureAtlas != null)
+			return ZZTextureAtlas.getMemorySize(width, height);
+		
+		return ZZBindlessTexture.getMemorySize(width, height);
+	}
+	
+	/**
+	 * Creates a device texture for a rectangle, as a region in the
+	 * texture atlas if there is one, and as a bindless texture otherwise.
+	 * Must be called on the render thread.
+	 * 
+	 * @param gl Current GL context
+	 * @param data Pixels in ABGR order
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return New texture
+	 */
+	public ZZTexture createTexture(GL4 gl, byte[] data, short width, short height)
+	{
+		ZZTextureAtlas atlas = textureAtlas;
+		if (atlas != null)
+			return atlas.allocate(data, width, height);
+		
+		return new ZZBindlessTexture(gl, data, width, height, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
+	}
+	
+	/**
+	 * Schedules a texture previously used by a rectangle for deletion
+	 * once no frame in flight can reference it anymore.
+	 * 
+	 * @param texture Texture that is no longer used
+	 */
+	public void retireTexture(ZZTexture texture)
+	{
+		frameSync.retire(texture);
+	}
+	
+	/**
+	 * Executes all queued commands, then pushes all changes in host 
+	 * buffers to the device buffer regions of the given ring slot. 
+	 * Only the altered ranges are written and flushed. Subsequent 
+	 * draw calls will use this slot's regions. Must be called on
+	 * the render thread.
+	 * 
+	 * @param slot Ring slot the current frame writes to
+	 * @return Number of bytes pushed to the device
+	 */
+	public long flush(int slot)
+	{
+		commands.drain(executor);
+		
+		// Restore buffer order once enough has been shuffled and things have calmed down
+		if (bufferOrder != ZZBufferOrder.NONE && slots.size() > 1 &&
+			(compactionRequested || (slots.getFramesIdle() >= COMPACTION_IDLE_FRAMES && shuffledElements > slots.size() * COMPACTION_THRESHOLD)))
+			compact();
+		
+		currentSlot = slot;
+		flushedBytes = 0;
+		
+		// Shrink only after a while without creation or deletion
+		resize(slots.endFrame());
+		
+		if (deviceCapacity != slots.capacity())
+			reallocateBuffers();
+		
+		if (slots.size() == 0)
+			return flushedBytes;
+		
+		flushedBytes += devicePosition.flush(slot, writerPosition);
+		flushedBytes += deviceSize.flush(slot, writerSize);
+		flushedBytes += deviceOffset.flush(slot, writerOffset);
+		flushedBytes += deviceTexture.flush(slot, writerTexture);
+		flushedBytes += deviceFlags.flush(slot, writerFlags);
+		flushedBytes += deviceShape.flush(slot, writerShape);
+		
+		return flushedBytes;
+	}
+	
+	/**
+	 * Gets the number of bytes pushed to the device during the last flush.
+	 * 
+	 * @return Number of flushed bytes
+	 */
+	public long getFlushedBytes()
+	{
+		return flushedBytes;
 	}
 	
 	/**
@@ -622,17 +1081,17 @@ public class ZZRectangleManager
 	 */
 	public int getVertexArray()
 	{
-		return vertexArray[0];
+		return vertexArray[currentSlot];
 	}
 	
 	/**
-	 * Gets the number of rectangles currently managed.
+	 * Gets the number of rectangles in the buffers as of the last flush.
 	 * 
 	 * @return Number of rectangles
 	 */
 	public int size()
 	{
-		return elements;
+		return slots.size();
 	}
 	
 	/**
@@ -642,7 +1101,220 @@ public class ZZRectangleManager
 	 */
 	public int capacity()
 	{
-		return capacity;
+		return slots.capacity();
+	}
+	
+	/**
+	 * Re-sorts all rectangles in the buffers according to the buffer order,
+	 * and rewrites the index maps accordingly. All data is marked as altered,
+	 * so this is only done on idle frames after a significant amount of
+	 * creations and deletions, or when explicitly requested.
+	 */
+	private void compact()
+	{
+		int[] order = bufferOrder == ZZBufferOrder.SPATIAL ? 
+					  ZZBufferOrder.spatialOrder(hostPosition, slots.size()) : 
+					  ZZBufferOrder.textureOrder(hostTexture, slots.size());
+		
+		float[] sortedPosition = new float[hostPosition.length];
+		short[] sortedSize = new short[hostSize.length];
+		short[] sortedOffset = new short[hostOffset.length];
+		long[] sortedTexture = new long[hostTexture.length];
+		int[] sortedFlags = new int[hostFlags.length];
+		int[] sortedShape = new int[hostShape.length];
+		int[] sortedReverse = new int[reverseMap.length];
+		Arrays.fill(sortedReverse, -1);
+		
+		for (int i = 0; i < slots.size(); i++)
+		{
+			int old = order[i];
+			System.arraycopy(hostPosition, old * 3, sortedPosition, i * 3, 3);
+			System.arraycopy(hostSize, old * 4, sortedSize, i * 4, 4);
+			System.arraycopy(hostOffset, old * 2, sortedOffset, i * 2, 2);
+			sortedTexture[i] = hostTexture[old];
+			sortedFlags[i] = hostFlags[old];
+			System.arraycopy(hostShape, old * 3, sortedShape, i * 3, 3);
+			
+			sortedReverse[i] = reverseMap[old];
+			indicesMap[sortedReverse[i]] = i;
+		}
+		
+		hostPosition = sortedPosition;
+		hostSize = sortedSize;
+		hostOffset = sortedOffset;
+		hostTexture = sortedTexture;
+		hostFlags = sortedFlags;
+		hostShape = sortedShape;
+		reverseMap = sortedReverse;
+		
+		devicePosition.mark(0, slots.size() * 3 * GLBuffers.SIZEOF_FLOAT);
+		deviceSize.mark(0, slots.size() * 4 * GLBuffers.SIZEOF_SHORT);
+		deviceOffset.mark(0, slots.size() * 2 * GLBuffers.SIZEOF_SHORT);
+		deviceTexture.mark(0, slots.size() * 2 * GLBuffers.SIZEOF_LONG);
+		deviceFlags.mark(0, slots.size() * GLBuffers.SIZEOF_INT);
+		deviceShape.mark(0, slots.size() * 3 * GLBuffers.SIZEOF_INT);
+		
+		shuffledElements = 0;
+		compactionRequested = false;
+		addressGeneration++;
+	}
+	
+	/**
+	 * Sets the order that compaction restores in the buffers.
+	 * With ZZBufferOrder.NONE, which is the default, buffers are never compacted.
+	 * 
+	 * @param order New buffer order
+	 */
+	public void setBufferOrder(ZZBufferOrder order)
+	{
+		bufferOrder = order;
+	}
+	
+	/**
+	 * Makes the next flush compact the buffers regardless of how many
+	 * rectangles have been shuffled, e. g. after a layout moved all of them.
+	 * Has no effect if the buffer order is ZZBufferOrder.NONE.
+	 */
+	public void requestCompaction()
+	{
+		compactionRequested = true;
+	}
+	
+	/**
+	 * Sets the policy that decides when buffers are grown or shrunk.
+	 * 
+	 * @param policy New capacity policy
+	 */
+	public void setCapacityPolicy(ZZCapacityPolicy policy)
+	{
+		slots.setPolicy(policy);
+	}
+	
+	/**
+	 * Records the object a rectangle belongs to, so picks on the
+	 * device can be traced back to it.
+	 * 
+	 * @param id Rectangle ID
+	 * @param owner Object the rectangle belongs to, null to forget it
+	 */
+	public void setOwner(int id, Object owner)
+	{
+		synchronized (m_sync)
+		{
+			if (id >= owners.length)
+				owners = Arrays.copyOf(owners, Math.max(id + 1, owners.length * 2));
+			owners[id] = owner;
+		}
+	}
+	
+	/**
+	 * Gets the owner of the rectangle at a position in the buffers,
+	 * as of the last flush. Must be called on the render thread.
+	 * 
+	 * @param address Position in the buffers
+	 * @return Owner, or null if there is none
+	 */
+	public Object getOwnerAt(int address)
+	{
+		if (address < 0 || address >= slots.size())
+			return null;
+		
+		int id = reverseMap[address];
+		synchronized (m_sync)
+		{
+			return id >= 0 && id < owners.length ? owners[id] : null;
+		}
+	}
+	
+	/**
+	 * Gets a counter that changes whenever rectangles are moved to other
+	 * positions in the buffers, which invalidates anything that refers
+	 * to them by position, like pick results.
+	 * 
+	 * @return Address generation
+	 */
+	public int getAddressGeneration()
+	{
+		return addressGeneration;
+	}
+	
+	/**
+	 * Sets the culler that decides on the device which rectangles are drawn.
+	 * The manager takes ownership, and disposes the previous culler.
+	 * Without a culler, which is the default, all rectangles are drawn.
+	 * 
+	 * @param culler New culler, or null to draw everything
+	 */
+	public void setComputeCuller(ZZComputeCuller culler)
+	{
+		ZZComputeCuller previous = computeCuller;
+		computeCuller = culler;
+		if (previous != null && previous != culler)
+			previous.dispose();
+	}
+	
+	/**
+	 * Gets the culler set for this manager.
+	 * 
+	 * @return Culler, or null if there is none
+	 */
+	public ZZComputeCuller getComputeCuller()
+	{
+		return computeCuller;
+	}
+	
+	/**
+	 * Culls rectangles on the device, if a culler is set. Must be called
+	 * after flush and before draw, on the thread that owns the GL context.
+	 * 
+	 * @param viewMatrix Current view matrix
+	 * @param projMatrix Current projection matrix
+	 * @param halfScreen Screen dimensions, as passed to ZZRectangle.isInFrustum
+	 */
+	public void cull(Matrix4 viewMatrix, Matrix4 projMatrix, Vector2 halfScreen)
+	{
+		ZZComputeCuller culler = computeCuller;
+		if (culler == null || slots.size() == 0)
+			return;
+		
+		culler.cull(currentSlot, slots.size(), addressGeneration, 
+					devicePosition, deviceSize, deviceOffset, 
+					viewMatrix, projMatrix, halfScreen);
+	}
+	
+	/**
+	 * Checks if the device culled a rectangle, according to the latest results
+	 * that made it back to the host, which lag a few frames behind. Without
+	 * a culler or a current result, rectangles are reported as not culled.
+	 * 
+	 * @param id Rectangle ID
+	 * @return True if the rectangle was culled
+	 */
+	public boolean wasCulled(int id)
+	{
+		ZZComputeCuller culler = computeCuller;
+		if (culler == null)
+			return false;
+		
+		return culler.wasCulled(getAddress(id), addressGeneration);
+	}
+	
+	/**
+	 * Binds the vertex array and draws all rectangles, or only
+	 * those that survived culling if a culler is set.
+	 */
+	public void draw()
+	{
+		if (slots.size() == 0)
+			return;
+		
+		bind();
+		
+		ZZComputeCuller culler = computeCuller;
+		if (culler != null)
+			culler.draw();
+		else
+			gl.glDrawArrays(GL4.GL_POINTS, 0, slots.size());
 	}
 	
 	/**
@@ -652,8 +1324,8 @@ public class ZZRectangleManager
 	{
 		gl.glBindVertexArray(getVertexArray());
 		
-		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, attributeBuffers[3]);
-		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 0, attributeBuffers[3]);
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, deviceTexture.getBuffer());
+		gl.glBindBufferRange(GL4.GL_SHADER_STORAGE_BUFFER, 0, deviceTexture.getBuffer(), deviceTexture.getRegionOffset(currentSlot), deviceTexture.getRegionSize());
 	}
 
 	/**
@@ -661,6 +1333,163 @@ public class ZZRectangleManager
 	 */
 	public void dispose()
 	{
+		setComputeCuller(null);
 		deleteBuffers();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Creates a new batch for updating many rectangles of this manager at once.
+	 * 
+	 * @return Empty batch
+	 */
+	public Batch createBatch()
+	{
+		return new Batch();
+	}
+	
+	/**
+	 * Hands all updates collected in a batch to the render thread
+	 * as a single command, which copies them into the host buffers.
+	 * 
+	 * @param batch Batch to apply
+	 */
+	private void apply(Batch batch)
+	{
+		if (batch.numPositions + batch.numSizes + batch.numOffsets > 0)
+			commands.pushPayload(OP_BATCH, batch.detach());
+	}
+	
+	/**
+	 * Collects geometry updates for many rectangles in primitive arrays,
+	 * and hands them to the render thread in one command on commit. Meant
+	 * for layouts and other operations that move every rectangle at once.
+	 * A batch is not thread-safe, each thread should use its own.
+	 */
+	public class Batch
+	{
+		private int[] positionIDs = new int[16];
+		private float[] positions = new float[16 * 3];
+		private int numPositions = 0;
+		
+		private int[] sizeIDs = new int[16];
+		private short[] sizes = new short[16 * 2];
+		private int numSizes = 0;
+		
+		private int[] offsetIDs = new int[16];
+		private short[] offsets = new short[16 * 2];
+		private int numOffsets = 0;
+		
+		private Batch() { }
+		
+		/**
+		 * Queues a new center position for a rectangle.
+		 * 
+		 * @param rect Rectangle of this manager
+		 * @param center New center
+		 */
+		public void setCenter(ZZRectangle rect, Vector3 center)
+		{
+			rect.storeCenter(center);
+			
+			if (numPositions == positionIDs.length)
+			{
+				positionIDs = Arrays.copyOf(positionIDs, numPositions * 2);
+				positions = Arrays.copyOf(positions, numPositions * 2 * 3);
+			}
+			
+			positionIDs[numPositions] = rect.index;
+			positions[numPositions * 3] = center.x;
+			positions[numPositions * 3 + 1] = center.y;
+			positions[numPositions * 3 + 2] = center.z;
+			numPositions++;
+		}
+		
+		/**
+		 * Queues a new size for a rectangle.
+		 * 
+		 * @param rect Rectangle of this manager
+		 * @param width New width
+		 * @param height New height
+		 */
+		public void setSize(ZZRectangle rect, short width, short height)
+		{
+			rect.storeSize(width, height);
+			
+			if (numSizes == sizeIDs.length)
+			{
+				sizeIDs = Arrays.copyOf(sizeIDs, numSizes * 2);
+				sizes = Arrays.copyOf(sizes, numSizes * 2 * 2);
+			}
+			
+			sizeIDs[numSizes] = rect.index;
+			sizes[numSizes * 2] = width;
+			sizes[numSizes * 2 + 1] = height;
+			numSizes++;
+		}
+		
+		/**
+		 * Queues a new offset within the focal plane for a rectangle.
+		 * 
+		 * @param rect Rectangle of this manager
+		 * @param offsetX New offset along X
+		 * @param offsetY New offset along Y
+		 */
+		public void setOffset(ZZRectangle rect, short offsetX, short offsetY)
+		{
+			rect.storeOffset(offsetX, offsetY);
+			
+			if (numOffsets == offsetIDs.length)
+			{
+				offsetIDs = Arrays.copyOf(offsetIDs, numOffsets * 2);
+				offsets = Arrays.copyOf(offsets, numOffsets * 2 * 2);
+			}
+			
+			offsetIDs[numOffsets] = rect.index;
+			offsets[numOffsets * 2] = offsetX;
+			offsets[numOffsets * 2 + 1] = offsetY;
+			numOffsets++;
+		}
+		
+		/**
+		 * Applies all queued updates and empties the batch, so it can be reused.
+		 */
+		public void commit()
+		{
+			apply(this);
+		}
+		
+		/**
+		 * Moves the queued updates to a new batch, which then belongs to the
+		 * render thread. This batch continues with empty arrays of the same size.
+		 * 
+		 * @return Batch holding the queued updates
+		 */
+		private Batch detach()
+		{
+			Batch detached = new Batch();
+			
+			detached.positionIDs = positionIDs;
+			detached.positions = positions;
+			detached.numPositions = numPositions;
+			positionIDs = new int[positionIDs.length];
+			positions = new float[positions.length];
+			numPositions = 0;
+			
+			detached.sizeIDs = sizeIDs;
+			detached.sizes = sizes;
+			detached.numSizes = numSizes;
+			sizeIDs = new int[sizeIDs.length];
+			sizes = new short[sizes.length];
+			numSizes = 0;
+			
+			detached.offsetIDs = offsetIDs;
+			detached.offsets = offsets;
+			detached.numOffsets = numOffsets;
+			offsetIDs = new int[offsetIDs.length];
+			offsets = new short[offsets.length];
+			numOffsets = 0;
+			
+			return detached;
+		}
+	}
+}
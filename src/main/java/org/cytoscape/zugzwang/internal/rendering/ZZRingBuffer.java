@@ -0,0 +1,196 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.jogamp.opengl.GL4;
+
+/**
+ * Persistently mapped device buffer split into ZZFrameSync.RING_SIZE
+ * equally sized regions. Each frame writes only to its own region while
+ * the GPU may still read from the others. Changes are tracked per region,
+ * so every region receives each change once it becomes writable again.
+ */
+public class ZZRingBuffer
+{
+	private final GL4 gl;
+	private final int target;
+
+	private final int[] buffer = new int[1];
+	private final long regionSize;
+	private final ByteBuffer[] regions = new ByteBuffer[ZZFrameSync.RING_SIZE];
+	private final ZZDirtyPages[] dirty = new ZZDirtyPages[ZZFrameSync.RING_SIZE];
+
+	/**
+	 * Allocates and maps a new ring buffer.
+	 *
+	 * @param gl Current GL context
+	 * @param target Target the buffer will be bound to
+	 * @param size Size of a single region in bytes
+	 */
+	public ZZRingBuffer(GL4 gl, int target, long size)
+	{
+		this.gl = gl;
+		this.target = target;
+
+		// Page-aligned regions also satisfy SSBO and vertex attribute offset alignment
+		this.regionSize = Math.max(1, (size + ZZDirtyPages.PAGE_SIZE - 1) / ZZDirtyPages.PAGE_SIZE) * ZZDirtyPages.PAGE_SIZE;
+
+		gl.glGenBuffers(1, buffer, 0);
+		gl.glBindBuffer(target, buffer[0]);
+		{
+			gl.glBufferStorage(target, regionSize * ZZFrameSync.RING_SIZE, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
+			ByteBuffer mapped = gl.glMapBufferRange(target, 0, regionSize * ZZFrameSync.RING_SIZE, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
+
+			for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+			{
+				ByteBuffer region = mapped.duplicate();
+				region.position((int)(i * regionSize));
+				region.limit((int)((i + 1) * regionSize));
+				regions[i] = region.slice().order(ByteOrder.nativeOrder());
+				dirty[i] = new ZZDirtyPages();
+			}
+		}
+	}
+
+	/**
+	 * Gets the buffer handle.
+	 *
+	 * @return Buffer handle
+	 */
+	public int getBuffer()
+	{
+		return buffer[0];
+	}
+
+	/**
+	 * Gets the size of a single region.
+	 *
+	 * @return Region size in bytes
+	 */
+	public long getRegionSize()
+	{
+		return regionSize;
+	}
+
+	/**
+	 * Gets the offset of a region within the buffer.
+	 *
+	 * @param slot Ring slot
+	 * @return Offset in bytes
+	 */
+	public long getRegionOffset(int slot)
+	{
+		return slot * regionSize;
+	}
+
+	/**
+	 * Marks a byte range as altered in all regions.
+	 *
+	 * @param offset Offset of the first altered byte within a region
+	 * @param length Number of altered bytes
+	 */
+	public void mark(long offset, long length)
+	{
+		for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+			dirty[i].mark(offset, length);
+	}
+
+	/**
+	 * Writes the given range to all regions and flushes it immediately,
+	 * bypassing the change tracking. Only safe if the GPU can't be using
+	 * the buffer yet, i. e. right after creation.
+	 *
+	 * @param length Number of bytes to write from the start of each region
+	 * @param writer Fills the range with host data
+	 */
+	public void fill(long length, RegionWriter writer)
+	{
+		for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+			dirty[i].clear();
+
+		length = Math.min(length, regionSize);
+		if (length <= 0)
+			return;
+
+		gl.glBindBuffer(target, buffer[0]);
+		for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+		{
+			writer.write(regions[i], 0, (int)length);
+			gl.glFlushMappedBufferRange(target, getRegionOffset(i), length);
+		}
+	}
+
+	/**
+	 * Copies the contents of another ring buffer region by region on the
+	 * device, along with the altered ranges that region hasn't received
+	 * yet. The copies are only queued; the caller must make sure they have
+	 * completed before this buffer's regions are written to.
+	 *
+	 * @param source Ring buffer to copy from
+	 * @param length Number of bytes to copy from the start of each region
+	 */
+	public void copyFrom(ZZRingBuffer source, long length)
+	{
+		length = Math.min(length, Math.min(regionSize, source.regionSize));
+
+		gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, source.buffer[0]);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, buffer[0]);
+		for (int i = 0; i < ZZFrameSync.RING_SIZE; i++)
+		{
+			if (length > 0)
+				gl.glCopyBufferSubData(GL4.GL_COPY_READ_BUFFER, GL4.GL_COPY_WRITE_BUFFER, source.getRegionOffset(i), getRegionOffset(i), length);
+
+			dirty[i].clear();
+			dirty[i].or(source.dirty[i]);
+		}
+		gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, 0);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, 0);
+	}
+
+	/**
+	 * Brings the altered ranges of one region up to date with
+	 * host data and flushes them.
+	 *
+	 * @param slot Ring slot the current frame writes to
+	 * @param writer Fills altered ranges with host data
+	 * @return Number of bytes flushed
+	 */
+	public long flush(final int slot, final RegionWriter writer)
+	{
+		if (dirty[slot].isEmpty())
+			return 0;
+
+		gl.glBindBuffer(target, buffer[0]);
+		return dirty[slot].consume(regionSize, new ZZDirtyPages.RangeConsumer()
+		{
+			@Override
+			public void accept(long offset, long length)
+			{
+				writer.write(regions[slot], (int)offset, (int)length);
+				gl.glFlushMappedBufferRange(target, getRegionOffset(slot) + offset, length);
+			}
+		});
+	}
+
+	/**
+	 * Deletes the device buffer. The mapping is released implicitly.
+	 */
+	public void dispose()
+	{
+		gl.glDeleteBuffers(1, buffer, 0);
+	}
+
+	/**
+	 * Copies host data into a mapped region.
+	 */
+	public interface RegionWriter
+	{
+		/**
+		 * @param region Mapped region, addressed from its start
+		 * @param offset Offset of the first byte to write
+		 * @param length Number of bytes to write
+		 */
+		void write(ByteBuffer region, int offset, int length);
+	}
+}
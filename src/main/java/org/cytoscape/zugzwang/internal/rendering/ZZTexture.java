@@ -0,0 +1,36 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+/**
+ * A texture on the device that primitives refer to by a 64 bit ID.
+ * Depending on the driver, this is either a bindless texture with its
+ * own handle, or a region in a ZZTextureAtlas.
+ */
+public interface ZZTexture
+{
+	/**
+	 * Gets the ID written to the managers' texture buffers.
+	 *
+	 * @return 64 bit texture ID
+	 */
+	long getID();
+
+	/**
+	 * Gets the texture width.
+	 *
+	 * @return Texture width
+	 */
+	short getWidth();
+
+	/**
+	 * Gets the texture height.
+	 *
+	 * @return Texture height
+	 */
+	short getHeight();
+
+	/**
+	 * Frees the texture on the device. Must be called on the render
+	 * thread, once no frame in flight can reference it anymore.
+	 */
+	void dispose();
+}
\ No newline at end of file
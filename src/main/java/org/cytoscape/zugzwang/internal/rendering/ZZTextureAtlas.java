@@ -0,0 +1,608 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLException;
+import com.jogamp.opengl.util.GLBuffers;
+
+/**
+ * Packs textures into the layers of one array texture, called pages, instead
+ * of giving each its own texture object. This is how rectangles are textured
+ * on drivers without bindless textures, and it spares the handle and residency
+ * overhead of many small textures. Regions are placed on shelves, i. e. rows
+ * as high as the region that opened them, filled from left to right. Pages
+ * have no mipmaps, as coarser levels would blend neighboring regions, so
+ * minified regions are only filtered bilinearly.
+ *
+ * Shaders find a region through its index in a region table on the device,
+ * which holds its page and pixel rectangle. The index is what managers store
+ * as the texture ID, so the atlas can move regions when it defragments its
+ * pages without anybody else noticing. Must only be used on the render thread.
+ */
+public class ZZTextureAtlas
+{
+	public static final int DEFAULT_PAGE_SIZE = 2048;
+
+	// A shelf only takes regions at least this fraction of its height, lower ones open their own
+	private static final float SHELF_FIT = 0.7f;
+
+	// Pages are repacked instead of adding one if less than this fraction of the space taken on shelves is still in use
+	private static final float DEFRAGMENT_THRESHOLD = 0.6f;
+
+	// Region table entry: X and Y, width and height as 16 bit pairs, then the page, std430 padded to 16 bytes
+	private static final int ENTRY_SIZE = 4 * GLBuffers.SIZEOF_INT;
+
+	private final GL4 gl;
+	private final int pageSize;
+	private final int maxPages;
+
+	// Array texture with one layer per page, possibly more layers than pages in use
+	private final int[] glTexture = new int[1];
+	private int layerCapacity = 0;
+	private final List<Page> pages = new ArrayList<>();
+
+	// Region table, indexed by texture ID; null entries are free
+	private final int[] tableBuffer = new int[1];
+	private int tableCapacity = 0;
+	private final List<Region> regions = new ArrayList<>();
+	private final ArrayDeque<Integer> freeIndices = new ArrayDeque<>();
+
+	// Number of times pages have been repacked
+	private int defragmentations = 0;
+
+	/**
+	 * Creates an atlas with a single page.
+	 *
+	 * @param gl Current GL context
+	 * @param pageSize Width and height of each page in pixels, limited by the device
+	 */
+	public ZZTextureAtlas(GL4 gl, int pageSize)
+	{
+		this.gl = gl;
+
+		int[] limits = new int[2];
+		gl.glGetIntegerv(GL4.GL_MAX_TEXTURE_SIZE, limits, 0);
+		gl.glGetIntegerv(GL4.GL_MAX_ARRAY_TEXTURE_LAYERS, limits, 1);
+		this.pageSize = Math.min(pageSize, limits[0]);
+		this.maxPages = Math.max(1, limits[1]);
+
+		reallocateTexture(1, null);
+		reallocateTable(64);
+	}
+
+	/**
+	 * Finds room for a texture and uploads it. If no page has enough room left,
+	 * the pages are either repacked or another one is added.
+	 *
+	 * @param data Pixels in ABGR order
+	 * @param width Texture width, at most the page size
+	 * @param height Texture height, at most the page size
+	 * @return Region that holds the texture, to be disposed through ZZFrameSync once unused
+	 */
+	public Region allocate(byte[] data, short width, short height)
+	{
+		if (width > pageSize || height > pageSize)
+			throw new IllegalArgumentException("Texture of " + width + " x " + height + " doesn't fit on a " + pageSize + " px atlas page.");
+
+		Region region = new Region(width, height);
+		if (!place(region))
+		{
+			if (getLiveArea() < DEFRAGMENT_THRESHOLD * getPackedArea())
+				defragment();
+
+			if (!place(region))
+				addPage().place(region);
+		}
+
+		gl.glBindTexture(GL4.GL_TEXTURE_2D_ARRAY, glTexture[0]);
+		gl.glTexSubImage3D(GL4.GL_TEXTURE_2D_ARRAY, 0,
+						   region.x, region.y, region.page.layer, width, height, 1,
+						   GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE,
+						   ByteBuffer.wrap(data));
+		gl.glBindTexture(GL4.GL_TEXTURE_2D_ARRAY, 0);
+
+		if (freeIndices.isEmpty())
+		{
+			region.index = regions.size();
+			regions.add(region);
+			if (regions.size() > tableCapacity)
+				reallocateTable(tableCapacity * 2);
+		}
+		else
+		{
+			region.index = freeIndices.pop();
+			regions.set(region.index, region);
+		}
+		writeEntries(region.index, 1);
+
+		return region;
+	}
+
+	/**
+	 * Repacks all regions in use onto as few pages as possible,
+	 * tallest first, and drops the space freed regions left behind.
+	 */
+	public void defragment()
+	{
+		List<Region> live = new ArrayList<>();
+		for (Region region : regions)
+			if (region != null)
+				live.add(region);
+
+		Collections.sort(live, new Comparator<Region>()
+		{
+			@Override
+			public int compare(Region r1, Region r2)
+			{
+				if (r1.height != r2.height)
+					return r2.height - r1.height;
+				return r2.width - r1.width;
+			}
+		});
+
+		// Remember where everything was, then place it on fresh pages
+		int[] previous = new int[live.size() * 3];
+		for (int i = 0; i < live.size(); i++)
+		{
+			Region region = live.get(i);
+			previous[i * 3 + 0] = region.x;
+			previous[i * 3 + 1] = region.y;
+			previous[i * 3 + 2] = region.page.layer;
+		}
+
+		pages.clear();
+		for (Region region : live)
+			if (!place(region))
+				addPageUnchecked().place(region);
+
+		int capacity = 1;
+		while (capacity < pages.size())
+			capacity *= 2;
+		reallocateTexture(capacity, new RegionCopy(live, previous));
+
+		writeEntries(0, regions.size());
+		defragmentations++;
+	}
+
+	/**
+	 * Binds the pages to texture unit 0 and the region table to shader storage
+	 * binding 1, where TextureAtlas.frag expects them.
+	 */
+	public void bind()
+	{
+		gl.glActiveTexture(GL4.GL_TEXTURE0);
+		gl.glBindTexture(GL4.GL_TEXTURE_2D_ARRAY, glTexture[0]);
+		gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 1, tableBuffer[0]);
+	}
+
+	/**
+	 * Gets the device memory a region of the given size takes up. Pages
+	 * have a single level, so unlike bindless textures there are no mipmaps.
+	 *
+	 * @param width Region width
+	 * @param height Region height
+	 * @return Size in bytes for RGBA8 texels
+	 */
+	public static long getMemorySize(int width, int height)
+	{
+		return (long)width * (long)height * 4L;
+	}
+
+	/**
+	 * Gets the number of pages in use.
+	 *
+	 * @return Number of pages
+	 */
+	public int getPageCount()
+	{
+		return pages.size();
+	}
+
+	/**
+	 * Gets the fraction of the pages in use that is covered by live regions.
+	 *
+	 * @return Fill ratio between 0 and 1
+	 */
+	public float getFillRatio()
+	{
+		if (pages.isEmpty())
+			return 0.0f;
+
+		return (float)((double)getLiveArea() / ((double)pages.size() * pageSize * pageSize));
+	}
+
+	/**
+	 * Gets the number of times the pages have been repacked.
+	 *
+	 * @return Number of defragmentations
+	 */
+	public int getDefragmentations()
+	{
+		return defragmentations;
+	}
+
+	/**
+	 * Deletes the pages and the region table. Regions still
+	 * around must not be drawn or disposed afterwards.
+	 */
+	public void dispose()
+	{
+		if (glTexture[0] != 0)
+			gl.glDeleteTextures(1, glTexture, 0);
+		glTexture[0] = 0;
+
+		if (tableBuffer[0] != 0)
+			gl.glDeleteBuffers(1, tableBuffer, 0);
+		tableBuffer[0] = 0;
+
+		pages.clear();
+		regions.clear();
+		freeIndices.clear();
+	}
+
+	/**
+	 * Puts a region on the first page with room for it.
+	 *
+	 * @return True if a page had room
+	 */
+	private boolean place(Region region)
+	{
+		for (Page page : pages)
+			if (page.place(region))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Adds an empty page, growing the array texture if all its layers are taken.
+	 */
+	private Page addPage()
+	{
+		if (pages.size() == layerCapacity && layerCapacity < maxPages)
+			reallocateTexture(Math.min(layerCapacity * 2, maxPages), new LayerCopy(pages.size()));
+
+		return addPageUnchecked();
+	}
+
+	/**
+	 * Adds an empty page without making sure the array texture has a layer for it.
+	 */
+	private Page addPageUnchecked()
+	{
+		if (pages.size() >= maxPages)
+			throw new GLException("Texture atlas is full at " + maxPages + " pages.");
+
+		Page page = new Page(pages.size());
+		pages.add(page);
+		return page;
+	}
+
+	/**
+	 * Gives a region's space and table entry back.
+	 */
+	private void free(Region region)
+	{
+		if (region.index < 0)
+			return;
+
+		region.page.remove(region);
+		regions.set(region.index, null);
+		freeIndices.push(region.index);
+		region.index = -1;
+	}
+
+	private long getLiveArea()
+	{
+		long area = 0;
+		for (Page page : pages)
+			area += page.liveArea;
+		return area;
+	}
+
+	private long getPackedArea()
+	{
+		long area = 0;
+		for (Page page : pages)
+			area += page.packedArea;
+		return area;
+	}
+
+	/**
+	 * Replaces the array texture with one that has the given number of layers.
+	 * Texels are carried over by the copy, if there is one. The old texture
+	 * is deleted right away, GL keeps it until frames in flight are done with it.
+	 */
+	private void reallocateTexture(int layers, TexelCopy copy)
+	{
+		int[] newTexture = new int[1];
+		gl.glGenTextures(1, newTexture, 0);
+		gl.glBindTexture(GL4.GL_TEXTURE_2D_ARRAY, newTexture[0]);
+		{
+			gl.glTexStorage3D(GL4.GL_TEXTURE_2D_ARRAY, 1, GL4.GL_RGBA8, pageSize, pageSize, layers);
+			gl.glTexParameteri(GL4.GL_TEXTURE_2D_ARRAY, GL4.GL_TEXTURE_MIN_FILTER, GL4.GL_LINEAR);
+			gl.glTexParameteri(GL4.GL_TEXTURE_2D_ARRAY, GL4.GL_TEXTURE_MAG_FILTER, GL4.GL_LINEAR);
+			gl.glTexParameteri(GL4.GL_TEXTURE_2D_ARRAY, GL4.GL_TEXTURE_WRAP_S, GL4.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL4.GL_TEXTURE_2D_ARRAY, GL4.GL_TEXTURE_WRAP_T, GL4.GL_CLAMP_TO_EDGE);
+		}
+		gl.glBindTexture(GL4.GL_TEXTURE_2D_ARRAY, 0);
+
+		if (glTexture[0] != 0)
+		{
+			if (copy != null)
+				copy.execute(glTexture[0], newTexture[0]);
+			gl.glDeleteTextures(1, glTexture, 0);
+		}
+
+		glTexture[0] = newTexture[0];
+		layerCapacity = layers;
+	}
+
+	/**
+	 * Replaces the region table with one that has room for the given number of entries.
+	 */
+	private void reallocateTable(int capacity)
+	{
+		int[] newBuffer = new int[1];
+		gl.glGenBuffers(1, newBuffer, 0);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, newBuffer[0]);
+		gl.glBufferStorage(GL4.GL_COPY_WRITE_BUFFER, (long)capacity * ENTRY_SIZE, null, GL4.GL_DYNAMIC_STORAGE_BIT);
+
+		if (tableBuffer[0] != 0)
+		{
+			gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, tableBuffer[0]);
+			gl.glCopyBufferSubData(GL4.GL_COPY_READ_BUFFER, GL4.GL_COPY_WRITE_BUFFER, 0, 0, (long)tableCapacity * ENTRY_SIZE);
+			gl.glBindBuffer(GL4.GL_COPY_READ_BUFFER, 0);
+			gl.glDeleteBuffers(1, tableBuffer, 0);
+		}
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, 0);
+
+		tableBuffer[0] = newBuffer[0];
+		tableCapacity = capacity;
+	}
+
+	/**
+	 * Writes a range of region table entries to the device. Free entries are written as zeros.
+	 */
+	private void writeEntries(int first, int count)
+	{
+		if (count == 0)
+			return;
+
+		IntBuffer entries = GLBuffers.newDirectIntBuffer(count * 4);
+		for (int i = first; i < first + count; i++)
+		{
+			Region region = regions.get(i);
+			if (region == null)
+			{
+				entries.put(new int[4]);
+				continue;
+			}
+
+			entries.put(region.x | (region.y << 16));
+			entries.put(region.width | (region.height << 16));
+			entries.put(region.page.layer);
+			entries.put(0);
+		}
+		entries.rewind();
+
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, tableBuffer[0]);
+		gl.glBufferSubData(GL4.GL_COPY_WRITE_BUFFER, (long)first * ENTRY_SIZE, (long)count * ENTRY_SIZE, entries);
+		gl.glBindBuffer(GL4.GL_COPY_WRITE_BUFFER, 0);
+	}
+
+	/**
+	 * A texture in the atlas. Its ID is the index of its region table entry.
+	 */
+	public class Region implements ZZTexture
+	{
+		private final short width, height;
+		private int index = -1;
+
+		// Position, changes when the atlas is defragmented
+		private int x, y;
+		private Page page;
+		private Shelf shelf;
+
+		private Region(short width, short height)
+		{
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public long getID()
+		{
+			return index;
+		}
+
+		@Override
+		public short getWidth()
+		{
+			return width;
+		}
+
+		@Override
+		public short getHeight()
+		{
+			return height;
+		}
+
+		/**
+		 * Frees the region for other textures. Its table entry
+		 * may be reused right away, so this must only be called
+		 * once no frame in flight can reference it anymore.
+		 */
+		@Override
+		public void dispose()
+		{
+			free(this);
+		}
+	}
+
+	/**
+	 * A row of regions on a page.
+	 */
+	private static class Shelf
+	{
+		final int y, height;
+		int cursor = 0;		// Left end of the free space
+		int live = 0;		// Regions still on the shelf
+
+		Shelf(int y, int height)
+		{
+			this.y = y;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * A layer of the array texture, with its shelves from top to bottom.
+	 */
+	private class Page
+	{
+		final int layer;
+		final List<Shelf> shelves = new ArrayList<>();
+		int top = 0;			// Lower end of the last shelf
+		long liveArea = 0;		// Pixels covered by live regions
+		long packedArea = 0;	// Pixels taken on shelves, by live regions and the gaps freed ones left
+
+		Page(int layer)
+		{
+			this.layer = layer;
+		}
+
+		/**
+		 * Puts a region on the lowest fitting shelf with room left,
+		 * or on a new shelf below the last one.
+		 *
+		 * @return True if the page had room
+		 */
+		boolean place(Region region)
+		{
+			Shelf best = null;
+			for (Shelf shelf : shelves)
+				if (shelf.height >= region.height && region.height >= shelf.height * SHELF_FIT && shelf.cursor + region.width <= pageSize)
+					if (best == null || shelf.height < best.height)
+						best = shelf;
+
+			if (best == null)
+			{
+				if (top + region.height > pageSize)
+					return false;
+
+				best = new Shelf(top, region.height);
+				shelves.add(best);
+				top += region.height;
+			}
+
+			region.x = best.cursor;
+			region.y = best.y;
+			region.page = this;
+			region.shelf = best;
+
+			best.cursor += region.width;
+			best.live++;
+			liveArea += region.width * region.height;
+			packedArea += region.width * best.height;
+
+			return true;
+		}
+
+		/**
+		 * Takes a region off its shelf. Space is only reclaimed at the
+		 * right end of a shelf, or once the whole shelf is empty.
+		 */
+		void remove(Region region)
+		{
+			Shelf shelf = region.shelf;
+			shelf.live--;
+			liveArea -= region.width * region.height;
+
+			if (shelf.live == 0)
+			{
+				packedArea -= shelf.cursor * shelf.height;
+				shelf.cursor = 0;
+
+				// Empty shelves at the bottom are dropped, so regions of any height can go there
+				while (!shelves.isEmpty() && shelves.get(shelves.size() - 1).live == 0)
+				{
+					top = shelves.get(shelves.size() - 1).y;
+					shelves.remove(shelves.size() - 1);
+				}
+			}
+			else if (region.x + region.width == shelf.cursor)
+			{
+				packedArea -= region.width * shelf.height;
+				shelf.cursor = region.x;
+			}
+
+			region.page = null;
+			region.shelf = null;
+		}
+	}
+
+	/**
+	 * Carries texels over from an old array texture to a new one.
+	 */
+	private interface TexelCopy
+	{
+		void execute(int from, int to);
+	}
+
+	/**
+	 * Copies whole layers, when the array texture grows.
+	 */
+	private class LayerCopy implements TexelCopy
+	{
+		private final int layers;
+
+		LayerCopy(int layers)
+		{
+			this.layers = layers;
+		}
+
+		@Override
+		public void execute(int from, int to)
+		{
+			if (layers > 0)
+				gl.glCopyImageSubData(from, GL4.GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0,
+									  to, GL4.GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0,
+									  pageSize, pageSize, layers);
+		}
+	}
+
+	/**
+	 * Copies each region from its previous position to its current one, when repacking.
+	 */
+	private class RegionCopy implements TexelCopy
+	{
+		private final List<Region> moved;
+		private final int[] previous;	// X, Y and layer per region
+
+		RegionCopy(List<Region> moved, int[] previous)
+		{
+			this.moved = moved;
+			this.previous = previous;
+		}
+
+		@Override
+		public void execute(int from, int to)
+		{
+			for (int i = 0; i < moved.size(); i++)
+			{
+				Region region = moved.get(i);
+				gl.glCopyImageSubData(from, GL4.GL_TEXTURE_2D_ARRAY, 0, previous[i * 3 + 0], previous[i * 3 + 1], previous[i * 3 + 2],
+									  to, GL4.GL_TEXTURE_2D_ARRAY, 0, region.x, region.y, region.page.layer,
+									  region.width, region.height, 1);
+			}
+		}
+	}
+}
\ No newline at end of file
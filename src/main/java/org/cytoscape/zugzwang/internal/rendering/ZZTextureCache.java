@@ -0,0 +1,306 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.zugzwang.internal.tools.GLMemoryLimit;
+
+import com.jogamp.opengl.GL4;
+
+/**
+ * Shares textures between rectangles that would otherwise rasterize identical
+ * images, e. g. nodes with the same style. Textures are looked up by a key
+ * that describes everything going into the image, and counted by how many
+ * holders they have: rectangles showing them, and views about to hand them
+ * to a rectangle. A texture is charged to GLMemoryLimit once when it is
+ * inserted, and retired and freed once its last holder releases it.
+ */
+public class ZZTextureCache
+{
+	// Guards the map and all entries
+	private final Object m_sync = new Object();
+
+	private final Map<Object, Entry> entries = new HashMap<>();
+
+	// Lookups that found a texture, and lookups that left it to the caller to rasterize one
+	private long hits = 0, misses = 0;
+	
+	// Factor by which a texture may be minified before it is redrawn smaller, i. e. two buckets
+	private static final int MINIFICATION_HYSTERESIS = 2;
+
+	/**
+	 * Rounds a texture dimension up to the next size bucket, so textures for
+	 * objects of slightly different on-screen size can be shared, and zooming
+	 * doesn't change the size with every frame. Buckets grow by a factor of 
+	 * sqrt(2), i. e. textures are at most 41 % larger than needed.
+	 *
+	 * @param size Desired texture dimension in pixels
+	 * @return Bucketed texture dimension in pixels
+	 */
+	public static short bucket(float size)
+	{
+		if (size <= 4.0f)
+			return 4;
+
+		double step = Math.ceil(Math.log(size) / Math.log(2.0) * 2.0 - 1e-3);
+		return (short)Math.min(Short.MAX_VALUE, Math.ceil(Math.pow(2.0, step / 2.0)));
+	}
+
+	/**
+	 * Decides if a texture has to be redrawn at a new bucketed size. Growing
+	 * happens as soon as the texture would be magnified. Shrinking waits until
+	 * it is minified by more than two buckets, as mipmaps take care of that,
+	 * so zooming back and forth doesn't redraw anything.
+	 *
+	 * @param current Current texture dimension in pixels
+	 * @param optimum Bucketed optimal texture dimension in pixels
+	 * @return True if the texture should be redrawn at the optimal size
+	 */
+	public static boolean needsRedraw(int current, int optimum)
+	{
+		return optimum > current || optimum * MINIFICATION_HYSTERESIS < current;
+	}
+
+	/**
+	 * Looks up a texture. If it exists, the caller becomes one of its holders
+	 * and must either pass it to ZZRectangle.setSharedTexture, or release it.
+	 *
+	 * @param key Description of the image, must implement equals and hashCode
+	 * @return Cached texture, null if it has to be rasterized and inserted
+	 */
+	public Entry acquire(Object key)
+	{
+		synchronized (m_sync)
+		{
+			Entry entry = entries.get(key);
+			if (entry == null)
+			{
+				misses++;
+				return null;
+			}
+
+			hits++;
+			entry.references++;
+			return entry;
+		}
+	}
+
+	/**
+	 * Inserts a freshly rasterized texture, charging its memory. If another
+	 * thread inserted the same image in the meantime, that one is used instead.
+	 * Either way, the caller becomes a holder like with acquire.
+	 *
+	 * @param key Description of the image, must implement equals and hashCode
+	 * @param data Pixels in ABGR order
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @param manager Manager of the rectangle it is meant for, decides the memory charged
+	 * @return Cached texture, null if the memory limit doesn't allow another one
+	 */
+	public Entry insert(Object key, byte[] data, short width, short height, ZZRectangleManager manager)
+	{
+		synchronized (m_sync)
+		{
+			Entry entry = entries.get(key);
+			if (entry != null)
+			{
+				entry.references++;
+				return entry;
+			}
+
+			long memorySize = manager.getTextureMemorySize(width, height);
+			if (!GLMemoryLimit.tryGetMemory(memorySize, 0))
+				return null;
+
+			entry = new Entry(key, data, width, height, memorySize);
+			entries.put(key, entry);
+			return entry;
+		}
+	}
+
+	/**
+	 * Gets the number of distinct textures currently in the cache.
+	 *
+	 * @return Number of textures
+	 */
+	public int size()
+	{
+		synchronized (m_sync)
+		{
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Gets the number of lookups that found a texture, i. e. rasterizations saved.
+	 *
+	 * @return Number of hits
+	 */
+	public long getHits()
+	{
+		synchronized (m_sync)
+		{
+			return hits;
+		}
+	}
+
+	/**
+	 * Gets the number of lookups that didn't find a texture.
+	 *
+	 * @return Number of misses
+	 */
+	public long getMisses()
+	{
+		synchronized (m_sync)
+		{
+			return misses;
+		}
+	}
+
+	/**
+	 * A texture in the cache, along with the rectangles showing it.
+	 */
+	public class Entry
+	{
+		private final Object key;
+		private final short width, height;
+		private final long memorySize;			// Charged to GLMemoryLimit on insertion
+		private byte[] data;					// Host copy, dropped once on the device
+
+		private ZZTexture texture;				// Null until resident
+		private ZZRectangleManager owner;		// Manager the texture was uploaded through, retires it
+		private boolean uploading = false;
+
+		private int references = 1;
+		private final Set<ZZRectangle> users = new HashSet<>();
+
+		private Entry(Object key, byte[] data, short width, short height, long memorySize)
+		{
+			this.key = key;
+			this.data = data;
+			this.width = width;
+			this.height = height;
+			this.memorySize = memorySize;
+		}
+
+		public short getWidth()
+		{
+			return width;
+		}
+
+		public short getHeight()
+		{
+			return height;
+		}
+
+		/**
+		 * Gives up one holder's claim. The last one removes the
+		 * texture from the cache, and retires it on the device.
+		 */
+		public void release()
+		{
+			synchronized (m_sync)
+			{
+				if (--references > 0)
+					return;
+
+				entries.remove(key);
+				GLMemoryLimit.freeMemory(memorySize);
+				data = null;
+
+				if (texture != null)
+					owner.retireTexture(texture);
+				texture = null;
+			}
+		}
+
+		/**
+		 * Registers a rectangle that takes over a holder's claim, and starts
+		 * the upload if this is the first one. Must be called on the render thread.
+		 *
+		 * @param rect Rectangle that will show the texture
+		 * @param manager Rectangle's manager
+		 * @param gl Current GL context
+		 * @return Texture ID if the texture is already resident, -1 if the rectangle will be notified
+		 */
+		long attach(ZZRectangle rect, ZZRectangleManager manager, GL4 gl)
+		{
+			synchronized (m_sync)
+			{
+				users.add(rect);
+				if (texture != null)
+					return texture.getID();
+				if (uploading)
+					return -1;
+
+				owner = manager;
+				uploading = true;
+
+				ZZTextureUploader uploader = manager.getTextureUploader();
+				if (uploader == null)
+				{
+					texture = manager.createTexture(gl, data, width, height);
+					uploading = false;
+					data = null;
+					return texture.getID();
+				}
+
+				uploader.upload(data, width, height, new ZZTextureUploader.UploadCallback()
+				{
+					@Override
+					public void onResident(ZZBindlessTexture uploaded)
+					{
+						resident(uploaded);
+					}
+				});
+				return -1;
+			}
+		}
+
+		/**
+		 * Unregisters a rectangle and releases its claim.
+		 *
+		 * @param rect Rectangle that no longer shows the texture
+		 */
+		void detach(ZZRectangle rect)
+		{
+			synchronized (m_sync)
+			{
+				users.remove(rect);
+			}
+
+			release();
+		}
+
+		/**
+		 * Hands a finished upload to all rectangles waiting for it.
+		 * They are notified outside the lock, as they lock themselves
+		 * before calling into the cache.
+		 */
+		private void resident(ZZBindlessTexture uploaded)
+		{
+			List<ZZRectangle> waiting;
+			synchronized (m_sync)
+			{
+				uploading = false;
+				data = null;
+
+				if (references == 0)	// Released while in flight
+				{
+					owner.retireTexture(uploaded);
+					return;
+				}
+
+				texture = uploaded;
+				waiting = new ArrayList<>(users);
+			}
+
+			for (ZZRectangle user : waiting)
+				user.applySharedTexture(this, uploaded.getID());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,579 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLException;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+
+/**
+ * Streams texel data to the device through a persistently mapped pixel
+ * unpack buffer, so uploading textures doesn't stall the render thread.
+ * Texture storage is allocated and made resident on the render thread,
+ * because bindless residency is per context. Copying texels into the
+ * staging buffer and issuing the transfers happens either on the render
+ * thread too, or on a separate thread with its own context that shares
+ * objects with the render context. Either way, a fence marks when the
+ * texels have arrived, and only then is the texture handed to its owner.
+ */
+public class ZZTextureUploader
+{
+	// Staging buffer size, fits the largest texture node views request (2048 x 2048 RGBA) twice
+	public static final long DEFAULT_STAGING_SIZE = 32L << 20;
+
+	// Staging allocations are aligned to this many bytes
+	private static final long ALIGNMENT = 256;
+
+	// How long the upload thread waits for new work or a fence in a single call
+	private static final long WAIT_TIMEOUT = 1000000L;	// In nanoseconds
+
+	private final GL4 gl;				// Render context
+	private final long stagingSize;
+
+	// Uploads requested since the last update, only accessed by the render thread
+	private final List<Upload> requested = new ArrayList<>();
+
+	// Uploads whose transfers have been issued, waiting for their fence
+	private final Queue<Batch> submitted = new ConcurrentLinkedQueue<>();
+
+	// Batches issued but not handed out yet, wherever they are. A batch the upload
+	// thread is staging is in neither queue, so the queues alone can't tell.
+	private final AtomicInteger batchesInFlight = new AtomicInteger();
+
+	// Staging buffer used if uploads are issued on the render thread
+	private StagingRing inlineRing;
+
+	// Upload thread with its shared context, if one could be created
+	private GLOffscreenAutoDrawable uploadDrawable;
+	private Thread uploadThread;
+	private final LinkedBlockingQueue<Batch> forStaging = new LinkedBlockingQueue<>();
+	private volatile boolean doShutdown = false;
+
+	// Why the shared context couldn't be created, null if it could or none was requested
+	private GLException sharedContextFailure;
+
+	/**
+	 * Creates a new uploader.
+	 *
+	 * @param gl Render context, current on the calling thread
+	 * @param shareWith Drawable whose context the upload thread's context should share objects with, null to issue uploads on the render thread
+	 * @param stagingSize Size of the staging buffer in bytes
+	 */
+	public ZZTextureUploader(GL4 gl, GLAutoDrawable shareWith, long stagingSize)
+	{
+		this.gl = gl;
+		this.stagingSize = stagingSize;
+
+		if (shareWith != null)
+		{
+			try
+			{
+				GLDrawableFactory factory = GLDrawableFactory.getFactory(shareWith.getGLProfile());
+				uploadDrawable = factory.createOffscreenAutoDrawable(null, new GLCapabilities(shareWith.getGLProfile()), null, 1, 1);
+				uploadDrawable.setSharedAutoDrawable(shareWith);
+				uploadDrawable.display();	// Creates the shared context, the render context is made current again afterwards
+
+				uploadThread = new Thread(new UploadRunner(uploadDrawable.getContext()), "ZZTextureUploader");
+				uploadThread.setDaemon(true);
+				uploadThread.start();
+			}
+			catch (GLException exc)
+			{
+				sharedContextFailure = exc;
+				if (uploadDrawable != null)
+					uploadDrawable.destroy();
+				uploadDrawable = null;
+				uploadThread = null;
+			}
+		}
+
+		if (uploadThread == null)
+			inlineRing = new StagingRing(gl, stagingSize);
+	}
+
+	/**
+	 * Checks if uploads are issued on a separate thread with a shared context.
+	 *
+	 * @return True if a separate upload thread is used
+	 */
+	public boolean isThreaded()
+	{
+		return uploadThread != null;
+	}
+
+	/**
+	 * Gets the reason uploads fell back to the render thread although
+	 * a drawable to share a context with was given.
+	 *
+	 * @return Exception thrown while creating the shared context, null if there was none
+	 */
+	public GLException getSharedContextFailure()
+	{
+		return sharedContextFailure;
+	}
+
+	/**
+	 * Requests an RGBA8 texture to be uploaded. The data must not be
+	 * altered afterwards. Must be called from the render thread.
+	 *
+	 * @param data Texel data, 4 bytes per texel
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @param callback Receives the resident texture on the render thread
+	 */
+	public void upload(byte[] data, short width, short height, UploadCallback callback)
+	{
+		requested.add(new Upload(data, width, height, callback));
+	}
+
+	/**
+	 * Checks if there are uploads whose textures haven't been handed out yet.
+	 * If so, another frame should be scheduled.
+	 *
+	 * @return True if uploads are pending
+	 */
+	public boolean hasPending()
+	{
+		return !requested.isEmpty() || batchesInFlight.get() > 0;
+	}
+
+	/**
+	 * Issues requested uploads and hands out the textures of finished ones.
+	 * Should be called once per frame from the render thread, before
+	 * primitive managers are flushed.
+	 *
+	 * @param gl Render context
+	 * @return Number of textures handed out
+	 */
+	public int update(GL4 gl)
+	{
+		if (!requested.isEmpty())
+		{
+			for (Upload upload : requested)
+				if (upload.texture == null)
+					upload.texture = new ZZBindlessTexture(gl, upload.width, upload.height, GL4.GL_RGBA8);
+
+			if (uploadThread != null)
+			{
+				// Storage must exist before the shared context writes to it
+				Batch batch = new Batch(new ArrayList<>(requested));
+				batch.allocatedFence = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+				gl.glFlush();
+
+				batchesInFlight.incrementAndGet();
+				forStaging.add(batch);
+				requested.clear();
+			}
+			else
+			{
+				// Whatever doesn't fit into the staging buffer is issued in a later frame
+				int staged = stage(gl, inlineRing, requested, false);
+				if (staged > 0)
+				{
+					List<Upload> stagedUploads = new ArrayList<>(requested.subList(0, staged));
+					requested.subList(0, staged).clear();
+
+					Batch batch = new Batch(stagedUploads);
+					batch.readyFence = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+					batchesInFlight.incrementAndGet();
+					submitted.add(batch);
+				}
+			}
+		}
+
+		int handedOut = 0;
+		Batch batch;
+		while ((batch = submitted.peek()) != null)
+		{
+			if (!isSignaled(gl, batch.readyFence, 0))
+				break;
+
+			submitted.poll();
+			batchesInFlight.decrementAndGet();
+			gl.glDeleteSync(batch.readyFence);
+
+			for (Upload upload : batch.uploads)
+			{
+				upload.texture.makeResident();
+				upload.callback.onResident(upload.texture);
+				handedOut++;
+			}
+		}
+
+		return handedOut;
+	}
+
+	/**
+	 * Stops the upload thread, deletes all textures that haven't been
+	 * handed out yet, and releases the staging buffer.
+	 * Must be called from the render thread.
+	 */
+	public void dispose()
+	{
+		doShutdown = true;
+		if (uploadThread != null)
+		{
+			try
+			{
+				uploadThread.join();
+			}
+			catch (InterruptedException e) { }
+			uploadDrawable.destroy();
+		}
+
+		gl.glFinish();
+
+		for (Upload upload : requested)
+			if (upload.texture != null)
+				upload.texture.dispose();
+		requested.clear();
+
+		List<Batch> pending = new ArrayList<>(submitted);
+		pending.addAll(forStaging);
+		for (Batch batch : pending)
+		{
+			if (batch.readyFence != 0)
+				gl.glDeleteSync(batch.readyFence);
+			if (batch.allocatedFence != 0)
+				gl.glDeleteSync(batch.allocatedFence);
+			for (Upload upload : batch.uploads)
+				upload.texture.dispose();
+		}
+		submitted.clear();
+		forStaging.clear();
+		batchesInFlight.set(0);
+
+		if (inlineRing != null)
+			inlineRing.dispose();
+	}
+
+	/**
+	 * Copies texels into the staging buffer and issues their transfer
+	 * into the textures, in order. Textures larger than the whole staging
+	 * buffer are transferred directly from host memory.
+	 *
+	 * @param gl Context to issue the transfers in
+	 * @param ring Staging buffer owned by the calling thread
+	 * @param uploads Uploads to stage, with allocated textures
+	 * @param mayBlock Wait for staging space instead of stopping once it runs out
+	 * @return Number of uploads staged, counted from the start of the list
+	 */
+	private static int stage(GL4 gl, StagingRing ring, List<Upload> uploads, boolean mayBlock)
+	{
+		int staged = 0;
+
+		gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, ring.getBuffer());
+		for (Upload upload : uploads)
+		{
+			long length = (long)upload.width * upload.height * 4;
+			long offset = -1;
+
+			if (length <= ring.getSize())
+			{
+				offset = ring.allocate(length);
+				if (offset == -1 && mayBlock)
+				{
+					// Transfers issued so far must complete before their space can be reused
+					ring.endGroup(gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+					gl.glFlush();
+					while (offset == -1)
+					{
+						ring.reclaim(true);
+						offset = ring.allocate(length);
+					}
+				}
+				else if (offset == -1)
+				{
+					ring.reclaim(false);
+					offset = ring.allocate(length);
+				}
+
+				if (offset == -1)
+					break;
+			}
+
+			gl.glBindTexture(GL4.GL_TEXTURE_2D, upload.texture.getName());
+			if (offset != -1)
+			{
+				ByteBuffer target = ring.getMapped().duplicate();
+				target.position((int)offset);
+				target.put(upload.data, 0, (int)length);
+				gl.glFlushMappedBufferRange(GL4.GL_PIXEL_UNPACK_BUFFER, offset, length);
+
+				gl.glTexSubImage2D(GL4.GL_TEXTURE_2D, 0, 0, 0, upload.width, upload.height, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE, offset);
+			}
+			else
+			{
+				gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+				gl.glTexSubImage2D(GL4.GL_TEXTURE_2D, 0, 0, 0, upload.width, upload.height, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE, ByteBuffer.wrap(upload.data));
+				gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, ring.getBuffer());
+			}
+
+			staged++;
+		}
+		gl.glBindTexture(GL4.GL_TEXTURE_2D, 0);
+		gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		// Staging space is reused once the transfers reading from it are done
+		ring.endGroup(gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+
+		return staged;
+	}
+
+	/**
+	 * Checks if a fence has been signaled, waiting for it up to the given time.
+	 *
+	 * @param gl Current GL context
+	 * @param fence Fence to check
+	 * @param timeout Maximum time to wait in nanoseconds
+	 * @return True if the fence has been signaled
+	 */
+	private static boolean isSignaled(GL4 gl, long fence, long timeout)
+	{
+		int result = gl.glClientWaitSync(fence, 0, timeout);
+		return result == GL4.GL_ALREADY_SIGNALED || result == GL4.GL_CONDITION_SATISFIED;
+	}
+
+	/**
+	 * Receives textures once their contents have arrived on the device.
+	 */
+	public interface UploadCallback
+	{
+		/**
+		 * Called on the render thread. The receiver owns the texture from now on,
+		 * and must retire it even if it's no longer needed.
+		 *
+		 * @param texture Resident texture with complete contents
+		 */
+		void onResident(ZZBindlessTexture texture);
+	}
+
+	/**
+	 * Single requested upload.
+	 */
+	private static class Upload
+	{
+		private final byte[] data;
+		private final short width, height;
+		private final UploadCallback callback;
+		private ZZBindlessTexture texture;		// Allocated by the render thread
+
+		public Upload(byte[] data, short width, short height, UploadCallback callback)
+		{
+			this.data = data;
+			this.width = width;
+			this.height = height;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * Uploads that are issued together and share their fences.
+	 */
+	private static class Batch
+	{
+		private final List<Upload> uploads;
+		private long allocatedFence = 0;	// Signals that texture storage exists, for the upload thread
+		private long readyFence = 0;		// Signals that all texels have arrived
+
+		public Batch(List<Upload> uploads)
+		{
+			this.uploads = uploads;
+		}
+	}
+
+	/**
+	 * Persistently mapped pixel unpack buffer used as a ring. Space is
+	 * allocated in groups, and each group is reclaimed once the fence
+	 * inserted after its transfers has been signaled.
+	 */
+	private static class StagingRing
+	{
+		private final GL4 gl;
+		private final int[] buffer = new int[1];
+		private final long size;
+		private final ByteBuffer mapped;
+
+		// Groups in flight, oldest first, as start offsets and fences
+		private final ArrayDeque<long[]> groups = new ArrayDeque<>();
+
+		// Next free offset, and start of the group currently being allocated
+		private long head = 0;
+		private long groupStart = -1;
+
+		public StagingRing(GL4 gl, long size)
+		{
+			this.gl = gl;
+			this.size = size;
+
+			gl.glGenBuffers(1, buffer, 0);
+			gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, buffer[0]);
+			gl.glBufferStorage(GL4.GL_PIXEL_UNPACK_BUFFER, size, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
+			mapped = gl.glMapBufferRange(GL4.GL_PIXEL_UNPACK_BUFFER, 0, size, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
+			gl.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+
+		public int getBuffer()
+		{
+			return buffer[0];
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public ByteBuffer getMapped()
+		{
+			return mapped;
+		}
+
+		/**
+		 * Allocates contiguous space in the current group.
+		 *
+		 * @param length Number of bytes
+		 * @return Offset of the allocated space, -1 if there isn't enough free space
+		 */
+		public long allocate(long length)
+		{
+			length = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+			// Oldest byte still in use
+			long tail = groups.isEmpty() ? groupStart : groups.peekFirst()[0];
+
+			long offset;
+			if (tail == -1)							// Everything is free
+				offset = length <= size ? 0 : -1;
+			else if (head > tail)					// Used space doesn't wrap around
+				offset = head + length <= size ? head : (length <= tail ? 0 : -1);
+			else if (head < tail)					// Used space wraps around
+				offset = head + length <= tail ? head : -1;
+			else									// Completely full
+				offset = -1;
+
+			if (offset == -1)
+				return -1;
+
+			if (groupStart == -1)
+				groupStart = offset;
+			head = offset + length;
+
+			return offset;
+		}
+
+		/**
+		 * Closes the current group.
+		 *
+		 * @param fence Fence inserted after all transfers from the group
+		 */
+		public void endGroup(long fence)
+		{
+			if (groupStart == -1)
+			{
+				gl.glDeleteSync(fence);
+				return;
+			}
+
+			groups.addLast(new long[] { groupStart, fence });
+			groupStart = -1;
+		}
+
+		/**
+		 * Reclaims the space of all groups whose transfers are done.
+		 *
+		 * @param wait Block until at least the oldest group is done
+		 */
+		public void reclaim(boolean wait)
+		{
+			while (!groups.isEmpty())
+			{
+				long fence = groups.peekFirst()[1];
+				if (wait)
+					while (!isSignaled(gl, fence, WAIT_TIMEOUT)) { }
+				else if (!isSignaled(gl, fence, 0))
+					return;
+
+				gl.glDeleteSync(fence);
+				groups.removeFirst();
+				wait = false;
+			}
+		}
+
+		public void dispose()
+		{
+			for (long[] group : groups)
+				gl.glDeleteSync(group[1]);
+			groups.clear();
+
+			gl.glDeleteBuffers(1, buffer, 0);
+		}
+	}
+
+	/**
+	 * Stages uploads handed over by the render thread, using its own context.
+	 */
+	private class UploadRunner implements Runnable
+	{
+		private final GLContext context;
+
+		public UploadRunner(GLContext context)
+		{
+			this.context = context;
+		}
+
+		@Override
+		public void run()
+		{
+			context.makeCurrent();
+			try
+			{
+				GL4 uploadGL = context.getGL().getGL4();
+				StagingRing ring = new StagingRing(uploadGL, stagingSize);
+
+				while (!doShutdown)
+				{
+					Batch batch;
+					try
+					{
+						batch = forStaging.poll(WAIT_TIMEOUT, TimeUnit.NANOSECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+					if (batch == null)
+						continue;
+
+					uploadGL.glWaitSync(batch.allocatedFence, 0, GL4.GL_TIMEOUT_IGNORED);
+					uploadGL.glDeleteSync(batch.allocatedFence);
+					batch.allocatedFence = 0;
+
+					stage(uploadGL, ring, batch.uploads, true);
+
+					batch.readyFence = uploadGL.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+					uploadGL.glFlush();	// Makes the fence visible to the render context
+					submitted.add(batch);
+				}
+
+				uploadGL.glFinish();
+				ring.dispose();
+			}
+			finally
+			{
+				context.release();
+			}
+		}
+	}
+}
@@ -27,10 +27,30 @@ public class GLSLProgram
 	 * @return GLSL program handle
 	 */
 	public static int CompileProgram(GL4 context, URL pathVS, URL pathTSControl, URL pathTSEval, URL pathGS, URL pathFS)
+	{
+		return CompileProgram(context, pathVS, pathTSControl, pathTSEval, pathGS, pathFS, new URL[0]);
+	}
+	
+	/**
+	 * Same as above, but links further fragment shaders into the program.
+	 * They hold functions shared by several programs, which the main fragment 
+	 * shader only declares, since GLSL has no includes.
+	 * 
+	 * @param context Current GL context
+	 * @param pathVS Path to the vertex shader code, null if none is needed
+	 * @param pathTSControl Path to the tesselation control shader code, null if none is needed
+	 * @param pathTSEval Path to the tesselation evaluation shader code, null if none is needed
+	 * @param pathGS Path to the geometry shader code, null if none is needed
+	 * @param pathFS Path to the fragment shader code, null if none is needed
+	 * @param pathFSLibraries Paths to the shared fragment shader code
+	 * @return GLSL program handle
+	 */
+	public static int CompileProgram(GL4 context, URL pathVS, URL pathTSControl, URL pathTSEval, URL pathGS, URL pathFS, URL... pathFSLibraries)
 	{
 		try 
 		{
 			int vertexShader = 0, tesselationControlShader = 0, tesselationEvalShader = 0, geometryShader = 0, fragmentShader = 0;
+			int[] fragmentLibraries = new int[pathFSLibraries.length];
 			int shaderProgram = context.glCreateProgram();
 		
 			// Load and compile individual shaders:
@@ -76,6 +96,15 @@ public class GLSLProgram
 				context.glAttachShader(shaderProgram, fragmentShader);
 			}
 			
+			for (int i = 0; i < pathFSLibraries.length; i++)
+			{
+				fragmentLibraries[i] = context.glCreateShader(GL4.GL_FRAGMENT_SHADER);
+				context.glShaderSource(fragmentLibraries[i], 1, new String[] { GetText(pathFSLibraries[i]) }, null);
+				context.glCompileShader(fragmentLibraries[i]);
+				
+				context.glAttachShader(shaderProgram, fragmentLibraries[i]);
+			}
+			
 			// Link overall program:
 			
 			context.glLinkProgram(shaderProgram);
@@ -94,6 +123,8 @@ public class GLSLProgram
 				context.glDeleteShader(geometryShader);
 			if (pathFS != null)
 				context.glDeleteShader(fragmentShader);
+			for (int fragmentLibrary : fragmentLibraries)
+				context.glDeleteShader(fragmentLibrary);
 			
 			// Find out what went wrong:
 			
@@ -126,6 +157,55 @@ public class GLSLProgram
 		}
 	}
 	
+	/**
+	 * Loads and compiles a compute shader, and links it into a GLSL program.
+	 * 
+	 * @param context Current GL context
+	 * @param pathCS Path to the compute shader code
+	 * @return GLSL program handle, -1 if compilation or linking failed
+	 */
+	public static int CompileComputeProgram(GL4 context, URL pathCS)
+	{
+		try 
+		{
+			int shaderProgram = context.glCreateProgram();
+			
+			int computeShader = context.glCreateShader(GL4.GL_COMPUTE_SHADER);
+			context.glShaderSource(computeShader, 1, new String[] { GetText(pathCS) }, null);
+			context.glCompileShader(computeShader);
+			context.glAttachShader(shaderProgram, computeShader);
+			
+			context.glLinkProgram(shaderProgram);
+			context.glDeleteShader(computeShader);
+			
+			IntBuffer intBuffer = IntBuffer.allocate(1);
+			context.glGetProgramiv(shaderProgram, GL4.GL_LINK_STATUS, intBuffer);
+			
+			if (intBuffer.get(0) != 1)
+			{
+				context.glGetProgramiv(shaderProgram, GL4.GL_INFO_LOG_LENGTH, intBuffer);
+				int size = intBuffer.get(0);
+				System.err.println("Compute program link error: ");
+				if (size > 0)
+				{
+					ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+					context.glGetProgramInfoLog(shaderProgram, size, intBuffer, byteBuffer);
+					for (byte b : byteBuffer.array())
+						System.err.print((char) b);
+				}
+				context.glDeleteProgram(shaderProgram);
+				
+				return -1;
+			}
+			
+			return shaderProgram;
+		} 
+		catch (IOException e) 
+		{
+			return -1;
+		}
+	}
+	
 	/**
 	 * Helper method for loading text from a resource URL
 	 * 
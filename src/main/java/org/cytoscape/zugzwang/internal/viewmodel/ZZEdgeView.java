@@ -35,8 +35,14 @@ public class ZZEdgeView extends ZZView<CyEdge> implements Pickable, ZZDrawingDae
 	
 	private ZZLine lineLine;						// The line drawing primitive that represents the edge line
 	
+	// Distance in world units within which a ray still picks the line, in addition to its half width
+	private static final float PICK_TOLERANCE = 2.0f;
+	
 	// State and update flags
 	private boolean isOnScreen = true;
+	
+	// Leaf of the network view's edge bounds tree, only accessed under the network view's lock
+	int boundsProxy = -1;
 	private boolean needsShapeRedraw = false, needsLabelRedraw = false;
 	
 	// Store on-screen texture size at current position
@@ -90,6 +96,9 @@ public class ZZEdgeView extends ZZView<CyEdge> implements Pickable, ZZDrawingDae
 			if (lineLine == null)
 			{
 				lineLine = managerLine.createLine(positionSource, positionTarget, localWidth);
+				managerLine.setOwner(lineLine.index, this);
+				if (localSelected)
+					lineLine.setHighlighted(true);
 				needsShapeRedraw = true;
 				//System.out.println("Created line.");
 			}
@@ -176,6 +185,24 @@ public class ZZEdgeView extends ZZView<CyEdge> implements Pickable, ZZDrawingDae
 		}
 	}
 	
+	/**
+	 * Sets the view's selection state, which is shown by highlighting the line.
+	 * 
+	 * @param value New selection state
+	 */
+	void setSelected(boolean value)
+	{
+		synchronized (m_sync)
+		{
+			if (localSelected == value)
+				return;
+			localSelected = value;
+			
+			if (lineLine != null)
+				lineLine.setHighlighted(value);
+		}
+	}
+	
 	/**
 	 * Sets the view's visibility.
 	 * 
@@ -355,7 +382,86 @@ public class ZZEdgeView extends ZZView<CyEdge> implements Pickable, ZZDrawingDae
 	@Override
 	public PickingResult intersectsWith(Ray3 ray, Matrix4 viewMatrix) 
 	{
-		return null;
+		synchronized (m_sync)
+		{
+			if (!localVisible)
+				return null;
+			
+			// Closest points between the ray and the line segment
+			Vector3 segment = Vector3.subtract(positionTarget, positionSource);
+			Vector3 toOrigin = Vector3.subtract(ray.origin, positionSource);
+			float a = Vector3.dot(ray.direction, ray.direction);
+			float b = Vector3.dot(ray.direction, segment);
+			float c = Vector3.dot(segment, segment);
+			float d = Vector3.dot(ray.direction, toOrigin);
+			float e = Vector3.dot(segment, toOrigin);
+			
+			float denominator = a * c - b * b;
+			float s = denominator > 1e-6f * a * c ? Math.max(0.0f, Math.min(1.0f, (a * e - b * d) / denominator)) : 0.0f;
+			float t = Math.max(0.0f, (b * s - d) / a);
+			if (c > 0.0f)
+				s = Math.max(0.0f, Math.min(1.0f, (b * t + e) / c));
+			
+			Vector3 onRay = Vector3.add(ray.origin, Vector3.scalarMult(t, ray.direction));
+			Vector3 onSegment = Vector3.add(positionSource, Vector3.scalarMult(s, segment));
+			if (Vector3.subtract(onRay, onSegment).length() > (float)localWidth * 0.5f + PICK_TOLERANCE)
+				return null;
+			
+			return new PickingResult(this, onSegment, t * (float)Math.sqrt(a), ray);
+		}
+	}
+	
+	/**
+	 * Gets the center of a sphere that contains the line.
+	 * 
+	 * @return Midpoint between source and target
+	 */
+	public Vector3 getBoundingCenter()
+	{
+		synchronized (m_sync)
+		{
+			return Vector3.scalarMult(0.5f, Vector3.add(positionSource, positionTarget));
+		}
+	}
+	
+	/**
+	 * Gets the position of the edge's source end.
+	 * 
+	 * @return Source position
+	 */
+	Vector3 getSourcePosition()
+	{
+		synchronized (m_sync)
+		{
+			return positionSource.copy();
+		}
+	}
+	
+	/**
+	 * Gets the position of the edge's target end.
+	 * 
+	 * @return Target position
+	 */
+	Vector3 getTargetPosition()
+	{
+		synchronized (m_sync)
+		{
+			return positionTarget.copy();
+		}
+	}
+	
+	/**
+	 * Gets the radius of a sphere around the line's midpoint that
+	 * contains the line, including the distance it can be picked from.
+	 * 
+	 * @return Bounding radius
+	 */
+	public float getBoundingRadius()
+	{
+		synchronized (m_sync)
+		{
+			return Vector3.subtract(positionTarget, positionSource).length() * 0.5f + (float)localWidth * 0.5f + PICK_TOLERANCE;
+		}
 	}	
 	
 	/**
@@ -384,6 +490,12 @@ public class ZZEdgeView extends ZZView<CyEdge> implements Pickable, ZZDrawingDae
 		}
 	}
 
+	@Override
+	public float getRedrawPriority(Vector2 focus)
+	{
+		return 0.0f;
+	}
+
 	@Override
 	public boolean redrawTextures(Matrix4 viewMatrix, Matrix4 projMatrix)
 	{
@@ -1,20 +1,27 @@
 package org.cytoscape.zugzwang.internal.viewmodel;
 
+import java.awt.Color;
 import java.awt.Component;
 import java.awt.Image;
+import java.awt.Paint;
 import java.awt.print.Printable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.Icon;
 import javax.swing.JComponent;
@@ -60,13 +67,16 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 																VisualStyleChangedListener, 
 																VisualMappingFunctionChangedListener 
 {	
+	// Number of views added at once above which they are constructed in parallel
+	private static final int PARALLEL_CONSTRUCTION_THRESHOLD = 1000;
+	
 	Object m_sync = new Object();
 	
 	CyEventHelper eventHelper;
 	CyServiceRegistrar registrar;
 	
 	GL4 gl;						// Current GL context
-	boolean doBindless = false;	// Device support for bindless textures
+	volatile boolean doBindless = false;	// Device support for bindless textures
 	
 	private Viewport viewport;	// Viewport that hosts the GLJPanel and registers user interaction with it
 	
@@ -83,23 +93,94 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	private Map<CyNode, ZZNodeView> nodeViews = new HashMap<>();
 	private Map<CyEdge, ZZEdgeView> edgeViews = new HashMap<>();
 
-	// Current selection
-	private List<CyNode> nodeSelectionList;
-	private List<CyEdge> edgeSelectionList;
+	// Selected nodes are tinted with this color at this strength, selected edges drawn in this color.
+	// Taken from the style's defaults, selected paints set for individual views aren't shown.
+	private static final float NODE_HIGHLIGHT_STRENGTH = 0.6f;
+	private float[] nodeHighlight = highlightColor(BasicVisualLexicon.NODE_SELECTED_PAINT.getDefault(), NODE_HIGHLIGHT_STRENGTH);
+	private float[] edgeHighlight = highlightColor(BasicVisualLexicon.EDGE_STROKE_SELECTED_PAINT.getDefault(), 1.0f);
 	
 	// Central drawing primitive managers maintain information about primitives in device buffers
 	private ZZRectangleManager managerNodeShapes, managerNodeLabels;
 	private ZZRectangleManager[] managersNodeCG = new ZZRectangleManager[ZZVisualLexicon.getCGVisualProperties().size()];
 	private ZZLineManager managerEdgeLines;
 	
+	// Lets the CPU prepare the next frame while the GPU is still drawing previous ones
+	private final ZZFrameSync frameSync = new ZZFrameSync();
+	
+	// Distributes state updates and texture redraws across all cores
+	private final ZZDrawingDaemon drawingDaemon = new ZZDrawingDaemon();
+	
+	// Shares shape and label textures between identically styled nodes
+	private final ZZTextureCache textureCache = new ZZTextureCache();
+	
+	// Streams freshly drawn textures to the device without stalling frames
+	private volatile ZZTextureUploader textureUploader;
+	
+	// Issue uploads from a separate thread with a shared context instead of the render thread
+	private static final boolean SHARED_UPLOAD_CONTEXT = true;
+	
+	// Packs textures into array texture pages, used if the device lacks bindless textures
+	private ZZTextureAtlas textureAtlas;
+	
+	// Use the atlas even if bindless textures are supported, e. g. to test it
+	private static final boolean ALWAYS_USE_ATLAS = false;
+	
+	// Time in ms each frame may spend on texture redraws, the rest carries over to the next frames
+	private volatile long rasterBudget = 8;
+	
+	// On-screen size in pixels below which nodes are drawn as flat sprites, for DETAIL_LOW, DETAIL_MED, DETAIL_HIGH
+	private final float[] detailThresholds = { 32.0f, 12.0f, 4.0f };
+	private volatile boolean detailThresholdsChanged = false;
+	
+	// Cull rectangles on the device and draw survivors indirectly, instead of drawing everything
+	private volatile boolean computeCulling = false;
+	private boolean computeCullingActive = false;
+	private volatile int cullProgram = -1;
+	
+	// Picking on the device draws primitive IDs under the cursor and reads them back a few frames later.
+	// Kinds identify the manager a picked address belongs to, 0 is the background.
+	private static final int PICK_EDGES = 1, PICK_SHAPES = 2, PICK_LABELS = 3, PICK_CG = 4;
+	private ZZPickBuffer pickBuffer;
+	private int[] pickPrograms = new int[] { -1, -1 };
+	private int[] pickGenerations = new int[PICK_CG + ZZVisualLexicon.numCustomGraphics];
+	private Vector2 pickPixel;
+	
+	// Cursor position waiting to be picked for hovering, and what is under it
+	private final AtomicReference<Vector2> hoverRequest = new AtomicReference<>();
+	private volatile Pickable hovered;
+	
+	// Redraws are prioritized around this point in normalized device coordinates, i. e. the cursor or the center
+	private volatile Vector2 redrawFocus = new Vector2();
+	
 	// Signals that default VP values changed and view models should sync
 	private boolean defaultVisualPropertiesChanged = false;
 	
+	// Node views whose VPs changed since the last frame, or that were just added.
+	// While the camera stays still, only these need their state updated.
+	private final Set<ZZNodeView> dirtyNodeViews = Collections.newSetFromMap(new ConcurrentHashMap<ZZNodeView, Boolean>());
+	
+	// Spatial index over node bounds, so camera changes only update nodes that could be on screen
+	private final ZZBoundsTree<ZZNodeView> boundsTree = new ZZBoundsTree<>();
+	
+	// Spatial index over edge lines, used for picking
+	private final ZZBoundsTree<ZZEdgeView> edgeBoundsTree = new ZZBoundsTree<>();
+	
+	// Node views that were on screen after the last state update, and must be updated once more to leave it
+	private final Set<ZZNodeView> visibleNodeViews = new HashSet<>();
+	
+	// Camera parameters of the last frame, to tell if on-screen footprints might have changed
+	private float[] lastViewMatrix, lastProjMatrix;
+	private Vector2 lastHalfScreen = new Vector2();
+	private float lastDownsampling = 0.0f;
+	
+	// Number of bytes pushed to device buffers during the last frame
+	private long flushedBytesLastFrame = 0;
+	
 	// GLSL programs
 	int[] programs = new int[2];
 	
 	// Default textures
-	ZZBindlessTexture shapeDefaultTex, labelDefaultTex;
+	ZZTexture shapeDefaultTex, labelDefaultTex;
 	
 	public ZZNetworkView(CyNetwork network, 
 						 VisualLexicon visualLexicon, 
@@ -164,13 +245,11 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 				removeNodeView(node);
 			for (CyEdge edge : notInModelEdges)
 				removeEdgeView(edge);
-			
-			for (CyNode node : network.getNodeList()) 
-				addNodeView(node);
-			
-			for (CyEdge edge : network.getEdgeList()) 
-				addEdgeView(edge);
 		}
+		
+		// These take the lock themselves, but not while constructing views
+		addNodeViews(network.getNodeList());
+		addEdgeViews(network.getEdgeList());
 	}
 	
 	// ****************
@@ -178,19 +257,72 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	// ****************
 	
 	/**
-	 * Adds a node view that wraps the provided node data model.
+	 * Adds node views for many node data models at once. Buffers are
+	 * enlarged only once up front, and for large collections the views
+	 * are constructed in parallel before being registered in order.
 	 * 
-	 * @param node Node data model to add
+	 * @param nodes Node data models to add
 	 */
-	private void addNodeView(CyNode node)
+	private void addNodeViews(Collection<CyNode> nodes)
 	{
+		final List<CyNode> missing = new ArrayList<>(nodes.size());
+		final ZZRectangleManager shapes, labels;
+		final ZZRectangleManager[] cgs;
 		synchronized (m_sync)
 		{
-			if (nodeViews.containsKey(node))
+			for (CyNode node : nodes)
+				if (!nodeViews.containsKey(node))
+					missing.add(node);
+			if (missing.isEmpty())
 				return;
 			
-			ZZNodeView nodeView = new ZZNodeView(this, defaultVault, visualLexicon, eventHelper, node, managerNodeShapes, managerNodeLabels, managersNodeCG);
+			shapes = managerNodeShapes;
+			labels = managerNodeLabels;
+			cgs = managersNodeCG;
+			
+			// Every visible node has a shape and a label rectangle
+			shapes.reserve(missing.size());
+			labels.reserve(missing.size());
+		}
+		
+		// Construction doesn't touch the view's collections, so the render thread can go on meanwhile
+		final ZZNodeView[] created = new ZZNodeView[missing.size()];
+		constructViews(created.length, new ViewConstructor()
+		{
+			@Override
+			public void construct(int index)
+			{
+				created[index] = new ZZNodeView(ZZNetworkView.this, defaultVault, visualLexicon, eventHelper, missing.get(index), shapes, labels, cgs);
+			}
+		});
+		
+		synchronized (m_sync)
+		{
+			for (int i = 0; i < created.length; i++)
+			{
+				// Added by another thread, or removed from the network in the meantime
+				if (nodeViews.containsKey(missing.get(i)) || !network.containsNode(missing.get(i)))
+					created[i].dispose(gl);
+				else
+					registerNodeView(missing.get(i), created[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Makes a newly constructed node view part of this network view,
+	 * and connects it to the views of its adjacent edges.
+	 * 
+	 * @param node Node data model
+	 * @param nodeView View wrapping the node data model
+	 */
+	private void registerNodeView(CyNode node, ZZNodeView nodeView)
+	{
+		synchronized (m_sync)
+		{
 			nodeViews.put(node, nodeView);
+			dirtyNodeViews.add(nodeView);
+			nodeView.boundsProxy = boundsTree.insert(nodeView, nodeView.getPosition(), nodeView.getBoundingRadius());
 			
 			for (CyEdge edge : network.getAdjacentEdgeIterable(node, CyEdge.Type.OUTGOING))
 			{
@@ -226,25 +358,79 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 			
 			nodeView.dispose(gl);
 			nodeViews.remove(node);
+			dirtyNodeViews.remove(nodeView);
+			visibleNodeViews.remove(nodeView);
+			if (nodeView.boundsProxy >= 0)
+			{
+				boundsTree.remove(nodeView.boundsProxy);
+				nodeView.boundsProxy = -1;
+			}
+			if (hovered == nodeView)
+				hovered = null;
 	
 			eventHelper.addEventPayload((CyNetworkView)this, (View<CyNode>)nodeView, AboutToRemoveNodeViewsEvent.class);
 		}
 	}
 	
 	/**
-	 * Adds an edge view that wraps the provided edge data model.
+	 * Adds edge views for many edge data models at once. Buffers are
+	 * enlarged only once up front, and for large collections the views
+	 * are constructed in parallel before being registered in order.
 	 * 
-	 * @param edge Edge data model to add
+	 * @param edges Edge data models to add
 	 */
-	private void addEdgeView(CyEdge edge)
+	private void addEdgeViews(Collection<CyEdge> edges)
 	{
+		final List<CyEdge> missing = new ArrayList<>(edges.size());
+		final ZZLineManager lines;
 		synchronized (m_sync)
 		{
-			if (edgeViews.containsKey(edge))
+			for (CyEdge edge : edges)
+				if (!edgeViews.containsKey(edge))
+					missing.add(edge);
+			if (missing.isEmpty())
 				return;
 			
-			ZZEdgeView edgeView = new ZZEdgeView(this, defaultVault, visualLexicon, eventHelper, edge, managerEdgeLines);
+			lines = managerEdgeLines;
+			lines.reserve(missing.size());
+		}
+		
+		final ZZEdgeView[] created = new ZZEdgeView[missing.size()];
+		constructViews(created.length, new ViewConstructor()
+		{
+			@Override
+			public void construct(int index)
+			{
+				created[index] = new ZZEdgeView(ZZNetworkView.this, defaultVault, visualLexicon, eventHelper, missing.get(index), lines);
+			}
+		});
+		
+		synchronized (m_sync)
+		{
+			for (int i = 0; i < created.length; i++)
+			{
+				// Added by another thread, or removed from the network in the meantime
+				if (edgeViews.containsKey(missing.get(i)) || !network.containsEdge(missing.get(i)))
+					created[i].dispose(gl);
+				else
+					registerEdgeView(missing.get(i), created[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Makes a newly constructed edge view part of this network view,
+	 * and connects it to the views of its source and target nodes.
+	 * 
+	 * @param edge Edge data model
+	 * @param edgeView View wrapping the edge data model
+	 */
+	private void registerEdgeView(CyEdge edge, ZZEdgeView edgeView)
+	{
+		synchronized (m_sync)
+		{
 			edgeViews.put(edge, edgeView);
+			edgeView.boundsProxy = edgeBoundsTree.insert(edgeView, edgeView.getBoundingCenter(), edgeView.getBoundingRadius());
 			
 			ZZNodeView sourceView = (ZZNodeView)nodeViews.get(edge.getSource());
 			if (sourceView != null)
@@ -258,6 +444,72 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 		}
 	}
 	
+	/**
+	 * Runs a view constructor for a range of indices. Large ranges are
+	 * split into chunks that are processed by the drawing daemon's threads,
+	 * since constructing a view syncs all of its visual properties.
+	 * Creating primitives is thread-safe, as managers only queue it.
+	 * 
+	 * @param count Number of views to construct
+	 * @param constructor Constructs the view for a single index
+	 */
+	private void constructViews(int count, ViewConstructor constructor)
+	{
+		if (count < PARALLEL_CONSTRUCTION_THRESHOLD)
+		{
+			for (int i = 0; i < count; i++)
+				constructor.construct(i);
+			return;
+		}
+		
+		// Several chunks per thread even out differences in construction cost
+		int numChunks = drawingDaemon.getParallelism() * 4;
+		drawingDaemon.invoke(new ConstructTask(constructor, 0, count, (count + numChunks - 1) / numChunks));
+	}
+	
+	/**
+	 * Runs a view constructor for a range of indices, splitting it
+	 * in halves until it is no larger than the chunk size.
+	 */
+	private static class ConstructTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final ViewConstructor constructor;
+		private final int from, to, chunkSize;
+		
+		public ConstructTask(ViewConstructor constructor, int from, int to, int chunkSize)
+		{
+			this.constructor = constructor;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if (to - from > chunkSize)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new ConstructTask(constructor, from, middle, chunkSize),
+						  new ConstructTask(constructor, middle, to, chunkSize));
+				return;
+			}
+			
+			for (int i = from; i < to; i++)
+				constructor.construct(i);
+		}
+	}
+	
+	/**
+	 * Constructs a single view as part of a bulk addition.
+	 */
+	private interface ViewConstructor
+	{
+		void construct(int index);
+	}
+	
 	/**
 	 * Removes the edge view associated with the provided
 	 * edge data model, if present.
@@ -281,7 +533,14 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 				targetView.removeIncomingEdgeView(edgeView);
 			
 			edgeView.dispose(gl);
-			nodeViews.remove(edge);
+			edgeViews.remove(edge);
+			if (edgeView.boundsProxy >= 0)
+			{
+				edgeBoundsTree.remove(edgeView.boundsProxy);
+				edgeView.boundsProxy = -1;
+			}
+			if (hovered == edgeView)
+				hovered = null;
 	
 			eventHelper.addEventPayload((CyNetworkView)this, (View<CyEdge>)edgeView, AboutToRemoveEdgeViewsEvent.class);
 		}
@@ -310,7 +569,7 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	@Override
 	public View<CyNode> getNodeView(CyNode node) 
 	{
-		return nodeViews.get(node.getSUID());
+		return nodeViews.get(node);
 	}
 
 	/**
@@ -336,7 +595,7 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	@Override
 	public View<CyEdge> getEdgeView(CyEdge edge) 
 	{
-		return edgeViews.get(edge.getSUID());
+		return edgeViews.get(edge);
 	}
 
 	/**
@@ -376,64 +635,63 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 
 	/**
 	 * Positions the viewport's camera so that all nodes and edges are visible.
+	 * The bounds tree's root box already contains all of them.
 	 */
 	@Override
 	public void fitContent() 
 	{
 		synchronized (m_sync)
 		{
-			List<ZZNodeView> fitNodes = new ArrayList<ZZNodeView>(nodeViews.size());
-			for (ZZNodeView view : nodeViews.values())
-				fitNodes.add(view);
+			// Positions set since the last frame, e. g. by a layout, aren't in the tree yet.
+			// Views stay in the dirty set, so the next frame still processes them.
+			if (defaultVisualPropertiesChanged)
+				refitBounds(nodeViews.values());
+			else
+			{
+				List<ZZNodeView> pendingViews = new ArrayList<>();
+				for (ZZNodeView view : dirtyNodeViews)
+					if (nodeViews.get(view.getModel()) == view)	// Could have been removed by now
+						pendingViews.add(view);
+				refitBounds(pendingViews);
+			}
+			
+			Vector3[] bounds = boundsTree.getBounds();
+			if (bounds == null)
+				return;
 			
-			fitContent(fitNodes);
+			fitContent(bounds[0], bounds[1]);
 		}
 	}
 	
-	private void fitContent(List<ZZNodeView> fitNodes)
+	/**
+	 * Positions the viewport's camera so that a box is visible.
+	 * 
+	 * @param minCoords Box corner with the smallest coordinates
+	 * @param maxCoords Box corner with the largest coordinates
+	 */
+	private void fitContent(Vector3 minCoords, Vector3 maxCoords)
 	{		
-		Vector3 minCoords = new Vector3(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-		Vector3 maxCoords = new Vector3(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
-		Vector2 minScreen = new Vector2(Float.MAX_VALUE, Float.MAX_VALUE);
-		Vector2 maxScreen = new Vector2(-Float.MAX_VALUE, -Float.MAX_VALUE);
-		
-		for (ZZNodeView nodeView : fitNodes)
-		{
-			Vector3 pos = nodeView.getPosition();
-			minCoords = Vector3.min(minCoords, pos);
-			maxCoords = Vector3.max(maxCoords, pos);
-		}
-		
-		// Center camera on nodes.
+		// Center camera on the box.
 		Vector3 center = Vector3.scalarMult(0.5f, Vector3.add(minCoords, maxCoords));
+		Vector3 halfExtent = Vector3.scalarMult(0.5f, Vector3.subtract(maxCoords, minCoords));
 		viewport.getCamera().moveBy(Vector3.subtract(center, viewport.getCamera().getTargetPosition()));
 		
-		// Move away far enough to have all nodes in front of the camera
+		// Move away far enough to have the whole box in front of the camera
 		Vector3 cameraDir = viewport.getCamera().getDirection();
-		float minDistance = Float.MAX_VALUE;
-		for (ZZNodeView nodeView : fitNodes)
-		{
-			Vector3 centeredPos = Vector3.subtract(nodeView.getPosition(), center);
-			float distance = Vector3.dot(centeredPos, cameraDir);
-			minDistance = Math.min(minDistance, distance);
-		}
-		viewport.getCamera().setDistance(Math.max(-minDistance, 1.0f) * 10.0f);
+		float halfDepth = Math.abs(halfExtent.x * cameraDir.x) + Math.abs(halfExtent.y * cameraDir.y) + Math.abs(halfExtent.z * cameraDir.z);
+		viewport.getCamera().setDistance(Math.max(halfDepth, 1.0f) * 10.0f);
 		
-		// Find out how nodes are fitting into the camera frustum
-		Matrix4 view = viewport.getCamera().getViewMatrix();
-		Matrix4 proj = viewport.getCamera().getProjectionMatrix();
-		for (ZZNodeView nodeView : fitNodes)
+		// Find out how the box's corners are fitting into the camera frustum
+		Matrix4 viewProj = viewport.getCamera().getViewProjectionMatrix();
+		float maxOffset = 0.0f;
+		for (int i = 0; i < 8; i++)
 		{
-			Vector3[] corners = nodeView.getCorners(view);
-			
-			Vector4 screenLU = Vector4.matrixMult(proj, new Vector4(corners[0], 1.0f)).homogeneousToCartesian();
-			Vector4 screenRB = Vector4.matrixMult(proj, new Vector4(corners[1], 1.0f)).homogeneousToCartesian();
-			minScreen.x = Math.min(minScreen.x, screenLU.x);
-			minScreen.y = Math.min(minScreen.y, screenLU.y);
-			maxScreen.x = Math.max(maxScreen.x, screenRB.x);
-			maxScreen.y = Math.max(maxScreen.y, screenRB.y);
+			Vector3 corner = new Vector3((i & 1) == 0 ? minCoords.x : maxCoords.x, 
+										 (i & 2) == 0 ? minCoords.y : maxCoords.y, 
+										 (i & 4) == 0 ? minCoords.z : maxCoords.z);
+			Vector4 screen = Vector4.matrixMult(viewProj, new Vector4(corner, 1.0f)).homogeneousToCartesian();
+			maxOffset = Math.max(maxOffset, Math.max(Math.abs(screen.x), Math.abs(screen.y)));
 		}
-		float maxOffset = Math.max(Math.max(Math.max(Math.abs(minScreen.x), Math.abs(minScreen.y)), Math.abs(maxScreen.x)), Math.abs(maxScreen.y));
 		viewport.getCamera().setDistance(viewport.getCamera().getDistance() * maxOffset);
 		
 		// Something went terribly wrong because of some NaNs upstream :-(
@@ -461,17 +719,29 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	{
 		synchronized (m_sync)
 		{
-			// Obtain selected nodes
-			List<ZZNodeView> selectedNodeViews = new ArrayList<ZZNodeView>(nodeViews.size());
+			// Box around selected nodes, including their extents
+			Vector3 minCoords = new Vector3(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+			Vector3 maxCoords = new Vector3(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+			boolean anySelected = false;
 			
 			for (ZZNodeView view : nodeViews.values())
 				if (view.getVisualProperty(BasicVisualLexicon.NODE_SELECTED))
-					selectedNodeViews.add(view);
+				{
+					Vector3 position = view.getPosition();
+					float radius = view.getBoundingRadius();
+					minCoords.x = Math.min(minCoords.x, position.x - radius);
+					minCoords.y = Math.min(minCoords.y, position.y - radius);
+					minCoords.z = Math.min(minCoords.z, position.z - radius);
+					maxCoords.x = Math.max(maxCoords.x, position.x + radius);
+					maxCoords.y = Math.max(maxCoords.y, position.y + radius);
+					maxCoords.z = Math.max(maxCoords.z, position.z + radius);
+					anySelected = true;
+				}
 			
-			if (selectedNodeViews.isEmpty())
+			if (!anySelected)
 				return;
 			else
-				fitContent(selectedNodeViews);
+				fitContent(minCoords, maxCoords);
 		}
 	}
 	
@@ -563,9 +833,19 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 			for (ZZEdgeView view : edgeViews.values())
 				view.dispose(gl);
 			
+			drawingDaemon.dispose();
+			if (textureUploader != null)
+				textureUploader.dispose();
+			frameSync.dispose(gl);
+			if (textureAtlas != null)
+				textureAtlas.dispose();
+			
 			managerNodeShapes.dispose();
 			managerNodeLabels.dispose();
 			managerEdgeLines.dispose();
+			
+			if (pickBuffer != null)
+				pickBuffer.dispose();
 		}
 	}
 	
@@ -613,268 +893,812 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 		return visualDependencies;
 	}
 
-	//TODO: Not implemented
-	@Override
-	public Printable createPrintable() 
-	{
-		return null;
-	}
-
-	//TODO: Not implemented
-	@Override
-	public Image createImage(int width, int height) 
+	/**
+	 * Sets how much time each frame may spend redrawing textures. Redraws
+	 * that don't fit are continued in the following frames, most urgent first,
+	 * while the old textures remain visible.
+	 * 
+	 * @param milliseconds Time budget per frame, 0 to redraw everything at once
+	 */
+	public void setRasterBudget(long milliseconds)
 	{
-		return null;
+		rasterBudget = Math.max(0, milliseconds);
 	}
-
-	//TODO: Not implemented
-	@Override
-	public <V> Icon createIcon(VisualProperty<V> vp, V value, int width, int height) 
+	
+	/**
+	 * Gets the time each frame may spend redrawing textures.
+	 * 
+	 * @return Time budget per frame in milliseconds, 0 if unlimited
+	 */
+	public long getRasterBudget()
 	{
-		return null;
+		return rasterBudget;
 	}
-
-	//TODO: Not implemented
-	@Override
-	public void printCanvas(java.awt.Graphics printCanvas) 
+	
+	/**
+	 * Sets the on-screen size below which nodes of the given detail level
+	 * are drawn as flat-colored sprites, without textures, label or custom 
+	 * graphics. Nodes pick their level through ZZVisualLexicon.NODE_DETAIL_LEVEL.
+	 * 
+	 * @param level Detail level the threshold applies to
+	 * @param pixels Threshold along the node's larger on-screen dimension, 0 to always texture
+	 */
+	public void setDetailThreshold(DetailLevel level, float pixels)
 	{
+		synchronized (detailThresholds)
+		{
+			detailThresholds[detailIndex(level)] = Math.max(0.0f, pixels);
+		}
 		
+		detailThresholdsChanged = true;
+		if (viewport != null)
+			viewport.redraw(FrameScheduler.PRIMITIVES);
 	}
 	
-	
-	// ********************************
-	// ViewportEventListener interface:
-	// ********************************
-
 	/**
-	 * Callback method invoked upon viewport and GL context initialization.
-	 * Compiles default shaders, creates default node and edge textures,
-	 * initializes rectangle and line managers.
+	 * Gets the on-screen size below which nodes of the given detail level are drawn as sprites.
 	 * 
-	 * @param drawable The viewport's GLJPanel being initialized
+	 * @param level Detail level
+	 * @return Threshold in pixels
 	 */
-	@Override
-	public void viewportInitialize(GLAutoDrawable drawable) 
-	{	
-		synchronized (m_sync)
+	public float getDetailThreshold(DetailLevel level)
+	{
+		synchronized (detailThresholds)
 		{
-			try
-			{
-				gl = drawable.getGL().getGL4();
-				
-				System.out.println(gl.glGetString(GL4.GL_VERSION));
-				if (gl.isExtensionAvailable("GL_ARB_bindless_texture"))
-				{
-					doBindless = true;
-					System.out.println("Supports bindless textures.");
-				}
-				
-				programs[0] = GLSLProgram.CompileProgram(gl, 
-														 getClass().getResource("/glsl/Rectangle.vert"), 
-														 null, null, 
-														 getClass().getResource("/glsl/Rectangle.geom"), 
-														 getClass().getResource("/glsl/Rectangle.frag"));
-				
-				programs[1] = GLSLProgram.CompileProgram(gl, 
-														 getClass().getResource("/glsl/Line.vert"), 
-														 null, null, 
-														 getClass().getResource("/glsl/Line.geom"), 
-														 getClass().getResource("/glsl/Line.frag"));
-				
-				/*gl.glGenBuffers(1, buffers, 0);
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
-				{
-					float[] vertices = new float[] {  0.5f,  0.5f, 0f, 1.0f, 
-												      0.5f, -0.5f, 0f, 1.0f,
-												     -0.5f,  0.5f, 0f, 1.0f};
-					
-					
-					gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, vertices.length * GLBuffers.SIZEOF_FLOAT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
-					ByteBuffer vertexBuffer = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, vertices.length * GLBuffers.SIZEOF_FLOAT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
-					
-					for (int i = 0; i < vertices.length; i++)
-						vertexBuffer.putFloat(vertices[i]);
-					vertexBuffer.rewind();
+			return detailThresholds[detailIndex(level)];
+		}
+	}
 	
-					gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, vertices.length * GLBuffers.SIZEOF_FLOAT);
-				}
-				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, 0);
-				
-				gl.glGenVertexArrays(1, arrays, 0);
-				gl.glBindVertexArray(arrays[0]);
-				{
-					gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
-					{
-						gl.glEnableVertexAttribArray(0);
-						gl.glVertexAttribPointer(0, 4, GL4.GL_FLOAT, false, 4 * GLBuffers.SIZEOF_FLOAT, 0 * GLBuffers.SIZEOF_FLOAT);
-					}
-					gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, 0);
-				}
-				gl.glBindVertexArray(0);*/
-				
-				// Default texture:
-				int blubbWidth = 16, blubbHeight = 16;
-				byte[] defaultTextureData = new byte[blubbWidth * blubbHeight * 4];
-				for (int y = 0; y < blubbHeight; y++)
-					for (int x = 0; x < blubbWidth; x++)
-					{
-						byte val = (byte)(x % 2 == (y % 2 == 0 ? 0 : 1) ? 0 : -1);
-						defaultTextureData[(y * blubbWidth + x) * 4 + 0] = 80;
-						defaultTextureData[(y * blubbWidth + x) * 4 + 1] = 80;
-						defaultTextureData[(y * blubbWidth + x) * 4 + 2] = 80;
-						defaultTextureData[(y * blubbWidth + x) * 4 + 3] = -1;	// -1 = FF unsigned
-					}
-				shapeDefaultTex = new ZZBindlessTexture(gl, defaultTextureData, (short)blubbWidth, (short)16, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
-				labelDefaultTex = new ZZBindlessTexture(gl, new byte[4], (short)1, (short)1, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
-				
-				managerNodeShapes = new ZZRectangleManager(gl, 10, shapeDefaultTex.getID(), (short)blubbWidth, (short)blubbHeight);
-				managerNodeLabels = new ZZRectangleManager(gl, 10, labelDefaultTex.getID(), (short)1, (short)1);
-				for (int i = 0; i < managersNodeCG.length; i++)
-					managersNodeCG[i] = new ZZRectangleManager(gl, 10, labelDefaultTex.getID(), (short)1, (short)1);
-				
-				managerEdgeLines = new ZZLineManager(gl, 10, shapeDefaultTex.getID(), (short)blubbWidth, (short)blubbHeight);
-			}
-			catch (GLException exc)
-			{
-				System.out.println(exc.toString());
-			}		
+	private static int detailIndex(DetailLevel level)
+	{
+		if (level == DetailLevelVisualProperty.DETAIL_LOW)
+			return 0;
+		else if (level == DetailLevelVisualProperty.DETAIL_HIGH)
+			return 2;
+		else
+			return 1;
+	}
 	
-			syncWithModel();
-		}
+	/**
+	 * Switches between culling rectangles on the CPU only, and additionally
+	 * culling them on the device, where survivors are drawn indirectly.
+	 * Has no effect if the device doesn't support compute shaders.
+	 * 
+	 * @param enabled True to cull on the device
+	 */
+	public void setComputeCulling(boolean enabled)
+	{
+		computeCulling = enabled;
+		if (viewport != null)
+			viewport.redraw(FrameScheduler.PRIMITIVES);
 	}
-
+	
 	/**
-	 * Callback method invoked when the viewport needs to be redrawn.
-	 * This is the main rendering pipeline for all standard components.
-	 * For more details on how it is structured, refer to ZZDrawingDaemon.
+	 * Checks if rectangles are culled on the device.
 	 * 
-	 * @param drawable The viewport's GLJPanel
+	 * @return True if device culling is enabled
 	 */
-	@Override
-	public void viewportDisplay(GLAutoDrawable drawable) 
-	{ 
-		synchronized (m_sync)
+	public boolean isComputeCulling()
+	{
+		return computeCulling;
+	}
+	
+	/**
+	 * Checks if the device supports culling rectangles with a compute shader.
+	 * Always false before the viewport has been initialized.
+	 * 
+	 * @return True if setComputeCulling has an effect
+	 */
+	public boolean isComputeCullingSupported()
+	{
+		return cullProgram != -1;
+	}
+	
+	/**
+	 * Checks if the device supports bindless textures. If not, rectangle
+	 * textures are allocated in a texture atlas.
+	 * Always false before the viewport has been initialized.
+	 * 
+	 * @return True if bindless textures are available
+	 */
+	public boolean isBindlessSupported()
+	{
+		return doBindless;
+	}
+	
+	/**
+	 * Gets the factor all node and edge textures are currently downsampled
+	 * by to stay within the texture memory limit.
+	 * 
+	 * @return Downsampling factor, 1 if textures are drawn at full resolution
+	 */
+	public float getGlobalDownsampling()
+	{
+		return globalDownsampling;
+	}
+	
+	/**
+	 * Checks if textures are uploaded on a separate thread with a shared
+	 * context. If that context couldn't be created, uploads fall back to the
+	 * render thread, and ZZTextureUploader.getSharedContextFailure tells why.
+	 * Always false before the viewport has been initialized.
+	 * 
+	 * @return True if uploads are streamed from a separate thread
+	 */
+	public boolean isTextureUploadThreaded()
+	{
+		ZZTextureUploader uploader = textureUploader;
+		return uploader != null && uploader.isThreaded();
+	}
+	
+	/**
+	 * Gets the texture uploader, which streams rectangle textures
+	 * through pixel buffers if bindless textures are used.
+	 * 
+	 * @return Texture uploader, null before initialization or with a texture atlas
+	 */
+	public ZZTextureUploader getTextureUploader()
+	{
+		return textureUploader;
+	}
+	
+	/**
+	 * Gives all node rectangle managers a compute culler, or takes it away,
+	 * according to the current setting. Must be called on the GL thread.
+	 */
+	private void updateComputeCullers()
+	{
+		boolean enable = computeCulling && cullProgram != -1;
+		
+		managerNodeShapes.setComputeCuller(enable ? new ZZComputeCuller(gl, cullProgram) : null);
+		managerNodeLabels.setComputeCuller(enable ? new ZZComputeCuller(gl, cullProgram) : null);
+		for (int i = 0; i < managersNodeCG.length; i++)
+			managersNodeCG[i].setComputeCuller(enable ? new ZZComputeCuller(gl, cullProgram) : null);
+		
+		computeCullingActive = computeCulling;
+	}
+	
+	/**
+	 * Updates the bounds of node views in the bounds tree, and
+	 * those of their adjacent edges, which move along with them.
+	 * Must be called while holding the lock.
+	 * 
+	 * @param views Node views whose position or size might have changed
+	 */
+	private void refitBounds(Collection<ZZNodeView> views)
+	{
+		for (ZZNodeView view : views)
 		{
-			gl = drawable.getGL().getGL4();
+			if (view.boundsProxy >= 0)
+				boundsTree.move(view.boundsProxy, view.getPosition(), view.getBoundingRadius());
 			
-			visualDependencies = visualMappingManager.getVisualStyle(this).getAllVisualPropertyDependencies();
+			for (ZZEdgeView edgeView : view.getAdjacentEdgeViews())
+				if (edgeView.boundsProxy >= 0)
+					edgeBoundsTree.move(edgeView.boundsProxy, edgeView.getBoundingCenter(), edgeView.getBoundingRadius());
+		}
+	}
+	
+	/**
+	 * Finds the node or edge view under a pixel by intersecting a ray
+	 * through it with candidates from the bounds trees. Nodes are drawn
+	 * on top of edges, so they take precedence.
+	 * 
+	 * @param pixel Position in pixels, relative to the viewport's top left corner
+	 * @return Closest intersection, or null if there is nothing under the pixel
+	 */
+	public PickingResult pick(Vector2 pixel)
+	{
+		synchronized (m_sync)
+		{
+			if (viewport == null)
+				return null;
 			
+			Ray3 ray = viewport.getCamera().getRayThroughPixel(pixel.copy());
 			Matrix4 viewMatrix = viewport.getCamera().getViewMatrix();
-			Vector3 cameraPos = viewport.getCamera().getCameraPosition();
-			Vector3 viewDirection = viewport.getCamera().getDirection();
-			Vector2 halfScreen = new Vector2(viewport.getPanel().getWidth(), viewport.getPanel().getHeight());
 			
-			Queue<ZZDrawingDaemonPrimitive> forDrawUpdate = new LinkedBlockingQueue<>();
+			List<ZZNodeView> nodeCandidates = new ArrayList<>();
+			boundsTree.queryRay(ray, nodeCandidates);
+			PickingResult closest = closestIntersection(nodeCandidates, ray, viewMatrix);
+			if (closest != null)
+				return closest;
 			
-			// Determine optimal clipping range to make better use of the depth buffer:
-			Vector2 optimalClip = new Vector2(Float.MAX_VALUE, 0.2f);
-			int nodesInFront = 0;
-			for (ZZNodeView view : nodeViews.values())
+			List<ZZEdgeView> edgeCandidates = new ArrayList<>();
+			edgeBoundsTree.queryRay(ray, edgeCandidates);
+			return closestIntersection(edgeCandidates, ray, viewMatrix);
+		}
+	}
+	
+	/**
+	 * Intersects a ray with each candidate, and returns the intersection closest to its origin.
+	 */
+	private static PickingResult closestIntersection(List<? extends Pickable> candidates, Ray3 ray, Matrix4 viewMatrix)
+	{
+		PickingResult closest = null;
+		for (Pickable candidate : candidates)
+		{
+			PickingResult result = candidate.intersectsWith(ray, viewMatrix);
+			if (result != null && (closest == null || result.distance < closest.distance))
+				closest = result;
+		}
+		
+		return closest;
+	}
+	
+	/**
+	 * Gets the node or edge view under the cursor, as of the last
+	 * frame that resolved a pick. Updated while the mouse moves.
+	 * 
+	 * @return View under the cursor, or null if there is none
+	 */
+	public Pickable getHovered()
+	{
+		return hovered;
+	}
+	
+	/**
+	 * Draws edges, then node shapes, custom graphics and labels on top.
+	 * Used for the visible frame as well as for picking, where the
+	 * programs write kind and address of each primitive instead of colors.
+	 * Programs without a pickKind uniform ignore it.
+	 * 
+	 * @param lineProgram Program for edge lines
+	 * @param rectProgram Program for node rectangles
+	 */
+	private void drawPrimitives(int lineProgram, int rectProgram)
+	{
+		gl.glUseProgram(lineProgram);
+		{
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(lineProgram, "viewMatrix"), 1, false, viewport.getCamera().getViewMatrix().asArrayCM(), 0);
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(lineProgram, "projMatrix"), 1, false, viewport.getCamera().getProjectionMatrix().asArrayCM(), 0);
+			gl.glUniform4fv(gl.glGetUniformLocation(lineProgram, "highlightColor"), 1, edgeHighlight, 0);
+			
+			if (managerEdgeLines.size() > 0)		
 			{
-				Vector3 toNode = Vector3.subtract(view.getPosition(), cameraPos);
-				float distance = Vector3.dot(toNode, viewDirection);
-				if (distance <= 0.1f)
-					continue;
-				optimalClip.x = Math.min(optimalClip.x, distance);
-				optimalClip.y = Math.max(optimalClip.y, distance);
-				nodesInFront++;
+				gl.glUniform1ui(gl.glGetUniformLocation(lineProgram, "pickKind"), PICK_EDGES);
+				
+				// One point per line, expanded to a quad in the geometry shader
+				managerEdgeLines.bind();
+				gl.glDrawArrays(GL4.GL_POINTS, 0, managerEdgeLines.size());
 			}
-			if (nodesInFront > 0)
+
+			gl.glBindVertexArray(0);
+		}
+		gl.glUseProgram(0);
+		
+		gl.glUseProgram(rectProgram);
+		{
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(rectProgram, "viewMatrix"), 1, false, viewport.getCamera().getViewMatrix().asArrayCM(), 0);
+			gl.glUniformMatrix4fv(gl.glGetUniformLocation(rectProgram, "projMatrix"), 1, false, viewport.getCamera().getProjectionMatrix().asArrayCM(), 0);
+			gl.glUniform4fv(gl.glGetUniformLocation(rectProgram, "highlightColor"), 1, nodeHighlight, 0);
+			int pickKindLocation = gl.glGetUniformLocation(rectProgram, "pickKind");
+			
+			if (textureAtlas != null)
+				textureAtlas.bind();
+			
+			if (managerNodeShapes.size() > 0)
 			{
-				optimalClip.y += 2.0f;
-				optimalClip.x = Math.max(0.1f, optimalClip.x - 2.0f);
-				viewport.getCamera().setClippingRange(optimalClip);
+				gl.glUniform1f(gl.glGetUniformLocation(rectProgram, "depthOffset"), -0.5e-6f);
+				gl.glUniform1ui(pickKindLocation, PICK_SHAPES);
+				
+				managerNodeShapes.draw();
 			}
 			
-			// Projection matrix with the updated clipping range:
-			Matrix4 projMatrix = viewport.getCamera().getProjectionMatrix();
-			
-			for (ZZNodeView view : nodeViews.values())
+			for (int i = 0; i < managersNodeCG.length; i++) 
 			{
-				ZZDrawingDaemonPrimitive primitive = (ZZDrawingDaemonPrimitive)view;
-				if (primitive.updateState(defaultVisualPropertiesChanged, gl, viewMatrix, projMatrix, halfScreen))
+				if (managersNodeCG[i].size() > 0)
 				{
-					forDrawUpdate.add(primitive);
-					//System.out.println("Node wants to draw.");
+					// CG go on top of node shapes
+					gl.glUniform1f(gl.glGetUniformLocation(rectProgram, "depthOffset"), -1.0e-6f - (float)i * 1.0e-6f);
+					gl.glUniform1ui(pickKindLocation, PICK_CG + i);
+					
+					managersNodeCG[i].draw();
 				}
 			}
-			defaultVisualPropertiesChanged = false;	// Everyone is in sync now
 			
-			Queue<ZZDrawingDaemonPrimitive> forResourceUpdate = new LinkedBlockingQueue<>();
+			if (managerNodeLabels.size() > 0)
+			{
+				// Labels go on top of everything
+				gl.glUniform1f(gl.glGetUniformLocation(rectProgram, "depthOffset"), -1.0e-6f - (float)ZZVisualLexicon.numCustomGraphics * 1.0e-6f);
+				gl.glUniform1ui(pickKindLocation, PICK_LABELS);
 			
-			for (ZZDrawingDaemonPrimitive primitive : forDrawUpdate)
-				if (primitive.redrawTextures(viewMatrix, projMatrix))
+				managerNodeLabels.draw();
+			}
+			gl.glBindVertexArray(0);
+		}
+		gl.glUseProgram(0);
+	}
+	
+	/**
+	 * Issues a pick for the latest hover request, and resolves a pick issued
+	 * in an earlier frame. Picks go through the device if possible, and are
+	 * intersected with the bounds trees right away otherwise.
+	 * Must be called on the GL thread while holding the lock.
+	 * 
+	 * @param drawable The viewport's GLJPanel
+	 */
+	private void updatePicking(GLAutoDrawable drawable)
+	{
+		if (pickBuffer != null && pickBuffer.isPending())
+		{
+			int[] picked = pickBuffer.poll();
+			if (picked != null && !resolvePick(picked[0], picked[1]))
+				hoverRequest.compareAndSet(null, pickPixel);	// Primitives moved in the meantime, try again
+		}
+		
+		if (pickBuffer == null || !pickBuffer.isPending())
+		{
+			Vector2 request = hoverRequest.getAndSet(null);
+			if (request != null)
+			{
+				if (pickBuffer != null)
 				{
-					forResourceUpdate.add(primitive);
-					//System.out.println("Node wants to update resources.");
+					issuePick(drawable, request);
 				}
-			
-			for (ZZDrawingDaemonPrimitive primitive : forResourceUpdate)
-				primitive.updateResources(gl);
-			
-			managerNodeShapes.flush();
-			managerNodeLabels.flush();
-			for (int i = 0; i < managersNodeCG.length; i++)
-				if (managersNodeCG[i].size() > 0)
-					managersNodeCG[i].flush();			
-			
-			managerEdgeLines.flush();
-			
-			gl.glUseProgram(programs[1]);
-			{
-				gl.glUniformMatrix4fv(gl.glGetUniformLocation(programs[1], "viewMatrix"), 1, false, viewport.getCamera().getViewMatrix().asArrayCM(), 0);
-				gl.glUniformMatrix4fv(gl.glGetUniformLocation(programs[1], "projMatrix"), 1, false, viewport.getCamera().getProjectionMatrix().asArrayCM(), 0);
-				
-				if (managerEdgeLines.size() > 0)		
+				else
 				{
-					managerEdgeLines.bind();
-					gl.glLineWidth(10.0f);
-					gl.glDrawArrays(GL4.GL_LINES, 0, managerEdgeLines.size() * 2);
-					gl.glFinish();
+					PickingResult result = pick(request);
+					hovered = result != null ? result.source : null;
 				}
-	
-				gl.glBindVertexArray(0);
 			}
-			gl.glUseProgram(0);
-			
-			gl.glUseProgram(programs[0]);
+		}
+		
+		// Keep frames coming until the result is in
+		if (pickBuffer != null && pickBuffer.isPending())
+			viewport.redraw(FrameScheduler.PICKING);
+	}
+	
+	/**
+	 * Draws primitive IDs into the pick buffer, limited to the pixel under the cursor.
+	 * 
+	 * @param drawable The viewport's GLJPanel
+	 * @param pixel Position in pixels, relative to the viewport's top left corner
+	 */
+	private void issuePick(GLAutoDrawable drawable, Vector2 pixel)
+	{
+		int surfaceWidth = drawable.getSurfaceWidth(), surfaceHeight = drawable.getSurfaceHeight();
+		float scaleX = (float)surfaceWidth / (float)Math.max(1, viewport.getPanel().getWidth());
+		float scaleY = (float)surfaceHeight / (float)Math.max(1, viewport.getPanel().getHeight());
+		int x = (int)(pixel.x * scaleX), y = surfaceHeight - 1 - (int)(pixel.y * scaleY);	// GL's origin is in the bottom left corner
+		if (x < 0 || y < 0 || x >= surfaceWidth || y >= surfaceHeight)
+		{
+			hovered = null;
+			return;
+		}
+		
+		pickPixel = pixel;
+		pickGenerations[PICK_EDGES] = managerEdgeLines.getAddressGeneration();
+		pickGenerations[PICK_SHAPES] = managerNodeShapes.getAddressGeneration();
+		pickGenerations[PICK_LABELS] = managerNodeLabels.getAddressGeneration();
+		for (int i = 0; i < managersNodeCG.length; i++)
+			pickGenerations[PICK_CG + i] = managersNodeCG[i].getAddressGeneration();
+		
+		pickBuffer.begin(x, y, surfaceWidth, surfaceHeight);
+		drawPrimitives(pickPrograms[1], pickPrograms[0]);
+		pickBuffer.end();
+	}
+	
+	/**
+	 * Traces a picked address back to the view it belongs to.
+	 * 
+	 * @param kind Kind of primitive that was picked, 0 if none
+	 * @param address Position of the primitive in its manager's buffers
+	 * @return False if the manager has moved primitives since the pick was issued
+	 */
+	private boolean resolvePick(int kind, int address)
+	{
+		Object owner = null;
+		if (kind == PICK_EDGES)
+		{
+			if (pickGenerations[kind] != managerEdgeLines.getAddressGeneration())
+				return false;
+			owner = managerEdgeLines.getOwnerAt(address);
+		}
+		else if (kind >= PICK_SHAPES && kind < PICK_CG + managersNodeCG.length)
+		{
+			ZZRectangleManager manager = kind == PICK_SHAPES ? managerNodeShapes : 
+										 kind == PICK_LABELS ? managerNodeLabels : 
+										 managersNodeCG[kind - PICK_CG];
+			if (pickGenerations[kind] != manager.getAddressGeneration())
+				return false;
+			owner = manager.getOwnerAt(address);
+		}
+		
+		hovered = owner instanceof Pickable ? (Pickable)owner : null;
+		return true;
+	}
+	
+	/**
+	 * Gets all node views whose bounds intersect the side planes
+	 * of the view frustum, ignoring the clipping range.
+	 * Must be called while holding the lock.
+	 * 
+	 * @param viewMatrix Current view matrix
+	 * @param projMatrix Current projection matrix
+	 * @return Node views that could be on screen
+	 */
+	private List<ZZNodeView> queryFrustum(Matrix4 viewMatrix, Matrix4 projMatrix)
+	{
+		float[] sidePlanes = Arrays.copyOf(ZZBoundsTree.frustumPlanes(Matrix4.mult(projMatrix, viewMatrix)), 16);
+		
+		List<ZZNodeView> result = new ArrayList<>();
+		boundsTree.query(sidePlanes, result);
+		
+		return result;
+	}
+	
+	/**
+	 * Queues a node view for a state update in the next frame.
+	 * May be called from any thread.
+	 * 
+	 * @param view Node view whose VPs changed
+	 */
+	void markDirty(ZZNodeView view)
+	{
+		dirtyNodeViews.add(view);
+		if (viewport != null)
+			viewport.redraw(FrameScheduler.PRIMITIVES);	// Coalesced with all other changes until the next frame
+	}
+	
+	/**
+	 * Gets the cache that shares shape and label textures between node views.
+	 * Its hit count tells how many rasterizations were saved.
+	 *
+	 * @return Texture cache
+	 */
+	public ZZTextureCache getTextureCache()
+	{
+		return textureCache;
+	}
+	
+	/**
+	 * Gets the number of bytes pushed to device buffers during the last frame.
+	 *
+	 * @return Number of flushed bytes
+	 */
+	public long getFlushedBytesLastFrame()
+	{
+		return flushedBytesLastFrame;
+	}
+
+	//TODO: Not implemented
+	@Override
+	public Printable createPrintable() 
+	{
+		return null;
+	}
+
+	//TODO: Not implemented
+	@Override
+	public Image createImage(int width, int height) 
+	{
+		return null;
+	}
+
+	//TODO: Not implemented
+	@Override
+	public <V> Icon createIcon(VisualProperty<V> vp, V value, int width, int height) 
+	{
+		return null;
+	}
+
+	//TODO: Not implemented
+	@Override
+	public void printCanvas(java.awt.Graphics printCanvas) 
+	{
+		
+	}
+	
+	
+	// ********************************
+	// ViewportEventListener interface:
+	// ********************************
+
+	/**
+	 * Callback method invoked upon viewport and GL context initialization.
+	 * Compiles default shaders, creates default node and edge textures,
+	 * initializes rectangle and line managers.
+	 * 
+	 * @param drawable The viewport's GLJPanel being initialized
+	 */
+	@Override
+	public void viewportInitialize(GLAutoDrawable drawable) 
+	{	
+		synchronized (m_sync)
+		{
+			try
 			{
-				gl.glUniformMatrix4fv(gl.glGetUniformLocation(programs[0], "viewMatrix"), 1, false, viewport.getCamera().getViewMatrix().asArrayCM(), 0);
-				gl.glUniformMatrix4fv(gl.glGetUniformLocation(programs[0], "projMatrix"), 1, false, viewport.getCamera().getProjectionMatrix().asArrayCM(), 0);
+				gl = drawable.getGL().getGL4();
+				
+				if (gl.isExtensionAvailable("GL_ARB_bindless_texture"))
+					doBindless = true;
+				
+				// Without bindless textures, rectangles sample regions of an atlas instead
+				if (!doBindless || ALWAYS_USE_ATLAS)
+					textureAtlas = new ZZTextureAtlas(gl, ZZTextureAtlas.DEFAULT_PAGE_SIZE);
+				String textureLookup = textureAtlas != null ? "/glsl/TextureAtlas.frag" : "/glsl/TextureBindless.frag";
+				
+				programs[0] = GLSLProgram.CompileProgram(gl, 
+														 getClass().getResource("/glsl/Rectangle.vert"), 
+														 null, null, 
+														 getClass().getResource("/glsl/Rectangle.geom"), 
+														 getClass().getResource("/glsl/Rectangle.frag"),
+														 getClass().getResource("/glsl/Shape.frag"),
+														 getClass().getResource(textureLookup));
+				
+				programs[1] = GLSLProgram.CompileProgram(gl, 
+														 getClass().getResource("/glsl/Line.vert"), 
+														 null, null, 
+														 getClass().getResource("/glsl/Line.geom"), 
+														 getClass().getResource("/glsl/Line.frag"));
+				
+				pickPrograms[0] = GLSLProgram.CompileProgram(gl, 
+															 getClass().getResource("/glsl/Rectangle.vert"), 
+															 null, null, 
+															 getClass().getResource("/glsl/Rectangle.geom"), 
+															 getClass().getResource("/glsl/RectanglePick.frag"),
+															 getClass().getResource("/glsl/Shape.frag"),
+															 getClass().getResource(textureLookup));
 				
-				if (managerNodeShapes.size() > 0)
+				pickPrograms[1] = GLSLProgram.CompileProgram(gl, 
+															 getClass().getResource("/glsl/Line.vert"), 
+															 null, null, 
+															 getClass().getResource("/glsl/Line.geom"), 
+															 getClass().getResource("/glsl/LinePick.frag"));
+				
+				// Without ID programs, picking falls back to the bounds trees
+				if (pickPrograms[0] != -1 && pickPrograms[1] != -1)
+					pickBuffer = new ZZPickBuffer(gl);
+				
+				cullProgram = GLSLProgram.CompileComputeProgram(gl, getClass().getResource("/glsl/Cull.comp"));
+				
+				/*gl.glGenBuffers(1, buffers, 0);
+				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
 				{
-					gl.glUniform1f(gl.glGetUniformLocation(programs[0], "depthOffset"), -0.5e-6f);
+					float[] vertices = new float[] {  0.5f,  0.5f, 0f, 1.0f, 
+												      0.5f, -0.5f, 0f, 1.0f,
+												     -0.5f,  0.5f, 0f, 1.0f};
+					
+					
+					gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, vertices.length * GLBuffers.SIZEOF_FLOAT, null, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT);
+					ByteBuffer vertexBuffer = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, vertices.length * GLBuffers.SIZEOF_FLOAT, GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_FLUSH_EXPLICIT_BIT);
 					
-					managerNodeShapes.bind();
-					gl.glDrawArrays(GL4.GL_POINTS, 0, managerNodeShapes.size());	
+					for (int i = 0; i < vertices.length; i++)
+						vertexBuffer.putFloat(vertices[i]);
+					vertexBuffer.rewind();
+	
+					gl.glFlushMappedBufferRange(GL4.GL_ARRAY_BUFFER, 0, vertices.length * GLBuffers.SIZEOF_FLOAT);
 				}
+				gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, 0);
 				
-				for (int i = 0; i < managersNodeCG.length; i++) 
+				gl.glGenVertexArrays(1, arrays, 0);
+				gl.glBindVertexArray(arrays[0]);
 				{
-					if (managersNodeCG[i].size() > 0)
+					gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
 					{
-						// CG go on top of node shapes
-						gl.glUniform1f(gl.glGetUniformLocation(programs[0], "depthOffset"), -1.0e-6f - (float)i * 1.0e-6f);
-						
-						managersNodeCG[i].bind();
-						gl.glDrawArrays(GL4.GL_POINTS, 0, managersNodeCG[i].size());
+						gl.glEnableVertexAttribArray(0);
+						gl.glVertexAttribPointer(0, 4, GL4.GL_FLOAT, false, 4 * GLBuffers.SIZEOF_FLOAT, 0 * GLBuffers.SIZEOF_FLOAT);
 					}
+					gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, 0);
 				}
+				gl.glBindVertexArray(0);*/
 				
-				if (managerNodeLabels.size() > 0)
-				{
-					// Labels go on top of everything
-					gl.glUniform1f(gl.glGetUniformLocation(programs[0], "depthOffset"), -1.0e-6f - (float)ZZVisualLexicon.numCustomGraphics * 1.0e-6f);
+				// Default texture:
+				int blubbWidth = 16, blubbHeight = 16;
+				byte[] defaultTextureData = new byte[blubbWidth * blubbHeight * 4];
+				for (int y = 0; y < blubbHeight; y++)
+					for (int x = 0; x < blubbWidth; x++)
+					{
+						byte val = (byte)(x % 2 == (y % 2 == 0 ? 0 : 1) ? 0 : -1);
+						defaultTextureData[(y * blubbWidth + x) * 4 + 0] = 80;
+						defaultTextureData[(y * blubbWidth + x) * 4 + 1] = 80;
+						defaultTextureData[(y * blubbWidth + x) * 4 + 2] = 80;
+						defaultTextureData[(y * blubbWidth + x) * 4 + 3] = -1;	// -1 = FF unsigned
+					}
+				shapeDefaultTex = createDefaultTexture(defaultTextureData, (short)blubbWidth, (short)16);
+				labelDefaultTex = createDefaultTexture(new byte[4], (short)1, (short)1);
+				
+				// Size buffers for the whole network right away, so loading it doesn't resize them repeatedly
+				int nodeCapacity = Math.max(10, network.getNodeCount());
+				int edgeCapacity = Math.max(10, network.getEdgeCount());
+				
+				managerNodeShapes = new ZZRectangleManager(gl, frameSync, nodeCapacity, shapeDefaultTex.getID(), (short)blubbWidth, (short)blubbHeight);
+				managerNodeLabels = new ZZRectangleManager(gl, frameSync, nodeCapacity, labelDefaultTex.getID(), (short)1, (short)1);
+				for (int i = 0; i < managersNodeCG.length; i++)
+					managersNodeCG[i] = new ZZRectangleManager(gl, frameSync, 10, labelDefaultTex.getID(), (short)1, (short)1);
 				
-					managerNodeLabels.bind();
-					gl.glDrawArrays(GL4.GL_POINTS, 0, managerNodeLabels.size());
+				managerEdgeLines = new ZZLineManager(gl, frameSync, edgeCapacity, shapeDefaultTex.getID(), (short)blubbWidth, (short)blubbHeight);
+				
+				// Keep primitives that are close in space close in the buffers, too
+				managerNodeShapes.setBufferOrder(ZZBufferOrder.SPATIAL);
+				managerNodeLabels.setBufferOrder(ZZBufferOrder.SPATIAL);
+				managerEdgeLines.setBufferOrder(ZZBufferOrder.SPATIAL);
+				
+				if (textureAtlas != null)
+				{
+					// Atlas regions are small and uploaded right away, streaming only works for bindless textures
+					managerNodeShapes.setTextureAtlas(textureAtlas);
+					managerNodeLabels.setTextureAtlas(textureAtlas);
+					for (int i = 0; i < managersNodeCG.length; i++)
+						managersNodeCG[i].setTextureAtlas(textureAtlas);
+					managerEdgeLines.setTextureAtlas(textureAtlas);
+				}
+				else
+				{
+					textureUploader = new ZZTextureUploader(gl, SHARED_UPLOAD_CONTEXT ? drawable : null, ZZTextureUploader.DEFAULT_STAGING_SIZE);
+					managerNodeShapes.setTextureUploader(textureUploader);
+					managerNodeLabels.setTextureUploader(textureUploader);
+					for (int i = 0; i < managersNodeCG.length; i++)
+						managersNodeCG[i].setTextureUploader(textureUploader);
 				}
-				gl.glBindVertexArray(0);
 			}
-			gl.glUseProgram(0);
+			catch (GLException exc)
+			{
+				System.out.println(exc.toString());
+			}
+		}
+		
+		// Outside the lock, so views for the whole network are built without blocking model threads
+		syncWithModel();
+	}
+
+	/**
+	 * Callback method invoked when the viewport needs to be redrawn.
+	 * This is the main rendering pipeline for all standard components.
+	 * For more details on how it is structured, refer to ZZDrawingDaemon.
+	 * 
+	 * @param drawable The viewport's GLJPanel
+	 */
+	@Override
+	public void viewportDisplay(GLAutoDrawable drawable) 
+	{ 
+		synchronized (m_sync)
+		{
+			gl = drawable.getGL().getGL4();
+			
+			// Wait until the GPU is done with the buffer regions this frame will write to
+			int frameSlot = frameSync.beginFrame(gl);
+			
+			visualDependencies = visualMappingManager.getVisualStyle(this).getAllVisualPropertyDependencies();
+			
+			Matrix4 viewMatrix = viewport.getCamera().getViewMatrix();
+			Vector3 cameraPos = viewport.getCamera().getCameraPosition();
+			Vector3 viewDirection = viewport.getCamera().getDirection();
+			Vector2 halfScreen = new Vector2(viewport.getPanel().getWidth(), viewport.getPanel().getHeight());
+			
+			// Changed thresholds move nodes between sprites and textures just like zooming does
+			boolean thresholdsChanged = detailThresholdsChanged;
+			detailThresholdsChanged = false;
+			
+			float[] viewArray = viewMatrix.asArrayCM();
+			boolean cameraMoved = !Arrays.equals(viewArray, lastViewMatrix) || 
+								  halfScreen.x != lastHalfScreen.x || halfScreen.y != lastHalfScreen.y || 
+								  globalDownsampling != lastDownsampling || 
+								  thresholdsChanged;
+			
+			// Views changed since the last frame. Taken out of the set first, so views changed in the meantime stay dirty.
+			List<ZZNodeView> changedViews = new ArrayList<>();
+			Iterator<ZZNodeView> it = dirtyNodeViews.iterator();
+			while (it.hasNext())
+			{
+				ZZNodeView view = it.next();
+				it.remove();
+				if (nodeViews.get(view.getModel()) == view)	// Could have been removed by now
+					changedViews.add(view);
+			}
+			
+			// Default VPs can change every node's size and position
+			if (defaultVisualPropertiesChanged)
+				refitBounds(nodeViews.values());
+			else
+				refitBounds(changedViews);
+			
+			// Determine optimal clipping range to make better use of the depth buffer.
+			// Node positions can only have changed if some views are dirty. Only nodes
+			// within the side planes of the frustum matter, and those don't depend on the range.
+			// The bounds tree finds their depth range without visiting each of them.
+			if (cameraMoved || defaultVisualPropertiesChanged || !changedViews.isEmpty())
+			{
+				float[] sidePlanes = Arrays.copyOf(ZZBoundsTree.frustumPlanes(Matrix4.mult(viewport.getCamera().getProjectionMatrix(), viewMatrix)), 16);
+				float[] depthRange = boundsTree.depthRange(sidePlanes, cameraPos, viewDirection, 0.1f);
+				if (depthRange != null)
+				{
+					Vector2 optimalClip = new Vector2(Math.max(0.1f, depthRange[0] - 2.0f), depthRange[1] + 2.0f);
+					viewport.getCamera().setClippingRange(optimalClip);
+				}
+			}
+			
+			// Projection matrix with the updated clipping range:
+			Matrix4 projMatrix = viewport.getCamera().getProjectionMatrix();
+			float[] projArray = projMatrix.asArrayCM();
+			cameraMoved |= !Arrays.equals(projArray, lastProjMatrix);
+			
+			lastViewMatrix = viewArray;
+			lastProjMatrix = projArray;
+			lastHalfScreen = halfScreen;
+			lastDownsampling = globalDownsampling;
+			
+			// Every view needs to sync if defaults changed. If the camera moved, footprints
+			// changed for views that could be on screen now, or were on screen before.
+			// Otherwise only changed views and those with redraws left over from the
+			// last frame need an update.
+			List<ZZDrawingDaemonPrimitive> forStateUpdate;
+			if (defaultVisualPropertiesChanged)
+			{
+				forStateUpdate = new ArrayList<ZZDrawingDaemonPrimitive>(nodeViews.values());
+			}
+			else
+			{
+				Set<ZZDrawingDaemonPrimitive> changed = new LinkedHashSet<>(changedViews);
+				if (cameraMoved)
+				{
+					List<ZZNodeView> candidates = queryFrustum(viewMatrix, projMatrix);
+					changed.addAll(candidates);
+					changed.addAll(visibleNodeViews);
+				}
+				changed.addAll(drawingDaemon.getPendingDraws());
+				forStateUpdate = new ArrayList<>(changed);
+			}
+			
+			// Stages 1 and 2 run on all cores, stage 3 needs the GL thread
+			drawingDaemon.updateState(forStateUpdate, defaultVisualPropertiesChanged, gl, viewMatrix, projMatrix, halfScreen, redrawFocus);
+			
+			// Synced properties can change rectangle sizes, and with them the bounds
+			if (defaultVisualPropertiesChanged)
+			{
+				refitBounds(nodeViews.values());
+				
+				nodeHighlight = highlightColor(defaultVault.getDefaultValue(BasicVisualLexicon.NODE_SELECTED_PAINT), NODE_HIGHLIGHT_STRENGTH);
+				edgeHighlight = highlightColor(defaultVault.getDefaultValue(BasicVisualLexicon.EDGE_STROKE_SELECTED_PAINT), 1.0f);
+			}
+			else
+				refitBounds(changedViews);
+			defaultVisualPropertiesChanged = false;	// Everyone is in sync now
+			
+			for (ZZDrawingDaemonPrimitive primitive : forStateUpdate)
+			{
+				if (!(primitive instanceof ZZNodeView) || ((ZZNodeView)primitive).boundsProxy < 0)	// Removed in the meantime
+					continue;
+				ZZNodeView view = (ZZNodeView)primitive;
+				if (view.isOnScreen())
+					visibleNodeViews.add(view);
+				else
+					visibleNodeViews.remove(view);
+			}
+			
+			drawingDaemon.updateDraw(viewMatrix, projMatrix, rasterBudget * 1000000L);
+			drawingDaemon.updateResources(gl);
+			if (textureUploader != null)
+				textureUploader.update(gl);	// Swaps in textures whose upload has completed
+			
+			long flushedBytes = 0;
+			flushedBytes += managerNodeShapes.flush(frameSlot);
+			flushedBytes += managerNodeLabels.flush(frameSlot);
+			for (int i = 0; i < managersNodeCG.length; i++)
+				flushedBytes += managersNodeCG[i].flush(frameSlot);	// Also executes queued creations, so can't skip empty managers
 			
-			gl.glFinish();
+			flushedBytes += managerEdgeLines.flush(frameSlot);
+			flushedBytesLastFrame = flushedBytes;
+			
+			if (computeCulling != computeCullingActive)
+				updateComputeCullers();
+			
+			// No-op for managers without a culler
+			managerNodeShapes.cull(viewMatrix, projMatrix, halfScreen);
+			managerNodeLabels.cull(viewMatrix, projMatrix, halfScreen);
+			for (int i = 0; i < managersNodeCG.length; i++)
+				managersNodeCG[i].cull(viewMatrix, projMatrix, halfScreen);
+			
+			drawPrimitives(programs[1], programs[0]);
+			
+			// Resolves earlier picks, and issues the next one into its own target
+			updatePicking(drawable);
+			
+			// Fence this frame's regions instead of draining the whole pipeline
+			frameSync.endFrame(gl);
+			
+			// Keep drawing frames until leftover redraws and pending uploads are done
+			if (drawingDaemon.hasPendingDraws() || (textureUploader != null && textureUploader.hasPending()))
+				viewport.redraw(FrameScheduler.TEXTURES);
 			
 			float memoryConsumption = (float)GLMemoryLimit.getCurrentMemory() / (float)GLMemoryLimit.getMaxMemory();
 			float newDownsampling = globalDownsampling;
@@ -886,7 +1710,6 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 			if (newDownsampling != globalDownsampling)
 			{
 				globalDownsampling = newDownsampling;
-				System.out.println(newDownsampling);
 				//eventHelper.fireEvent(new UpdateNetworkPresentationEvent(this));
 			}
 		}
@@ -927,11 +1750,22 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 
 
 	@Override
-	public void viewportMouseMove(ViewportMouseEvent e) { }
+	public void viewportMouseMove(ViewportMouseEvent e) 
+	{
+		setRedrawFocus(e.positionRaw);
+		
+		// Picked in the next frame, later requests replace earlier ones
+		hoverRequest.set(e.positionRaw.copy());
+		if (viewport != null)
+			viewport.redraw(FrameScheduler.PICKING);
+	}
 
 
 	@Override
-	public void viewportMouseDrag(ViewportMouseEvent e) { }
+	public void viewportMouseDrag(ViewportMouseEvent e) 
+	{
+		setRedrawFocus(e.positionRaw);
+	}
 
 
 	@Override
@@ -939,20 +1773,225 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 
 
 	@Override
-	public void viewportMouseLeave(ViewportMouseEvent e) { }
+	public void viewportMouseLeave(ViewportMouseEvent e) 
+	{
+		redrawFocus = new Vector2();	// Back to the center
+		hoverRequest.set(null);
+		hovered = null;
+	}
+	
+	/**
+	 * Moves the point texture redraws are prioritized around.
+	 * 
+	 * @param position Position in pixels, relative to the viewport's top left corner
+	 */
+	private void setRedrawFocus(Vector2 position)
+	{
+		float width = Math.max(1, viewport.getPanel().getWidth());
+		float height = Math.max(1, viewport.getPanel().getHeight());
+		redrawFocus = new Vector2(position.x / width * 2.0f - 1.0f, 1.0f - position.y / height * 2.0f);
+	}
 
 
 	@Override
 	public void viewportMouseScroll(ViewportMouseEvent e) { }
 	
 	
+	/**
+	 * Selects what lies within a dragged region, or under the cursor for a click.
+	 * The selection is written to the SELECTED columns, and applied to the views
+	 * once the resulting RowsSetEvent comes back.
+	 * 
+	 * @param e Selection event
+	 */
+	@Override
+	public void viewportMouseSelect(ViewportSelectionEvent e) 
+	{
+		if (viewport == null || e.path.length == 0)
+			return;
+		
+		List<CyNode> nodes = new ArrayList<>();
+		List<CyEdge> edges = new ArrayList<>();
+		
+		if (e.isClick())
+		{
+			PickingResult picked = pick(e.path[0]);
+			if (picked != null && picked.source instanceof ZZNodeView)
+				nodes.add(((ZZNodeView)picked.source).getModel());
+			else if (picked != null && picked.source instanceof ZZEdgeView)
+				edges.add(((ZZEdgeView)picked.source).getModel());
+		}
+		else
+		{
+			collectInRegion(e.path, e.lasso, nodes, edges);
+		}
+		
+		writeSelection(getModel().getDefaultNodeTable(), nodes, e.additive);
+		writeSelection(getModel().getDefaultEdgeTable(), edges, e.additive);
+		
+		// All rows set above arrive as one RowsSetEvent per table
+		eventHelper.flushPayloadEvents();
+		e.handled = true;
+	}
+	
+	/**
+	 * Finds node views whose center, and edge views whose endpoints, project into 
+	 * a screen region. Candidates come from the bounds trees, queried with the 
+	 * frustum spanned by the region's bounding box, so only views near the 
+	 * region are projected.
+	 * 
+	 * @param path Region outline in raw pixels, see ViewportSelectionEvent
+	 * @param lasso True if the path is a polygon rather than two rectangle corners
+	 * @param nodes Receives nodes in the region
+	 * @param edges Receives edges in the region
+	 */
+	private void collectInRegion(Vector2[] path, boolean lasso, List<CyNode> nodes, List<CyEdge> edges)
+	{
+		synchronized (m_sync)
+		{
+			// Region in normalized device coordinates, like in setRedrawFocus
+			float width = Math.max(1, viewport.getPanel().getWidth());
+			float height = Math.max(1, viewport.getPanel().getHeight());
+			float[] polygonX = new float[path.length], polygonY = new float[path.length];
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+			for (int i = 0; i < path.length; i++)
+			{
+				polygonX[i] = path[i].x / width * 2.0f - 1.0f;
+				polygonY[i] = 1.0f - path[i].y / height * 2.0f;
+				minX = Math.min(minX, polygonX[i]);
+				minY = Math.min(minY, polygonY[i]);
+				maxX = Math.max(maxX, polygonX[i]);
+				maxY = Math.max(maxY, polygonY[i]);
+			}
+			if (maxX - minX <= 0.0f || maxY - minY <= 0.0f)
+				return;
+			
+			// Stretches the bounding box to the whole clip space, so its frustum can be extracted like the view's
+			Matrix4 viewProj = viewport.getCamera().getViewProjectionMatrix();
+			Matrix4 region = new Matrix4(2.0f / (maxX - minX), 0, 0, -(maxX + minX) / (maxX - minX), 
+										 0, 2.0f / (maxY - minY), 0, -(maxY + minY) / (maxY - minY), 
+										 0, 0, 1, 0, 
+										 0, 0, 0, 1);
+			float[] planes = ZZBoundsTree.frustumPlanes(Matrix4.mult(region, viewProj));
+			
+			List<ZZNodeView> nodeCandidates = new ArrayList<>();
+			boundsTree.query(planes, nodeCandidates);
+			for (ZZNodeView view : nodeCandidates)
+				if (view.getVisualProperty(BasicVisualLexicon.NODE_VISIBLE) && 
+					isInRegion(viewProj, view.getPosition(), polygonX, polygonY, lasso))
+					nodes.add(view.getModel());
+			
+			List<ZZEdgeView> edgeCandidates = new ArrayList<>();
+			edgeBoundsTree.query(planes, edgeCandidates);
+			for (ZZEdgeView view : edgeCandidates)
+				if (view.getVisualProperty(BasicVisualLexicon.EDGE_VISIBLE) && 
+					isInRegion(viewProj, view.getSourcePosition(), polygonX, polygonY, lasso) && 
+					isInRegion(viewProj, view.getTargetPosition(), polygonX, polygonY, lasso))
+					edges.add(view.getModel());
+		}
+	}
+	
+	/**
+	 * Checks if a point projects into a screen region.
+	 * 
+	 * @param viewProj Camera's view-projection matrix
+	 * @param point Point in world space
+	 * @param polygonX X coordinates of the region's outline in normalized device coordinates
+	 * @param polygonY Y coordinates of the region's outline in normalized device coordinates
+	 * @param lasso True if the outline is a polygon, false if it is a rectangle's first and last corner
+	 * @return True if the point is in front of the camera and within the region
+	 */
+	private static boolean isInRegion(Matrix4 viewProj, Vector3 point, float[] polygonX, float[] polygonY, boolean lasso)
+	{
+		Vector4 projected = Vector4.matrixMult(viewProj, new Vector4(point, 1.0f));
+		if (projected.w <= 0.0f)
+			return false;
+		float x = projected.x / projected.w, y = projected.y / projected.w;
+		
+		if (!lasso)
+		{
+			int last = polygonX.length - 1;
+			return x >= Math.min(polygonX[0], polygonX[last]) && x <= Math.max(polygonX[0], polygonX[last]) && 
+				   y >= Math.min(polygonY[0], polygonY[last]) && y <= Math.max(polygonY[0], polygonY[last]);
+		}
+		
+		// Even-odd rule, the outline is closed from its last point back to the first
+		boolean inside = false;
+		for (int i = 0, j = polygonX.length - 1; i < polygonX.length; j = i++)
+			if ((polygonY[i] > y) != (polygonY[j] > y) && 
+				x < (polygonX[j] - polygonX[i]) * (y - polygonY[i]) / (polygonY[j] - polygonY[i]) + polygonX[i])
+				inside = !inside;
+		
+		return inside;
+	}
+	
+	/**
+	 * Sets the SELECTED column for a set of nodes or edges. Rows whose value
+	 * doesn't change are left alone, so they don't show up in the RowsSetEvent.
+	 * 
+	 * @param table Default node or edge table of the network
+	 * @param selected Nodes or edges to select
+	 * @param additive True to keep the existing selection, false to replace it
+	 */
+	private void writeSelection(CyTable table, List<? extends CyIdentifiable> selected, boolean additive)
+	{
+		Set<Long> selectedSUIDs = new HashSet<>(selected.size() * 2);
+		for (CyIdentifiable item : selected)
+			selectedSUIDs.add(item.getSUID());
+		
+		if (!additive)
+			for (CyRow row : table.getMatchingRows(CyNetwork.SELECTED, true))
+				if (!selectedSUIDs.contains(row.get(CyNetwork.SUID, Long.class)))
+					row.set(CyNetwork.SELECTED, false);
+		
+		for (Long suid : selectedSUIDs)
+		{
+			CyRow row = table.getRow(suid);
+			if (!Boolean.TRUE.equals(row.get(CyNetwork.SELECTED, Boolean.class)))
+				row.set(CyNetwork.SELECTED, true);
+		}
+	}
+	
+	/**
+	 * Creates one of the default textures, in the atlas if there is one.
+	 * 
+	 * @param data Pixels in ABGR order
+	 * @param width Texture width
+	 * @param height Texture height
+	 * @return New texture
+	 */
+	private ZZTexture createDefaultTexture(byte[] data, short width, short height)
+	{
+		if (textureAtlas != null)
+			return textureAtlas.allocate(data, width, height);
+		
+		return new ZZBindlessTexture(gl, data, width, height, GL4.GL_RGBA8, GL4.GL_RGBA, GL4.GL_UNSIGNED_BYTE);
+	}
+	
+	/**
+	 * Converts a selection paint to the RGBA values of a highlightColor uniform.
+	 * 
+	 * @param paint Paint to convert, only its color is used
+	 * @param strength Alpha value, i. e. how strongly it is mixed in
+	 * @return RGBA values
+	 */
+	private static float[] highlightColor(Paint paint, float strength)
+	{
+		Color color = paint instanceof Color ? (Color)paint : Color.YELLOW;
+		
+		return new float[] { color.getRed() / 255.0f, color.getGreen() / 255.0f, color.getBlue() / 255.0f, strength };
+	}
+	
+	
 	// **************************
 	// RowsSetListener interface:
 	// **************************
 
 	/**
 	 * Listens to changes in the SELECTED property column of nodes and edges,
-	 * and alters their internal selection state accordingly.
+	 * and alters their internal selection state accordingly. Selection is
+	 * shown through highlight flags on the primitives, so no texture
+	 * needs to be redrawn.
 	 * 
 	 * @param e Row set event
 	 */
@@ -961,63 +2000,46 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 	{
 		if (!e.containsColumn(CyNetwork.SELECTED))
 			return;
-
-		nodeSelectionList.clear();
-		edgeSelectionList.clear();
-		if (e.getSource() == getModel().getDefaultNodeTable()) 
+		
+		boolean isNodeTable = e.getSource() == getModel().getDefaultNodeTable();
+		boolean isEdgeTable = e.getSource() == getModel().getDefaultEdgeTable();
+		if (!isNodeTable && !isEdgeTable)
+			return;
+		
+		int changed = 0;
+		synchronized (m_sync)
 		{
-			for (RowSetRecord record: e.getColumnRecords(CyNetwork.SELECTED)) 
+			for (RowSetRecord record : e.getColumnRecords(CyNetwork.SELECTED)) 
 			{
-				// Get the SUID
 				Long suid = record.getRow().get(CyNetwork.SUID, Long.class);
-				CyNode node = getModel().getNode(suid);
-				if (node == null) 
-					continue;
-				
-				ZZNodeView nv = (ZZNodeView)getNodeView(node);
-				if (nv == null) 
-					continue;
+				boolean value = Boolean.TRUE.equals(record.getValue());
 				
-				boolean value = record.getRow().get(CyNetwork.SELECTED, Boolean.class);
-				/*if (value)
-					nv.selectInternal();
-				else
-					nv.unselectInternal();*/
-
-				nodeSelectionList.add(node);
-			}
-		} 
-		else if (e.getSource() == getModel().getDefaultEdgeTable()) 
-		{
-			for (RowSetRecord record: e.getColumnRecords(CyNetwork.SELECTED))
-			{
-				Long suid = record.getRow().get(CyNetwork.SUID, Long.class);
-				CyEdge edge = getModel().getEdge(suid);
-				if (edge == null) 
-					continue;
-
-				ZZEdgeView ev = (ZZEdgeView)getEdgeView(edge);
-				if (ev == null) 
-					continue;
-				
-				boolean value = record.getRow().get(CyNetwork.SELECTED, Boolean.class);
-				/*if (value)
-					ev.selectInternal(false);
+				if (isNodeTable)
+				{
+					CyNode node = getModel().getNode(suid);
+					ZZNodeView nodeView = node != null ? nodeViews.get(node) : null;
+					if (nodeView == null) 
+						continue;
+					
+					nodeView.setVisualProperty(BasicVisualLexicon.NODE_SELECTED, value);	// Only stored, see ZZView.setVisualProperty
+					nodeView.setSelected(value);
+				}
 				else
-					ev.unselectInternal();*/
-
-				edgeSelectionList.add(edge);
+				{
+					CyEdge edge = getModel().getEdge(suid);
+					ZZEdgeView edgeView = edge != null ? edgeViews.get(edge) : null;
+					if (edgeView == null) 
+						continue;
+					
+					edgeView.setVisualProperty(BasicVisualLexicon.EDGE_SELECTED, value);
+					edgeView.setSelected(value);
+				}
+				changed++;
 			}
-		} 
-		else 
-		{
-			return;
 		}
 
-		if (nodeSelectionList.size() > 0 || edgeSelectionList.size() > 0) 
-		{
-			// Update renderings
-		}
+		if (changed > 0 && viewport != null) 
+			viewport.redraw(FrameScheduler.PRIMITIVES);
 	}
 
 	
@@ -1103,8 +2125,7 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 		if (network != e.getSource())
 			return;
 
-		for (CyNode node : e.getPayloadCollection())
-			this.addNodeView(node);
+		addNodeViews(e.getPayloadCollection());
 	}
 	
 	
@@ -1124,8 +2145,7 @@ public class ZZNetworkView extends ZZView<CyNetwork> implements CyNetworkView,
 		if (network != e.getSource())
 			return;
 
-		for ( CyEdge edge : e.getPayloadCollection())
-			addEdgeView(edge);
+		addEdgeViews(e.getPayloadCollection());
 	}
 	
 	
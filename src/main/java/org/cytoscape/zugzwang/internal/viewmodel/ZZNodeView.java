@@ -13,6 +13,8 @@ import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -88,18 +90,37 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	private ZZRectangle[] rectCG = new ZZRectangle[9];
 	
 	private boolean isOnScreen = true;
+	
+	// Too small on screen for textures, drawn as a flat-colored shape rectangle without label and custom graphics
+	private boolean isSprite = false;
+	
+	// Shape is evaluated in the fragment shader, so it needs no texture at any zoom
+	private boolean isProcedural = false;
+
+	// Leaf of the network view's bounds tree, only accessed under the network view's lock
+	int boundsProxy = -1;
+
+	// Set when VP values change, so internal copies are only synced when needed.
+	private volatile boolean propertiesDirty = false;
 	private RedrawState shapeRedraw = RedrawState.KEEP, labelRedraw = RedrawState.KEEP;
 	private RedrawState[] cgRedraw = new RedrawState[ZZVisualLexicon.numCustomGraphics];
 	
+	// Cached textures found or rasterized by redrawTextures, handed to the rectangles in updateResources
+	private ZZTextureCache.Entry pendingShape, pendingLabel;
+	
 	// Store on-screen texture size at current position.
 	private short optimumShapeWidth = 1, optimumShapeHeight = 1;
 	private short optimumLabelWidth = 1, optimumLabelHeight = 1;
 	private short[] optimumCGWidth = new short[ZZVisualLexicon.numCustomGraphics],
 				 	optimumCGHeight = new short[ZZVisualLexicon.numCustomGraphics];
 	
+	// Node center in normalized device coordinates, used to prioritize redraws.
+	private Vector2 screenCenter = new Vector2();
+	
 	// Local copies of VP values to avoid getting them through official channels for each frame.
 	private boolean localVisible = true;
 	private boolean localSelected;	
+	private DetailLevel localDetailLevel = DetailLevelVisualProperty.DETAIL_MED;
 	private Vector3 localPosition = new Vector3();
 	// Shape:
 	private short localWidth = 1;
@@ -186,6 +207,30 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 		edgesIncoming.remove(view);
 	}
 	
+	/**
+	 * Gets the views of all edges that start or end at this node.
+	 * 
+	 * @return List of adjacent edge views
+	 */
+	List<ZZEdgeView> getAdjacentEdgeViews()
+	{
+		List<ZZEdgeView> adjacent = new ArrayList<>(edgesOutgoing.size() + edgesIncoming.size());
+		adjacent.addAll(edgesOutgoing);
+		adjacent.addAll(edgesIncoming);
+		
+		return adjacent;
+	}
+	
+	/**
+	 * Flags internal copies of VP values as outdated, and makes sure
+	 * the network view updates this view's state in the next frame.
+	 */
+	public void markDirty()
+	{
+		propertiesDirty = true;
+		networkView.markDirty(this);
+	}
+	
 	/**
 	 * Synchronizes internal copies of VP values with the currently set defaults/bypass (locked) values. 
 	 */
@@ -193,6 +238,7 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	{
 		setVisible(getVisualProperty(BasicVisualLexicon.NODE_VISIBLE));
 		setSelected(getVisualProperty(BasicVisualLexicon.NODE_SELECTED));
+		setDetailLevel(getVisualProperty(ZZVisualLexicon.NODE_DETAIL_LEVEL));
 		
 		setPosition(getPosition());
 		
@@ -227,7 +273,8 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	
 	/**
 	 * Creates or destroys shape/label/etc. rectangles depending 
-	 * on whether the node view is visible or not.
+	 * on whether the node view is visible or not. Sprites only
+	 * keep their shape rectangle.
 	 */
 	private void setupRectangles()
 	{
@@ -240,7 +287,12 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 					rectShape = managerShape.createRectangle(localPosition, 
 															 localWidth, localHeight, 
 															 (short)0, (short)0);
-					shapeRedraw = RedrawState.REDRAW;
+					managerShape.setOwner(rectShape.index, this);
+					if (localSelected)
+						rectShape.setHighlighted(true);
+					if (isSprite)
+						rectShape.setFlatColor(getFlatColor());
+					shapeRedraw = isSprite ? RedrawState.KEEP : RedrawState.REDRAW;
 					//System.out.println("Created shape.");
 				}
 			}
@@ -253,13 +305,14 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				//System.out.println("Deleted shape.");
 			}
 			
-			if (localVisible)
+			if (localVisible && !isSprite)
 			{
 				if (rectLabel == null)
 				{
 					rectLabel = managerLabel.createRectangle(localPosition, 
 															 localLabelRectWidth, localLabelRectHeight, 
 															 localLabelOffsetX, localLabelOffsetY);
+					managerLabel.setOwner(rectLabel.index, this);
 					labelRedraw = RedrawState.REDRAW;
 					//System.out.println("Created label.");
 				}
@@ -273,7 +326,7 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				//System.out.println("Deleted label.");
 			}
 			
-			if (localVisible)
+			if (localVisible && !isSprite)
 			{
 				for (int i = 0; i < localCGInfo.length; i++) 
 					if (localCGInfo[i] != null && rectCG[i] == null)
@@ -281,6 +334,7 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 						rectCG[i] = managersCG[i].createRectangle(localPosition, 
 																  localCGWidth[i], localCGHeight[i], 
 																  localCGOffsetX[i], localCGOffsetY[i]);
+						managersCG[i].setOwner(rectCG[i].index, this);
 						cgRedraw[i] = RedrawState.REDRAW;
 					}
 					else if (localCGInfo[i] == null && rectCG[i] != null)	// CG has been reset to null.
@@ -350,6 +404,8 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	@Override
 	protected <T, V extends T> void applyVisualProperty(VisualProperty<? extends T> vp, V value) 
 	{
+		markDirty();
+		
 		if (value == null)
 			value = (V)vp.getDefault();
 
@@ -369,6 +425,10 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 		{
 			setVisible(((Boolean)value).booleanValue());
 		} 
+		else if (vp == ZZVisualLexicon.NODE_DETAIL_LEVEL) 
+		{
+			setDetailLevel((DetailLevel)value);
+		} 
 		else if (vp == BasicVisualLexicon.NODE_FILL_COLOR) 
 		{
 			setUnselectedColor((Paint)value);
@@ -455,7 +515,37 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	@Override
 	public PickingResult intersectsWith(final Ray3 ray, final Matrix4 viewMatrix) 
 	{
-		return null;
+		synchronized (m_sync)
+		{
+			if (!localVisible)
+				return null;
+			
+			// Rectangles face the camera, so they are easiest to test in view space
+			Vector4 origin = Vector4.matrixMult(viewMatrix, new Vector4(ray.origin, 1.0f));
+			Vector4 direction = Vector4.matrixMult(viewMatrix, new Vector4(ray.direction, 0.0f));
+			Ray3 viewRay = new Ray3(new Vector3(origin.x, origin.y, origin.z), new Vector3(direction.x, direction.y, direction.z));
+			
+			float closest = Float.MAX_VALUE;
+			for (ZZRectangle rect : getAllRectangles())
+			{
+				float distance = rect.intersect(viewMatrix, viewRay);
+				if (distance >= 0.0f && distance < closest)
+					closest = distance;
+			}
+			for (int i = 0; i < rectCG.length; i++)
+				if (rectCG[i] != null)
+				{
+					float distance = rectCG[i].intersect(viewMatrix, viewRay);
+					if (distance >= 0.0f && distance < closest)
+						closest = distance;
+				}
+			
+			if (closest == Float.MAX_VALUE)
+				return null;
+			
+			// View matrix is rigid, so distances are the same in world space
+			return new PickingResult(this, Vector3.add(ray.origin, Vector3.scalarMult(closest, ray.direction)), closest, ray);
+		}
 	}
 	
 	/**
@@ -500,7 +590,42 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 		
 		return new Vector3[] { minCorner, maxCorner };
 	}
-	
+
+	/**
+	 * Gets the radius of a sphere around the node's position that
+	 * contains all of its rectangles, regardless of the camera.
+	 *
+	 * @return Bounding radius, 0 if there are no rectangles yet
+	 */
+	public float getBoundingRadius()
+	{
+		synchronized (m_sync)
+		{
+			float radius = 0.0f;
+			for (ZZRectangle rect : getAllRectangles())
+				radius = Math.max(radius, rect.getBoundingRadius());
+			for (int i = 0; i < rectCG.length; i++)
+				if (rectCG[i] != null)
+					radius = Math.max(radius, rectCG[i].getBoundingRadius());
+
+			return radius;
+		}
+	}
+
+	/**
+	 * Checks if any of the node's rectangles intersected
+	 * with the camera frustum during the last state update.
+	 *
+	 * @return True if on screen
+	 */
+	public boolean isOnScreen()
+	{
+		synchronized (m_sync)
+		{
+			return isOnScreen;
+		}
+	}
+
 	/**
 	 * Frees all associated device resources.
 	 * 
@@ -508,6 +633,11 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	 */
 	public void dispose(GL4 gl)
 	{
+		synchronized (m_sync)
+		{
+			releasePendingTextures();
+		}
+		
 		if (rectShape != null && rectShape.isOnDevice())
 		{
 			GLMemoryLimit.freeMemory(rectShape.getOccupiedTextureMemory());
@@ -529,6 +659,21 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	}
 	
 
+	/**
+	 * Releases cached textures that were found but not handed to a rectangle.
+	 */
+	private void releasePendingTextures()
+	{
+		if (pendingShape != null)
+			pendingShape.release();
+		if (pendingLabel != null)
+			pendingLabel.release();
+		
+		pendingShape = null;
+		pendingLabel = null;
+	}
+	
+
 	// ***********************************
 	// ZZDrawingDaemonPrimitive interface:
 	// ***********************************
@@ -538,12 +683,17 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 	{
 		synchronized (m_sync)
 		{
-			//if (updateVisualProperties)
+			if (updateVisualProperties || propertiesDirty)
+			{
+				propertiesDirty = false;	// Cleared first, so changes made while syncing aren't lost
 				syncProperties();
+			}
 			
 			// Check if shape or label are within the camera frustum.
 			// Also calculate on-screen rectangles sizes for optimal texturing.
-			// Texture size is capped at 2048 px in each dimension.
+			// Texture size is capped at 2048 px in each dimension. Sizes are bucketed,
+			// so nodes of similar size can share textures, and zooming only redraws
+			// textures once they would be magnified or are minified a lot.
 			
 			isOnScreen = false;
 			Vector2 optimumSize = new Vector2();
@@ -551,26 +701,32 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 			if (rectShape != null)
 			{
 				isOnScreen = rectShape.isInFrustum(viewMatrix, projMatrix, halfScreen, optimumSize);
-				optimumShapeWidth = (short)Math.min(maxSize, Math.max(optimumSize.x * networkView.globalDownsampling, 4.0f));
-				optimumShapeHeight = (short)Math.min(maxSize, Math.max(optimumSize.y * networkView.globalDownsampling, 4.0f));
+				optimumShapeWidth = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.x * networkView.globalDownsampling));
+				optimumShapeHeight = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.y * networkView.globalDownsampling));
+				updateDetailTier(Math.max(optimumSize.x, optimumSize.y));
 			}
+			
+			setupRectangles();	// Considers visibility status and detail tier to create, keep, or remove shape and label rectangles.
+			updateShapeStyle();
+			
 			if (rectLabel != null)
 			{
 				isOnScreen = rectLabel.isInFrustum(viewMatrix, projMatrix, halfScreen, optimumSize) || isOnScreen;
-				optimumLabelWidth = (short)Math.min(maxSize, Math.max(optimumSize.x * networkView.globalDownsampling, 4.0f));
-				optimumLabelHeight = (short)Math.min(maxSize, Math.max(optimumSize.y * networkView.globalDownsampling, 4.0f));
+				optimumLabelWidth = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.x * networkView.globalDownsampling));
+				optimumLabelHeight = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.y * networkView.globalDownsampling));
 			}
 			for (int i = 0; i < rectCG.length; i++)
 				if (rectCG[i] != null)
 				{
 					isOnScreen = rectCG[i].isInFrustum(viewMatrix, projMatrix, halfScreen, optimumSize) || isOnScreen;
-					optimumCGWidth[i] = (short)Math.min(maxSize, Math.max(optimumSize.x * networkView.globalDownsampling, 4.0f));
-					optimumCGHeight[i] = (short)Math.min(maxSize, Math.max(optimumSize.y * networkView.globalDownsampling, 4.0f));
+					optimumCGWidth[i] = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.x * networkView.globalDownsampling));
+					optimumCGHeight[i] = (short)Math.min(maxSize, ZZTextureCache.bucket(optimumSize.y * networkView.globalDownsampling));
 				}
 			
 			//System.out.println("Is on screen: " + isOnScreen);
 			
-			setupRectangles();	// Considers visibility status to create, keep, or remove shape and label rectangles.
+			Vector4 projected = Vector4.matrixMult(projMatrix, Vector4.matrixMult(viewMatrix, new Vector4(localPosition, 1.0f))).homogeneousToCartesian();
+			screenCenter = new Vector2(projected.x, projected.y);
 
 			if (!isOnScreen)	// Exiting frustum
 			{
@@ -588,9 +744,13 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 			{
 				// Check if on-screen shape size deviates from the currently available texture.
 				if (rectShape != null)
-					if (!rectShape.isOnDevice() ||	// Texture doesn't exist, but should -> redraw.					
-					    Math.abs(rectShape.getTextureSizeU() - optimumShapeWidth) > 1 || 
-						Math.abs(rectShape.getTextureSizeV() - optimumShapeHeight) > 1)	// Needs update because texture size is not optimal
+					if (isSprite || isProcedural)
+						shapeRedraw = rectShape.isOnDevice() ? RedrawState.DELETE : RedrawState.KEEP;	// Sprites and procedural shapes need no texture
+					else if (!rectShape.isOnDevice() ||	// Texture doesn't exist, but should -> redraw.
+						rectShape.isFlat() ||			// Still a sprite until the texture is there
+						rectShape.isShape() ||			// Still procedural until the texture is there
+					    ZZTextureCache.needsRedraw(rectShape.getTextureSizeU(), optimumShapeWidth) || 
+						ZZTextureCache.needsRedraw(rectShape.getTextureSizeV(), optimumShapeHeight))	// Needs update because texture size is out of range
 					{
 						shapeRedraw = RedrawState.REDRAW;
 					}
@@ -598,8 +758,8 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				// Check if on-screen label size deviates from the currently available texture.
 				if (rectLabel != null)
 					if ((!rectLabel.isOnDevice() && localLabel != null && localLabel.length() > 0) ||	// Texture doesn't exist, but should -> redraw.
-						Math.abs(rectLabel.getTextureSizeU() - optimumLabelWidth) > 1 || 
-						Math.abs(rectLabel.getTextureSizeV() - optimumLabelHeight) > 1)	// Needs update because texture size is not optimal
+						ZZTextureCache.needsRedraw(rectLabel.getTextureSizeU(), optimumLabelWidth) || 
+						ZZTextureCache.needsRedraw(rectLabel.getTextureSizeV(), optimumLabelHeight))	// Needs update because texture size is out of range
 					{
 						labelRedraw = RedrawState.REDRAW;
 					}
@@ -608,8 +768,8 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				for (int i = 0; i < rectCG.length; i++)
 					if (rectCG[i] != null)
 						if (!rectCG[i].isOnDevice() ||	// Texture doesn't exist, but should -> redraw.
-							Math.abs(rectCG[i].getTextureSizeU() - optimumCGWidth[i]) > 1 ||
-							Math.abs(rectCG[i].getTextureSizeV() - optimumCGHeight[i]) > 1)	// Needs update because texture size is not optimal
+							ZZTextureCache.needsRedraw(rectCG[i].getTextureSizeU(), optimumCGWidth[i]) ||
+							ZZTextureCache.needsRedraw(rectCG[i].getTextureSizeV(), optimumCGHeight[i]))	// Needs update because texture size is out of range
 						{
 							cgRedraw[i] = RedrawState.REDRAW;
 						}
@@ -622,6 +782,27 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 		}
 	}
 
+	@Override
+	public float getRedrawPriority(Vector2 focus)
+	{
+		synchronized (m_sync)
+		{
+			// Releasing textures of nodes that left the screen is cheap and frees memory for the others
+			if (!isOnScreen)
+				return Float.MAX_VALUE;
+			
+			// Nodes the device culled as too small barely show, refine them last
+			if (rectShape != null && managerShape.wasCulled(rectShape.index) && 
+				(rectLabel == null || managerLabel.wasCulled(rectLabel.index)))
+				return 0.0f;
+			
+			// Large nodes close to the focus are what the user is looking at
+			float area = (float)optimumShapeWidth * optimumShapeHeight + (float)optimumLabelWidth * optimumLabelHeight;
+			float distance = Vector2.subtract(screenCenter, focus).length();
+			return area / (1.0f + 4.0f * distance);
+		}
+	}
+
 	@Override
 	public boolean redrawTextures(Matrix4 viewMatrix, Matrix4 projMatrix)
 	{
@@ -645,13 +826,16 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				{
 					boolean redrawn = false;
 					
-					if (rectShape != null)
+					if (rectShape != null && !isSprite && !isProcedural)
 					{
-						// Check if there is enough memory.
-						long requested = optimumShapeWidth * optimumShapeHeight * (long)4;
-						long freed = rectShape.getOccupiedTextureMemory();
-						if (GLMemoryLimit.tryGetMemory(requested, freed))
-						{						
+						// Everything that goes into the image, so identically styled nodes share one texture
+						Object key = Arrays.asList("shape", localShapeType, localWidth, localHeight, 
+												   localFillColor, localBorderColor, localBorderStroke, localBorderWidth, 
+												   optimumShapeWidth, optimumShapeHeight);
+						ZZTextureCache cache = networkView.getTextureCache();
+						ZZTextureCache.Entry entry = cache.acquire(key);
+						if (entry == null)
+						{
 							BufferedImage img = new BufferedImage(optimumShapeWidth, optimumShapeHeight, BufferedImage.TYPE_4BYTE_ABGR);
 							Graphics2D g = (Graphics2D)img.getGraphics();
 							setQualityOptions(g);
@@ -661,7 +845,14 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 							// This is a static method because network view needs it too.
 							drawShapeTexture(g, scaleX, scaleY, localWidth, localHeight, localFillColor, localShapeShape, localBorderColor, localBorderStroke, localBorderWidth);
 							
-							rectShape.setTexture(img);
+							entry = cache.insert(key, ((DataBufferByte)img.getRaster().getDataBuffer()).getData(), optimumShapeWidth, optimumShapeHeight, managerShape);
+						}
+						
+						if (entry != null)	// Null if the memory limit doesn't allow it
+						{
+							if (pendingShape != null)
+								pendingShape.release();
+							pendingShape = entry;
 							redrawn = true;
 						}
 					}
@@ -684,10 +875,13 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 						localLabelMeasuredLines != null &&
 						localLabelRectWidth >= 1 && localLabelRectHeight >= 1)	// Check width & height in case the label is too small.
 					{
-						// Check if there is enough memory.
-						long requested = optimumLabelWidth * optimumLabelHeight * (long)4;
-						long freed = rectLabel.getOccupiedTextureMemory();
-						if (GLMemoryLimit.tryGetMemory(requested, freed))
+						Justification justification = localLabelPosition == null ? Justification.JUSTIFY_CENTER : localLabelPosition.getJustify();
+						Object key = Arrays.asList("label", localLabel, localLabelFont, localLabelFontSize, localLabelColor, 
+												   localLabelWidth, justification, localLabelRectWidth, localLabelRectHeight, 
+												   optimumLabelWidth, optimumLabelHeight);
+						ZZTextureCache cache = networkView.getTextureCache();
+						ZZTextureCache.Entry entry = cache.acquire(key);
+						if (entry == null)
 						{
 							BufferedImage img = new BufferedImage(optimumLabelWidth, optimumLabelHeight, BufferedImage.TYPE_4BYTE_ABGR);
 							Graphics2D g = (Graphics2D)img.getGraphics();
@@ -705,10 +899,17 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 																	fontContext, 
 																	textCenter, 
 																	scale, 
-																	localLabelPosition == null ? Justification.JUSTIFY_CENTER : localLabelPosition.getJustify(), 
+																	justification, 
 																	localLabelColor);
 							
-							rectLabel.setTexture(img);
+							entry = cache.insert(key, ((DataBufferByte)img.getRaster().getDataBuffer()).getData(), optimumLabelWidth, optimumLabelHeight, managerLabel);
+						}
+						
+						if (entry != null)	// Null if the memory limit doesn't allow it
+						{
+							if (pendingLabel != null)
+								pendingLabel.release();
+							pendingLabel = entry;
 							redrawn = true;
 						}
 					}
@@ -731,7 +932,7 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 							localCGLayers[i] != null &&
 							optimumCGWidth[i] >= 1 && optimumCGHeight[i] >= 1)
 						{
-							long requested = optimumCGWidth[i] * optimumCGHeight[i] * (long)4;
+							long requested = managersCG[i].getTextureMemorySize(optimumCGWidth[i], optimumCGHeight[i]);
 							long freed = rectCG[i].getOccupiedTextureMemory();
 							if (GLMemoryLimit.tryGetMemory(requested, freed))
 							{
@@ -781,9 +982,13 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 					rectShape.setTexture( new byte[] { 0, 0, 0, 0 }, (short)1, (short)1);
 					//System.out.println("Set shape texture to default.");
 				}
-				else if (shapeRedraw == RedrawState.REDRAW)
+				else if (shapeRedraw == RedrawState.REDRAW && pendingShape != null)
 				{
-					rectShape.putOnDevice(gl);	// New texture is already in host buffer, now get it to device.
+					GLMemoryLimit.freeMemory(rectShape.getOccupiedTextureMemory());	// Private texture, if any, is replaced
+					rectShape.setSharedTexture(pendingShape, gl);	// Uploads it unless another node already did
+					pendingShape = null;
+					rectShape.setFlatColor(null);	// Leaving the sprite tier only once there is a texture to show
+					rectShape.clearShape();			// Same for procedural shapes
 					//System.out.println("Updated shape texture on device.");
 				}
 			}
@@ -799,15 +1004,20 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 					rectLabel.setTexture( new byte[] { 0, 0, 0, 0 }, (short)1, (short)1);
 					//System.out.println("Set label texture to default.");
 				}				
-				else if (labelRedraw == RedrawState.REDRAW)
+				else if (labelRedraw == RedrawState.REDRAW && pendingLabel != null)
 				{
-					rectLabel.putOnDevice(gl);	// New texture is already in host buffer, now get it to device.
+					GLMemoryLimit.freeMemory(rectLabel.getOccupiedTextureMemory());
+					rectLabel.setSharedTexture(pendingLabel, gl);
+					pendingLabel = null;
 					//System.out.println("Updated label texture on device.");
 				}
 			}
 				
 			labelRedraw = RedrawState.KEEP;
 			
+			// Textures found for rectangles that have changed their minds or are gone
+			releasePendingTextures();
+			
 			for (int i = 0; i < rectCG.length; i++) 
 			{
 				if (rectCG[i] != null)
@@ -931,7 +1141,13 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 		}
 	}
 	
-	private void setSelected(final boolean value)
+	/**
+	 * Sets the view's selection state. Selection is shown by highlighting
+	 * the shape rectangle, so the texture doesn't need to be redrawn.
+	 * 
+	 * @param value New selection state
+	 */
+	void setSelected(final boolean value)
 	{
 		synchronized (m_sync)
 		{
@@ -939,19 +1155,95 @@ public class ZZNodeView extends ZZView<CyNode> implements Pickable, ZZDrawingDae
 				return;
 			localSelected = value;
 			
-			shapeRedraw = RedrawState.REDRAW;
+			if (rectShape != null)
+				rectShape.setHighlighted(value);
+		}
+	}
+	
+	private void setDetailLevel(DetailLevel value)
+	{
+		synchronized (m_sync)
+		{
+			localDetailLevel = value != null ? value : DetailLevelVisualProperty.DETAIL_MED;
 		}
 	}
 	
+	/**
+	 * Switches between drawing the node as a flat sprite and texturing it, 
+	 * depending on how large the shape appears on screen. Leaving the sprite 
+	 * tier takes a 10 % larger size, so nodes right at the threshold don't 
+	 * keep switching back and forth.
+	 * 
+	 * @param pixels Larger on-screen dimension of the shape rectangle
+	 */
+	private void updateDetailTier(float pixels)
+	{
+		float threshold = networkView.getDetailThreshold(localDetailLevel);
+		isSprite = isSprite ? pixels < threshold * 1.1f : pixels < threshold;
+		
+		// Going back to textures is done in updateResources, once the texture exists
+		if (isSprite)
+			rectShape.setFlatColor(getFlatColor());	// Also picks up fill color changes, repeated calls are ignored
+	}
+	
+	/**
+	 * Checks if the shape can be evaluated in the fragment shader instead of 
+	 * being rasterized. Gradient paints and patterned borders still need Java2D.
+	 * 
+	 * @return True if all shape VPs have a procedural equivalent
+	 */
+	private boolean canDrawProcedurally()
+	{
+		if (!(localFillColor instanceof Color))
+			return false;
+		
+		return localBorderWidth <= 0 || 
+			   (localBorderColor instanceof Color && LineTypeVisualProperty.SOLID.equals(localBorderLineType));
+	}
+	
+	/**
+	 * Passes shape type, colors and border to the shape rectangle if it can be 
+	 * drawn procedurally. Otherwise it keeps its procedural look until a texture
+	 * replaces it in updateResources.
+	 */
+	private void updateShapeStyle()
+	{
+		isProcedural = rectShape != null && canDrawProcedurally();
+		if (!isProcedural)
+			return;
+		
+		Color fill = (Color)localFillColor;
+		Color border = localBorderWidth > 0 ? (Color)localBorderColor : fill;
+		short borderWidth = (short)Math.max(0, Math.min(localBorderWidth, Math.min(localWidth, localHeight) / 2));
+		rectShape.setShape(ZZNodeShape.getZZShape(localShapeType).getNativeShape(), fill, border, borderWidth);
+		
+		// Unlike textures, there is nothing to wait for when leaving the sprite tier
+		if (!isSprite)
+			rectShape.setFlatColor(null);
+	}
+	
+	/**
+	 * Gets the color a sprite is filled with. Paints other than plain colors fall back to the default.
+	 * 
+	 * @return Sprite color
+	 */
+	private Color getFlatColor()
+	{
+		return localFillColor instanceof Color ? (Color)localFillColor : (Color)defaultFillColor;
+	}
+	
+	/**
+	 * Stores the selected fill color. Selection is shown by tinting the unchanged
+	 * texture with the style's default selected paint, see ZZNetworkView, so
+	 * a different color for this node alone doesn't require a redraw and isn't shown.
+	 * 
+	 * @param value New selected fill color
+	 */
 	private void setSelectedColor(Paint value)
 	{
 		synchronized (m_sync)
 		{
-			if (localSelectedFillColor != null && value.equals(localSelectedFillColor))
-				return;
-			
 			localSelectedFillColor = value;
-			shapeRedraw = RedrawState.REDRAW;
 		}
 	}
 	
@@ -38,6 +38,13 @@ public abstract class ZZView<S> implements View<S>
 	
 	/** Lexicon of supported visual properties **/
 	protected final VisualLexicon lexicon;
+	
+	/** 
+	 * Serializes lock changes on this view. Never held by the render thread,
+	 * so model threads don't wait for a frame in progress. Applied values
+	 * reach the renderer through the primitive managers' command queues.
+	 */
+	private final Object m_sync = new Object();
 
 	/** 
 	 * Values assigned to visual properties in a regular manner. If the map doesn't
@@ -85,21 +92,18 @@ public abstract class ZZView<S> implements View<S>
 	@Override
 	public <T> T getVisualProperty(VisualProperty<T> visualProperty) 
 	{
-		Object value;
-		synchronized (getZZNetworkView().m_sync) 
-		{
-			value = directLocks.get(visualProperty);
-			if (value != null)
-				return (T)value;
+		// The maps are synchronized individually, so this doesn't need to block
+		Object value = directLocks.get(visualProperty);
+		if (value != null)
+			return (T)value;
+
+		value = allLocks.get(visualProperty);
+		if (value != null)
+			return (T)value;
 	
-			value = allLocks.get(visualProperty);
-			if (value != null)
-				return (T)value;
-		
-			value = visualProperties.get(visualProperty);
-			if (value != null)
-				return (T)value;
-		}
+		value = visualProperties.get(visualProperty);
+		if (value != null)
+			return (T)value;
 		
 		// Mapped value is null.  Try default
 		value = this.getDefaultValue(visualProperty);
@@ -130,12 +134,7 @@ public abstract class ZZView<S> implements View<S>
 			return;
 
 		if (!isValueLocked(visualProperty)) 
-		{
-			synchronized (getZZNetworkView().m_sync) 
-			{
-				applyVisualProperty(visualProperty, value);
-			}
-		}
+			applyVisualProperty(visualProperty, value);
 		
 		fireViewChangedEvent(visualProperty, value, false);
 	}
@@ -152,7 +151,7 @@ public abstract class ZZView<S> implements View<S>
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public <T, V extends T> void setLockedValue(VisualProperty<? extends T> visualProperty,	V value) 
 	{
-		synchronized (getZZNetworkView().m_sync) 
+		synchronized (m_sync) 
 		{
 			directLocks.put(visualProperty, value);
 			allLocks.put(visualProperty, value);
@@ -208,7 +207,7 @@ public abstract class ZZView<S> implements View<S>
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void clearValueLock(VisualProperty<?> visualProperty) 
 	{
-		synchronized (getZZNetworkView().m_sync) 
+		synchronized (m_sync) 
 		{
 			directLocks.remove(visualProperty);
 			
@@ -257,10 +256,7 @@ public abstract class ZZView<S> implements View<S>
 	@Override
 	public boolean isSet(VisualProperty<?> vp) 
 	{
-		synchronized (getZZNetworkView().m_sync)
-		{
-			return visualProperties.get(vp) != null || allLocks.get(vp) != null || getDefaultValue(vp) != null;
-		}
+		return visualProperties.get(vp) != null || allLocks.get(vp) != null || getDefaultValue(vp) != null;
 	}
 
 	/**
@@ -283,7 +279,7 @@ public abstract class ZZView<S> implements View<S>
 	@Override
 	public void clearVisualProperties() 
 	{
-		synchronized (getZZNetworkView().m_sync) 
+		synchronized (m_sync) 
 		{
 			final Iterator<Entry<VisualProperty<?>, Object>> it = visualProperties.entrySet().iterator();
 			
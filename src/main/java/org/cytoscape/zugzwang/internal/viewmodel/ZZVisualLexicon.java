@@ -39,6 +39,9 @@ public class ZZVisualLexicon extends BasicVisualLexicon
 	private static final Map<VisualProperty<Double>, VisualProperty<CyCustomGraphics>> SIZE_TO_CG = new HashMap<>();
 
 	public static final VisualProperty<ObjectPosition> NODE_LABEL_POSITION = new ObjectPositionVisualProperty(ObjectPositionImpl.DEFAULT_POSITION, "NODE_LABEL_POSITION", "Node Label Position", CyNode.class);
+	
+	// Picks the on-screen size below which a node is drawn as a flat sprite, see ZZNetworkView.setDetailThreshold
+	public static final VisualProperty<DetailLevel> NODE_DETAIL_LEVEL = new DetailLevelVisualProperty("NODE_DETAIL_LEVEL", "Node Detail Level", CyNode.class);
 
 	// Range object for custom graphics.
 	private static final CustomGraphicsRange CG_RANGE = new CustomGraphicsRange();
@@ -210,6 +213,7 @@ public class ZZVisualLexicon extends BasicVisualLexicon
 	private void addVisualPropertyNodes()
 	{		
 		addVisualProperty(NODE_LABEL_POSITION, NODE);
+		addVisualProperty(NODE_DETAIL_LEVEL, NODE);
 		
 		// Parent of Custom Graphics related
 		addVisualProperty(NODE_CUSTOMPAINT_1, NODE_PAINT);
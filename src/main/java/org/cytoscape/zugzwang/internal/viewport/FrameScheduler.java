@@ -0,0 +1,151 @@
+package org.cytoscape.zugzwang.internal.viewport;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Coalesces requests to redraw a viewport into at most one frame per
+ * frame interval. Anything that invalidates the current image states a
+ * reason; the reasons accumulate until the next frame is rendered. If
+ * no reason was stated, no frame is requested at all. Work that spans
+ * several frames, like progressive texture redraws, keeps the scheduler
+ * ticking by invalidating again at the end of each frame.
+ */
+public class FrameScheduler
+{
+	// Reasons for a new frame
+	public static final int CAMERA = 1;			// View or projection changed
+	public static final int PRIMITIVES = 1 << 1;	// Visual properties or network structure changed
+	public static final int TEXTURES = 1 << 2;	// Progressive work is still pending
+	public static final int PICKING = 1 << 3;		// A pick is waiting to be issued or read back
+	public static final int OVERLAY = 1 << 4;		// Selection outline changed
+
+	private final JComponent panel;
+
+	// Reasons stated since the last frame started
+	private final AtomicInteger pendingReasons = new AtomicInteger(0);
+
+	// Set while a tick is scheduled, so further invalidations don't schedule another one
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Timer timer;
+	private volatile long frameInterval;	// In nanoseconds
+	private volatile long lastTick = 0;
+
+	/**
+	 * Creates a scheduler that requests frames from the given panel.
+	 *
+	 * @param panel Panel to repaint
+	 * @param targetFPS Maximum number of frames per second
+	 */
+	public FrameScheduler(JComponent panel, int targetFPS)
+	{
+		this.panel = panel;
+		setTargetFPS(targetFPS);
+
+		timer = new Timer(0, new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				tick();
+			}
+		});
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Sets the frame rate cap.
+	 *
+	 * @param targetFPS Maximum number of frames per second
+	 */
+	public void setTargetFPS(int targetFPS)
+	{
+		frameInterval = 1000000000L / Math.max(1, targetFPS);
+	}
+
+	/**
+	 * Gets the frame rate cap.
+	 *
+	 * @return Maximum number of frames per second
+	 */
+	public int getTargetFPS()
+	{
+		return (int)(1000000000L / frameInterval);
+	}
+
+	/**
+	 * Marks the current image as outdated and schedules a frame, unless
+	 * one is already scheduled. The frame comes no earlier than one frame
+	 * interval after the previous one. May be called from any thread.
+	 *
+	 * @param reasons Combination of CAMERA, PRIMITIVES, TEXTURES, PICKING and OVERLAY
+	 */
+	public void invalidate(int reasons)
+	{
+		if (reasons == 0)
+			return;
+
+		int previous;
+		do
+		{
+			previous = pendingReasons.get();
+		}
+		while (!pendingReasons.compareAndSet(previous, previous | reasons));
+
+		if (!scheduled.compareAndSet(false, true))
+			return;
+
+		long wait = lastTick + frameInterval - System.nanoTime();
+		timer.setInitialDelay((int)Math.max(0, wait / 1000000L));
+		timer.restart();
+	}
+
+	/**
+	 * Checks if anything has been invalidated since the last frame started.
+	 *
+	 * @return True if a new frame is needed
+	 */
+	public boolean isInvalidated()
+	{
+		return pendingReasons.get() != 0;
+	}
+
+	/**
+	 * Should be called when a frame starts rendering, for whatever reason.
+	 * Clears all reasons stated so far, since the frame takes care of them.
+	 *
+	 * @return Reasons that were pending, 0 if the frame wasn't requested through the scheduler
+	 */
+	public int beginFrame()
+	{
+		return pendingReasons.getAndSet(0);
+	}
+
+	/**
+	 * Stops scheduling frames.
+	 */
+	public void dispose()
+	{
+		timer.stop();
+		pendingReasons.set(0);
+	}
+
+	/**
+	 * Requests the scheduled frame from Swing, if anything is still invalidated.
+	 * Runs on the event dispatch thread, where Swing also coalesces repaints.
+	 */
+	private void tick()
+	{
+		lastTick = System.nanoTime();
+		scheduled.set(false);	// Invalidations from here on schedule the next frame
+
+		if (isInvalidated())
+			panel.repaint();
+	}
+}
@@ -1,13 +1,20 @@
 package org.cytoscape.zugzwang.internal.viewport;
 
 import java.awt.BorderLayout;
+import java.awt.BasicStroke;
+import java.awt.Color;
 import java.awt.Container;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.JInternalFrame;
@@ -46,6 +53,10 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 	// Panel that presents GL's frame buffer
 	private GLJPanel panel;
 	
+	// Coalesces redraw requests into at most one frame per interval
+	private FrameScheduler scheduler;
+	private static final int TARGET_FPS = 60;
+	
 	// Camera object that is controlled by user actions in this viewport
 	// and that determines the viewport's view and projection matrices
 	private Camera camera;
@@ -62,6 +73,10 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		public static int SELECT = 3;
 	}
 	private int mouseState = MouseStates.IDLE;
+	
+	// Outline of the selection region being dragged out, in raw pixels; null if there is none
+	private volatile List<Vector2> selectionPath;
+	private boolean selectionLasso;
 
 	public Viewport(JComponent container)
 	{
@@ -73,13 +88,25 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		capabilities.setHardwareAccelerated(true);
 		capabilities.setDoubleBuffered(true);
 		
-		panel = new GLJPanel(capabilities);
+		panel = new GLJPanel(capabilities)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void paintComponent(Graphics g)
+			{
+				super.paintComponent(g);
+				paintSelection((Graphics2D)g);
+			}
+		};
 		panel.setIgnoreRepaint(true);
 		panel.addGLEventListener(this);		
 		panel.addMouseListener(this);
 		panel.addMouseMotionListener(this);
 		panel.addMouseWheelListener(this);
 		
+		scheduler = new FrameScheduler(panel, TARGET_FPS);
+		
 		camera = new Camera(this);
 		
 		if (container instanceof JInternalFrame) 
@@ -116,6 +143,16 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		return panel;
 	}
 	
+	/**
+	 * Gets the scheduler that decides when frames are drawn
+	 * 
+	 * @return Frame scheduler
+	 */
+	public FrameScheduler getScheduler()
+	{
+		return scheduler;
+	}
+	
 	/**
 	 * Gets the camera managed by this viewport
 	 * 
@@ -166,6 +203,8 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 	{ 
 		long timeStart = System.nanoTime();
 		
+		scheduler.beginFrame();	// This frame takes care of everything invalidated so far
+		
 		gl = drawable.getGL().getGL4();
 		
 		gl.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
@@ -202,11 +241,22 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 	}
 	
 	/**
-	 * Forces the viewport to redraw its contents.
+	 * Requests the viewport to redraw its contents 
+	 * because visual properties or primitives changed.
 	 */
 	public void redraw()
 	{
-		panel.repaint();
+		scheduler.invalidate(FrameScheduler.PRIMITIVES);
+	}
+	
+	/**
+	 * Requests the viewport to redraw its contents.
+	 * 
+	 * @param reasons Combination of FrameScheduler.CAMERA, PRIMITIVES and TEXTURES
+	 */
+	public void redraw(int reasons)
+	{
+		scheduler.invalidate(reasons);
 	}
 
 	/**
@@ -216,6 +266,7 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 	@Override
 	public void dispose(GLAutoDrawable drawable) 
 	{ 
+		scheduler.dispose();
 		invokeViewportDisposeEvent(drawable);
 	}
 	
@@ -225,7 +276,7 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 	public void mouseClicked(MouseEvent e)
 	{
 		ViewportMouseEvent event = new ViewportMouseEvent(e, new Vector2(), scaleDPI, camera);
-		invokeViewportMouseDownEvent(event);
+		invokeViewportMouseClickEvent(event);
 		if (event.handled)
 			return;
 	}
@@ -265,6 +316,15 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 			else
 				mouseState = MouseStates.PAN;
 		}
+		else if (e.getButton() == MouseEvent.BUTTON1)
+		{
+			// Alt drags a lasso, otherwise a rectangle is spanned from here to the cursor
+			mouseState = MouseStates.SELECT;
+			selectionLasso = event.keyAlt;
+			List<Vector2> path = new ArrayList<>();
+			path.add(new Vector2(e.getX(), e.getY()));
+			selectionPath = path;
+		}
 	}
 
 	@Override
@@ -277,12 +337,19 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		
 		if (mouseState == MouseStates.SELECT)
 		{
-			// Selection handling
-		}
-		else
-		{
-			mouseState = MouseStates.IDLE;
+			List<Vector2> path = selectionPath;
+			selectionPath = null;
+			scheduler.invalidate(FrameScheduler.OVERLAY);
+			
+			if (path != null)
+			{
+				if (!selectionLasso)
+					path = rectangleCorners(path);
+				invokeViewportMouseSelectEvent(new ViewportSelectionEvent(path.toArray(new Vector2[path.size()]), selectionLasso, event.keyShift));
+			}
 		}
+		
+		mouseState = MouseStates.IDLE;
 	}
 
 	/**
@@ -308,14 +375,32 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		}
 		
 		ViewportMouseEvent event = new ViewportMouseEvent(e, diff, scaleDPI, camera);
-		invokeViewportMouseMoveEvent(event);
+		invokeViewportMouseDragEvent(event);
 		if (event.handled)
 			return;
 		
-		if (mouseState == MouseStates.PAN)
+		if (mouseState == MouseStates.SELECT && selectionPath != null)
+		{
+			List<Vector2> path = new ArrayList<>(selectionPath);
+			Vector2 position = new Vector2(e.getX(), e.getY());
+			if (!selectionLasso)
+			{
+				// Start and current corner are all a rectangle needs
+				if (path.size() > 1)
+					path.remove(path.size() - 1);
+				path.add(position);
+			}
+			else if (Vector2.subtract(position, path.get(path.size() - 1)).length() >= 2.0f)
+			{
+				path.add(position);
+			}
+			selectionPath = path;	// Replaced rather than altered, as it is painted concurrently
+			scheduler.invalidate(FrameScheduler.OVERLAY);
+		}
+		else if (mouseState == MouseStates.PAN)
 		{
 			camera.panByPixels(new Vector2(-diff.x, -diff.y));
-			panel.repaint();
+			scheduler.invalidate(FrameScheduler.CAMERA);
 		}
 		else if (mouseState == MouseStates.ROTATE)
 		{
@@ -325,7 +410,7 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
             angles.x = -angles.x;
             
 			camera.orbitBy(angles);
-			panel.repaint();
+			scheduler.invalidate(FrameScheduler.CAMERA);
 		}
 	}
 
@@ -346,7 +431,7 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		}
 		
 		ViewportMouseEvent event = new ViewportMouseEvent(e, diff, scaleDPI, camera);
-		invokeViewportMouseDragEvent(event);
+		invokeViewportMouseMoveEvent(event);
 		if (event.handled)
 			return;
 	}
@@ -389,7 +474,58 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		Vector2 correctionOffset = new Vector2(newPositionScreen.x - oldPositionScreen.x, newPositionScreen.y - oldPositionScreen.y);
 		camera.panByPixels(correctionOffset);
 		
-		panel.repaint();
+		scheduler.invalidate(FrameScheduler.CAMERA);
+	}
+	
+	/**
+	 * Reduces a dragged path to the two opposite corners of a rectangle.
+	 * 
+	 * @param path Dragged path, starting at the first corner
+	 * @return First and last point of the path
+	 */
+	private static List<Vector2> rectangleCorners(List<Vector2> path)
+	{
+		List<Vector2> corners = new ArrayList<>(2);
+		corners.add(path.get(0));
+		corners.add(path.get(path.size() - 1));
+		
+		return corners;
+	}
+	
+	/**
+	 * Draws the outline of the selection region being dragged out
+	 * on top of the rendered image.
+	 * 
+	 * @param g Graphics context of the panel
+	 */
+	private void paintSelection(Graphics2D g)
+	{
+		List<Vector2> path = selectionPath;
+		if (path == null || path.size() < 2)
+			return;
+		
+		Path2D.Float outline = new Path2D.Float();
+		if (selectionLasso)
+		{
+			outline.moveTo(path.get(0).x, path.get(0).y);
+			for (int i = 1; i < path.size(); i++)
+				outline.lineTo(path.get(i).x, path.get(i).y);
+		}
+		else
+		{
+			Vector2 a = path.get(0), b = path.get(path.size() - 1);
+			outline.moveTo(a.x, a.y);
+			outline.lineTo(b.x, a.y);
+			outline.lineTo(b.x, b.y);
+			outline.lineTo(a.x, b.y);
+		}
+		outline.closePath();
+		
+		g.setColor(new Color(0, 0, 255, 40));
+		g.fill(outline);
+		g.setColor(new Color(0, 0, 255, 160));
+		g.setStroke(new BasicStroke(1.0f));
+		g.draw(outline);
 	}
 	
 	// General events:
@@ -446,6 +582,12 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 			listener.viewportMouseDown(e);
 	}
 	
+	private void invokeViewportMouseClickEvent(ViewportMouseEvent e)
+	{
+		for (ViewportMouseEventListener listener : viewportMouseEventListeners)
+			listener.viewportMouseClick(e);
+	}
+	
 	private void invokeViewportMouseEnterEvent(ViewportMouseEvent e)
 	{
 		for (ViewportMouseEventListener listener : viewportMouseEventListeners)
@@ -481,4 +623,10 @@ public class Viewport implements GLEventListener, MouseListener, MouseMotionList
 		for (ViewportMouseEventListener listener : viewportMouseEventListeners)
 			listener.viewportMouseScroll(e);
 	}
+	
+	private void invokeViewportMouseSelectEvent(ViewportSelectionEvent e)
+	{
+		for (ViewportMouseEventListener listener : viewportMouseEventListeners)
+			listener.viewportMouseSelect(e);
+	}
 }
\ No newline at end of file
@@ -44,4 +44,9 @@ public interface ViewportMouseEventListener
 	 * Mouse wheel scrolled.
 	 */
 	public void viewportMouseScroll(ViewportMouseEvent e);
+	
+	/**
+	 * Selection region dragged out, or clicked, with the left button.
+	 */
+	public void viewportMouseSelect(ViewportSelectionEvent e);
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package org.cytoscape.zugzwang.internal.viewport;
+
+import org.cytoscape.zugzwang.internal.algebra.Vector2;
+
+/**
+ * Event raised when the user has dragged out a selection region in a viewport,
+ * or clicked to select whatever is under the cursor.
+ */
+public class ViewportSelectionEvent
+{
+	public final Vector2[] path;	// Region outline in raw pixels: two opposite corners for a rectangle, polygon vertices for a lasso
+	public final boolean lasso;		// Path is a polygon rather than a rectangle
+	public final boolean additive;	// Selection is added to the existing one instead of replacing it
+
+	public boolean handled = false;	// Indicates that the event was handled by one of the subscribers
+
+	public ViewportSelectionEvent (Vector2[] path, boolean lasso, boolean additive)
+	{
+		this.path = path;
+		this.lasso = lasso;
+		this.additive = additive;
+	}
+
+	/**
+	 * Checks if the mouse barely moved while the button was down,
+	 * i. e. the event describes a click rather than a region.
+	 *
+	 * @return True if the region is too small to be meant as one
+	 */
+	public boolean isClick()
+	{
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (Vector2 p : path)
+		{
+			minX = Math.min(minX, p.x);
+			minY = Math.min(minY, p.y);
+			maxX = Math.max(maxX, p.x);
+			maxY = Math.max(maxY, p.y);
+		}
+
+		return maxX - minX < 3.0f && maxY - minY < 3.0f;
+	}
+}
\ No newline at end of file
@@ -1,10 +1,14 @@
 #version 450
 //#extension GL_ARB_bindless_texture : require
 
+// Color of lines flagged with ZZLineManager.FLAG_HIGHLIGHT
+uniform vec4 highlightColor;
+
 in GS_OUT
 {
 	vec2 texCoords;
 	flat int texID;
+	flat int flags;
 } fs_in;
 
 out vec4 color;
@@ -14,6 +18,8 @@ void main(void)
 	//sampler2D s = sampler2D(fs_in.texID);
 	//float bla = float(handle[0]) / 255.0f;
 	color = vec4(0.0f, 0.0f, 0.0f, 1.0f);
+	if ((fs_in.flags & 1) != 0)
+		color = highlightColor;
 	//color = vec4(float(texID), 1.0f, 1.0f, 1.0f);
 	
 	//color = texture(handle[fs_in.texID], fs_in.texCoords);
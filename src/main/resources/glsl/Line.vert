@@ -3,21 +3,25 @@
 
 uniform mat4 viewMatrix;
 
-layout (location = 0) in vec3 in_position;
-layout (location = 1) in uvec3 in_sizes;
-//layout (location = 2) in uint in_texID;
+layout (location = 0) in vec3 in_source;
+layout (location = 1) in vec3 in_target;
+// Width, texture size and flags
+layout (location = 2) in uvec4 in_sizes;
+//layout (location = 3) in uint in_texID;
 // ADD FLAT QUALIFIER TO TEXTUREID!
 
 out VS_OUT
 {
-	uvec3 sizes;
+	vec4 target;
+	uvec4 sizes;
 	flat int texID;
 } vs_out;
 
 void main(void)
 {
 	vs_out.sizes = in_sizes;
-	vs_out.texID = gl_VertexID / 2;
-	vec4 transformed = viewMatrix * vec4(in_position, 1.0f);
+	vs_out.texID = gl_VertexID;
+	vs_out.target = viewMatrix * vec4(in_target, 1.0f);
+	vec4 transformed = viewMatrix * vec4(in_source, 1.0f);
 	gl_Position = transformed;
 }
\ No newline at end of file
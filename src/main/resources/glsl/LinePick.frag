@@ -0,0 +1,18 @@
+#version 450
+
+// Identifies the manager being drawn, 0 is left for the background
+uniform uint pickKind;
+
+in GS_OUT
+{
+	vec2 texCoords;
+	flat int texID;
+	flat int flags;
+} fs_in;
+
+layout (location = 0) out uvec2 pick;
+
+void main(void)
+{
+	pick = uvec2(pickKind, uint(fs_in.texID));
+}
\ No newline at end of file
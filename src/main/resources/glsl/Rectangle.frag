@@ -1,19 +1,27 @@
 #version 440
-#extension GL_ARB_bindless_texture : require
 
-layout (std140, binding = 0) buffer Samplers
-{
-	sampler2D handle[];
-};
+// Tint of rectangles flagged with ZZRectangleManager.FLAG_HIGHLIGHT, alpha is its strength
+uniform vec4 highlightColor;
 
 in GS_OUT
 {
 	vec2 texCoords;
+	vec2 local;
 	flat int texID;
+	flat int flags;
+	flat ivec3 shape;
+	flat vec2 halfSize;
 } fs_in;
 
 out vec4 color;
 
+// Defined in Shape.frag
+vec4 unpackColor(int argb);
+float shapeDistance(vec2 p, vec2 halfSize, int shape);
+
+// Defined in TextureBindless.frag or TextureAtlas.frag
+vec4 sampleTexture(int texID, vec2 texCoords);
+
 void main(void)
 {
 	//sampler2D s = sampler2D(fs_in.texID);
@@ -21,8 +29,30 @@ void main(void)
 	//color = vec4(bla, bla, bla, 1.0f);
 	//color = vec4(float(texID), 1.0f, 1.0f, 1.0f);
 	
-	color = texture(handle[fs_in.texID], fs_in.texCoords).abgr;
-	if (color.a < 0.01f)
-		discard;
+	// Flat sprites carry their RGB color in the upper 24 bits, see ZZRectangleManager.FLAG_FLAT
+	if ((fs_in.flags & 2) != 0)
+	{
+		color = vec4(float((fs_in.flags >> 24) & 255), float((fs_in.flags >> 16) & 255), float((fs_in.flags >> 8) & 255), 255.0f) / 255.0f;
+	}
+	// Procedural shapes, see ZZRectangleManager.FLAG_SHAPE. Border is inside the outline, like in the textures.
+	else if ((fs_in.flags & 4) != 0)
+	{
+		float distance = shapeDistance(fs_in.local, fs_in.halfSize, fs_in.shape.x & 255);
+		float pixel = max(fwidth(distance), 1e-4f);
+		float border = float(fs_in.shape.x >> 16);
+		
+		color = mix(unpackColor(fs_in.shape.z), unpackColor(fs_in.shape.y), clamp(0.5f - (distance + border) / pixel, 0.0f, 1.0f));
+		color.a *= clamp(0.5f - distance / pixel, 0.0f, 1.0f);
+		if (color.a < 0.01f)
+			discard;
+	}
+	else
+	{
+		color = sampleTexture(fs_in.texID, fs_in.texCoords).abgr;
+		if (color.a < 0.01f)
+			discard;
+	}
+	if ((fs_in.flags & 1) != 0)
+		color.rgb = mix(color.rgb, highlightColor.rgb, highlightColor.a);
 	//color = vec4(color.rgb, 1.0f);
 }
\ No newline at end of file
@@ -4,8 +4,12 @@
 uniform mat4 viewMatrix;
 
 layout (location = 0) in vec3 in_position;
+// Sizes and offsets are stored as 16 bit integers and widened on fetch
 layout (location = 1) in ivec4 in_sizes;
 layout (location = 2) in ivec2 in_offset;
+layout (location = 3) in int in_flags;
+// Shape type and border width, fill color, border color, see ZZRectangleManager.FLAG_SHAPE
+layout (location = 4) in ivec3 in_shape;
 // ADD FLAT QUALIFIER TO TEXTUREID!
 
 out VS_OUT
@@ -13,6 +17,8 @@ out VS_OUT
 	ivec4 sizes;
 	ivec2 offset;
 	flat int texID;
+	flat int flags;
+	flat ivec3 shape;
 } vs_out;
 
 void main(void)
@@ -20,6 +26,8 @@ void main(void)
 	vs_out.sizes = in_sizes;
 	vs_out.offset = in_offset;
 	vs_out.texID = gl_VertexID;
+	vs_out.flags = in_flags;
+	vs_out.shape = in_shape;
 	vec4 transformed = viewMatrix * vec4(in_position, 1.0f);
 	//transformed.z -= 1e-2f + 1e-2f * float(gl_VertexID);
 	gl_Position = transformed;
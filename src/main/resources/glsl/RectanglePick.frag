@@ -0,0 +1,40 @@
+#version 440
+
+// Identifies the manager being drawn, 0 is left for the background
+uniform uint pickKind;
+
+in GS_OUT
+{
+	vec2 texCoords;
+	vec2 local;
+	flat int texID;
+	flat int flags;
+	flat ivec3 shape;
+	flat vec2 halfSize;
+} fs_in;
+
+layout (location = 0) out uvec2 pick;
+
+// Defined in Shape.frag
+float shapeDistance(vec2 p, vec2 halfSize, int shape);
+
+// Defined in TextureBindless.frag or TextureAtlas.frag
+vec4 sampleTexture(int texID, vec2 texCoords);
+
+void main(void)
+{
+	// Same tests as Rectangle.frag: flat sprites are opaque, procedural shapes are cut
+	// at their outline, and textures by alpha, which ends up in the red channel
+	if ((fs_in.flags & 2) == 0)
+	{
+		if ((fs_in.flags & 4) != 0)
+		{
+			if (shapeDistance(fs_in.local, fs_in.halfSize, fs_in.shape.x & 255) > 0.0f)
+				discard;
+		}
+		else if (sampleTexture(fs_in.texID, fs_in.texCoords).r < 0.01f)
+			discard;
+	}
+	
+	pick = uvec2(pickKind, uint(fs_in.texID));
+}
\ No newline at end of file
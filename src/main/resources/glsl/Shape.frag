@@ -0,0 +1,95 @@
+#version 440
+
+// Shared by Rectangle.frag and RectanglePick.frag, which declare these functions.
+// Shapes follow RendererNodeShape: coordinates are relative to the node center,
+// with Y pointing down like in Java2D, and distances are in node units.
+
+vec4 unpackColor(int argb)
+{
+	return vec4(float((argb >> 16) & 255), float((argb >> 8) & 255), float(argb & 255), float((argb >> 24) & 255)) / 255.0f;
+}
+
+float boxDistance(vec2 p, vec2 halfSize, float radius)
+{
+	vec2 q = abs(p) - halfSize + radius;
+	return length(max(q, 0.0f)) + min(max(q.x, q.y), 0.0f) - radius;
+}
+
+float ellipseDistance(vec2 p, vec2 halfSize)
+{
+	// First order approximation, exact on the outline, which is all antialiasing needs
+	float k0 = length(p / halfSize);
+	float k1 = length(p / (halfSize * halfSize));
+	if (k1 < 1e-6f)
+		return -min(halfSize.x, halfSize.y);
+	
+	return k0 * (k0 - 1.0f) / k1;
+}
+
+float polygonDistance(vec2 p, vec2 v[8], int n)
+{
+	float d = dot(p - v[0], p - v[0]);
+	float s = 1.0f;
+	for (int i = 0, j = n - 1; i < n; j = i, i++)
+	{
+		vec2 e = v[j] - v[i];
+		vec2 w = p - v[i];
+		vec2 b = w - e * clamp(dot(w, e) / dot(e, e), 0.0f, 1.0f);
+		d = min(d, dot(b, b));
+		
+		// Winding test, so concave shapes like the vee work too
+		bvec3 c = bvec3(p.y >= v[i].y, p.y < v[j].y, e.x * w.y > e.y * w.x);
+		if (all(c) || all(not(c)))
+			s = -s;
+	}
+	
+	return s * sqrt(d);
+}
+
+float shapeDistance(vec2 p, vec2 halfSize, int shape)
+{
+	// Polygon vertices within the unit square, scaled to the node afterwards
+	vec2 v[8];
+	int n;
+	
+	switch (shape)
+	{
+		case 1:		// SHAPE_DIAMOND
+			v[0] = vec2(0.0f, -1.0f); v[1] = vec2(1.0f, 0.0f); v[2] = vec2(0.0f, 1.0f); v[3] = vec2(-1.0f, 0.0f);
+			n = 4;
+			break;
+		case 2:		// SHAPE_ELLIPSE
+			return ellipseDistance(p, halfSize);
+		case 3:		// SHAPE_HEXAGON
+			v[0] = vec2(1.0f, 0.0f); v[1] = vec2(0.5f, 0.8660254f); v[2] = vec2(-0.5f, 0.8660254f);
+			v[3] = vec2(-1.0f, 0.0f); v[4] = vec2(-0.5f, -0.8660254f); v[5] = vec2(0.5f, -0.8660254f);
+			n = 6;
+			break;
+		case 4:		// SHAPE_OCTAGON
+			v[0] = vec2(1.0f, 0.41421356f); v[1] = vec2(0.41421356f, 1.0f); v[2] = vec2(-0.41421356f, 1.0f); v[3] = vec2(-1.0f, 0.41421356f);
+			v[4] = vec2(-1.0f, -0.41421356f); v[5] = vec2(-0.41421356f, -1.0f); v[6] = vec2(0.41421356f, -1.0f); v[7] = vec2(1.0f, -0.41421356f);
+			n = 8;
+			break;
+		case 5:		// SHAPE_PARALLELOGRAM
+			v[0] = vec2(-1.0f, -1.0f); v[1] = vec2(1.0f / 3.0f, -1.0f); v[2] = vec2(1.0f, 1.0f); v[3] = vec2(-1.0f / 3.0f, 1.0f);
+			n = 4;
+			break;
+		case 6:		// SHAPE_ROUNDED_RECTANGLE, arc diameter is a quarter of the smaller side
+			return boxDistance(p, halfSize, min(halfSize.x, halfSize.y) * 0.25f);
+		case 7:		// SHAPE_TRIANGLE
+			v[0] = vec2(0.0f, -1.0f); v[1] = vec2(1.0f, 1.0f); v[2] = vec2(-1.0f, 1.0f);
+			n = 3;
+			break;
+		case 8:		// SHAPE_VEE
+			v[0] = vec2(-1.0f, -1.0f); v[1] = vec2(0.0f, -1.0f / 3.0f); v[2] = vec2(1.0f, -1.0f); v[3] = vec2(0.0f, 1.0f);
+			n = 4;
+			break;
+		default:	// SHAPE_RECTANGLE
+			return boxDistance(p, halfSize, 0.0f);
+	}
+	
+	for (int i = 0; i < n; i++)
+		v[i] *= halfSize;
+	
+	return polygonDistance(p, v, n);
+}
\ No newline at end of file
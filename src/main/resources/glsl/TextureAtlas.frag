@@ -0,0 +1,30 @@
+#version 440
+
+// Texture lookup in a ZZTextureAtlas, for drivers without bindless textures. Linked into
+// the programs of Rectangle.frag and RectanglePick.frag instead of TextureBindless.frag.
+
+// Per rectangle, the index of its region in the atlas in the first component, see ZZTextureAtlas
+layout (std140, binding = 0) buffer Samplers
+{
+	uvec4 regionIndex[];
+};
+
+// Per region: X and Y, width and height as 16 bit pairs, then the page
+layout (std430, binding = 1) readonly buffer Regions
+{
+	uvec4 region[];
+};
+
+uniform sampler2DArray atlas;
+
+vec4 sampleTexture(int texID, vec2 texCoords)
+{
+	uvec4 r = region[regionIndex[texID].x];
+	vec2 origin = vec2(float(r.x & 0xFFFFu), float(r.x >> 16));
+	vec2 size = vec2(float(r.y & 0xFFFFu), float(r.y >> 16));
+	
+	// Texture coordinates stay half a texel inside the rectangle, so filtering never reaches neighboring regions
+	vec2 t = clamp(texCoords * size, vec2(0.5), size - vec2(0.5));
+	vec2 uv = (origin + t) / vec2(textureSize(atlas, 0).xy);
+	return texture(atlas, vec3(uv, float(r.z)));
+}
\ No newline at end of file
@@ -0,0 +1,16 @@
+#version 440
+#extension GL_ARB_bindless_texture : require
+
+// Texture lookup with bindless textures. Linked into the programs of Rectangle.frag
+// and RectanglePick.frag, which declare sampleTexture, unless an atlas is used.
+
+// Per rectangle, the handle of its own texture, see ZZBindlessTexture
+layout (std140, binding = 0) buffer Samplers
+{
+	sampler2D handle[];
+};
+
+vec4 sampleTexture(int texID, vec2 texCoords)
+{
+	return texture(handle[texID], texCoords);
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package org.cytoscape.zugzwang.internal.rendering;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Toggles the visibility of half of the nodes in a loop, the way filtering
+ * does, and checks that the capacity ZZCapacityTracker asks for under the
+ * hysteresis of ZZCapacityPolicy doesn't oscillate.
+ */
+public class ZZCapacityTrackerTest
+{
+	private static final int NODES = 1000;
+	private static final int IDLE_FRAMES = 60;
+	private static final int MIN_CAPACITY = 10;
+
+	/**
+	 * Drives a ZZCapacityTracker the way primitive managers do: reporting
+	 * creations, deletions and frames, and resizing to whatever it returns,
+	 * with IDs recycled through an index stack. There are no device buffers.
+	 */
+	private static class SimulatedManager
+	{
+		private final ZZCapacityTracker tracker;
+		private final ZZIndexStack vacantIDs = new ZZIndexStack(16);
+		private final List<Boolean> usedIDs = new ArrayList<>();
+
+		int capacity;
+		int resizes = 0;
+
+		// Resizes since the last creation or deletion
+		int resizesInIdleWindow = 0;
+
+		SimulatedManager(ZZCapacityPolicy policy, int initialCapacity)
+		{
+			this.tracker = new ZZCapacityTracker(initialCapacity);
+			this.tracker.setPolicy(policy);
+			this.capacity = initialCapacity;
+		}
+
+		int create()
+		{
+			resize(tracker.add());
+			assertEquals("Idle frames not reset by a creation", 0, tracker.getFramesIdle());
+			resizesInIdleWindow = 0;
+
+			if (vacantIDs.isEmpty())
+			{
+				vacantIDs.push(usedIDs.size());
+				usedIDs.add(false);
+			}
+			int id = vacantIDs.pop();
+			assertFalse("ID " + id + " handed out twice", usedIDs.get(id));
+			usedIDs.set(id, true);
+
+			return id;
+		}
+
+		void delete(int id)
+		{
+			assertTrue("ID " + id + " deleted twice", usedIDs.get(id));
+			usedIDs.set(id, false);
+			vacantIDs.push(id);
+
+			tracker.remove();
+			assertEquals("Idle frames not reset by a deletion", 0, tracker.getFramesIdle());
+			resizesInIdleWindow = 0;
+		}
+
+		void flush()
+		{
+			if (resize(tracker.endFrame()))
+			{
+				resizesInIdleWindow++;
+				assertTrue("Capacity changed more than once in an idle window", resizesInIdleWindow <= 1);
+			}
+		}
+
+		int elements()
+		{
+			return tracker.size();
+		}
+
+		private boolean resize(int newCapacity)
+		{
+			assertEquals(tracker.capacity(), newCapacity);
+			if (newCapacity == capacity)
+				return false;
+
+			assertTrue("Capacity " + newCapacity + " can't hold " + elements() + " elements", newCapacity >= elements());
+			assertTrue("Capacity " + newCapacity + " is below the minimum", newCapacity >= MIN_CAPACITY);
+			capacity = newCapacity;
+			resizes++;
+			return true;
+		}
+	}
+
+	private static SimulatedManager createManager()
+	{
+		return new SimulatedManager(new ZZCapacityPolicy(1.5f, 0.25f, IDLE_FRAMES, MIN_CAPACITY), NODES);
+	}
+
+	private static List<Integer> createAll(SimulatedManager manager, int count)
+	{
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			ids.add(manager.create());
+		manager.flush();
+
+		return ids;
+	}
+
+	/**
+	 * Hides a number of nodes, lets some frames pass, and shows them again.
+	 */
+	private static void toggle(SimulatedManager manager, List<Integer> ids, int hidden, int framesBetween)
+	{
+		for (int i = 0; i < hidden; i++)
+			manager.delete(ids.get(i));
+		for (int f = 0; f < framesBetween; f++)
+			manager.flush();
+
+		for (int i = 0; i < hidden; i++)
+			ids.set(i, manager.create());
+		for (int f = 0; f < framesBetween; f++)
+			manager.flush();
+	}
+
+	@Test
+	public void togglingHalfTheNodesNeverResizes()
+	{
+		SimulatedManager manager = createManager();
+		List<Integer> ids = createAll(manager, NODES);
+		assertEquals(0, manager.resizes);
+
+		for (int cycle = 0; cycle < 500; cycle++)
+			toggle(manager, ids, NODES / 2, cycle % (IDLE_FRAMES * 2));
+
+		assertEquals(0, manager.resizes);
+		assertEquals(NODES, manager.capacity);
+		assertEquals(NODES, manager.elements());
+	}
+
+	@Test
+	public void togglingAroundTheOldHalfCapacityBoundaryNeverResizes()
+	{
+		SimulatedManager manager = createManager();
+		List<Integer> ids = createAll(manager, NODES);
+
+		// The old policy shrank as soon as fewer than half of the slots were in use
+		for (int cycle = 0; cycle < 500; cycle++)
+			toggle(manager, ids, NODES / 2 + (cycle % 3) - 1, 1 + cycle % 5);
+
+		assertEquals(0, manager.resizes);
+	}
+
+	@Test
+	public void shrinksOnceWhenIdleAndNeverBelowMinimum()
+	{
+		SimulatedManager manager = createManager();
+		List<Integer> ids = createAll(manager, NODES);
+
+		for (int cycle = 0; cycle < 50; cycle++)
+		{
+			// Hide all but a handful, well below the shrink threshold
+			int hidden = NODES - (cycle % 7);
+			for (int i = 0; i < hidden; i++)
+				manager.delete(ids.get(i));
+
+			int resizesBefore = manager.resizes;
+			for (int f = 0; f < IDLE_FRAMES * 3; f++)
+			{
+				manager.flush();
+				if (f < IDLE_FRAMES)
+					assertEquals("Shrank before the idle window was over", resizesBefore, manager.resizes);
+				else if (f == IDLE_FRAMES)
+					assertEquals("Didn't shrink when the idle window was over", resizesBefore + 1, manager.resizes);
+			}
+			assertEquals(resizesBefore + 1, manager.resizes);
+			assertEquals(MIN_CAPACITY, manager.capacity);
+
+			for (int i = 0; i < hidden; i++)
+				ids.set(i, manager.create());
+			manager.flush();
+			assertTrue(manager.capacity >= NODES);
+		}
+	}
+}
\ No newline at end of file